@@ -0,0 +1,456 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Append-only log of the writes to a store, replayed into the store at
+ * startup so its contents survive a restart.
+ *
+ * The log starts with the MAGIC and VERSION bytes of the binary protocol
+ * and every record is a request frame of the binary protocol: SET, DELETE,
+ * MSET, MDELETE, PERSIST or SETEXAT, which carries the time the key expires
+ * at instead of its time to live so a replay does not extend it. Records
+ * are appended to an in-memory buffer and a single writer thread moves the
+ * buffer to the file, so the writes of many clients
+ * share one write and one fsync (group commit). When the file is synced
+ * depends on the fsync policy:
+ *
+ * ALWAYS waits for the fsync covering a record before the write returns,
+ * INTERVAL syncs every fsyncIntervalMillis and may lose that much on a
+ * crash, and OS leaves it to the operating system.
+ */
+public class AppendOnlyLog {
+    private volatile File file;
+    private final FileChannel channel;
+    private final String fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final Object bufferLock = new Object();
+    private final Thread writer;
+    private RecordBuffer buffer = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private long appendedOffset;
+    private long writtenOffset;
+    private long syncedOffset;
+    private long lastSync;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Wait for the fsync covering a record before the write returns.
+     */
+    public static final String ALWAYS = "always";
+
+    /**
+     * Sync the log every fsyncIntervalMillis.
+     */
+    public static final String INTERVAL = "interval";
+
+    /**
+     * Never sync the log explicitly.
+     */
+    public static final String OS = "os";
+
+    /**
+     * Appenders wait while this many bytes are waiting for the writer.
+     */
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Opens the log at the given file for appending, creating it if it
+     * does not exist. Replay the log before opening it for appending.
+     *
+     * @param file log file
+     * @param fsyncPolicy ALWAYS, INTERVAL or OS
+     * @param fsyncIntervalMillis time between two syncs with INTERVAL
+     * @throws IOException if the file cannot be opened
+     */
+    public AppendOnlyLog(File file, String fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        if (!ALWAYS.equals(fsyncPolicy) && !INTERVAL.equals(fsyncPolicy) && !OS.equals(fsyncPolicy)) {
+            throw new IllegalArgumentException("Unknown fsync policy " + fsyncPolicy);
+        }
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.wrap(new byte[]{BinaryProtocol.MAGIC, BinaryProtocol.VERSION}));
+            channel.force(true);
+        }
+        channel.position(channel.size());
+        appendedOffset = channel.size();
+        writtenOffset = appendedOffset;
+        syncedOffset = appendedOffset;
+        lastSync = System.currentTimeMillis();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "flixDB-append-only-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Append a write to the log. Must be called in the order the writes
+     * are applied to the store, at least for writes to the same key.
+     *
+     * @param request SET, DELETE, MSET, MDELETE, PERSIST or SETEXAT request
+     *                to log
+     * @return offset the log has to be durable up to for the record
+     */
+    public long append(DBRequest request) {
+        synchronized (bufferLock) {
+            while (buffer.size() > MAX_BUFFERED_BYTES && failure == null && !closed) {
+                waitOnBuffer();
+            }
+            checkUsable();
+            int before = buffer.size();
+            try {
+                BinaryProtocol.writeRequest(buffer, request);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            appendedOffset += buffer.size() - before;
+            bufferLock.notifyAll();
+            return appendedOffset;
+        }
+    }
+
+    /**
+     * Wait until the record ending at the given offset is as durable as the
+     * fsync policy promises: synced with ALWAYS, and immediately otherwise.
+     *
+     * @param offset offset returned by append
+     */
+    public void awaitDurable(long offset) {
+        if (!ALWAYS.equals(fsyncPolicy)) {
+            return;
+        }
+        synchronized (bufferLock) {
+            while (syncedOffset < offset && failure == null) {
+                waitOnBuffer();
+            }
+            if (syncedOffset < offset) {
+                checkUsable();
+            }
+        }
+    }
+
+    /**
+     * Write out and sync everything appended so far and stop the writer.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void close() throws IOException {
+        synchronized (bufferLock) {
+            closed = true;
+            bufferLock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Return the current size of the log file, including records not
+     * written out yet.
+     *
+     * @return size of the log in bytes
+     */
+    public long size() {
+        synchronized (bufferLock) {
+            return appendedOffset;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    /**
+     * Rename the log file while the log stays open for appending.
+     *
+     * @param target new path of the log, replaced if it exists
+     * @throws IOException if the file cannot be renamed
+     */
+    public void moveTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        file = target;
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Append-only log " + file + " failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Append-only log " + file + " is closed");
+        }
+    }
+
+    private void waitOnBuffer() {
+        try {
+            bufferLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the append-only log", e);
+        }
+    }
+
+    /**
+     * Writer thread: swap the filled buffer for the empty one, write it out
+     * and sync according to the policy, then wake the waiting appenders.
+     */
+    private void writeLoop() {
+        while (true) {
+            RecordBuffer toWrite;
+            long endOffset;
+            boolean done;
+            synchronized (bufferLock) {
+                while (buffer.size() == 0 && !closed && !syncDue()) {
+                    try {
+                        bufferLock.wait(INTERVAL.equals(fsyncPolicy) ? fsyncIntervalMillis : 0);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                toWrite = buffer;
+                buffer = spare;
+                spare = toWrite;
+                endOffset = appendedOffset;
+                done = closed;
+                // Appenders blocked on a full buffer can go on
+                bufferLock.notifyAll();
+            }
+            boolean synced = false;
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(toWrite.array(), 0, toWrite.size());
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                toWrite.reset();
+                writtenOffset = endOffset;
+                if (ALWAYS.equals(fsyncPolicy) || (done && !OS.equals(fsyncPolicy)) || syncDue()) {
+                    channel.force(false);
+                    lastSync = System.currentTimeMillis();
+                    synced = true;
+                }
+            } catch (IOException e) {
+                System.out.println("Append-only log " + file + " failed: " + e);
+                synchronized (bufferLock) {
+                    failure = e;
+                    bufferLock.notifyAll();
+                }
+                return;
+            }
+            if (synced) {
+                synchronized (bufferLock) {
+                    syncedOffset = endOffset;
+                    bufferLock.notifyAll();
+                }
+            }
+            if (done) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check whether an INTERVAL sync of written records is due. Only
+     * called by the writer thread.
+     */
+    private boolean syncDue() {
+        return INTERVAL.equals(fsyncPolicy) && syncedOffset < writtenOffset
+                && System.currentTimeMillis() - lastSync >= fsyncIntervalMillis;
+    }
+
+    /**
+     * Apply every record of the log to the store. A log ending in the
+     * middle of a record, as left by a crash during a write, is truncated
+     * to its last complete record. A record that cannot be decoded is
+     * corruption rather than a torn write, and fails the replay instead of
+     * cutting off the records after it. A record the store refuses, such
+     * as a value too large for a storage engine configured since, is
+     * skipped.
+     *
+     * @param file log file, nothing is replayed if it does not exist
+     * @param dbStore store to apply the records to
+     * @return number of records replayed
+     * @throws IOException if the log cannot be read, is not a log or holds
+     *                     a corrupt record
+     */
+    public static long replay(File file, DBInterface dbStore) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+        long records = 0;
+        long validLength;
+        CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.read() != (BinaryProtocol.MAGIC & 0xff) || in.read() != BinaryProtocol.VERSION) {
+                throw new IOException(file + " is not a FlixDB append-only log");
+            }
+            validLength = 2;
+            while (true) {
+                DBRequest request;
+                try {
+                    request = BinaryProtocol.readRequest(in);
+                } catch (EOFException e) {
+                    break;
+                } catch (ProtocolException e) {
+                    throw corrupt(file, validLength, e);
+                } catch (InvalidRequestException e) {
+                    throw corrupt(file, validLength, e);
+                }
+                if (request == null) {
+                    break;
+                }
+                try {
+                    apply(dbStore, request);
+                    records++;
+                } catch (RuntimeException e) {
+                    System.out.println("Skipping the " + request.getRequestType() + " at offset " + validLength
+                            + " of append-only log " + file + ", refused by the store: " + e.getMessage());
+                }
+                validLength = in.count;
+            }
+        } finally {
+            in.close();
+        }
+        if (validLength < file.length()) {
+            System.out.println("Append-only log " + file + " ends with an incomplete record. Truncating it from "
+                    + file.length() + " to " + validLength + " bytes");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        return records;
+    }
+
+    private static IOException corrupt(File file, long offset, Exception cause) {
+        return new IOException("Append-only log " + file + " holds a corrupt record at offset " + offset
+                + ": " + cause.getMessage() + ". Repair or remove the log to start", cause);
+    }
+
+    /**
+     * Apply a logged write to the store, as replicas also do with the
+     * writes fed to them by their primary.
+     *
+     * @param dbStore store to apply the write to
+     * @param request SET, DELETE, MSET, MDELETE, PERSIST or SETEXAT request
+     */
+    static void apply(DBInterface dbStore, DBRequest request) {
+        switch (request.getRequestType()) {
+            case Constants.SET:
+                dbStore.set(request.getItem().getKey(), request.getItem().getValue());
+                break;
+            case Constants.DELETE:
+                try {
+                    dbStore.delete(request.getItem().getKey());
+                } catch (ItemNotFoundException ignored) {
+                }
+                break;
+            case Constants.SETEXAT:
+                // Deletes the key instead if it has expired since
+                dbStore.setAll(new DBItem[]{request.getItem()});
+                break;
+            case Constants.PERSIST:
+                try {
+                    dbStore.persist(request.getItem().getKey());
+                } catch (ItemNotFoundException ignored) {
+                }
+                break;
+            case Constants.MSET:
+                dbStore.setAll(request.getItems());
+                break;
+            case Constants.MDELETE:
+                String[] keys = new String[request.getItems().length];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = request.getItems()[i].getKey();
+                }
+                dbStore.deleteAll(keys);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Growable buffer of encoded records exposing its backing array.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Stream counting the bytes read from the file, to find where the last
+     * complete record ends.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
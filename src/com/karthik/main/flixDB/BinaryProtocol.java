@@ -0,0 +1,553 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary wire protocol between the FlixDB client and server.
+ *
+ * A connection starts with the client sending MAGIC and VERSION. After that
+ * every message is a frame: a varint length followed by that many bytes.
+ * A request frame is an opcode byte followed by the strings of the request.
+ * Batch requests carry a varint item count after the opcode and then the
+ * key, and for MSET the value, of every item. A SCAN request carries the
+ * cursor as 8 bytes, a varint count and the key prefix. SETEX carries the
+ * key, the value and the time to live in milliseconds as 8 bytes, and
+ * SETEXAT, only found in the append-only log, the expiry time instead.
+ * SYNC, only spoken between a replica and its primary, is laid out like
+ * SCAN with the replication offset as the cursor and the replication id as
+ * the prefix. TRACK, UNTRACK and INVALIDATE, only spoken on the
+ * invalidation port, are laid out like MDELETE.
+ * A response frame is a status byte, a varint item count and the key and
+ * value string of every item. SCAN responses with more chunks to come use
+ * the STATUS_OK_CURSOR status, followed by the 8 byte cursor. Strings are
+ * a varint of their UTF-8 length plus one followed by the UTF-8 bytes,
+ * where a zero length stands for null. Values are strings of raw bytes,
+ * passed through without being decoded.
+ *
+ * A GET for a three letter key takes 6 bytes on the wire, where Java
+ * serialization of the same DBRequest takes a few hundred.
+ */
+public final class BinaryProtocol {
+    public static final byte MAGIC = (byte) 0xF1;
+    public static final byte VERSION = 1;
+
+    /**
+     * First byte of a Java serialization stream, sent by legacy clients.
+     */
+    public static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+    static final byte OP_GET = 1;
+    static final byte OP_SET = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_STREAM = 4;
+    static final byte OP_MGET = 5;
+    static final byte OP_MSET = 6;
+    static final byte OP_MDELETE = 7;
+    static final byte OP_SCAN = 8;
+    static final byte OP_SETEX = 9;
+    static final byte OP_SETEXAT = 10;
+    static final byte OP_TTL = 11;
+    static final byte OP_PERSIST = 12;
+    static final byte OP_SYNC = 13;
+    static final byte OP_TRACK = 14;
+    static final byte OP_UNTRACK = 15;
+    static final byte OP_INVALIDATE = 16;
+    static final byte OP_PING = 17;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final byte STATUS_OK_CURSOR = 2;
+
+    /**
+     * Frames larger than this are rejected instead of being buffered.
+     */
+    static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Write the connection preamble a client sends before its first request.
+     *
+     * @param out stream to the server
+     * @throws IOException if the stream fails
+     */
+    public static void writePreamble(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    /**
+     * Write a request frame. The stream is not flushed.
+     *
+     * @param out stream to the server
+     * @param request request to send
+     * @throws IOException if the stream fails, a ProtocolException before
+     *         anything is written if the request exceeds MAX_FRAME_SIZE
+     * @throws IllegalArgumentException if the request type is unknown
+     */
+    public static void writeRequest(OutputStream out, DBRequest request) throws IOException {
+        byte opcode = opcodeOf(request.getRequestType());
+        if (opcode == OP_SCAN || opcode == OP_SYNC) {
+            writeScanRequest(out, opcode, request);
+            return;
+        }
+        if (opcode == OP_MGET || opcode == OP_MSET || opcode == OP_MDELETE || opcode == OP_TRACK
+                || opcode == OP_UNTRACK || opcode == OP_INVALIDATE) {
+            writeBatchRequest(out, opcode, request.getItems());
+            return;
+        }
+        boolean withTime = opcode == OP_SETEX || opcode == OP_SETEXAT;
+        boolean withKey = opcode != OP_STREAM && opcode != OP_PING;
+        boolean withValue = opcode == OP_SET || withTime;
+        byte[] key = null;
+        byte[] value = null;
+        if (withKey) {
+            key = encode(request.getItem().getKey());
+        }
+        if (withValue) {
+            value = request.getItem().getValue();
+        }
+        long length = 1;
+        if (withKey) {
+            length += stringLength(key);
+        }
+        if (withValue) {
+            length += stringLength(value);
+        }
+        if (withTime) {
+            length += 8;
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Request of " + length + " bytes exceeds the frame size limit");
+        }
+        writeVarint(out, (int) length);
+        out.write(opcode);
+        if (withKey) {
+            writeString(out, key);
+        }
+        if (withValue) {
+            writeString(out, value);
+        }
+        if (withTime) {
+            writeLong(out, opcode == OP_SETEX ? request.getTtl() : request.getItem().getExpiresAt());
+        }
+    }
+
+    private static void writeScanRequest(OutputStream out, byte opcode, DBRequest request) throws IOException {
+        byte[] prefix = encode(request.getPrefix());
+        writeVarint(out, 1 + 8 + varintLength(request.getCount()) + stringLength(prefix));
+        out.write(opcode);
+        writeLong(out, request.getCursor());
+        writeVarint(out, request.getCount());
+        writeString(out, prefix);
+    }
+
+    private static void writeBatchRequest(OutputStream out, byte opcode, DBItem[] items) throws IOException {
+        boolean withValues = opcode == OP_MSET;
+        byte[][] strings = new byte[withValues ? items.length * 2 : items.length][];
+        long length = 1 + varintLength(items.length);
+        for (int i = 0; i < items.length; i++) {
+            int k = withValues ? 2 * i : i;
+            strings[k] = encode(items[i].getKey());
+            length += stringLength(strings[k]);
+            if (withValues) {
+                strings[k + 1] = items[i].getValue();
+                length += stringLength(strings[k + 1]);
+            }
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Request of " + length + " bytes exceeds the frame size limit");
+        }
+        writeVarint(out, (int) length);
+        out.write(opcode);
+        writeVarint(out, items.length);
+        for (byte[] string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    /**
+     * Read the next request frame.
+     *
+     * @param in stream from the client
+     * @return the request, null if the client closed the connection
+     * @throws InvalidRequestException if the frame is not a valid request
+     * @throws IOException if the stream fails or ends inside a frame
+     */
+    public static DBRequest readRequest(InputStream in) throws IOException, InvalidRequestException {
+        ByteBuffer frame = readFrame(in);
+        return frame == null ? null : decodeRequest(frame);
+    }
+
+    /**
+     * Decode the payload of a request frame.
+     *
+     * @param frame payload of the frame, without the length prefix
+     * @return the request
+     * @throws InvalidRequestException if the frame is not a valid request
+     */
+    public static DBRequest decodeRequest(ByteBuffer frame) throws InvalidRequestException {
+        try {
+            byte opcode = frame.get();
+            switch (opcode) {
+                case OP_GET:
+                    return new DBRequest(Constants.GET, new DBItem(readString(frame)));
+                case OP_SET:
+                    String key = readString(frame);
+                    return new DBRequest(Constants.SET, new DBItem(key, readBytes(frame)));
+                case OP_DELETE:
+                    return new DBRequest(Constants.DELETE, new DBItem(readString(frame)));
+                case OP_STREAM:
+                    return new DBRequest(Constants.STREAM);
+                case OP_MGET:
+                    return new DBRequest(Constants.MGET, readItems(frame, false));
+                case OP_MSET:
+                    return new DBRequest(Constants.MSET, readItems(frame, true));
+                case OP_MDELETE:
+                    return new DBRequest(Constants.MDELETE, readItems(frame, false));
+                case OP_SCAN:
+                    long cursor = frame.getLong();
+                    int count = readVarint(frame);
+                    return new DBRequest(Constants.SCAN, cursor, count, readString(frame));
+                case OP_SETEX:
+                    key = readString(frame);
+                    byte[] value = readBytes(frame);
+                    return new DBRequest(Constants.SETEX, new DBItem(key, value), frame.getLong());
+                case OP_SETEXAT:
+                    key = readString(frame);
+                    value = readBytes(frame);
+                    return new DBRequest(Constants.SETEXAT, new DBItem(key, value, frame.getLong()));
+                case OP_TTL:
+                    return new DBRequest(Constants.TTL, new DBItem(readString(frame)));
+                case OP_PERSIST:
+                    return new DBRequest(Constants.PERSIST, new DBItem(readString(frame)));
+                case OP_SYNC:
+                    cursor = frame.getLong();
+                    count = readVarint(frame);
+                    return new DBRequest(Constants.SYNC, cursor, count, readString(frame));
+                case OP_TRACK:
+                    return new DBRequest(Constants.TRACK, readItems(frame, false));
+                case OP_UNTRACK:
+                    return new DBRequest(Constants.UNTRACK, readItems(frame, false));
+                case OP_INVALIDATE:
+                    return new DBRequest(Constants.INVALIDATE, readItems(frame, false));
+                case OP_PING:
+                    return new DBRequest(Constants.PING);
+                default:
+                    throw new InvalidRequestException("Unknown opcode " + opcode);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new InvalidRequestException("Truncated request frame");
+        }
+    }
+
+    private static DBItem[] readItems(ByteBuffer frame, boolean withValues) {
+        int noOfItems = readVarint(frame);
+        // Every item takes at least one byte, which bounds the allocation
+        if (noOfItems < 0 || noOfItems > frame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        DBItem[] items = new DBItem[noOfItems];
+        for (int i = 0; i < noOfItems; i++) {
+            String key = readString(frame);
+            items[i] = withValues ? new DBItem(key, readBytes(frame)) : new DBItem(key);
+        }
+        return items;
+    }
+
+    /**
+     * Write a response frame. The stream is not flushed.
+     *
+     * @param out stream to the client
+     * @param response response to send
+     * @throws IOException if the stream fails
+     */
+    public static void writeResponse(OutputStream out, DBResponse response) throws IOException {
+        DBItem[] items = response.getItems();
+        int noOfItems = items == null ? 0 : items.length;
+        byte[][] strings = new byte[noOfItems * 2][];
+        long length = 1 + varintLength(noOfItems);
+        for (int i = 0; i < noOfItems; i++) {
+            strings[2 * i] = encode(items[i].getKey());
+            strings[2 * i + 1] = items[i].getValue();
+            length += stringLength(strings[2 * i]) + stringLength(strings[2 * i + 1]);
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Response of " + length + " bytes exceeds the frame size limit");
+        }
+        boolean ok = Constants.OK.equals(response.getResponseStatus());
+        boolean withCursor = ok && response.getCursor() != 0;
+        if (withCursor) {
+            length += 8;
+        }
+        writeVarint(out, (int) length);
+        out.write(withCursor ? STATUS_OK_CURSOR : ok ? STATUS_OK : STATUS_ERROR);
+        if (withCursor) {
+            writeLong(out, response.getCursor());
+        }
+        writeVarint(out, noOfItems);
+        for (byte[] string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    /**
+     * Read the next response frame.
+     *
+     * @param in stream from the server
+     * @return the response
+     * @throws IOException if the stream fails, ends or the frame is invalid
+     */
+    public static DBResponse readResponse(InputStream in) throws IOException {
+        ByteBuffer frame = readFrame(in);
+        if (frame == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        return decodeResponse(frame);
+    }
+
+    /**
+     * Decode the payload of a response frame.
+     *
+     * @param frame payload of the frame, without the length prefix
+     * @return the response
+     * @throws ProtocolException if the frame is not a valid response
+     */
+    public static DBResponse decodeResponse(ByteBuffer frame) throws ProtocolException {
+        try {
+            byte statusByte = frame.get();
+            String status = statusByte == STATUS_OK || statusByte == STATUS_OK_CURSOR
+                    ? Constants.OK : Constants.ERROR;
+            long cursor = statusByte == STATUS_OK_CURSOR ? frame.getLong() : 0;
+            int noOfItems = readVarint(frame);
+            if (noOfItems == 0) {
+                DBResponse response = new DBResponse(status);
+                response.setCursor(cursor);
+                return response;
+            }
+            if (noOfItems < 0 || noOfItems > frame.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            DBItem[] items = new DBItem[noOfItems];
+            for (int i = 0; i < noOfItems; i++) {
+                String key = readString(frame);
+                items[i] = new DBItem(key, readBytes(frame));
+            }
+            DBResponse response = new DBResponse(status, items);
+            response.setCursor(cursor);
+            return response;
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated response frame");
+        }
+    }
+
+    /**
+     * Read one length-prefixed frame.
+     *
+     * @param in stream to read from
+     * @return payload of the frame, null if the stream ended before it
+     * @throws IOException if the stream fails, ends inside the frame or the
+     *         frame is too large
+     */
+    static ByteBuffer readFrame(InputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside a frame length");
+            }
+            if (shift > 28) {
+                throw new ProtocolException("Malformed frame length");
+            }
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Frame of " + length + " bytes exceeds the frame size limit");
+        }
+        byte[] payload = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += n;
+        }
+        return ByteBuffer.wrap(payload);
+    }
+
+    /**
+     * Read the length prefix of the next frame from a buffer that may not
+     * hold all of it yet, as filled by a non-blocking channel.
+     *
+     * @param buffer buffer in read mode
+     * @return length of the frame with the position moved past the prefix,
+     *         or -1 with the position unchanged if the prefix is incomplete
+     * @throws ProtocolException if the prefix is malformed or the frame is
+     *         too large
+     */
+    static int readFrameLength(ByteBuffer buffer) throws ProtocolException {
+        int length = 0;
+        int position = buffer.position();
+        for (int shift = 0; position < buffer.limit(); shift += 7) {
+            if (shift > 28) {
+                throw new ProtocolException("Malformed frame length");
+            }
+            byte b = buffer.get(position++);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new ProtocolException("Frame of " + length + " bytes exceeds the frame size limit");
+                }
+                buffer.position(position);
+                return length;
+            }
+        }
+        return -1;
+    }
+
+    private static byte opcodeOf(String requestType) {
+        switch (requestType) {
+            case Constants.GET:
+                return OP_GET;
+            case Constants.SET:
+                return OP_SET;
+            case Constants.DELETE:
+                return OP_DELETE;
+            case Constants.STREAM:
+                return OP_STREAM;
+            case Constants.MGET:
+                return OP_MGET;
+            case Constants.MSET:
+                return OP_MSET;
+            case Constants.MDELETE:
+                return OP_MDELETE;
+            case Constants.SCAN:
+                return OP_SCAN;
+            case Constants.SETEX:
+                return OP_SETEX;
+            case Constants.SETEXAT:
+                return OP_SETEXAT;
+            case Constants.TTL:
+                return OP_TTL;
+            case Constants.PERSIST:
+                return OP_PERSIST;
+            case Constants.SYNC:
+                return OP_SYNC;
+            case Constants.TRACK:
+                return OP_TRACK;
+            case Constants.UNTRACK:
+                return OP_UNTRACK;
+            case Constants.INVALIDATE:
+                return OP_INVALIDATE;
+            case Constants.PING:
+                return OP_PING;
+            default:
+                throw new IllegalArgumentException("Unknown request type " + requestType);
+        }
+    }
+
+    static byte[] encode(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int stringLength(byte[] string) {
+        if (string == null) {
+            return 1;
+        }
+        return varintLength(string.length + 1) + string.length;
+    }
+
+    static void writeString(OutputStream out, byte[] string) throws IOException {
+        if (string == null) {
+            out.write(0);
+            return;
+        }
+        writeVarint(out, string.length + 1);
+        out.write(string);
+    }
+
+    static String readString(ByteBuffer frame) {
+        int length = readVarint(frame) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > frame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s;
+        if (frame.hasArray()) {
+            s = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+            frame.position(frame.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            frame.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    static byte[] readBytes(ByteBuffer frame) {
+        int length = readVarint(frame) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > frame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer frame) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = frame.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+}
@@ -0,0 +1,147 @@
+package com.karthik.main.flixDB;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded queue for any number of producers and consumers, a ring buffer in
+ * which every slot carries a sequence number telling whether it is ready to
+ * be written or read in the current lap (Vyukov's bounded MPMC queue).
+ * Producers and consumers claim their position with a single atomic
+ * increment, never a lock, and the array is allocated once.
+ *
+ * Callers reserve room before put and an element before take, see
+ * {@link ThreadPool}, so a claimed position always gets its turn. Consumers
+ * finish with their slots out of order though, so a producer may find its
+ * slot still held by an older element, and a consumer may find its slot
+ * not written yet. Such a thread waits on the monitor of that one slot,
+ * and is woken by the thread that hands the slot over. Threads that find
+ * their slot ready never touch a monitor.
+ *
+ * @param <E> type of the queued elements
+ */
+final class BoundedJobQueue<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicIntegerArray waiters;
+    private final Object[] monitors;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructs a queue holding at least the given number of elements.
+     * The capacity is rounded up to a power of two.
+     *
+     * @param capacity minimum number of elements the queue holds
+     */
+    BoundedJobQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1, got " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        waiters = new AtomicIntegerArray(size);
+        monitors = new Object[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+            monitors[i] = new Object();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Add an element to the tail of the queue. The caller must have
+     * reserved room for it, and waits only for the consumer of an older
+     * element in the same slot to finish with it.
+     *
+     * @param element element to add
+     */
+    void put(E element) {
+        long position = tail.getAndIncrement();
+        int index = (int) position & mask;
+        awaitSequence(index, position);
+        elements.lazySet(index, element);
+        handOver(index, position + 1);
+    }
+
+    /**
+     * Remove the element at the head of the queue. The caller must have
+     * made sure an element was added for it, and waits only for its
+     * producer to finish storing it.
+     *
+     * @return the element
+     */
+    E take() {
+        long position = head.getAndIncrement();
+        int index = (int) position & mask;
+        awaitSequence(index, position + 1);
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        handOver(index, position + mask + 1);
+        return element;
+    }
+
+    /**
+     * Wait for a slot to reach the given sequence. The wait is not
+     * interruptible, as the claimed position cannot be given back, but it
+     * only lasts until another thread finishes with the slot.
+     */
+    private void awaitSequence(int index, long sequence) {
+        if (sequences.get(index) == sequence) {
+            return;
+        }
+        boolean interrupted = false;
+        Object monitor = monitors[index];
+        synchronized (monitor) {
+            // Counted before the check, so handOver() either sees the
+            // waiter or the waiter sees the new sequence
+            waiters.incrementAndGet(index);
+            try {
+                while (sequences.get(index) != sequence) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waiters.decrementAndGet(index);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handOver(int index, long sequence) {
+        sequences.set(index, sequence);
+        if (waiters.get(index) > 0) {
+            Object monitor = monitors[index];
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Return the number of elements in the queue. Only an estimate while
+     * other threads use the queue.
+     *
+     * @return number of queued elements
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,177 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the values of at least a threshold size before handing them
+ * to another value storage, so the store is charged, and evicts by, their
+ * compressed size. Values are deflated at the fastest level, and kept as
+ * they are when that does not make them smaller.
+ *
+ * Values are stored as they are unless deflated, so small values are
+ * neither copied on store nor on load. A deflated value starts with the 4
+ * byte size of the value before compression, followed by the deflated
+ * bytes. Whether the value of an entry is deflated is kept in its
+ * valueStamp, along with a count of its stores and a bit set while one is
+ * under way. load runs without the store lock, so it reads the stamp
+ * before and after reading the value, and reads again if a store came in
+ * between, like an optimistic read of a StampedLock.
+ *
+ * Deflaters and inflaters hold native memory, so they are pooled rather
+ * than created per value or kept per thread.
+ */
+final class CompressingValueStorage implements ValueStorage {
+    private final ValueStorage storage;
+    private final int threshold;
+    private final CompressionMetrics metrics;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    private static final int STORING = 1;
+    private static final int DEFLATED = 2;
+    private static final int STORE_COUNT = 4;
+    private static final int DEFLATED_HEADER = 4;
+
+    /**
+     * Constructs a CompressingValueStorage in front of the given storage.
+     *
+     * @param storage storage to keep the compressed values in
+     * @param threshold size in bytes from which values are compressed
+     * @param metrics metrics to record the compression in
+     */
+    CompressingValueStorage(ValueStorage storage, int threshold, CompressionMetrics metrics) {
+        this.storage = storage;
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long store(StoreEntry entry, byte[] value, long headroom) {
+        byte[] compressed = value == null ? null : compress(value);
+        int stamp = entry.valueStamp;
+        int deflated = stamp & DEFLATED;
+        entry.valueStamp = stamp | STORING;
+        try {
+            long charged = storage.store(entry, compressed, headroom);
+            if (charged != NO_MEMORY) {
+                deflated = compressed != value ? DEFLATED : 0;
+            }
+            return charged;
+        } finally {
+            entry.valueStamp = (stamp & ~(STORING | DEFLATED)) + STORE_COUNT | deflated;
+        }
+    }
+
+    @Override
+    public byte[] load(StoreEntry entry) throws ItemNotFoundException {
+        while (true) {
+            int stamp = entry.valueStamp;
+            if ((stamp & STORING) != 0) {
+                Thread.yield();
+                continue;
+            }
+            byte[] stored = storage.load(entry);
+            if (entry.valueStamp != stamp) {
+                continue;
+            }
+            if (stored == null || (stamp & DEFLATED) == 0) {
+                return stored;
+            }
+            return decompress(stored);
+        }
+    }
+
+    @Override
+    public void release(StoreEntry entry) {
+        storage.release(entry);
+    }
+
+    @Override
+    public StoreEntry victim() {
+        return storage.victim();
+    }
+
+    @Override
+    public long reservedBytes() {
+        return storage.reservedBytes();
+    }
+
+    @Override
+    public long overhead() {
+        return storage.overhead();
+    }
+
+    private byte[] compress(byte[] value) {
+        if (value.length >= threshold && value.length > DEFLATED_HEADER) {
+            long start = System.nanoTime();
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED, true);
+            }
+            try {
+                deflater.setInput(value);
+                deflater.finish();
+                // Only worth keeping if it comes out smaller than the value
+                byte[] compressed = new byte[value.length];
+                int limit = compressed.length - DEFLATED_HEADER;
+                int length = 0;
+                while (!deflater.finished() && length < limit) {
+                    length += deflater.deflate(compressed, DEFLATED_HEADER + length, limit - length);
+                }
+                if (deflater.finished()) {
+                    compressed[0] = (byte) (value.length >>> 24);
+                    compressed[1] = (byte) (value.length >>> 16);
+                    compressed[2] = (byte) (value.length >>> 8);
+                    compressed[3] = (byte) value.length;
+                    compressed = Arrays.copyOf(compressed, DEFLATED_HEADER + length);
+                    metrics.valueCompressed(value.length, compressed.length, System.nanoTime() - start);
+                    return compressed;
+                }
+                metrics.valueIncompressible(System.nanoTime() - start);
+            } finally {
+                deflater.reset();
+                deflaters.offer(deflater);
+            }
+        }
+        return value;
+    }
+
+    private byte[] decompress(byte[] stored) {
+        long start = System.nanoTime();
+        int size = (stored[0] & 0xff) << 24 | (stored[1] & 0xff) << 16 | (stored[2] & 0xff) << 8 | (stored[3] & 0xff);
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(stored, DEFLATED_HEADER, stored.length - DEFLATED_HEADER);
+            byte[] value = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int n = inflater.inflate(value, length, size - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != size) {
+                throw new IllegalStateException("Compressed value inflates to " + length + " bytes instead of "
+                        + size);
+            }
+            metrics.valueDecompressed(System.nanoTime() - start);
+            return value;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed value", e);
+        } finally {
+            inflater.reset();
+            inflaters.offer(inflater);
+        }
+    }
+}
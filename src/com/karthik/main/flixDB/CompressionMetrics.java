@@ -0,0 +1,141 @@
+package com.karthik.main.flixDB;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the value compression of a store: how much the compressed
+ * values shrank and the time spent compressing and decompressing them, so
+ * the memory saved can be weighed against the CPU it costs.
+ */
+public class CompressionMetrics {
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder incompressible = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * Record a value compressed in the given time.
+     *
+     * @param rawSize size of the value in bytes
+     * @param compressedSize size of the compressed value in bytes
+     * @param nanos time taken in nanoseconds
+     */
+    void valueCompressed(int rawSize, int compressedSize, long nanos) {
+        compressed.increment();
+        rawBytes.add(rawSize);
+        compressedBytes.add(compressedSize);
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * Record a value above the threshold that did not shrink and is kept
+     * as it is.
+     *
+     * @param nanos time spent trying in nanoseconds
+     */
+    void valueIncompressible(long nanos) {
+        incompressible.increment();
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * Record a value decompressed in the given time.
+     *
+     * @param nanos time taken in nanoseconds
+     */
+    void valueDecompressed(long nanos) {
+        decompressed.increment();
+        decompressNanos.add(nanos);
+    }
+
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    public long getIncompressible() {
+        return incompressible.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    /**
+     * Return the size of the compressed values before compression over
+     * their size after it.
+     *
+     * @return compression ratio, zero before the first compressed value
+     */
+    public double getCompressionRatio() {
+        long after = compressedBytes.sum();
+        return after == 0 ? 0 : (double) rawBytes.sum() / after;
+    }
+
+    /**
+     * Return the mean time spent on a value above the threshold, whether
+     * it shrank or not.
+     *
+     * @return mean compression time in nanoseconds
+     */
+    public long getMeanCompressNanos() {
+        long count = compressed.sum() + incompressible.sum();
+        return count == 0 ? 0 : compressNanos.sum() / count;
+    }
+
+    /**
+     * @return mean decompression time in nanoseconds
+     */
+    public long getMeanDecompressNanos() {
+        long count = decompressed.sum();
+        return count == 0 ? 0 : decompressNanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "values compressed " + getCompressed() + ", incompressible " + getIncompressible()
+                + ", ratio " + String.format("%.2f", getCompressionRatio()) + ", bytes saved "
+                + (getRawBytes() - getCompressedBytes()) + ", compress mean " + getMeanCompressNanos() / 1000
+                + "us, decompressed " + getDecompressed() + ", decompress mean "
+                + getMeanDecompressNanos() / 1000 + "us";
+    }
+
+    /**
+     * Periodically print the metrics to the console.
+     *
+     * @param intervalSeconds seconds between two reports. Zero disables it
+     */
+    public void scheduleReport(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-compression-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println("compression: " + CompressionMetrics.this);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
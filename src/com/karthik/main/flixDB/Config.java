@@ -5,7 +5,34 @@ package com.karthik.main.flixDB;
  */
 class Config {
     public int max_concurrent_client_connections = 10;
-    public int max_keyspace_memory = 1000;
+    public long max_keyspace_memory = 1000;
     public int server_port = 14567;
     public String log_level = "INFO";
+    public int memory_drift_check_interval = 0;
+    public int shard_count = 1;
+    public String eviction_policy = "lru";
+    public int eviction_samples = 5;
+    public String storage_engine = "heap";
+    public int compression_threshold = 0;
+    public int expiry_interval = 1000;
+    public boolean legacy_protocol = false;
+    public String connection_handler = "blocking";
+    public int event_loop_threads = 0;
+    public int metrics_report_interval = 0;
+    public int job_queue_size = 128;
+    public String rejection_policy = "block";
+    public int shutdown_timeout = 5;
+    public boolean appendonly = false;
+    public String aof_file = "flixDB.aof";
+    public String aof_fsync = "interval";
+    public int aof_fsync_interval = 1000;
+    public int snapshot_interval = 0;
+    public String snapshot_file = "flixDB.snapshot";
+    public int snapshot_load_threads = 0;
+    public boolean snapshot_lazy_load = false;
+    public int replication_port = 0;
+    public int replication_backlog_size = 1024 * 1024;
+    public String replicaof = "";
+    public int invalidation_port = 0;
+    public int tracking_table_max_keys = 0;
 }
@@ -6,6 +6,19 @@ public class Constants {
     public static final String SET = "SET";
     public static final String STREAM = "STREAM";
     public static final String DELETE = "DELETE";
+    public static final String MGET = "MGET";
+    public static final String MSET = "MSET";
+    public static final String MDELETE = "MDELETE";
+    public static final String SCAN = "SCAN";
+    public static final String SETEX = "SETEX";
+    public static final String SETEXAT = "SETEXAT";
+    public static final String TTL = "TTL";
+    public static final String PERSIST = "PERSIST";
+    public static final String SYNC = "SYNC";
+    public static final String TRACK = "TRACK";
+    public static final String UNTRACK = "UNTRACK";
+    public static final String INVALIDATE = "INVALIDATE";
+    public static final String PING = "PING";
     public static final String EMPTY = "EMPTY";
     public static final String VALUE = "VALUE";
     public static final String KEY = "KEY";
@@ -1,18 +1,35 @@
 package com.karthik.main.flixDB;
 
+import com.karthik.main.flixDB.exception.InvalidRequestException;
 import com.karthik.main.flixDB.exception.ItemNotFoundException;
 
+import java.util.Iterator;
+
 /**
  * Interface for the DBStore.
  */
 public interface DBInterface {
 
     /**
-     * Insert Key, Value pair into the DBStore
+     * Time to live of a key that does not expire.
+     */
+    long NO_EXPIRY = -1;
+
+    /**
+     * Insert Key, Value pair into the DBStore. The key no longer expires
+     * @param key is the object used to index into the store
+     * @param value is the object corresponding to a unique key
+     */
+    void set(String key, byte[] value);
+
+    /**
+     * Insert Key, Value pair into the DBStore, expiring after the given time
      * @param key is the object used to index into the store
      * @param value is the object corresponding to a unique key
+     * @param ttlMillis time to live of the key in milliseconds
+     * @throws IllegalArgumentException if the time to live is not positive
      */
-    void set(String key, String value);
+    void set(String key, byte[] value, long ttlMillis);
 
     /**
      * Retrieve the object corresponding to the provided key
@@ -20,7 +37,7 @@ public interface DBInterface {
      * @return the value corresponding to the provided key
      * @throws ItemNotFoundException if there is an error when looking up the object store
      */
-    String get(String key) throws ItemNotFoundException;
+    byte[] get(String key) throws ItemNotFoundException;
 
     /**
      * Delete the object corresponding to the provided key
@@ -30,7 +47,66 @@ public interface DBInterface {
     void delete(String key) throws ItemNotFoundException;
 
     /**
-     * Stream all the key-value pairs in the store
+     * Retrieve the time the provided key has left to live
+     * @param key is the object used to index into the store
+     * @return remaining time to live in milliseconds, NO_EXPIRY if the key does not expire
+     * @throws ItemNotFoundException if the key is not in the store or has expired
+     */
+    long ttl(String key) throws ItemNotFoundException;
+
+    /**
+     * Remove the expiry of the provided key
+     * @param key is the object used to index into the store
+     * @return true if the key had an expiry
+     * @throws ItemNotFoundException if the key is not in the store or has expired
+     */
+    boolean persist(String key) throws ItemNotFoundException;
+
+    /**
+     * Insert or update every Key, Value pair of the batch. Keys expire at
+     * the expiry time of their item, and items that are already expired
+     * delete their key
+     * @param items key-value pairs to insert or update
+     */
+    void setAll(DBItem[] items);
+
+    /**
+     * Retrieve the objects corresponding to the provided keys
+     * @param keys are the objects used to index into the store
+     * @return an item per key in the same order, with a null value for
+     *         keys that are not in the store
+     */
+    DBItem[] getAll(String[] keys);
+
+    /**
+     * Delete the objects corresponding to the provided keys
+     * @param keys are the objects used to index into the store
+     * @return for every key whether it was in the store
+     */
+    boolean[] deleteAll(String[] keys);
+
+    /**
+     * Fetch the next chunk of key-value pairs of a scan over the store.
+     * Scans are weakly consistent, see {@link ScanCursors}
+     * @param cursor cursor returned by the previous chunk, zero to start
+     * @param count maximum number of key-value pairs to return
+     * @param prefix only return keys starting with it, null for all keys
+     * @return the chunk and the cursor to continue from, zero when done
+     * @throws InvalidRequestException if the cursor is unknown or expired
+     */
+    ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException;
+
+    /**
+     * Stream all the key-value pairs in the store, carrying the expiry time of their key
      */
     DBItem[] stream();
+
+    /**
+     * Walk all the key-value pairs in the store, least recently used first,
+     * carrying the expiry time of their key. The LRU order is captured when
+     * called, but every value is only read when its pair is reached, so the
+     * whole store is never copied at once
+     * @return iterator over the pairs
+     */
+    Iterator<DBItem> leastRecentFirst();
 }
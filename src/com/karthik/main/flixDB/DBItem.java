@@ -1,16 +1,51 @@
 package com.karthik.main.flixDB;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Key-value pair. The value is kept as the raw bytes the client sent and
+ * is never decoded on the server. Pairs read out of a store carry the time
+ * their key expires at, which is not sent to clients.
+ */
 public class DBItem implements Serializable{
+    private static final long serialVersionUID = 1538135168927989534L;
+
+    /**
+     * Legacy clients serialize the value as a string, so it goes over Java
+     * serialization as its UTF-8 decoding.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("key", String.class),
+            new ObjectStreamField("value", String.class)
+    };
+
     private String key;
-    private String value;
+    private byte[] value;
+    private long expiresAt;
 
-    public DBItem(String key, String value) {
+    public DBItem(String key, byte[] value) {
         this.key = key;
         this.value = value;
     }
 
+    /**
+     * Constructs a key-value pair whose key expires at the given time.
+     *
+     * @param key key of the pair
+     * @param value value of the pair
+     * @param expiresAt time the key expires at in milliseconds since the
+     *                  epoch, zero if it does not expire
+     */
+    public DBItem(String key, byte[] value, long expiresAt) {
+        this(key, value);
+        this.expiresAt = expiresAt;
+    }
+
     public DBItem(String key) {
         this(key, null);
     }
@@ -23,12 +58,33 @@ public class DBItem implements Serializable{
         this.key = key;
     }
 
-    public String getValue() {
+    public byte[] getValue() {
         return value;
     }
 
-    public void setValue(String value) {
+    public void setValue(byte[] value) {
         this.value = value;
     }
 
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("key", key);
+        fields.put("value", value == null ? null : new String(value, StandardCharsets.UTF_8));
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        key = (String) fields.get("key", null);
+        String string = (String) fields.get("value", null);
+        value = string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -3,16 +3,65 @@ package com.karthik.main.flixDB;
 import java.io.Serializable;
 
 public class DBRequest implements Serializable {
+    // Kept from before items was added so legacy clients still deserialize
+    private static final long serialVersionUID = 5192161643873061572L;
+
     String requestType;
     DBItem item;
+    DBItem[] items;
+    long cursor;
+    int count;
+    String prefix;
+    long ttl;
 
     public DBRequest(String requestType, DBItem item) {
         this.requestType = requestType;
         this.item = item;
     }
 
+    /**
+     * Constructs a batch request, MGET, MSET or MDELETE, for the given
+     * items. MGET and MDELETE items only carry a key.
+     *
+     * @param requestType type of the batch request
+     * @param items items of the batch
+     */
+    public DBRequest(String requestType, DBItem[] items) {
+        this.requestType = requestType;
+        this.items = items;
+    }
+
+    /**
+     * Constructs a SETEX request setting a key that expires after the
+     * given time.
+     *
+     * @param requestType SETEX
+     * @param item key-value pair to set
+     * @param ttl time to live of the key in milliseconds
+     */
+    public DBRequest(String requestType, DBItem item, long ttl) {
+        this.requestType = requestType;
+        this.item = item;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Constructs a SCAN request for the next chunk of a scan.
+     *
+     * @param requestType SCAN
+     * @param cursor cursor returned by the previous chunk, zero to start
+     * @param count maximum number of items to return
+     * @param prefix only return keys starting with it, null for all keys
+     */
+    public DBRequest(String requestType, long cursor, int count, String prefix) {
+        this.requestType = requestType;
+        this.cursor = cursor;
+        this.count = count;
+        this.prefix = prefix;
+    }
+
     public DBRequest(String requestType) {
-        this(requestType, null);
+        this(requestType, (DBItem) null);
     }
 
     public void setRequestType(String requestType) {
@@ -30,4 +79,28 @@ public class DBRequest implements Serializable {
     public DBItem getItem() {
         return this.item;
     }
+
+    public void setItems(DBItem[] items) {
+        this.items = items;
+    }
+
+    public DBItem[] getItems() {
+        return this.items;
+    }
+
+    public long getCursor() {
+        return this.cursor;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public long getTtl() {
+        return this.ttl;
+    }
 }
@@ -3,8 +3,12 @@ package com.karthik.main.flixDB;
 import java.io.Serializable;
 
 public class DBResponse implements Serializable{
+    // Kept from before cursor was added so legacy clients still deserialize
+    private static final long serialVersionUID = 8243418432810649734L;
+
     String responseStatus;
     DBItem[] items;
+    long cursor;
 
     public DBResponse(String responseStatus, DBItem[] items) {
         this.responseStatus = responseStatus;
@@ -30,4 +34,16 @@ public class DBResponse implements Serializable{
     public DBItem[] getItems() {
         return this.items;
     }
+
+    /**
+     * @return cursor to continue a SCAN from, zero once the scan is done
+     *         and for every other request
+     */
+    public long getCursor() {
+        return this.cursor;
+    }
+
+    public void setCursor(long cursor) {
+        this.cursor = cursor;
+    }
 }
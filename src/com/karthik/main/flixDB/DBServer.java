@@ -2,6 +2,7 @@ package com.karthik.main.flixDB;
 
 import java.io.FileInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 
 import org.yaml.snakeyaml.Yaml;
@@ -25,7 +26,53 @@ public class DBServer {
 
             String hostname = InetAddress.getLocalHost().getHostAddress();
             SocketServer ss = new SocketServer(hostname, conf.server_port);
-            ss.addHandler(new ServerClientHandler(new DBStore(conf.max_keyspace_memory), conf.max_concurrent_client_connections));
+            final SocketServer server = ss;
+            final InvalidationServer invalidationServer =
+                    conf.invalidation_port > 0
+                            ? new InvalidationServer(conf.invalidation_port, conf.tracking_table_max_keys) : null;
+            final DBInterface dbStore = createStore(conf, invalidationServer);
+            final NetworkHandlerInterface handler = createHandler(conf, dbStore);
+            final Snapshot snapshot = createSnapshot(conf, dbStore);
+            final ReplicationServer replicationServer = createReplicationServer(conf, dbStore);
+            if (invalidationServer != null) {
+                invalidationServer.start(dbStore);
+                System.out.println("FlixDB listening for tracking clients on port " + invalidationServer.getPort());
+            }
+            final long shutdownTimeout = conf.shutdown_timeout * 1000L;
+            handler.getMetrics().scheduleReport(conf.metrics_report_interval, conf.connection_handler);
+            ss.addHandler(handler);
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println("FlixDB shutting down");
+                    server.stop();
+                    handler.shutdown(shutdownTimeout);
+                    if (replicationServer != null) {
+                        replicationServer.stop();
+                    }
+                    if (invalidationServer != null) {
+                        invalidationServer.stop();
+                    }
+                    if (dbStore instanceof Replica) {
+                        ((Replica) dbStore).stop();
+                    }
+                    if (snapshot != null) {
+                        snapshot.stop();
+                        try {
+                            snapshot.take();
+                        } catch (IOException e) {
+                            System.out.println("Failed to write the final snapshot: " + e.getMessage());
+                        }
+                    }
+                    if (dbStore instanceof PersistentStore) {
+                        try {
+                            ((PersistentStore) dbStore).getLog().close();
+                        } catch (IOException e) {
+                            System.out.println("Failed to close the append only log: " + e.getMessage());
+                        }
+                    }
+                }
+            }));
             ss.connect();
 
             System.out.println("FlixDB listening for FlixDB clients at " + ss.getHostname());
@@ -37,4 +84,229 @@ public class DBServer {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Create the network handler described by the configuration: a pool of
+     * threads, a virtual thread per connection, or a few event loops
+     * multiplexing all of them.
+     *
+     * @param conf server configuration
+     * @param dbStore store to serve the clients from
+     * @return handler for accepted connections
+     * @throws IOException if the event loops cannot be started
+     */
+    private static NetworkHandlerInterface createHandler(Config conf, DBInterface dbStore) throws IOException {
+        if ("nio".equals(conf.connection_handler)) {
+            if (conf.legacy_protocol) {
+                System.out.println("The nio connection handler only serves the binary protocol. "
+                        + "Ignoring legacy_protocol");
+            }
+            // Writes wait for their fsync, which must not happen on an event loop
+            boolean syncedWrites = conf.appendonly && AppendOnlyLog.ALWAYS.equals(conf.aof_fsync)
+                    && conf.replicaof.isEmpty();
+            return new NioClientHandler(dbStore, conf.event_loop_threads,
+                    syncedWrites ? conf.max_concurrent_client_connections : 0, syncedWrites);
+        }
+        if (!"blocking".equals(conf.connection_handler) && !"virtual".equals(conf.connection_handler)) {
+            throw new IllegalArgumentException("Unknown connection handler " + conf.connection_handler);
+        }
+        if ("virtual".equals(conf.connection_handler)) {
+            return new ServerClientHandler(dbStore, conf.max_concurrent_client_connections, conf.legacy_protocol,
+                    true);
+        }
+        ThreadPool threadPool = new ThreadPool(conf.max_concurrent_client_connections, conf.job_queue_size,
+                conf.rejection_policy);
+        return new ServerClientHandler(dbStore, threadPool, conf.legacy_protocol);
+    }
+
+    /**
+     * Create the store described by the configuration, sharded if more
+     * than one shard is configured. The last snapshot is loaded into it
+     * first, or served from a memory mapping while it is copied into the
+     * store in the background. With the append only log enabled, the log is replayed on top
+     * of the snapshot and the store then logs every write. A primary with a
+     * replication port records every write for its replicas. A replica
+     * neither loads nor logs anything, it syncs with its primary instead.
+     * The invalidation server, if any, is told about every key the store
+     * changes from the start, loading and replaying included.
+     *
+     * @param conf server configuration
+     * @param invalidationServer server tracking the keys clients cache,
+     *                           null for none
+     * @return store to serve the clients from
+     * @throws IOException if the snapshot or the log cannot be loaded
+     */
+    private static DBInterface createStore(Config conf, InvalidationServer invalidationServer)
+            throws IOException {
+        DBInterface dbStore;
+        if (conf.shard_count > 1) {
+            ShardedDBStore shardedStore = new ShardedDBStore(conf.max_keyspace_memory, conf.shard_count,
+                    conf.eviction_policy, conf.eviction_samples, conf.storage_engine, conf.compression_threshold);
+            shardedStore.scheduleDriftCheck(conf.memory_drift_check_interval);
+            shardedStore.scheduleExpiry(conf.expiry_interval);
+            shardedStore.setInvalidationListener(invalidationServer);
+            if (!conf.replicaof.isEmpty()) {
+                shardedStore.disableEviction();
+            }
+            if (conf.compression_threshold > 0) {
+                shardedStore.getCompressionMetrics().scheduleReport(conf.metrics_report_interval);
+            }
+            dbStore = shardedStore;
+        } else {
+            DBStore singleStore = new DBStore(conf.max_keyspace_memory, conf.eviction_policy,
+                    conf.eviction_samples, conf.storage_engine, conf.compression_threshold);
+            singleStore.scheduleDriftCheck(conf.memory_drift_check_interval);
+            singleStore.scheduleExpiry(conf.expiry_interval);
+            singleStore.setInvalidationListener(invalidationServer);
+            if (!conf.replicaof.isEmpty()) {
+                singleStore.disableEviction();
+            }
+            if (conf.compression_threshold > 0) {
+                singleStore.getCompressionMetrics().scheduleReport(conf.metrics_report_interval);
+            }
+            dbStore = singleStore;
+        }
+        if (!conf.replicaof.isEmpty()) {
+            return createReplica(conf, dbStore);
+        }
+        File snapshotFile = new File(conf.snapshot_file);
+        LazySnapshotStore lazyStore = null;
+        if (snapshotFile.exists()) {
+            MappedSnapshot mapped = conf.snapshot_lazy_load ? MappedSnapshot.open(snapshotFile) : null;
+            if (mapped != null) {
+                lazyStore = new LazySnapshotStore(dbStore, mapped);
+                dbStore = lazyStore;
+                System.out.println("Serving " + mapped.size() + " keys from " + snapshotFile.getPath()
+                        + " while warming up");
+            } else {
+                if (conf.snapshot_lazy_load) {
+                    System.out.println(snapshotFile.getPath() + " has no index. Loading it instead");
+                }
+                long start = System.currentTimeMillis();
+                long loaded = Snapshot.load(snapshotFile, dbStore, conf.snapshot_load_threads);
+                System.out.println("Loaded " + loaded + " keys from " + snapshotFile.getPath() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+        if (!conf.appendonly) {
+            if (lazyStore != null) {
+                lazyStore.startWarmUp();
+            }
+            return replicated(conf, dbStore);
+        }
+        File aofFile = new File(conf.aof_file);
+        long replayed = AppendOnlyLog.replay(aofFile, dbStore);
+        System.out.println("Replayed " + replayed + " writes from " + aofFile.getPath());
+        // Left behind by a snapshot that did not complete, newer than aofFile
+        File nextFile = Snapshot.nextLogFile(aofFile);
+        if (nextFile.exists()) {
+            replayed = AppendOnlyLog.replay(nextFile, dbStore);
+            System.out.println("Replayed " + replayed + " writes from " + nextFile.getPath());
+            aofFile = nextFile;
+        }
+        if (lazyStore != null) {
+            lazyStore.startWarmUp();
+        }
+        return new PersistentStore(replicated(conf, dbStore),
+                new AppendOnlyLog(aofFile, conf.aof_fsync, conf.aof_fsync_interval));
+    }
+
+    /**
+     * Wrap the store of a primary with a replication port in a store
+     * recording its writes for the replicas, and the keys the store expires
+     * or evicts. The append only log goes on top, so both record the
+     * writes to a key in the same order.
+     *
+     * @param conf server configuration
+     * @param dbStore store of the primary
+     * @return store to serve the clients from
+     */
+    private static DBInterface replicated(Config conf, DBInterface dbStore) {
+        if (conf.replication_port <= 0) {
+            return dbStore;
+        }
+        ReplicatedStore replicatedStore = new ReplicatedStore(dbStore, conf.replication_backlog_size);
+        DBInterface store = dbStore;
+        if (store instanceof LazySnapshotStore) {
+            store = ((LazySnapshotStore) store).getStore();
+        }
+        if (store instanceof ShardedDBStore) {
+            ((ShardedDBStore) store).setEvictionListener(replicatedStore);
+        } else if (store instanceof DBStore) {
+            ((DBStore) store).setEvictionListener(replicatedStore);
+        }
+        return replicatedStore;
+    }
+
+    /**
+     * Start following the primary named by replicaof, as host:port of its
+     * replication port.
+     *
+     * @param conf server configuration
+     * @param dbStore empty store to keep the copy of the primary in
+     * @return read-only store to serve the clients from
+     */
+    private static DBInterface createReplica(Config conf, DBInterface dbStore) {
+        int colon = conf.replicaof.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("replicaof must be host:port, not " + conf.replicaof);
+        }
+        if (conf.appendonly || conf.snapshot_interval > 0) {
+            System.out.println("Replicas sync with their primary. Ignoring appendonly and snapshot_interval");
+        }
+        Replica replica = new Replica(dbStore, conf.replicaof.substring(0, colon),
+                Integer.parseInt(conf.replicaof.substring(colon + 1)));
+        replica.start();
+        replica.scheduleReport(conf.metrics_report_interval);
+        System.out.println("FlixDB is a read-only replica of " + conf.replicaof);
+        return replica;
+    }
+
+    /**
+     * Start feeding the writes of a primary to its replicas on the
+     * replication port.
+     *
+     * @param conf server configuration
+     * @param dbStore store to serve the clients from
+     * @return the replication server, null without a replication port
+     * @throws IOException if the replication port cannot be bound
+     */
+    private static ReplicationServer createReplicationServer(Config conf, DBInterface dbStore)
+            throws IOException {
+        if (dbStore instanceof PersistentStore) {
+            dbStore = ((PersistentStore) dbStore).getStore();
+        }
+        if (!(dbStore instanceof ReplicatedStore)) {
+            return null;
+        }
+        ReplicationServer replicationServer = new ReplicationServer((ReplicatedStore) dbStore,
+                conf.replication_port);
+        replicationServer.start();
+        replicationServer.scheduleReport(conf.metrics_report_interval);
+        System.out.println("FlixDB listening for replicas on port " + replicationServer.getPort());
+        return replicationServer;
+    }
+
+    /**
+     * Schedule the snapshots described by the configuration.
+     *
+     * @param conf server configuration
+     * @param dbStore store to snapshot
+     * @return the snapshot writer, null if snapshots are disabled or the
+     *         server is a replica
+     */
+    private static Snapshot createSnapshot(Config conf, DBInterface dbStore) {
+        if (conf.snapshot_interval <= 0 || dbStore instanceof Replica) {
+            return null;
+        }
+        Snapshot snapshot;
+        if (dbStore instanceof PersistentStore) {
+            snapshot = new Snapshot(new File(conf.snapshot_file), (PersistentStore) dbStore,
+                    new File(conf.aof_file));
+        } else {
+            snapshot = new Snapshot(new File(conf.snapshot_file), dbStore);
+        }
+        snapshot.schedule(conf.snapshot_interval);
+        return snapshot;
+    }
 }
@@ -1,10 +1,18 @@
 package com.karthik.main.flixDB;
 
+import com.karthik.main.flixDB.exception.InvalidRequestException;
 import com.karthik.main.flixDB.exception.ItemNotFoundException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.github.jamm.MemoryMeter;
 
@@ -12,54 +20,303 @@ import org.github.jamm.MemoryMeter;
  * DBStore implementation that is supposed to maintain all the in-memory
  * data structures necessary for the DBStore. Concurrent data
  * structures are used where ever necessary.
+ *
+ * Which key is evicted when the store goes over its memory bound is up to
+ * an {@link EvictionPolicy}, chosen by name: exact LRU, sampled LRU, FIFO,
+ * LFU or W-TinyLFU. The entries are the map values themselves and carry the
+ * links the policy needs, so every policy updates in O(1).
+ *
+ * Memory usage is tracked with a running byte counter. The size of every
+ * entry is estimated once from the key and value lengths plus the fixed
+ * overhead of the objects holding them, so checking the bound after a write
+ * does not walk the store. A deep measurement with jamm is only used for the
+ * optional drift check, see {@link #scheduleDriftCheck(int)}.
+ *
+ * Keys set with a time to live are linked into a {@link TimerWheel}. An
+ * expired key is removed the moment it is accessed, and the rest are
+ * found through the wheel: on every write, before the store makes room
+ * for it, and every expiry interval, see {@link #scheduleExpiry(int)}.
+ * Expired keys therefore give their memory back before live keys are
+ * evicted.
  */
 public class DBStore implements DBInterface {
-    private final ConcurrentHashMap<String, String> dbMap;
-    private final CopyOnWriteArrayList<String> orderList;
+    private final ConcurrentHashMap<String, StoreEntry> dbMap;
+    private final Object storeLock;
+    private final EvictionPolicy evictionPolicy;
+    private final ValueStorage valueStorage;
+    private final CompressionMetrics compressionMetrics;
     private final long maxMemorySize;
+    private long memoryUsed;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final ScanCursors scanCursors;
+    private TimerWheel timers;
+    private final ArrayList<StoreEntry> expired;
+    private volatile InvalidationListener invalidationListener;
+    private volatile EvictionListener evictionListener;
+    private volatile boolean evicting = true;
+
+    /**
+     * Exact LRU eviction. Every access moves the key to the front of the
+     * LRU list.
+     */
+    public static final String LRU = "lru";
+
+    /**
+     * Approximate LRU eviction. Evicts the least recently used out of a
+     * number of randomly sampled keys. Reads never take the store lock.
+     */
+    public static final String SAMPLED_LRU = "sampled_lru";
+
+    /**
+     * First in, first out eviction. Reads never take the store lock.
+     */
+    public static final String FIFO = "fifo";
+
+    /**
+     * Least frequently used eviction, least recently used first among keys
+     * with the same access count.
+     */
+    public static final String LFU = "lfu";
+
+    /**
+     * LRU window in front of a segmented LRU main space guarded by a
+     * TinyLFU admission filter. Resists scans flushing popular keys.
+     */
+    public static final String W_TINYLFU = "w_tinylfu";
+
+    /**
+     * Default number of keys sampled per eviction with SAMPLED_LRU.
+     */
+    public static final int DEFAULT_EVICTION_SAMPLES = 5;
+
+    /**
+     * Keep values as byte arrays on the Java heap.
+     */
+    public static final String HEAP = "heap";
+
+    /**
+     * Keep values as bytes in direct memory, outside the Java heap.
+     */
+    public static final String OFF_HEAP = "offheap";
+
+    /**
+     * Keep values in direct memory, in the size classes of a slab
+     * allocator. Under memory pressure a value evicts the least recently
+     * used entry of its own size class.
+     */
+    public static final String SLAB = "slab";
+
+    /**
+     * Estimated footprint of the empty store: the map with its initial
+     * table, the lock and the eviction policy with its empty lists.
+     */
+    static final long STORE_OVERHEAD = 232;
+
+    /**
+     * Estimated footprint of one entry excluding the key string and the value:
+     * the map node, its table slot and the store entry with its links.
+     */
+    static final long ENTRY_OVERHEAD = 104;
 
     /**
      * Constructs a DBStore instance with the given memory size.
      *
-     *
-     * @return DBResponse with OK even if the key doesn't exist
      * @param maxMemorySize Max memory size of the DBStore. Zero sets
      *                      it to memory available to the JVM
      */
     public DBStore(int maxMemorySize) {
-        dbMap = new ConcurrentHashMap<String, String>();
-        orderList = new CopyOnWriteArrayList<String>();
+        this((long) maxMemorySize);
+    }
+
+    /**
+     * Constructs a DBStore instance with the given memory size.
+     *
+     * @param maxMemorySize Max memory size of the DBStore. Zero sets
+     *                      it to memory available to the JVM
+     */
+    public DBStore(long maxMemorySize) {
+        this(maxMemorySize, LRU, DEFAULT_EVICTION_SAMPLES);
+    }
+
+    /**
+     * Constructs a DBStore instance with the given memory size and
+     * eviction policy.
+     *
+     * @param maxMemorySize Max memory size of the DBStore. Zero sets
+     *                      it to memory available to the JVM
+     * @param evictionPolicy LRU, SAMPLED_LRU, FIFO, LFU or W_TINYLFU
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        SAMPLED_LRU
+     */
+    public DBStore(long maxMemorySize, String evictionPolicy, int evictionSamples) {
+        this(maxMemorySize, evictionPolicy, evictionSamples, HEAP);
+    }
+
+    /**
+     * Constructs a DBStore instance with the given memory size, eviction
+     * policy and storage for the values.
+     *
+     * @param maxMemorySize Max memory size of the DBStore. Zero sets
+     *                      it to memory available to the JVM
+     * @param evictionPolicy LRU, SAMPLED_LRU, FIFO, LFU or W_TINYLFU
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        SAMPLED_LRU
+     * @param storage HEAP, OFF_HEAP or SLAB
+     */
+    public DBStore(long maxMemorySize, String evictionPolicy, int evictionSamples, String storage) {
+        this(maxMemorySize, evictionPolicy, evictionSamples, storage, 0);
+    }
+
+    /**
+     * Constructs a DBStore instance with the given memory size, eviction
+     * policy and storage for the values, compressing values from the given
+     * size on.
+     *
+     * @param maxMemorySize Max memory size of the DBStore. Zero sets
+     *                      it to memory available to the JVM
+     * @param evictionPolicy LRU, SAMPLED_LRU, FIFO, LFU or W_TINYLFU
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        SAMPLED_LRU
+     * @param storage HEAP, OFF_HEAP or SLAB
+     * @param compressionThreshold size in bytes from which values are
+     *                             compressed. Zero disables compression
+     */
+    public DBStore(long maxMemorySize, String evictionPolicy, int evictionSamples, String storage,
+                   int compressionThreshold) {
+        this(maxMemorySize, evictionPolicy, evictionSamples, storage, compressionThreshold,
+                new CompressionMetrics());
+    }
+
+    DBStore(long maxMemorySize, String evictionPolicy, int evictionSamples, String storage,
+            int compressionThreshold, CompressionMetrics compressionMetrics) {
         if (maxMemorySize > 0) {
             this.maxMemorySize = maxMemorySize;
         } else {
             this.maxMemorySize = Runtime.getRuntime().freeMemory();
         }
+        dbMap = new ConcurrentHashMap<String, StoreEntry>();
+        storeLock = new Object();
+        this.evictionPolicy = EvictionPolicy.create(evictionPolicy, this.maxMemorySize, evictionSamples);
+        this.compressionMetrics = compressionMetrics;
+        if (compressionThreshold > 0) {
+            this.valueStorage = new CompressingValueStorage(ValueStorage.create(storage, this.maxMemorySize),
+                    compressionThreshold, compressionMetrics);
+        } else {
+            this.valueStorage = ValueStorage.create(storage, this.maxMemorySize);
+        }
+        memoryUsed = STORE_OVERHEAD + this.evictionPolicy.overhead() + valueStorage.overhead();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        scanCursors = new ScanCursors();
+        expired = new ArrayList<StoreEntry>();
     }
 
     /**
-     * Helper method to update key-value in the store and in the LRU list.
-     * The last write wins if there is a conflict.
+     * Helper method to update key-value in the store and tell the
+     * eviction policy. The last write wins if there is a conflict.
+     *
+     * @param node entry of the key to update
+     * @param value to insert or update
+     */
+    private void updateKey(StoreEntry node, byte[] value) {
+        long oldSize = node.size;
+        node.size = ENTRY_OVERHEAD + estimateSize(node.key) + storeValue(node, value);
+        memoryUsed += node.size - oldSize;
+        node.lastAccess = System.nanoTime();
+        evictionPolicy.onUpdate(node, oldSize);
+    }
+
+    /**
+     * Hand a value to the value storage, evicting the victims it picks
+     * until it finds memory for the value. Memory the storage reserves on
+     * the way is charged to the store.
+     *
+     * @param node entry to hold the value
+     * @param value to store
+     * @return bytes charged to the entry for the value
+     */
+    private long storeValue(StoreEntry node, byte[] value) {
+        while (true) {
+            long reserved = valueStorage.reservedBytes();
+            long charged = valueStorage.store(node, value, maxMemorySize - memoryUsed);
+            memoryUsed += valueStorage.reservedBytes() - reserved;
+            if (charged != ValueStorage.NO_MEMORY) {
+                return charged;
+            }
+            StoreEntry victim = valueStorage.victim();
+            if (victim == null) {
+                throw new IllegalStateException("No memory left for the value of " + node.key);
+            }
+            System.out.println("No memory left for the value of " + node.key + ". Evicting " + victim.key);
+            drop(victim);
+        }
+    }
+
+    /**
+     * Insert a new key-value pair into the store and tell the eviction
+     * policy. The last write wins if there is a conflict.
      *
      * @param key to insert or update
      * @param value to insert or update
+     * @return entry of the key
      */
-    private void updateKey(String key, String value) {
-        dbMap.put(key, value);
-        updateOrderList(key);
-        checkMemoryUsage();
+    private StoreEntry addKey(String key, byte[] value) {
+        StoreEntry node = new StoreEntry(key, null);
+        node.size = ENTRY_OVERHEAD + estimateSize(key) + storeValue(node, value);
+        memoryUsed += node.size;
+        node.lastAccess = System.nanoTime();
+        dbMap.put(key, node);
+        evictionPolicy.onInsert(node);
+        return node;
     }
 
     /**
-     * Insert a new key-value pair into the store and the LRU list.
-     * The last write wins if there is a conflict.
+     * Insert or update a key-value pair expiring at the given time. Keys
+     * that expired are removed first, so their memory goes before any live
+     * key is evicted. Caller must hold storeLock.
      *
      * @param key to insert or update
      * @param value to insert or update
+     * @param expiresAt time the key expires at, zero if it does not expire
      */
-    private void addKey(String key, String value) {
-        dbMap.put(key, value);
-        orderList.add(key);
-        checkMemoryUsage();
+    private void setKey(String key, byte[] value, long expiresAt) {
+        if (timers != null) {
+            removeExpired(System.currentTimeMillis());
+        }
+        StoreEntry node = dbMap.get(key);
+        if (node != null) {
+            updateKey(node, value);
+        } else {
+            node = addKey(key, value);
+        }
+        expireAt(node, expiresAt);
+        invalidated(key);
+    }
+
+    /**
+     * Change the expiry time of an entry and move it in the timer wheel.
+     * The wheel is only created, and charged to the store, once the first
+     * key expires. Caller must hold storeLock.
+     *
+     * @param node entry of the store
+     * @param expiresAt time the key expires at, zero if it does not expire
+     */
+    private void expireAt(StoreEntry node, long expiresAt) {
+        if (node.expiresAt == expiresAt) {
+            return;
+        }
+        if (timers != null) {
+            timers.deschedule(node);
+        }
+        node.expiresAt = expiresAt;
+        if (expiresAt != 0) {
+            if (timers == null) {
+                timers = new TimerWheel(System.currentTimeMillis());
+                memoryUsed += TimerWheel.OVERHEAD;
+            }
+            timers.schedule(node);
+        }
     }
 
     /**
@@ -69,98 +326,633 @@ public class DBStore implements DBInterface {
      * @param key to insert or update
      * @param value to insert or update
      */
-    public void set(String key, String value) {
-        boolean keyExists = dbMap.containsKey(key);
-        if (keyExists) {
-            updateKey(key, value);
-        } else {
-            addKey(key, value);
+    public void set(String key, byte[] value) {
+        synchronized (storeLock) {
+            setKey(key, value, 0);
+            checkMemoryUsage();
+        }
+    }
+
+    /**
+     * Insert or update new key-value pair into the store, expiring after
+     * the given time. The last write wins if there is a conflict.
+     *
+     * @param key to insert or update
+     * @param value to insert or update
+     * @param ttlMillis time to live of the key in milliseconds
+     */
+    public void set(String key, byte[] value, long ttlMillis) {
+        long expiresAt = expiryTime(ttlMillis);
+        synchronized (storeLock) {
+            setKey(key, value, expiresAt);
+            checkMemoryUsage();
         }
     }
 
     /**
      * Fetch the value for the given key from the store and
-     * update the LRU list
+     * tell the eviction policy about the access.
      *
      * @return value of the given key
      * @param key to fetch from the DBStore
      */
-    public String get(String key) throws ItemNotFoundException {
-        if (dbMap.containsKey(key)) {
-            updateOrderList(key);
-            return dbMap.get(key);
+    public byte[] get(String key) throws ItemNotFoundException {
+        StoreEntry node = lookup(key);
+        if (node == null) {
+            misses.increment();
+            throw new ItemNotFoundException("The item does not exist in the store");
+        }
+        hits.increment();
+        node.lastAccess = System.nanoTime();
+        if (evictionPolicy.accessNeedsLock()) {
+            synchronized (storeLock) {
+                evictionPolicy.onAccess(node);
+            }
         } else {
+            evictionPolicy.onAccess(node);
+        }
+        return valueStorage.load(node);
+    }
+
+    /**
+     * Look up the entry of a key, removing it if it has expired.
+     *
+     * @param key to look up
+     * @return entry of the key, null if it is not in the store
+     */
+    private StoreEntry lookup(String key) {
+        StoreEntry node = dbMap.get(key);
+        if (node != null && isExpired(node)) {
+            synchronized (storeLock) {
+                if (dbMap.get(key) == node) {
+                    drop(node);
+                }
+            }
+            return null;
+        }
+        return node;
+    }
+
+    private static boolean isExpired(StoreEntry node) {
+        long expiresAt = node.expiresAt;
+        return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+    }
+
+    /**
+     * Return the time the key has left to live.
+     *
+     * @param key to look up
+     * @return remaining time to live in milliseconds, NO_EXPIRY if the key
+     *         does not expire
+     */
+    public long ttl(String key) throws ItemNotFoundException {
+        StoreEntry node = lookup(key);
+        if (node == null) {
             throw new ItemNotFoundException("The item does not exist in the store");
         }
+        long expiresAt = node.expiresAt;
+        if (expiresAt == 0) {
+            return NO_EXPIRY;
+        }
+        return Math.max(expiresAt - System.currentTimeMillis(), 0);
     }
 
     /**
-     * Delete the key from the DBStore and the LRU list
+     * Remove the expiry of the key, so it stays until it is deleted or
+     * evicted.
+     *
+     * @param key to persist
+     * @return true if the key had an expiry
+     */
+    public boolean persist(String key) throws ItemNotFoundException {
+        synchronized (storeLock) {
+            StoreEntry node = lookup(key);
+            if (node == null) {
+                throw new ItemNotFoundException("The item does not exist in the store");
+            }
+            if (node.expiresAt == 0) {
+                return false;
+            }
+            expireAt(node, 0);
+            return true;
+        }
+    }
+
+    /**
+     * Delete the key from the DBStore and the eviction policy
      *
      * @param key to delete from the store
      */
     public void delete(String key) throws ItemNotFoundException {
-        if (dbMap.containsKey(key)) {
-            dbMap.remove(key);
-            orderList.remove(key);
+        synchronized (storeLock) {
+            StoreEntry node = dbMap.get(key);
+            if (node == null) {
+                throw new ItemNotFoundException("The item does not exist in the store");
+            }
+            if (isExpired(node)) {
+                drop(node);
+                throw new ItemNotFoundException("The item does not exist in the store");
+            }
+            evict(node);
+        }
+    }
+
+    /**
+     * Insert or update a batch of key-value pairs. The whole batch is
+     * applied under one acquisition of the store lock and the memory bound
+     * is only checked once, after the last pair. Until then the store may
+     * go over its bound by the size of the batch.
+     *
+     * @param items key-value pairs to insert or update, expiring at their
+     *              expiry time
+     */
+    public void setAll(DBItem[] items) {
+        long now = System.currentTimeMillis();
+        synchronized (storeLock) {
+            for (DBItem item : items) {
+                long expiresAt = item.getExpiresAt();
+                if (expiresAt != 0 && expiresAt <= now) {
+                    StoreEntry node = dbMap.get(item.getKey());
+                    if (node != null) {
+                        evict(node);
+                    }
+                    continue;
+                }
+                setKey(item.getKey(), item.getValue(), expiresAt);
+            }
+            checkMemoryUsage();
+        }
+    }
+
+    /**
+     * Fetch the values of a batch of keys. Accesses the eviction policy
+     * needs to hear about under the store lock are reported under one
+     * acquisition of it for the whole batch.
+     *
+     * @param keys to fetch from the DBStore
+     * @return an item per key in the same order, with a null value for
+     *         keys that are not in the store
+     */
+    public DBItem[] getAll(String[] keys) {
+        DBItem[] items = new DBItem[keys.length];
+        StoreEntry[] nodes = new StoreEntry[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            nodes[i] = lookup(keys[i]);
+            if (nodes[i] != null) {
+                try {
+                    items[i] = new DBItem(keys[i], valueStorage.load(nodes[i]));
+                } catch (ItemNotFoundException e) {
+                    // Removed since the lookup
+                    nodes[i] = null;
+                }
+            }
+            if (nodes[i] == null) {
+                misses.increment();
+                items[i] = new DBItem(keys[i]);
+            } else {
+                hits.increment();
+                nodes[i].lastAccess = System.nanoTime();
+            }
+        }
+        if (evictionPolicy.accessNeedsLock()) {
+            synchronized (storeLock) {
+                accessAll(nodes);
+            }
         } else {
-            throw new ItemNotFoundException("The item does not exist in the store");
+            accessAll(nodes);
         }
+        return items;
+    }
+
+    /**
+     * Tell the eviction policy about the entries accessed by a batch.
+     *
+     * @param nodes entries found by the batch, null for misses
+     */
+    private void accessAll(StoreEntry[] nodes) {
+        for (StoreEntry node : nodes) {
+            if (node != null) {
+                evictionPolicy.onAccess(node);
+            }
+        }
+    }
+
+    /**
+     * Delete a batch of keys under one acquisition of the store lock.
+     *
+     * @param keys to delete from the store
+     * @return for every key whether it was in the store
+     */
+    public boolean[] deleteAll(String[] keys) {
+        boolean[] deleted = new boolean[keys.length];
+        synchronized (storeLock) {
+            for (int i = 0; i < keys.length; i++) {
+                StoreEntry node = dbMap.get(keys[i]);
+                if (node != null) {
+                    deleted[i] = !isExpired(node);
+                    if (deleted[i]) {
+                        evict(node);
+                    } else {
+                        drop(node);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Fetch the next chunk of a scan over the store. Unlike stream() the
+     * scan does not take the store lock and never holds more than a chunk
+     * of the store, but returns keys in no particular order.
+     *
+     * @param cursor cursor returned by the previous chunk, zero to start
+     * @param count maximum number of key-value pairs to return
+     * @param prefix only return keys starting with it, null for all keys
+     * @return the chunk and the cursor to continue from, zero when done
+     * @throws InvalidRequestException if the cursor is unknown or expired
+     */
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        return scanCursors.scan(new ScanCursors.EntrySource() {
+            @Override
+            public Iterator<StoreEntry> entryIterator() {
+                return DBStore.this.entryIterator();
+            }
+
+            @Override
+            public byte[] valueOf(StoreEntry entry) throws ItemNotFoundException {
+                return load(entry);
+            }
+        }, cursor, count, prefix);
+    }
+
+    /**
+     * Iterate over the entries of the store without locking it. The
+     * iterator is weakly consistent.
+     *
+     * @return iterator over the live entries
+     */
+    Iterator<StoreEntry> entryIterator() {
+        return dbMap.values().iterator();
     }
 
     /**
      * Handle the STREAM request from a client by fetching all the
-     * key-value pairs from the DBStore.
+     * key-value pairs from the DBStore, most recently used first.
+     * The values are read after the order is captured. Expired keys are
+     * left out.
      *
      * @return DBResponse with all the key-value pairs
      */
     public DBItem[] stream() {
-        int noOfItems = orderList.size();
-        if (noOfItems == 0) {
+        StoreEntry[] entries = entries();
+        if (entries.length == 0) {
             return null;
         }
-        DBItem[] items = new DBItem[noOfItems];
+        DBItem[] items = new DBItem[entries.length];
         int itemNo = 0;
-        for (int i = orderList.size() - 1; i >= 0; i--) {
-            DBItem item = new DBItem(orderList.get(i), dbMap.get(orderList.get(i)));
-            items[itemNo] = item;
-            itemNo++;
+        for (StoreEntry entry : entries) {
+            try {
+                long expiresAt = entry.expiresAt;
+                items[itemNo] = new DBItem(entry.key, load(entry), expiresAt);
+                itemNo++;
+            } catch (ItemNotFoundException e) {
+                // Removed since the order was captured, or expired
+            }
         }
-        return items;
+        return itemNo == items.length ? items : Arrays.copyOf(items, itemNo);
+    }
+
+    /**
+     * Walk all the key-value pairs of the DBStore, least recently used
+     * first, carrying the expiry time of their key. The order is captured
+     * when called, but every value is only read when its pair is reached.
+     * Keys that expired or were removed since are skipped.
+     *
+     * @return iterator over the pairs
+     */
+    public Iterator<DBItem> leastRecentFirst() {
+        final StoreEntry[] entries = entries();
+        return new EntryItemIterator() {
+            private int position = entries.length;
+
+            @Override
+            StoreEntry nextEntry() {
+                if (position == 0) {
+                    return null;
+                }
+                return entries[--position];
+            }
+
+            @Override
+            byte[] load(StoreEntry entry) throws ItemNotFoundException {
+                return DBStore.this.load(entry);
+            }
+        };
     }
 
     /**
-     * Handle the DELETE request from a client by updating the
-     * DBStore.
+     * Read the value of an entry of this store.
      *
-     * @param key to put in front of the LRU
+     * @param entry entry of this store
+     * @return value of the entry
+     * @throws ItemNotFoundException if the entry expired, or was removed
+     *                               and its value is gone
      */
-    private void updateOrderList(String key) {
-        orderList.remove(key);
-        orderList.add(key);
+    byte[] load(StoreEntry entry) throws ItemNotFoundException {
+        if (isExpired(entry)) {
+            throw new ItemNotFoundException("The item has expired");
+        }
+        return valueStorage.load(entry);
     }
 
     /**
-     * Handle the STREAM request from a client by fetching all the
-     * key-value pairs from the DBStore.
+     * Fetch all the entries of the store, most recently used first. The
+     * values are read from the entries afterwards, so they may reflect
+     * writes that happened after the call.
      *
-     * @return DBResponse with all the key-value pairs
+     * @return entries in LRU order, most recently used first
+     */
+    StoreEntry[] entries() {
+        StoreEntry[] entries;
+        synchronized (storeLock) {
+            entries = new StoreEntry[dbMap.size()];
+            evictionPolicy.copyEntries(entries);
+        }
+        if (evictionPolicy.copiesInRecencyOrder()) {
+            return entries;
+        }
+        // Lock-free reads keep stamping entries while sorting, so sort on a
+        // copy of the access times to keep the comparison consistent.
+        final long[] accessTimes = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            accessTimes[i] = entries[i].lastAccess;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(accessTimes[b], accessTimes[a]);
+            }
+        });
+        StoreEntry[] sorted = new StoreEntry[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = entries[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Return the estimated number of bytes used by the store.
+     *
+     * @return estimated memory usage in bytes
+     */
+    public long getMemoryUsed() {
+        synchronized (storeLock) {
+            return memoryUsed;
+        }
+    }
+
+    /**
+     * Return the number of GETs that found their key.
+     *
+     * @return number of hits since the store was created
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of GETs that did not find their key.
+     *
+     * @return number of misses since the store was created
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the metrics of the value compression, empty while it is
+     * disabled.
+     *
+     * @return compression metrics of the store
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * Tell the given listener about every key written, deleted, expired or
+     * evicted from now on.
+     *
+     * @param listener listener called with the store lock held, null for
+     *                 none
+     */
+    public void setInvalidationListener(InvalidationListener listener) {
+        invalidationListener = listener;
+    }
+
+    /**
+     * Tell the given listener about every key expired or evicted from now
+     * on, but not about keys deleted.
+     *
+     * @param listener listener called with the store lock held, null for
+     *                 none
      */
-    private synchronized void checkMemoryUsage() {
-        MemoryMeter meter = new MemoryMeter();
-        long memoryUsed = meter.measureDeep(this);
-        System.out.println("Memory consumed by the store: " + memoryUsed + "bytes");
-        while (memoryUsed > this.maxMemorySize) {
-            System.out.println("Memory consumption meets or exceeds set bound of "
-                    + maxMemorySize + ". Removing LRU item");
+    public void setEvictionListener(EvictionListener listener) {
+        evictionListener = listener;
+    }
 
-            if (orderList.size() <= 0) {
+    /**
+     * Stop evicting keys to stay under the memory bound, for a store that
+     * only drops the keys something else tells it to, like the store of a
+     * replica. Keys still expire. Slab storage still evicts a key of the
+     * size class of a value it has no chunk for.
+     */
+    public void disableEviction() {
+        evicting = false;
+    }
+
+    /**
+     * Remove the keys that have expired by now.
+     *
+     * @return number of keys removed
+     */
+    public int removeExpired() {
+        synchronized (storeLock) {
+            return removeExpired(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Advance the timer wheel and remove the keys it finds expired.
+     * Caller must hold storeLock.
+     */
+    private int removeExpired(long now) {
+        if (timers == null) {
+            return 0;
+        }
+        timers.advance(now, expired);
+        int removed = expired.size();
+        for (StoreEntry node : expired) {
+            drop(node);
+        }
+        expired.clear();
+        return removed;
+    }
+
+    /**
+     * Remove expired keys in the background every given interval, so keys
+     * that are never accessed again do not wait for a write to go.
+     *
+     * @param intervalMillis milliseconds between two runs. Zero disables it
+     */
+    public void scheduleExpiry(int intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpired();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evict keys picked by the eviction policy until the estimated memory
+     * usage is back under the configured bound. Caller must hold storeLock.
+     */
+    private void checkMemoryUsage() {
+        while (evicting && memoryUsed > this.maxMemorySize) {
+            StoreEntry victim = evictionPolicy.nextVictim();
+            if (victim == null) {
                 break;
             }
-            dbMap.remove(orderList.get(0));
-            orderList.remove(0);
-            memoryUsed = meter.measureDeep(this);
-            System.out.println("Memory consumption after LRU removal: " + memoryUsed + "bytes");
+            System.out.println("Memory consumption of " + memoryUsed + " bytes exceeds set bound of "
+                    + maxMemorySize + ". Evicting " + victim.key);
+            drop(victim);
+        }
+    }
+
+    /**
+     * Remove an entry and give back its memory. Caller must hold
+     * storeLock.
+     */
+    private void evict(StoreEntry victim) {
+        dbMap.remove(victim.key);
+        if (timers != null) {
+            timers.deschedule(victim);
+        }
+        evictionPolicy.onRemove(victim);
+        valueStorage.release(victim);
+        memoryUsed -= victim.size;
+        invalidated(victim.key);
+    }
+
+    /**
+     * Remove an entry the store drops on its own, because it expired or to
+     * make room, and tell the eviction listener. Caller must hold
+     * storeLock.
+     */
+    private void drop(StoreEntry victim) {
+        evict(victim);
+        EvictionListener listener = evictionListener;
+        if (listener != null) {
+            listener.evicted(victim.key);
+        }
+    }
+
+    private void invalidated(String key) {
+        InvalidationListener listener = invalidationListener;
+        if (listener != null) {
+            listener.invalidate(key);
+        }
+    }
+
+    /**
+     * Periodically compare the running byte counter against a deep
+     * measurement of the store and report the drift. This needs the server
+     * to run with the jamm java agent and is skipped otherwise.
+     *
+     * @param intervalSeconds seconds between two checks. Zero disables it
+     */
+    public void scheduleDriftCheck(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        if (!MemoryMeter.hasInstrumentation()) {
+            System.out.println("Memory drift check needs the jamm java agent. Skipping it");
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-memory-drift-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                long measured = new MemoryMeter().measureDeep(DBStore.this);
+                long estimated = getMemoryUsed();
+                System.out.println("Memory consumed by the store: " + measured + " bytes measured, "
+                        + estimated + " bytes estimated, drift " + (measured - estimated) + " bytes");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Return the time a key set now with the given time to live expires
+     * at.
+     *
+     * @param ttlMillis time to live in milliseconds
+     * @return expiry time in milliseconds since the epoch
+     * @throws IllegalArgumentException if the time to live is not positive
+     */
+    static long expiryTime(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive, got " + ttlMillis);
+        }
+        long now = System.currentTimeMillis();
+        return ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMillis;
+    }
+
+    /**
+     * Estimate the size of a string assuming compact Latin-1 storage:
+     * the String object plus its backing array, both 8 byte aligned.
+     *
+     * @param s string to estimate
+     * @return estimated size in bytes
+     */
+    static long estimateSize(String s) {
+        if (s == null) {
+            return 0;
+        }
+        return 24 + ((16 + s.length() + 7) & ~7L);
+    }
+
+    /**
+     * Estimate the size of a byte array, 8 byte aligned.
+     *
+     * @param bytes array to estimate
+     * @return estimated size in bytes
+     */
+    static long estimateSize(byte[] bytes) {
+        if (bytes == null) {
+            return 0;
         }
+        return (16 + bytes.length + 7) & ~7L;
     }
 }
@@ -0,0 +1,53 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator turning store entries into key-value pairs one at a time, so
+ * only the value of the current pair is held on the heap. Entries that
+ * expired since they were captured, or whose value is gone, are skipped.
+ */
+abstract class EntryItemIterator implements Iterator<DBItem> {
+    private DBItem next;
+
+    /**
+     * @return the next entry, null once there are no more
+     */
+    abstract StoreEntry nextEntry();
+
+    /**
+     * @return value of the given entry
+     * @throws ItemNotFoundException if the entry expired or was removed
+     */
+    abstract byte[] load(StoreEntry entry) throws ItemNotFoundException;
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            StoreEntry entry = nextEntry();
+            if (entry == null) {
+                return false;
+            }
+            try {
+                long expiresAt = entry.expiresAt;
+                next = new DBItem(entry.key, load(entry), expiresAt);
+            } catch (ItemNotFoundException e) {
+                // Removed since the order was captured, or expired
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public DBItem next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DBItem item = next;
+        next = null;
+        return item;
+    }
+}
@@ -0,0 +1,93 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Intrusive doubly-linked list of store entries, most recently linked first.
+ * Every entry is in at most one list at a time and knows which one, so all
+ * operations are O(1). Not thread-safe, callers must hold the store lock.
+ */
+class EntryList {
+    private final StoreEntry head;
+    private int size;
+
+    EntryList() {
+        head = new StoreEntry(null, null);
+        head.prev = head;
+        head.next = head;
+    }
+
+    /**
+     * Link the entry in at the front of the list.
+     *
+     * @param entry entry that is not in any list
+     */
+    void linkFirst(StoreEntry entry) {
+        entry.prev = head;
+        entry.next = head.next;
+        head.next.prev = entry;
+        head.next = entry;
+        entry.list = this;
+        size++;
+    }
+
+    /**
+     * Unlink the entry from the list.
+     *
+     * @param entry entry in this list
+     */
+    void unlink(StoreEntry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.list = null;
+        size--;
+    }
+
+    /**
+     * Move the entry to the front of the list.
+     *
+     * @param entry entry in this list
+     */
+    void moveToFront(StoreEntry entry) {
+        unlink(entry);
+        linkFirst(entry);
+    }
+
+    /**
+     * @return entry at the front of the list, null if the list is empty
+     */
+    StoreEntry first() {
+        return head.next == head ? null : head.next;
+    }
+
+    /**
+     * @return entry at the back of the list, null if the list is empty
+     */
+    StoreEntry last() {
+        return head.prev == head ? null : head.prev;
+    }
+
+    boolean isEmpty() {
+        return head.next == head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copy the entries of the list, front first, into the given array.
+     *
+     * @param entries array to copy into
+     * @param from index of the first free slot of the array
+     * @return index of the first free slot after the copy
+     */
+    int copyInto(StoreEntry[] entries, int from) {
+        int entryNo = from;
+        for (StoreEntry entry = head.next; entry != head && entryNo < entries.length; entry = entry.next) {
+            entries[entryNo] = entry;
+            entryNo++;
+        }
+        return entryNo;
+    }
+}
@@ -0,0 +1,15 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Told about every key a store drops on its own, because it expired or
+ * was evicted to stay under the memory bound, as opposed to deleted by a
+ * client. Called with the lock of the store held, so implementations must
+ * not block or call back into the store.
+ */
+public interface EvictionListener {
+
+    /**
+     * @param key key the store dropped
+     */
+    void evicted(String key);
+}
@@ -0,0 +1,100 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Decides which entry of a DBStore is evicted when the store goes over its
+ * memory bound. The store tells the policy about every insert, update,
+ * access and removal and asks it for victims until it is back under the
+ * bound.
+ *
+ * All methods are called with the store lock held, except onAccess when
+ * {@link #accessNeedsLock()} is false. Entries passed to onAccess may have
+ * been removed concurrently and must then be ignored.
+ */
+interface EvictionPolicy {
+
+    /**
+     * @return true if onAccess changes shared state and must be called
+     *         with the store lock held
+     */
+    boolean accessNeedsLock();
+
+    /**
+     * A new entry was added to the store.
+     *
+     * @param entry added entry
+     */
+    void onInsert(StoreEntry entry);
+
+    /**
+     * An entry was read.
+     *
+     * @param entry read entry
+     */
+    void onAccess(StoreEntry entry);
+
+    /**
+     * The value of an entry was replaced.
+     *
+     * @param entry updated entry, already carrying its new size
+     * @param oldSize size of the entry before the update
+     */
+    void onUpdate(StoreEntry entry, long oldSize);
+
+    /**
+     * An entry was deleted or evicted from the store.
+     *
+     * @param entry removed entry
+     */
+    void onRemove(StoreEntry entry);
+
+    /**
+     * Pick the entry to evict next. The store removes it and calls
+     * onRemove before asking for the next one.
+     *
+     * @return entry to evict, null if there is nothing left to evict
+     */
+    StoreEntry nextVictim();
+
+    /**
+     * Copy all the entries known to the policy into the given array.
+     *
+     * @param entries array sized to the number of entries in the store
+     */
+    void copyEntries(StoreEntry[] entries);
+
+    /**
+     * @return true if copyEntries returns the entries most recently used
+     *         first, false if the store has to sort them
+     */
+    boolean copiesInRecencyOrder();
+
+    /**
+     * @return bytes used by the policy that do not grow with the entries
+     */
+    long overhead();
+
+    /**
+     * Create the policy with the given name.
+     *
+     * @param name one of the policy names defined in DBStore
+     * @param maxMemorySize memory bound of the store in bytes
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        sampled_lru
+     * @return new eviction policy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static EvictionPolicy create(String name, long maxMemorySize, int evictionSamples) {
+        if (DBStore.LRU.equals(name)) {
+            return new LRUEvictionPolicy();
+        } else if (DBStore.SAMPLED_LRU.equals(name)) {
+            return new SampledLRUEvictionPolicy(evictionSamples);
+        } else if (DBStore.FIFO.equals(name)) {
+            return new FIFOEvictionPolicy();
+        } else if (DBStore.LFU.equals(name)) {
+            return new LFUEvictionPolicy();
+        } else if (DBStore.W_TINYLFU.equals(name)) {
+            return new TinyLFUEvictionPolicy(maxMemorySize);
+        }
+        throw new IllegalArgumentException("Unknown eviction policy " + name);
+    }
+}
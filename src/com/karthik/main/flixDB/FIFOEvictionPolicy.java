@@ -0,0 +1,52 @@
+package com.karthik.main.flixDB;
+
+/**
+ * First in, first out. Entries are evicted in insertion order no matter
+ * how often they are read, so reads never touch shared state.
+ */
+final class FIFOEvictionPolicy implements EvictionPolicy {
+    private final EntryList insertionList = new EntryList();
+
+    @Override
+    public boolean accessNeedsLock() {
+        return false;
+    }
+
+    @Override
+    public void onInsert(StoreEntry entry) {
+        insertionList.linkFirst(entry);
+    }
+
+    @Override
+    public void onAccess(StoreEntry entry) {
+    }
+
+    @Override
+    public void onUpdate(StoreEntry entry, long oldSize) {
+    }
+
+    @Override
+    public void onRemove(StoreEntry entry) {
+        insertionList.unlink(entry);
+    }
+
+    @Override
+    public StoreEntry nextVictim() {
+        return insertionList.last();
+    }
+
+    @Override
+    public void copyEntries(StoreEntry[] entries) {
+        insertionList.copyInto(entries, 0);
+    }
+
+    @Override
+    public boolean copiesInRecencyOrder() {
+        return false;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+}
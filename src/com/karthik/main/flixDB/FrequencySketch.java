@@ -0,0 +1,98 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Count-min sketch estimating how often a key was seen recently, with 4-bit
+ * counters packed sixteen to a long. Every key maps to one counter in each
+ * of four rows and its frequency is the smallest of the four. Once the
+ * number of increments reaches ten times the width of the table all the
+ * counters are halved, so keys that were popular a long time ago age out.
+ * Not thread-safe, callers must hold the store lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_FREQUENCY = 15;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Constructs a sketch sized for the given number of keys.
+     *
+     * @param expectedEntries number of keys the cache is expected to hold
+     */
+    FrequencySketch(long expectedEntries) {
+        int width = 16;
+        while (width < expectedEntries && width < (1 << 24)) {
+            width <<= 1;
+        }
+        table = new long[width];
+        sampleSize = 10 * width;
+    }
+
+    /**
+     * @param key key to look up
+     * @return estimated number of recent accesses of the key, at most 15
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, row)] >>> shiftOf(hash, row)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Count one access of the key, halving all the counters once enough
+     * accesses were counted.
+     *
+     * @param key accessed key
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = indexOf(hash, row);
+            int shift = shiftOf(hash, row);
+            if (((table[index] >>> shift) & 0xfL) < MAX_FREQUENCY) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return bytes used by the counter table
+     */
+    long size() {
+        return 16 + 8L * table.length;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    private static int shiftOf(int hash, int row) {
+        return ((hash >>> (row << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,39 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Values kept as byte arrays on the Java heap, referenced by the entries.
+ * A removed entry keeps its value, so concurrent readers still see it.
+ * Values are never copied, readers get the array that was stored.
+ */
+final class HeapValueStorage implements ValueStorage {
+
+    @Override
+    public long store(StoreEntry entry, byte[] value, long headroom) {
+        entry.value = value;
+        return DBStore.estimateSize(value);
+    }
+
+    @Override
+    public byte[] load(StoreEntry entry) {
+        return entry.value;
+    }
+
+    @Override
+    public void release(StoreEntry entry) {
+    }
+
+    @Override
+    public StoreEntry victim() {
+        return null;
+    }
+
+    @Override
+    public long reservedBytes() {
+        return 0;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+}
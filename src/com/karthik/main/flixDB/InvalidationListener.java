@@ -0,0 +1,14 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Told about every key whose value a store changes or drops: writes,
+ * deletes, expiry and eviction alike. Called with the lock of the store
+ * held, so implementations must not block or call back into the store.
+ */
+public interface InvalidationListener {
+
+    /**
+     * @param key key whose value changed or is gone
+     */
+    void invalidate(String key);
+}
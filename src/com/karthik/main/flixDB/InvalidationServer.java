@@ -0,0 +1,409 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps the near caches of clients coherent, on a port of its own. A
+ * client reads the keys it wants to cache over this port and the server
+ * remembers which client read which key. The first time such a key is
+ * written, deleted, expires or is evicted, every client that read it is
+ * sent an invalidation and forgotten for the key, until it reads the key
+ * again. This is the tracking of Redis client side caching, with the
+ * invalidations sent on the connection the keys were read on.
+ *
+ * A client opens the connection with MAGIC and VERSION and sends TRACK
+ * requests holding the keys to read, answered in order with an MSET
+ * request holding their values, null for missing keys. The key is tracked
+ * before it is read, so a write after the read is never missed. Clients
+ * send UNTRACK requests for keys they dropped from their cache. The server
+ * sends INVALIDATE requests with the keys whose values changed, batched
+ * while the client is behind.
+ *
+ * A client falling more than MAX_PENDING messages behind is disconnected,
+ * and has to drop its cache as it may have missed invalidations.
+ *
+ * The number of tracked keys can be capped, like the tracking table of
+ * Redis. Past the cap the server stops tracking other keys, sweeping
+ * through the table in hash order, and sends their readers an
+ * invalidation as for a write, so no client keeps a key it is no longer
+ * told about.
+ */
+public class InvalidationServer implements InvalidationListener {
+    private final ConcurrentHashMap<String, Set<Subscriber>> tracked =
+            new ConcurrentHashMap<String, Set<Subscriber>>();
+    private final Set<Subscriber> subscribers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+    private final int maxTrackedKeys;
+    private Iterator<String> evictionCursor;
+    private DBInterface dbStore;
+    private int port;
+    private ServerSocket server;
+    private volatile boolean stopped = false;
+
+    /**
+     * Largest number of messages queued for a client.
+     */
+    static final int MAX_PENDING = 64 * 1024;
+
+    /**
+     * Largest number of keys sent per INVALIDATE request.
+     */
+    private static final int INVALIDATE_BATCH = 1000;
+
+    /**
+     * Constructs an InvalidationServer. It tracks keys as soon as it is
+     * set as the invalidation listener of the store, and serves clients
+     * once started.
+     *
+     * @param port port to listen for clients on, 0 for a free one
+     */
+    public InvalidationServer(int port) {
+        this(port, 0);
+    }
+
+    /**
+     * Constructs an InvalidationServer tracking at most the given number
+     * of keys.
+     *
+     * @param port port to listen for clients on, 0 for a free one
+     * @param maxTrackedKeys largest number of keys tracked, 0 for no limit
+     */
+    public InvalidationServer(int port, int maxTrackedKeys) {
+        if (maxTrackedKeys < 0) {
+            throw new IllegalArgumentException("Tracked keys limit cannot be negative, got " + maxTrackedKeys);
+        }
+        this.port = port;
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return number of keys tracked for at least one client
+     */
+    public int getTrackedKeys() {
+        return tracked.size();
+    }
+
+    /**
+     * Bind the port and start accepting clients on a background thread.
+     *
+     * @param dbStore store the clients are served from, reads of tracked
+     *                keys go to it
+     * @throws IOException if the port cannot be bound
+     */
+    public void start(DBInterface dbStore) throws IOException {
+        this.dbStore = dbStore;
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        port = server.getLocalPort();
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "flixDB-invalidation");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting clients and disconnect the connected ones.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to close the invalidation socket: " + e.getMessage());
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!stopped) {
+                    System.out.println("Failed to accept a tracking client: " + e.getMessage());
+                }
+                continue;
+            }
+            Subscriber subscriber = new Subscriber(socket);
+            subscribers.add(subscriber);
+            subscriber.start();
+        }
+    }
+
+    public void invalidate(String key) {
+        if (tracked.isEmpty()) {
+            return;
+        }
+        Set<Subscriber> readers = tracked.remove(key);
+        if (readers == null) {
+            return;
+        }
+        for (Subscriber reader : readers) {
+            reader.invalidated(key);
+        }
+    }
+
+    private void track(String key, final Subscriber subscriber) {
+        // Atomic with invalidate(), so a key is never added to a set that
+        // was just taken out of the map
+        tracked.compute(key, new BiFunction<String, Set<Subscriber>, Set<Subscriber>>() {
+            @Override
+            public Set<Subscriber> apply(String key, Set<Subscriber> readers) {
+                if (readers == null) {
+                    readers = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+                }
+                readers.add(subscriber);
+                return readers;
+            }
+        });
+    }
+
+    /**
+     * Invalidate tracked keys until the table is back within its limit.
+     * Keys are taken in hash order, resuming where the last call stopped,
+     * which picks them regardless of how recently they were read.
+     */
+    private synchronized void evictTrackedKeys() {
+        while (tracked.size() > maxTrackedKeys) {
+            if (evictionCursor == null || !evictionCursor.hasNext()) {
+                evictionCursor = tracked.keySet().iterator();
+                if (!evictionCursor.hasNext()) {
+                    return;
+                }
+            }
+            invalidate(evictionCursor.next());
+        }
+    }
+
+    private void untrack(String key, final Subscriber subscriber) {
+        tracked.computeIfPresent(key, new BiFunction<String, Set<Subscriber>, Set<Subscriber>>() {
+            @Override
+            public Set<Subscriber> apply(String key, Set<Subscriber> readers) {
+                readers.remove(subscriber);
+                return readers.isEmpty() ? null : readers;
+            }
+        });
+    }
+
+    /**
+     * Connection to one client, with a thread reading its requests and
+     * one writing the replies and invalidations queued for it.
+     */
+    private final class Subscriber {
+        final Socket socket;
+        final String address;
+        final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final BlockingQueue<Object> outbox = new LinkedBlockingQueue<Object>(MAX_PENDING);
+        Thread writer;
+        volatile boolean closed = false;
+
+        Subscriber(Socket socket) {
+            this.socket = socket;
+            this.address = String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        void start() {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        read();
+                    } finally {
+                        close();
+                        forget();
+                    }
+                }
+            }, "flixDB-invalidation-reader");
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write();
+                    } finally {
+                        close();
+                    }
+                }
+            }, "flixDB-invalidation-writer");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        /**
+         * Queue an invalidation without blocking, as the store lock is
+         * held. A client too far behind is disconnected instead.
+         */
+        void invalidated(String key) {
+            keys.remove(key);
+            if (!outbox.offer(key) && !closed) {
+                System.out.println("Tracking client " + address + " fell " + MAX_PENDING
+                        + " messages behind. Disconnecting it");
+                close();
+            }
+        }
+
+        private void read() {
+            try {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                if (in.read() != (BinaryProtocol.MAGIC & 0xff) || in.read() != BinaryProtocol.VERSION) {
+                    throw new ProtocolException("Not a FlixDB client");
+                }
+                while (!closed) {
+                    DBRequest request = BinaryProtocol.readRequest(in);
+                    if (request == null) {
+                        return;
+                    }
+                    String[] requested = keysOf(request);
+                    if (Constants.TRACK.equals(request.getRequestType())) {
+                        for (String key : requested) {
+                            keys.add(key);
+                            track(key, this);
+                        }
+                        if (maxTrackedKeys > 0 && tracked.size() > maxTrackedKeys) {
+                            evictTrackedKeys();
+                        }
+                        DBItem[] values = dbStore.getAll(requested);
+                        while (!outbox.offer(values, 100, TimeUnit.MILLISECONDS)) {
+                            if (closed) {
+                                return;
+                            }
+                        }
+                    } else if (Constants.UNTRACK.equals(request.getRequestType())) {
+                        for (String key : requested) {
+                            keys.remove(key);
+                            untrack(key, this);
+                        }
+                    } else {
+                        throw new InvalidRequestException("Expected TRACK or UNTRACK, not "
+                                + request.getRequestType());
+                    }
+                }
+            } catch (SocketException e) {
+                if (!closed) {
+                    System.out.println("Tracking client " + address + " disconnected: " + e.getMessage());
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to serve tracking client " + address + ": " + e.getMessage());
+            } catch (InvalidRequestException e) {
+                System.out.println("Invalid request from tracking client " + address + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private String[] keysOf(DBRequest request) throws InvalidRequestException {
+            DBItem[] items = request.getItems();
+            if (items == null) {
+                throw new InvalidRequestException(request.getRequestType() + " without keys");
+            }
+            String[] requested = new String[items.length];
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].getKey() == null) {
+                    throw new InvalidRequestException(request.getRequestType() + " of a null key");
+                }
+                requested[i] = items[i].getKey();
+            }
+            return requested;
+        }
+
+        private void write() {
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                List<Object> batch = new ArrayList<Object>();
+                List<DBItem> invalidated = new ArrayList<DBItem>();
+                while (!closed) {
+                    batch.add(outbox.take());
+                    outbox.drainTo(batch);
+                    for (Object message : batch) {
+                        if (message instanceof String) {
+                            invalidated.add(new DBItem((String) message));
+                            if (invalidated.size() >= INVALIDATE_BATCH) {
+                                writeInvalidations(out, invalidated);
+                            }
+                        } else {
+                            // Keeps the invalidations queued before a reply ahead of it
+                            writeInvalidations(out, invalidated);
+                            BinaryProtocol.writeRequest(out, new DBRequest(Constants.MSET, (DBItem[]) message));
+                        }
+                    }
+                    batch.clear();
+                    writeInvalidations(out, invalidated);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Failed to write to tracking client " + address + ": " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void writeInvalidations(OutputStream out, List<DBItem> invalidated) throws IOException {
+            if (invalidated.isEmpty()) {
+                return;
+            }
+            BinaryProtocol.writeRequest(out, new DBRequest(Constants.INVALIDATE,
+                    invalidated.toArray(new DBItem[invalidated.size()])));
+            invalidated.clear();
+        }
+
+        /**
+         * Disconnect the client. Its reader thread then forgets it.
+         */
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (writer != null) {
+                writer.interrupt();
+            }
+        }
+
+        private void forget() {
+            subscribers.remove(this);
+            for (String key : keys) {
+                untrack(key, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Least frequently used, with O(1) updates. Entries with the same access
+ * count share a bucket, and the buckets form a list sorted by count. An
+ * access moves the entry into the bucket for the next count and the least
+ * recently used entry of the lowest bucket is evicted.
+ */
+final class LFUEvictionPolicy implements EvictionPolicy {
+    private final FrequencyBucket buckets;
+
+    LFUEvictionPolicy() {
+        buckets = new FrequencyBucket(0);
+        buckets.prevBucket = buckets;
+        buckets.nextBucket = buckets;
+    }
+
+    @Override
+    public boolean accessNeedsLock() {
+        return true;
+    }
+
+    @Override
+    public void onInsert(StoreEntry entry) {
+        FrequencyBucket first = buckets.nextBucket;
+        if (first == buckets || first.frequency != 1) {
+            first = addBucketAfter(buckets, 1);
+        }
+        first.linkFirst(entry);
+    }
+
+    @Override
+    public void onAccess(StoreEntry entry) {
+        if (!(entry.list instanceof FrequencyBucket)) {
+            return;
+        }
+        FrequencyBucket bucket = (FrequencyBucket) entry.list;
+        FrequencyBucket next = bucket.nextBucket;
+        if (next == buckets || next.frequency != bucket.frequency + 1) {
+            next = addBucketAfter(bucket, bucket.frequency + 1);
+        }
+        bucket.unlink(entry);
+        next.linkFirst(entry);
+        removeIfEmpty(bucket);
+    }
+
+    @Override
+    public void onUpdate(StoreEntry entry, long oldSize) {
+        onAccess(entry);
+    }
+
+    @Override
+    public void onRemove(StoreEntry entry) {
+        FrequencyBucket bucket = (FrequencyBucket) entry.list;
+        bucket.unlink(entry);
+        removeIfEmpty(bucket);
+    }
+
+    @Override
+    public StoreEntry nextVictim() {
+        return buckets.nextBucket == buckets ? null : buckets.nextBucket.last();
+    }
+
+    @Override
+    public void copyEntries(StoreEntry[] entries) {
+        int entryNo = 0;
+        for (FrequencyBucket bucket = buckets.prevBucket; bucket != buckets; bucket = bucket.prevBucket) {
+            entryNo = bucket.copyInto(entries, entryNo);
+        }
+    }
+
+    @Override
+    public boolean copiesInRecencyOrder() {
+        return false;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+
+    private FrequencyBucket addBucketAfter(FrequencyBucket bucket, long frequency) {
+        FrequencyBucket added = new FrequencyBucket(frequency);
+        added.prevBucket = bucket;
+        added.nextBucket = bucket.nextBucket;
+        bucket.nextBucket.prevBucket = added;
+        bucket.nextBucket = added;
+        return added;
+    }
+
+    private void removeIfEmpty(FrequencyBucket bucket) {
+        if (bucket.isEmpty()) {
+            bucket.prevBucket.nextBucket = bucket.nextBucket;
+            bucket.nextBucket.prevBucket = bucket.prevBucket;
+        }
+    }
+
+    /**
+     * Entries accessed the same number of times, most recently used first.
+     */
+    private static final class FrequencyBucket extends EntryList {
+        final long frequency;
+        FrequencyBucket prevBucket;
+        FrequencyBucket nextBucket;
+
+        FrequencyBucket(long frequency) {
+            this.frequency = frequency;
+        }
+    }
+}
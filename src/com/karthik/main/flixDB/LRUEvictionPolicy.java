@@ -0,0 +1,56 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Exact LRU. Every access and update moves the entry to the front of a
+ * single list and the entry at the back is evicted.
+ */
+final class LRUEvictionPolicy implements EvictionPolicy {
+    private final EntryList lruList = new EntryList();
+
+    @Override
+    public boolean accessNeedsLock() {
+        return true;
+    }
+
+    @Override
+    public void onInsert(StoreEntry entry) {
+        lruList.linkFirst(entry);
+    }
+
+    @Override
+    public void onAccess(StoreEntry entry) {
+        if (entry.list == lruList) {
+            lruList.moveToFront(entry);
+        }
+    }
+
+    @Override
+    public void onUpdate(StoreEntry entry, long oldSize) {
+        onAccess(entry);
+    }
+
+    @Override
+    public void onRemove(StoreEntry entry) {
+        lruList.unlink(entry);
+    }
+
+    @Override
+    public StoreEntry nextVictim() {
+        return lruList.last();
+    }
+
+    @Override
+    public void copyEntries(StoreEntry[] entries) {
+        lruList.copyInto(entries, 0);
+    }
+
+    @Override
+    public boolean copiesInRecencyOrder() {
+        return true;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+}
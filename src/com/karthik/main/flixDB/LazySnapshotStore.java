@@ -0,0 +1,423 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Store serving a memory mapped snapshot without loading it first, so the
+ * server can accept clients right after startup. A key missing from the
+ * wrapped store is looked up in the snapshot and copied into the store on
+ * its first GET, while a warm-up thread copies the rest of the snapshot in
+ * least recently used first order. Once every pair has been copied, the
+ * snapshot is dropped and the store is served directly.
+ *
+ * Every pair of the snapshot has a bit saying whether the snapshot still
+ * has the say for its key. It is cleared the first time the key is copied,
+ * written or deleted, so neither the warm-up nor a GET ever brings back a
+ * value that was overwritten, deleted or evicted since. Copies hold the
+ * lock stripe of the key while they clear the bit and write the value, and
+ * writes hold it while they clear the bit and apply, so a copy never lands
+ * on top of a newer write.
+ *
+ * STREAM and SCAN walk the wrapped store only, so they wait for the
+ * warm-up to finish. Keys read during the warm-up may rank below keys
+ * copied after them in the LRU order.
+ */
+public class LazySnapshotStore implements DBInterface {
+    private final DBInterface dbStore;
+    private final Object[] stripes;
+    private volatile MappedSnapshot snapshot;
+    private volatile AtomicLongArray live;
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private final CountDownLatch warm = new CountDownLatch(1);
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Constructs a LazySnapshotStore serving the given snapshot through the
+     * given store.
+     *
+     * @param dbStore empty store to copy the snapshot into
+     * @param snapshot snapshot to serve
+     */
+    public LazySnapshotStore(DBInterface dbStore, MappedSnapshot snapshot) {
+        this.dbStore = dbStore;
+        this.snapshot = snapshot;
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        int words = (snapshot.size() + 63) >>> 6;
+        AtomicLongArray bits = new AtomicLongArray(words);
+        for (int word = 0; word < words; word++) {
+            int inWord = Math.min(64, snapshot.size() - (word << 6));
+            bits.set(word, inWord == 64 ? -1L : (1L << inWord) - 1);
+        }
+        live = bits;
+    }
+
+    public DBInterface getStore() {
+        return dbStore;
+    }
+
+    /**
+     * @return true once the whole snapshot has been copied into the store
+     */
+    public boolean isWarm() {
+        return snapshot == null;
+    }
+
+    /**
+     * Copy the rest of the snapshot into the store on a background thread.
+     * Only the first call starts the thread.
+     */
+    public void startWarmUp() {
+        if (!warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread warmUp = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    int noOfItems = copyAll();
+                    System.out.println("Warmed up " + noOfItems + " keys from the snapshot in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                } catch (RuntimeException e) {
+                    System.out.println("Warm-up from the snapshot failed: " + e.getMessage());
+                } finally {
+                    warm.countDown();
+                }
+            }
+        }, "flixDB-snapshot-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * Start the warm-up if it has not started yet and wait for it to
+     * finish.
+     */
+    public void warmUp() {
+        startWarmUp();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                warm.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy every pair of the snapshot the snapshot still has the say for
+     * into the store, in file order, and drop the snapshot. Runs on the
+     * warm-up thread only.
+     *
+     * @return number of pairs in the snapshot
+     */
+    private int copyAll() {
+        MappedSnapshot mapped = snapshot;
+        AtomicLongArray bits = live;
+        for (int ordinal = 0; ordinal < mapped.size(); ordinal++) {
+            if (isLive(bits, ordinal)) {
+                String key = mapped.key(ordinal);
+                synchronized (stripes[stripeOf(key)]) {
+                    if (clearLive(bits, ordinal)) {
+                        copy(mapped, ordinal, key);
+                    }
+                }
+            }
+        }
+        // Every bit is clear now, so no copy starts any more. Wait for the
+        // ones still running, as writes stop taking the stripes once the
+        // snapshot is dropped
+        for (Object stripe : stripes) {
+            synchronized (stripe) {
+                // Nothing to do but acquire it
+            }
+        }
+        snapshot = null;
+        live = null;
+        return mapped.size();
+    }
+
+    private int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private static boolean isLive(AtomicLongArray bits, int ordinal) {
+        return (bits.get(ordinal >>> 6) & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * Clear the bit of a pair.
+     *
+     * @return true if the bit was set
+     */
+    private static boolean clearLive(AtomicLongArray bits, int ordinal) {
+        int word = ordinal >>> 6;
+        long mask = 1L << ordinal;
+        while (true) {
+            long current = bits.get(word);
+            if ((current & mask) == 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, current, current & ~mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take the say for a key away from the snapshot before it is written or
+     * deleted. Called with the stripe of the key held.
+     *
+     * @return true if the snapshot still had the say for the key
+     */
+    private boolean supersede(String key) {
+        MappedSnapshot mapped = snapshot;
+        AtomicLongArray bits = live;
+        if (mapped == null || bits == null) {
+            return false;
+        }
+        int ordinal = mapped.find(key);
+        return ordinal >= 0 && clearLive(bits, ordinal);
+    }
+
+    /**
+     * Run a write holding the stripes of all the given keys, taken in
+     * stripe order so two writes never wait on each other.
+     */
+    private void underStripes(String[] keys, Runnable write) {
+        boolean[] taken = new boolean[STRIPES];
+        int noOfStripes = 0;
+        for (String key : keys) {
+            int stripe = stripeOf(key);
+            if (!taken[stripe]) {
+                taken[stripe] = true;
+                noOfStripes++;
+            }
+        }
+        int[] order = new int[noOfStripes];
+        for (int stripe = 0, i = 0; stripe < STRIPES; stripe++) {
+            if (taken[stripe]) {
+                order[i++] = stripe;
+            }
+        }
+        underStripes(order, 0, write);
+    }
+
+    private void underStripes(int[] order, int from, Runnable write) {
+        if (from == order.length) {
+            write.run();
+            return;
+        }
+        synchronized (stripes[order[from]]) {
+            underStripes(order, from + 1, write);
+        }
+    }
+
+    /**
+     * Copy a pair of the snapshot into the store with the expiry time it
+     * was snapshotted with. Pairs that expired since are not copied.
+     *
+     * @return value of the pair, null if it has expired
+     */
+    private byte[] copy(MappedSnapshot mapped, int ordinal, String key) {
+        long expiresAt = mapped.expiresAt(ordinal);
+        if (expiresAt != 0 && expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] value = mapped.value(ordinal);
+        dbStore.setAll(new DBItem[]{new DBItem(key, value, expiresAt)});
+        return value;
+    }
+
+    /**
+     * Copy a key missing from the store from the snapshot.
+     *
+     * @return value of the key, null if the snapshot has no say for it or
+     *         it has expired
+     */
+    private byte[] copyFromSnapshot(String key) {
+        MappedSnapshot mapped = snapshot;
+        AtomicLongArray bits = live;
+        if (mapped == null || bits == null) {
+            return null;
+        }
+        int ordinal = mapped.find(key);
+        if (ordinal < 0) {
+            return null;
+        }
+        synchronized (stripes[stripeOf(key)]) {
+            if (!clearLive(bits, ordinal)) {
+                return null;
+            }
+            return copy(mapped, ordinal, key);
+        }
+    }
+
+    public void set(String key, byte[] value) {
+        if (snapshot == null) {
+            dbStore.set(key, value);
+            return;
+        }
+        synchronized (stripes[stripeOf(key)]) {
+            supersede(key);
+            dbStore.set(key, value);
+        }
+    }
+
+    public void set(String key, byte[] value, long ttlMillis) {
+        if (snapshot == null) {
+            dbStore.set(key, value, ttlMillis);
+            return;
+        }
+        synchronized (stripes[stripeOf(key)]) {
+            supersede(key);
+            dbStore.set(key, value, ttlMillis);
+        }
+    }
+
+    public byte[] get(String key) throws ItemNotFoundException {
+        try {
+            return dbStore.get(key);
+        } catch (ItemNotFoundException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            byte[] value = copyFromSnapshot(key);
+            if (value == null) {
+                // Not in the snapshot, or copied by someone else meanwhile
+                return dbStore.get(key);
+            }
+            return value;
+        }
+    }
+
+    public long ttl(String key) throws ItemNotFoundException {
+        try {
+            return dbStore.ttl(key);
+        } catch (ItemNotFoundException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            copyFromSnapshot(key);
+            return dbStore.ttl(key);
+        }
+    }
+
+    public boolean persist(String key) throws ItemNotFoundException {
+        try {
+            return dbStore.persist(key);
+        } catch (ItemNotFoundException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            copyFromSnapshot(key);
+            return dbStore.persist(key);
+        }
+    }
+
+    public void delete(String key) throws ItemNotFoundException {
+        if (snapshot == null) {
+            dbStore.delete(key);
+            return;
+        }
+        synchronized (stripes[stripeOf(key)]) {
+            boolean inSnapshot = supersede(key);
+            try {
+                dbStore.delete(key);
+            } catch (ItemNotFoundException e) {
+                if (!inSnapshot) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public void setAll(final DBItem[] items) {
+        if (snapshot == null) {
+            dbStore.setAll(items);
+            return;
+        }
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        underStripes(keys, new Runnable() {
+            @Override
+            public void run() {
+                for (DBItem item : items) {
+                    supersede(item.getKey());
+                }
+                dbStore.setAll(items);
+            }
+        });
+    }
+
+    public DBItem[] getAll(String[] keys) {
+        DBItem[] items = dbStore.getAll(keys);
+        if (snapshot == null) {
+            return items;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (items[i].getValue() == null) {
+                try {
+                    items[i] = new DBItem(keys[i], get(keys[i]));
+                } catch (ItemNotFoundException e) {
+                    // Not in the snapshot either
+                }
+            }
+        }
+        return items;
+    }
+
+    public boolean[] deleteAll(final String[] keys) {
+        if (snapshot == null) {
+            return dbStore.deleteAll(keys);
+        }
+        final boolean[][] deleted = new boolean[1][];
+        underStripes(keys, new Runnable() {
+            @Override
+            public void run() {
+                boolean[] inSnapshot = new boolean[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    inSnapshot[i] = supersede(keys[i]);
+                }
+                deleted[0] = dbStore.deleteAll(keys);
+                for (int i = 0; i < keys.length; i++) {
+                    deleted[0][i] |= inSnapshot[i];
+                }
+            }
+        });
+        return deleted[0];
+    }
+
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        warmUp();
+        return dbStore.scan(cursor, count, prefix);
+    }
+
+    public DBItem[] stream() {
+        warmUp();
+        return dbStore.stream();
+    }
+
+    public Iterator<DBItem> leastRecentFirst() {
+        warmUp();
+        return dbStore.leastRecentFirst();
+    }
+}
@@ -0,0 +1,216 @@
+package com.karthik.main.flixDB;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Snapshot served straight from a read-only memory mapping of its file.
+ * Opening it only reads the trailer, so it is ready in constant time
+ * whatever the size of the snapshot, and the operating system pages in
+ * the parts of the file that are actually read.
+ *
+ * Pairs are found through the index at the end of the snapshot, see
+ * {@link Snapshot}, and identified by their ordinal, their position in
+ * file order. A mapping is limited to 2 GB, so the file is mapped in
+ * segments of SEGMENT_SIZE bytes that overlap by the largest frame of the
+ * binary protocol, so every pair is inside one segment.
+ */
+public class MappedSnapshot {
+    private final File file;
+    private final MappedByteBuffer[] segments;
+    private final int noOfItems;
+    private final long tablePosition;
+    private final int tableMask;
+    private final long offsetsPosition;
+    private final boolean withExpiry;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_OVERLAP = BinaryProtocol.MAX_FRAME_SIZE;
+
+    private MappedSnapshot(File file, MappedByteBuffer[] segments, int noOfItems, long tablePosition,
+                           int tableSize, long offsetsPosition, boolean withExpiry) {
+        this.file = file;
+        this.segments = segments;
+        this.noOfItems = noOfItems;
+        this.tablePosition = tablePosition;
+        this.tableMask = tableSize - 1;
+        this.offsetsPosition = offsetsPosition;
+        this.withExpiry = withExpiry;
+    }
+
+    /**
+     * Map the given snapshot.
+     *
+     * @param file snapshot file
+     * @return the mapped snapshot, null if the snapshot has no index
+     * @throws IOException if the file cannot be mapped or is not a snapshot
+     */
+    public static MappedSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int type = -1;
+            if (size >= Snapshot.HEADER_SIZE && raf.read() == (BinaryProtocol.MAGIC & 0xff)
+                    && raf.read() == BinaryProtocol.VERSION) {
+                type = raf.read();
+            }
+            if (type != Snapshot.SNAPSHOT && type != Snapshot.SNAPSHOT_WITH_EXPIRY) {
+                throw new IOException(file + " is not a FlixDB snapshot");
+            }
+            if (size < Snapshot.HEADER_SIZE + 24) {
+                return null;
+            }
+            raf.seek(size - 12);
+            long indexPosition = raf.readLong();
+            if (raf.readInt() != Snapshot.INDEX_MARK) {
+                return null;
+            }
+            if (indexPosition < Snapshot.HEADER_SIZE || indexPosition > size - 24) {
+                throw new IOException(file + " is corrupt: index at " + indexPosition);
+            }
+            raf.seek(indexPosition);
+            long noOfItems = raf.readLong();
+            int tableSize = raf.readInt();
+            long tablePosition = indexPosition + 12;
+            long offsetsPosition = tablePosition + 4L * tableSize;
+            if (noOfItems < 0 || noOfItems > Integer.MAX_VALUE || Integer.bitCount(tableSize) != 1
+                    || offsetsPosition + 8 * noOfItems != size - 12) {
+                throw new IOException(file + " is corrupt: index of " + noOfItems + " keys and "
+                        + tableSize + " slots");
+            }
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size - 1) >>> SEGMENT_SHIFT) + 1];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+            return new MappedSnapshot(file, segments, (int) noOfItems, tablePosition, tableSize,
+                    offsetsPosition, type == Snapshot.SNAPSHOT_WITH_EXPIRY);
+        } finally {
+            // The mapping stays valid once the file is closed
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of key-value pairs in the snapshot
+     */
+    public int size() {
+        return noOfItems;
+    }
+
+    /**
+     * Find the ordinal of the given key.
+     *
+     * @param key to look up
+     * @return ordinal of the key, -1 if the key is not in the snapshot
+     */
+    public int find(String key) {
+        byte[] encoded = BinaryProtocol.encode(key);
+        int slot = Snapshot.slotOf(key.hashCode(), tableMask);
+        while (true) {
+            int entry = getInt(tablePosition + 4L * slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (keyEquals(entry - 1, encoded)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * Read the key of a pair.
+     *
+     * @param ordinal of the pair
+     * @return key of the pair
+     */
+    public String key(int ordinal) {
+        return BinaryProtocol.readString(pairAt(ordinal));
+    }
+
+    /**
+     * Read the value of a pair.
+     *
+     * @param ordinal of the pair
+     * @return value of the pair
+     */
+    public byte[] value(int ordinal) {
+        ByteBuffer pair = pairAt(ordinal);
+        skipString(pair);
+        return BinaryProtocol.readBytes(pair);
+    }
+
+    /**
+     * Read the expiry time of the key of a pair.
+     *
+     * @param ordinal of the pair
+     * @return expiry time in milliseconds since the epoch, zero if the key
+     *         does not expire
+     */
+    public long expiresAt(int ordinal) {
+        if (!withExpiry) {
+            return 0;
+        }
+        ByteBuffer pair = pairAt(ordinal);
+        skipString(pair);
+        skipString(pair);
+        return Snapshot.readExpiry(pair);
+    }
+
+    private boolean keyEquals(int ordinal, byte[] key) {
+        ByteBuffer pair = pairAt(ordinal);
+        if (BinaryProtocol.readVarint(pair) - 1 != key.length) {
+            return false;
+        }
+        for (byte b : key) {
+            if (pair.get() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipString(ByteBuffer pair) {
+        int length = BinaryProtocol.readVarint(pair) - 1;
+        if (length > 0) {
+            if (length > pair.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            pair.position(pair.position() + length);
+        }
+    }
+
+    /**
+     * Return a view of the mapping starting at the given pair.
+     */
+    private ByteBuffer pairAt(int ordinal) {
+        if (ordinal < 0 || ordinal >= noOfItems) {
+            throw new IndexOutOfBoundsException("No pair " + ordinal + " in " + file);
+        }
+        long position = getLong(offsetsPosition + 8L * ordinal);
+        ByteBuffer pair = segments[(int) (position >>> SEGMENT_SHIFT)].duplicate();
+        pair.position((int) (position & (SEGMENT_SIZE - 1)));
+        return pair;
+    }
+
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+    }
+}
@@ -15,4 +15,19 @@ public interface NetworkHandlerInterface {
      */
     void handle(Socket sock);
 
+    /**
+     * Return the connection and request latency metrics of this handler.
+     *
+     * @return metrics of this handler
+     */
+    ServerMetrics getMetrics();
+
+    /**
+     * Stop serving new connections and give the ones being served the
+     * given time to finish.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     */
+    void shutdown(long timeoutMillis);
+
 }
@@ -0,0 +1,569 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Network handler serving all connections from a few event loop threads
+ * with non-blocking channels, instead of pinning a thread to every
+ * connection. Each event loop owns a Selector, reads whatever frames have
+ * arrived on its connections, carries them out against the store and
+ * queues the responses, so idle connections cost no thread at all.
+ *
+ * Only requests with bounded work are carried out on the event loop.
+ * STREAM and SCAN, which walk the store and may wait for a snapshot to be
+ * loaded, go to a pool of worker threads, so they do not stall the other
+ * connections of the loop. So do writes when the store waits for each
+ * write to be synced to disk, as with the append only log syncing always.
+ * The connection stops reading until the worker answers, which keeps its
+ * responses in request order. Writes pipelined on one connection thus
+ * wait for their sync one after the other, while the writes of different
+ * connections share their syncs.
+ *
+ * Only the binary protocol is served. Connections that do not start with
+ * the binary protocol preamble are closed.
+ */
+public class NioClientHandler implements NetworkHandlerInterface {
+    private final RequestProcessor processor;
+    private final EventLoop[] eventLoops;
+    private final ThreadPool workers;
+    private final boolean syncedWrites;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Stop reading from a connection while more than this many response
+     * bytes wait to be written to it.
+     */
+    private static final int MAX_PENDING_OUTPUT = 4 * 1024 * 1024;
+
+    /**
+     * Constructs a NioClientHandler and starts its event loops, with as
+     * many worker threads as event loops.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param eventLoopThreads number of event loop threads. Zero uses one
+     *                         per available processor
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NioClientHandler(DBInterface dbStore, int eventLoopThreads) throws IOException {
+        this(dbStore, eventLoopThreads, 0);
+    }
+
+    /**
+     * Constructs a NioClientHandler and starts its event loops.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param eventLoopThreads number of event loop threads. Zero uses one
+     *                         per available processor
+     * @param workerThreads number of threads carrying out STREAM and SCAN.
+     *                      Zero uses one per event loop
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NioClientHandler(DBInterface dbStore, int eventLoopThreads, int workerThreads) throws IOException {
+        this(dbStore, eventLoopThreads, workerThreads, false);
+    }
+
+    /**
+     * Constructs a NioClientHandler and starts its event loops.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param eventLoopThreads number of event loop threads. Zero uses one
+     *                         per available processor
+     * @param workerThreads number of threads carrying out STREAM, SCAN and
+     *                      synced writes. Zero uses one per event loop
+     * @param syncedWrites whether writes to the store block until they are
+     *                     synced to disk, which sends them to the workers
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NioClientHandler(DBInterface dbStore, int eventLoopThreads, int workerThreads, boolean syncedWrites)
+            throws IOException {
+        if (eventLoopThreads <= 0) {
+            eventLoopThreads = Runtime.getRuntime().availableProcessors();
+        }
+        if (workerThreads <= 0) {
+            workerThreads = eventLoopThreads;
+        }
+        this.syncedWrites = syncedWrites;
+        processor = new RequestProcessor(dbStore);
+        // Rejected rather than blocking, as jobs are added on an event loop
+        workers = new ThreadPool(workerThreads, ThreadPool.DEFAULT_QUEUE_CAPACITY, ThreadPool.REJECT);
+        eventLoops = new EventLoop[eventLoopThreads];
+        for (int i = 0; i < eventLoopThreads; i++) {
+            eventLoops[i] = new EventLoop(i);
+            eventLoops[i].start();
+        }
+    }
+
+    /**
+     * Hands the connection over to one of the event loops, round robin.
+     * The socket must have been accepted by a ServerSocketChannel.
+     *
+     * @param client Socket connected to the client
+     */
+    @Override
+    public void handle(Socket client) {
+        SocketChannel channel = client.getChannel();
+        if (channel == null) {
+            System.out.println("NioClientHandler needs sockets accepted by a ServerSocketChannel");
+            closeQuietly(client);
+            return;
+        }
+        int loop = Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length);
+        eventLoops[loop].register(channel);
+    }
+
+    @Override
+    public ServerMetrics getMetrics() {
+        return processor.getMetrics();
+    }
+
+    /**
+     * Stop the event loops once they have written out what is queued for
+     * their connections, or the timeout passed, and close the connections.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     */
+    @Override
+    public void shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown(deadline);
+        }
+        workers.shutdown();
+        try {
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check whether a request may block for long, and must be carried out
+     * on a worker rather than on the event loop.
+     */
+    private boolean onWorker(DBRequest request) {
+        switch (request.getRequestType()) {
+            case Constants.STREAM:
+            case Constants.SCAN:
+                return true;
+            case Constants.GET:
+            case Constants.MGET:
+            case Constants.TTL:
+            case Constants.PING:
+                return false;
+            default:
+                return syncedWrites;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Thread running a Selector over its share of the connections.
+     */
+    private class EventLoop extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pendingChannels;
+        private final ConcurrentLinkedQueue<Answer> answers;
+        private volatile long shutdownDeadline;
+
+        EventLoop(int id) throws IOException {
+            super("flixDB-event-loop-" + id);
+            setDaemon(true);
+            selector = Selector.open();
+            pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+            answers = new ConcurrentLinkedQueue<Answer>();
+        }
+
+        /**
+         * Queue a channel for registration with this loop's Selector. The
+         * registration itself happens on the loop thread.
+         *
+         * @param channel newly accepted channel
+         */
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Hand the encoded response of a worker back to the loop thread.
+         *
+         * @param connection connection the request came from
+         * @param response encoded response
+         */
+        void answer(Connection connection, byte[] response) {
+            answers.add(new Answer(connection, response));
+            selector.wakeup();
+        }
+
+        /**
+         * Ask the loop to stop once its queued output is written or the
+         * deadline passed.
+         *
+         * @param deadline time in milliseconds to stop at the latest
+         */
+        void shutdown(long deadline) {
+            shutdownDeadline = deadline;
+            selector.wakeup();
+        }
+
+        /**
+         * Check whether the loop is shutting down and done. New connections
+         * are closed straight away while shutting down.
+         *
+         * @return whether the loop should stop
+         */
+        private boolean stopping() {
+            if (shutdownDeadline == 0) {
+                return false;
+            }
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                closeQuietly(channel.socket());
+            }
+            if (System.currentTimeMillis() < shutdownDeadline) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && ((Connection) key.attachment()).hasPendingWork()) {
+                        return false;
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (!stopping()) {
+                try {
+                    selector.select(shutdownDeadline == 0 ? 0 : 10);
+                    registerPendingChannels();
+                    deliverAnswers();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Event loop " + getName() + " failed to select: " + e);
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                    processor.getMetrics().connectionOpened();
+                } catch (IOException e) {
+                    closeQuietly(channel.socket());
+                }
+            }
+        }
+
+        private void deliverAnswers() {
+            Answer answer;
+            while ((answer = answers.poll()) != null) {
+                try {
+                    answer.connection.answered(answer.response);
+                } catch (IOException e) {
+                    answer.connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Response of a worker waiting to be queued on its connection.
+     */
+    private static final class Answer {
+        final Connection connection;
+        final byte[] response;
+
+        Answer(Connection connection, byte[] response) {
+            this.connection = connection;
+            this.response = response;
+        }
+    }
+
+    /**
+     * State of one client connection: the bytes read but not yet decoded
+     * and the encoded responses not yet written.
+     */
+    private class Connection {
+        private final EventLoop eventLoop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer readBuffer;
+        private final OutputBuffer writeBuffer;
+        private int written;
+        private boolean preambleRead;
+        private int frameSize;
+        private boolean waitingForWorker;
+
+        Connection(EventLoop eventLoop, SocketChannel channel, SelectionKey key) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+            this.key = key;
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            writeBuffer = new OutputBuffer();
+        }
+
+        /**
+         * Read what is available, carry out every complete request and try
+         * to write the responses straight away.
+         *
+         * @throws IOException if the connection fails or the client sends
+         *         something other than the binary protocol
+         */
+        void read() throws IOException {
+            if (waitingForWorker) {
+                return;
+            }
+            if (!readBuffer.hasRemaining()) {
+                grow();
+            }
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            serveBuffered();
+            write();
+        }
+
+        /**
+         * Queue the response of the worker, then carry on with the
+         * requests read meanwhile.
+         *
+         * @param response encoded response
+         */
+        void answered(byte[] response) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            writeBuffer.write(response);
+            waitingForWorker = false;
+            serveBuffered();
+            write();
+        }
+
+        private void serveBuffered() throws IOException {
+            readBuffer.flip();
+            try {
+                if (!preambleRead) {
+                    if (readBuffer.remaining() < 2) {
+                        return;
+                    }
+                    if (readBuffer.get() != BinaryProtocol.MAGIC || readBuffer.get() != BinaryProtocol.VERSION) {
+                        throw new IOException("Client does not speak the binary protocol");
+                    }
+                    preambleRead = true;
+                }
+                processFrames();
+            } finally {
+                readBuffer.compact();
+                shrink();
+            }
+        }
+
+        /**
+         * Decode and carry out the complete frames in the read buffer,
+         * until a request is handed to a worker. The size of an incomplete
+         * frame is remembered, so the buffer can grow once it is full.
+         */
+        private void processFrames() throws IOException {
+            while (!waitingForWorker && readBuffer.hasRemaining()) {
+                int start = readBuffer.position();
+                int length = BinaryProtocol.readFrameLength(readBuffer);
+                if (length < 0) {
+                    frameSize = 0;
+                    return;
+                }
+                if (readBuffer.remaining() < length) {
+                    frameSize = readBuffer.position() - start + length;
+                    readBuffer.position(start);
+                    return;
+                }
+                frameSize = 0;
+                ByteBuffer frame = readBuffer.slice();
+                frame.limit(length);
+                readBuffer.position(readBuffer.position() + length);
+                DBRequest request;
+                try {
+                    request = BinaryProtocol.decodeRequest(frame);
+                } catch (InvalidRequestException e) {
+                    BinaryProtocol.writeResponse(writeBuffer, new DBResponse(Constants.ERROR));
+                    continue;
+                }
+                if (onWorker(request)) {
+                    waitingForWorker = true;
+                    workers.addJob(new WorkerRequest(this, request));
+                } else {
+                    BinaryProtocol.writeResponse(writeBuffer, processor.process(request));
+                }
+            }
+        }
+
+        /**
+         * Double the read buffer, up to the size of the frame being read,
+         * once the part of it that arrived fills the buffer.
+         */
+        private void grow() {
+            int capacity = readBuffer.capacity();
+            if (frameSize <= capacity) {
+                return;
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min(frameSize, 2L * capacity));
+            readBuffer.flip();
+            grown.put(readBuffer);
+            readBuffer = grown;
+        }
+
+        /**
+         * Go back to a buffer of READ_BUFFER_SIZE once the large frame it
+         * grew for has been read.
+         */
+        private void shrink() {
+            if (readBuffer.capacity() == READ_BUFFER_SIZE || frameSize > READ_BUFFER_SIZE
+                    || readBuffer.position() > READ_BUFFER_SIZE) {
+                return;
+            }
+            ByteBuffer shrunk = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            readBuffer.flip();
+            shrunk.put(readBuffer);
+            readBuffer = shrunk;
+        }
+
+        /**
+         * Write as much of the queued responses as the socket takes and
+         * only ask the Selector for writability while some are left. Stop
+         * reading new requests while too much output is queued.
+         */
+        void write() throws IOException {
+            if (written < writeBuffer.size()) {
+                written += channel.write(writeBuffer.toByteBuffer(written));
+            }
+            int pending = writeBuffer.size() - written;
+            int read = waitingForWorker ? 0 : SelectionKey.OP_READ;
+            if (pending == 0) {
+                writeBuffer.reset();
+                written = 0;
+                key.interestOps(read);
+            } else if (pending > MAX_PENDING_OUTPUT) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(read | SelectionKey.OP_WRITE);
+            }
+        }
+
+        boolean hasPendingWork() {
+            return waitingForWorker || written < writeBuffer.size();
+        }
+
+        void close() {
+            if (!key.isValid()) {
+                return;
+            }
+            key.cancel();
+            processor.getMetrics().connectionClosed();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Request carried out on a worker thread, whose response is encoded
+     * there and handed back to the event loop of its connection.
+     */
+    private class WorkerRequest implements ThreadPool.Rejectable {
+        private final Connection connection;
+        private final DBRequest request;
+
+        WorkerRequest(Connection connection, DBRequest request) {
+            this.connection = connection;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            answer(processor.process(request));
+        }
+
+        @Override
+        public void reject() {
+            answer(new DBResponse(Constants.ERROR));
+        }
+
+        private void answer(DBResponse response) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try {
+                BinaryProtocol.writeResponse(encoded, response);
+            } catch (IOException e) {
+                encoded.reset();
+                try {
+                    BinaryProtocol.writeResponse(encoded, new DBResponse(Constants.ERROR));
+                } catch (IOException ignored) {
+                }
+            }
+            connection.eventLoop.answer(connection, encoded.toByteArray());
+        }
+    }
+
+    /**
+     * Growable output buffer whose contents can be handed to a channel
+     * without copying them.
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+        OutputBuffer() {
+            super(READ_BUFFER_SIZE);
+        }
+
+        ByteBuffer toByteBuffer(int from) {
+            return ByteBuffer.wrap(buf, from, count - from);
+        }
+    }
+}
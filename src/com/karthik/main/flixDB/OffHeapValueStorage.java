@@ -0,0 +1,371 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Values kept as bytes in direct memory, outside the Java heap, so
+ * a large store neither grows the heap nor the work of the garbage
+ * collector. Only the keys and the entries stay on the heap.
+ *
+ * Direct memory is reserved in pages of PAGE_SIZE bytes, carved into
+ * blocks of power of two sizes by a buddy allocator. A value takes a free
+ * block of its size, or splits the smallest larger free block in halves
+ * until one fits, and a freed block merges with its buddy, the other half
+ * of the block it was split from, whenever that is free too. Memory freed
+ * by values of one size is thus reused by values of any size, and a new
+ * page is only reserved once no free block is large enough. A block
+ * starts with the length of the value. Values bigger than a page get a
+ * page of their own. The entry holds the address of its block: the page
+ * index in the upper and the offset in the lower half.
+ *
+ * Free blocks are marked in a bitmap per page and size, and listed in a
+ * stack per size. Blocks taken by a merge stay in their stack and are
+ * skipped once popped.
+ *
+ * Readers do not take the store lock, so a block may be freed and reused
+ * while it is read. Writes to blocks are made under the write lock of a
+ * StampedLock and reads are optimistic: a read that overlapped a write is
+ * thrown away and made again under the read lock.
+ */
+final class OffHeapValueStorage implements ValueStorage {
+    private final StampedLock lock = new StampedLock();
+    private final LongStack[] freeBlocks = new LongStack[CLASSES];
+    private final int[] freeCounts = new int[CLASSES];
+    private final LongStack freePages = new LongStack();
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+    private long[][][] freeBits = new long[16][][];
+    private int pageCount;
+
+    /**
+     * Address of an entry without a value, or a null value.
+     */
+    static final long NO_VALUE = -1;
+
+    /**
+     * Address of an entry whose value was released.
+     */
+    static final long RELEASED = -2;
+
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int MIN_BLOCK = 16;
+    private static final int BLOCK_SHIFT = Integer.numberOfTrailingZeros(MIN_BLOCK);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(PAGE_SIZE / MIN_BLOCK) + 1;
+    private static final int HEADER = 4;
+
+    OffHeapValueStorage() {
+        for (int i = 0; i < CLASSES; i++) {
+            freeBlocks[i] = new LongStack();
+        }
+    }
+
+    @Override
+    public long store(StoreEntry entry, byte[] bytes, long headroom) {
+        long stamp = lock.writeLock();
+        try {
+            long address = NO_VALUE;
+            if (bytes != null) {
+                address = allocate(bytes.length + HEADER);
+                ByteBuffer block = blockAt(address);
+                block.putInt(bytes.length);
+                block.put(bytes);
+            }
+            free(entry.address);
+            entry.address = address;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return bytes == null ? 0 : blockSize(bytes.length + HEADER);
+    }
+
+    @Override
+    public byte[] load(StoreEntry entry) throws ItemNotFoundException {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                byte[] value = read(entry);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // Read a block while it was reused, read again below
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read(entry);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void release(StoreEntry entry) {
+        long stamp = lock.writeLock();
+        try {
+            free(entry.address);
+            entry.address = RELEASED;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public StoreEntry victim() {
+        return null;
+    }
+
+    @Override
+    public long reservedBytes() {
+        // Free blocks go to values of any size before a page is added, so
+        // the values are charged their blocks only
+        return 0;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+
+    /**
+     * Return the bytes of direct memory reserved, including free blocks.
+     *
+     * @return reserved direct memory in bytes
+     */
+    long directBytes() {
+        long stamp = lock.readLock();
+        try {
+            long reserved = 0;
+            for (int i = 0; i < pageCount; i++) {
+                if (pages[i] != null) {
+                    reserved += pages[i].capacity();
+                }
+            }
+            return reserved;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private byte[] read(StoreEntry entry) throws ItemNotFoundException {
+        long address = entry.address;
+        if (address == RELEASED) {
+            throw new ItemNotFoundException("The item does not exist in the store");
+        }
+        if (address == NO_VALUE) {
+            return null;
+        }
+        ByteBuffer block = blockAt(address);
+        int length = block.getInt();
+        if (length < 0 || length > block.remaining()) {
+            throw new IllegalStateException("Corrupt block at " + address);
+        }
+        byte[] bytes = new byte[length];
+        block.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Return a view of the memory starting at the given block.
+     */
+    private ByteBuffer blockAt(long address) {
+        ByteBuffer block = pages[(int) (address >>> 32)].duplicate();
+        block.position((int) address);
+        return block;
+    }
+
+    /**
+     * Allocate a block of at least the given size. Caller holds the write
+     * lock.
+     */
+    private long allocate(int size) {
+        if (size > PAGE_SIZE) {
+            return (long) addPage(size) << 32;
+        }
+        int sizeClass = classOf(size);
+        int found = sizeClass;
+        long address = takeFree(found);
+        while (address < 0 && ++found < CLASSES) {
+            address = takeFree(found);
+        }
+        if (address < 0) {
+            found = CLASSES - 1;
+            address = (long) addPage(PAGE_SIZE) << 32;
+        }
+        // Split the block, freeing the upper halves
+        while (found > sizeClass) {
+            found--;
+            putFree(address + (MIN_BLOCK << found), found);
+        }
+        return address;
+    }
+
+    /**
+     * Free the block at the given address, merging it with its free
+     * buddies. Caller holds the write lock.
+     */
+    private void free(long address) {
+        if (address < 0) {
+            return;
+        }
+        int size = blockAt(address).getInt() + HEADER;
+        if (size > PAGE_SIZE) {
+            int page = (int) (address >>> 32);
+            pages[page] = null;
+            freePages.push(page);
+            return;
+        }
+        int sizeClass = classOf(size);
+        while (sizeClass < CLASSES - 1) {
+            long buddy = address ^ (MIN_BLOCK << sizeClass);
+            if (!clearFree(buddy, sizeClass)) {
+                break;
+            }
+            address = Math.min(address, buddy);
+            sizeClass++;
+        }
+        putFree(address, sizeClass);
+    }
+
+    /**
+     * Take a free block of the given size class, skipping blocks taken by
+     * a merge since they were listed.
+     *
+     * @return address of the block, -1 if there is none
+     */
+    private long takeFree(int sizeClass) {
+        LongStack stack = freeBlocks[sizeClass];
+        while (!stack.isEmpty()) {
+            long address = stack.pop();
+            if (clearFree(address, sizeClass)) {
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    private void putFree(long address, int sizeClass) {
+        long[] bits = freeBits[(int) (address >>> 32)][sizeClass];
+        int slot = (int) address >>> (BLOCK_SHIFT + sizeClass);
+        bits[slot >>> 6] |= 1L << slot;
+        freeCounts[sizeClass]++;
+        LongStack stack = freeBlocks[sizeClass];
+        stack.push(address);
+        if (stack.size() > 2 * freeCounts[sizeClass] + 64) {
+            compact(sizeClass);
+        }
+    }
+
+    /**
+     * Clear the free bit of a block.
+     *
+     * @return true if the block was free
+     */
+    private boolean clearFree(long address, int sizeClass) {
+        long[] bits = freeBits[(int) (address >>> 32)][sizeClass];
+        int slot = (int) address >>> (BLOCK_SHIFT + sizeClass);
+        long mask = 1L << slot;
+        if ((bits[slot >>> 6] & mask) == 0) {
+            return false;
+        }
+        bits[slot >>> 6] &= ~mask;
+        freeCounts[sizeClass]--;
+        return true;
+    }
+
+    /**
+     * Drop the blocks taken by merges from the stack of a size class, and
+     * the second listing of blocks freed again since.
+     */
+    private void compact(int sizeClass) {
+        LongStack stack = freeBlocks[sizeClass];
+        LongStack live = new LongStack();
+        while (!stack.isEmpty()) {
+            long address = stack.pop();
+            if (clearFree(address, sizeClass)) {
+                live.push(address);
+            }
+        }
+        while (!live.isEmpty()) {
+            putFree(live.pop(), sizeClass);
+        }
+    }
+
+    /**
+     * Reserve a page of the given size. A page of PAGE_SIZE is listed as
+     * one free block of the largest size class.
+     *
+     * @return index of the page
+     */
+    private int addPage(int size) {
+        ByteBuffer page = ByteBuffer.allocateDirect(size);
+        int index;
+        if (!freePages.isEmpty()) {
+            index = (int) freePages.pop();
+        } else {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+                freeBits = Arrays.copyOf(freeBits, freeBits.length * 2);
+            }
+            index = pageCount++;
+        }
+        pages[index] = page;
+        freeBits[index] = null;
+        if (size == PAGE_SIZE) {
+            long[][] bits = new long[CLASSES][];
+            for (int i = 0; i < CLASSES; i++) {
+                bits[i] = new long[((PAGE_SIZE >>> (BLOCK_SHIFT + i)) + 63) >>> 6];
+            }
+            freeBits[index] = bits;
+        }
+        return index;
+    }
+
+    /**
+     * Return the size class of a block of the given size, the smallest
+     * power of two that holds it.
+     */
+    private static int classOf(int size) {
+        if (size <= MIN_BLOCK) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_BLOCK);
+    }
+
+    /**
+     * Return the bytes of direct memory a value of the given size uses.
+     */
+    static long blockSize(int size) {
+        return size > PAGE_SIZE ? size : MIN_BLOCK << classOf(size);
+    }
+
+    /**
+     * Growable stack of addresses.
+     */
+    private static final class LongStack {
+        private long[] elements = new long[16];
+        private int size;
+
+        void push(long element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            elements[size++] = element;
+        }
+
+        long pop() {
+            return elements[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
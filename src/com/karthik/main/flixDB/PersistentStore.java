@@ -0,0 +1,270 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Store that logs every write to an {@link AppendOnlyLog} once the store it
+ * wraps has applied it, so the writes can be replayed after a restart.
+ * A write the store refuses, such as a value too large for its storage or
+ * one that does not fit in memory, is never logged, so it cannot fail the
+ * replay later.
+ *
+ * Writes to the same key are applied and logged under the same lock
+ * stripe, so the log holds them in the order the store applied them and a
+ * replay ends with the same value. Writes to different keys go through
+ * different stripes and only meet in the log's buffer. A write returns once
+ * the log is as durable as its fsync policy promises, after the stripe is
+ * released, so clients waiting for the same fsync share it. Reads go
+ * straight to the wrapped store.
+ */
+public class PersistentStore implements DBInterface {
+    private final DBInterface dbStore;
+    private volatile AppendOnlyLog log;
+    private final Object[] stripes;
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Constructs a PersistentStore logging the writes to the given store.
+     * Replay the log into the store before wrapping it.
+     *
+     * @param dbStore store to apply the writes to
+     * @param log log to append the writes to
+     */
+    public PersistentStore(DBInterface dbStore, AppendOnlyLog log) {
+        this.dbStore = dbStore;
+        this.log = log;
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public DBInterface getStore() {
+        return dbStore;
+    }
+
+    public AppendOnlyLog getLog() {
+        return log;
+    }
+
+    /**
+     * Start logging to a new log at the given file. Every write is in
+     * exactly one of the two logs: the stripes are all held while the logs
+     * are swapped, so no write is between its apply and its append.
+     *
+     * @param next file of the new log, with the same fsync policy
+     * @return the previous log, closed, with everything appended to it
+     *         written out
+     * @throws IOException if the new log cannot be opened or the previous
+     *                     one cannot be written out
+     */
+    public AppendOnlyLog rotateLog(File next) throws IOException {
+        AppendOnlyLog newLog = new AppendOnlyLog(next, log.getFsyncPolicy(), log.getFsyncIntervalMillis());
+        AppendOnlyLog previous = swapLog(0, newLog);
+        previous.close();
+        return previous;
+    }
+
+    private AppendOnlyLog swapLog(int stripe, AppendOnlyLog newLog) {
+        if (stripe < STRIPES) {
+            synchronized (stripes[stripe]) {
+                return swapLog(stripe + 1, newLog);
+            }
+        }
+        AppendOnlyLog previous = log;
+        log = newLog;
+        return previous;
+    }
+
+    private int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    public void set(String key, byte[] value) {
+        AppendOnlyLog current;
+        long offset;
+        synchronized (stripes[stripeOf(key)]) {
+            dbStore.set(key, value);
+            current = log;
+            offset = current.append(new DBRequest(Constants.SET, new DBItem(key, value)));
+        }
+        current.awaitDurable(offset);
+    }
+
+    /**
+     * Log the write with the time the key expires at rather than its time
+     * to live, so a replay after a restart does not extend it, and apply
+     * that same expiry time to the store.
+     *
+     * @param key to insert or update
+     * @param value to insert or update
+     * @param ttlMillis time to live of the key in milliseconds
+     */
+    public void set(String key, byte[] value, long ttlMillis) {
+        DBItem item = new DBItem(key, value, DBStore.expiryTime(ttlMillis));
+        AppendOnlyLog current;
+        long offset;
+        synchronized (stripes[stripeOf(key)]) {
+            dbStore.setAll(new DBItem[]{item});
+            current = log;
+            offset = current.append(new DBRequest(Constants.SETEXAT, item));
+        }
+        current.awaitDurable(offset);
+    }
+
+    public byte[] get(String key) throws ItemNotFoundException {
+        return dbStore.get(key);
+    }
+
+    public long ttl(String key) throws ItemNotFoundException {
+        return dbStore.ttl(key);
+    }
+
+    /**
+     * Remove the expiry of the key. Only logged if the key had one, as the
+     * store is unchanged otherwise.
+     *
+     * @param key to persist
+     * @return true if the key had an expiry
+     */
+    public boolean persist(String key) throws ItemNotFoundException {
+        AppendOnlyLog current;
+        long offset;
+        synchronized (stripes[stripeOf(key)]) {
+            if (!dbStore.persist(key)) {
+                return false;
+            }
+            current = log;
+            offset = current.append(new DBRequest(Constants.PERSIST, new DBItem(key)));
+        }
+        current.awaitDurable(offset);
+        return true;
+    }
+
+    /**
+     * Delete the key from the store. Deletes of missing keys are not
+     * logged, as the store is unchanged.
+     *
+     * @param key to delete from the store
+     */
+    public void delete(String key) throws ItemNotFoundException {
+        AppendOnlyLog current;
+        long offset;
+        synchronized (stripes[stripeOf(key)]) {
+            dbStore.delete(key);
+            current = log;
+            offset = current.append(new DBRequest(Constants.DELETE, new DBItem(key)));
+        }
+        current.awaitDurable(offset);
+    }
+
+    /**
+     * Apply and log a batch under the stripes of all its keys, taken in
+     * stripe order so concurrent batches cannot deadlock.
+     *
+     * @param items key-value pairs to insert or update
+     */
+    public void setAll(DBItem[] items) {
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        LoggedBatch batch = new LoggedBatch(new DBRequest(Constants.MSET, items), keys);
+        lockStripes(stripesOf(keys), 0, batch);
+        batch.log.awaitDurable(batch.offset);
+    }
+
+    public DBItem[] getAll(String[] keys) {
+        return dbStore.getAll(keys);
+    }
+
+    public boolean[] deleteAll(String[] keys) {
+        DBItem[] items = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            items[i] = new DBItem(keys[i]);
+        }
+        LoggedBatch batch = new LoggedBatch(new DBRequest(Constants.MDELETE, items), keys);
+        lockStripes(stripesOf(keys), 0, batch);
+        batch.log.awaitDurable(batch.offset);
+        return batch.deleted;
+    }
+
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        return dbStore.scan(cursor, count, prefix);
+    }
+
+    public DBItem[] stream() {
+        return dbStore.stream();
+    }
+
+    public Iterator<DBItem> leastRecentFirst() {
+        return dbStore.leastRecentFirst();
+    }
+
+    /**
+     * Return the sorted, distinct stripes of the given keys.
+     */
+    private int[] stripesOf(String[] keys) {
+        boolean[] used = new boolean[STRIPES];
+        int count = 0;
+        for (String key : keys) {
+            int stripe = stripeOf(key);
+            if (!used[stripe]) {
+                used[stripe] = true;
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        int next = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            if (used[stripe]) {
+                result[next++] = stripe;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Take the given stripes one after the other, then apply and log the
+     * batch.
+     */
+    private void lockStripes(int[] toLock, int from, LoggedBatch batch) {
+        if (from < toLock.length) {
+            synchronized (stripes[toLock[from]]) {
+                lockStripes(toLock, from + 1, batch);
+            }
+            return;
+        }
+        if (Constants.MSET.equals(batch.request.getRequestType())) {
+            dbStore.setAll(batch.request.getItems());
+        } else {
+            batch.deleted = dbStore.deleteAll(batch.keys);
+        }
+        batch.log = log;
+        batch.offset = batch.log.append(batch.request);
+    }
+
+    /**
+     * MSET or MDELETE on its way through the stripes, and where it ended up
+     * in the log.
+     */
+    private static final class LoggedBatch {
+        final DBRequest request;
+        final String[] keys;
+        AppendOnlyLog log;
+        long offset;
+        boolean[] deleted;
+
+        LoggedBatch(DBRequest request, String[] keys) {
+            this.request = request;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only store following a primary through its
+ * {@link ReplicationServer}. A background thread syncs the store it wraps
+ * with the primary, in full the first time, and then applies the writes
+ * the primary feeds it as they come. When the connection is lost, it
+ * reconnects and carries on from the offset it reached if the primary
+ * still has the writes since, or syncs in full again.
+ *
+ * Replication is asynchronous: a write acknowledged by the primary reaches
+ * the replica some time later, and reads on the replica may return older
+ * values than the primary has. During a full sync the store is emptied and
+ * filled again, so reads may miss keys until it is done. Writes from
+ * clients are refused. The store should not evict keys on its own, see
+ * {@link DBStore#disableEviction()}: the primary sends a DELETE for every
+ * key it evicts or expires.
+ */
+public class Replica implements DBInterface {
+    private final DBInterface dbStore;
+    private final String host;
+    private final int port;
+    private volatile boolean stopped = false;
+    private volatile Socket socket;
+    private Thread follower;
+
+    private volatile String replicationId;
+    private volatile long offset;
+    private volatile long primaryOffset;
+    private volatile long lastContact;
+    private volatile boolean synced = false;
+
+    /**
+     * Time to wait before reconnecting to the primary.
+     */
+    static final long RECONNECT_MILLIS = 1000;
+
+    /**
+     * A primary silent for this long, heartbeats included, is given up on.
+     */
+    private static final int TIMEOUT_MILLIS = (int) (5 * ReplicationServer.HEARTBEAT_MILLIS);
+
+    private static final int SCAN_COUNT = 1000;
+
+    /**
+     * Constructs a Replica of the primary at the given address.
+     *
+     * @param dbStore store to keep the copy of the primary in
+     * @param host host of the primary
+     * @param port replication port of the primary
+     */
+    public Replica(DBInterface dbStore, String host, int port) {
+        this.dbStore = dbStore;
+        this.host = host;
+        this.port = port;
+    }
+
+    public DBInterface getStore() {
+        return dbStore;
+    }
+
+    /**
+     * @return true while connected to the primary with the initial sync done
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return offset of the primary's writes applied so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Return how far the replica is behind the primary, as of the last
+     * offset the primary sent.
+     *
+     * @return lag in bytes of writes not applied yet
+     */
+    public long getLag() {
+        return Math.max(0, primaryOffset - offset);
+    }
+
+    /**
+     * @return milliseconds since the primary was last heard from
+     */
+    public long getMillisSinceLastContact() {
+        return System.currentTimeMillis() - lastContact;
+    }
+
+    /**
+     * Start following the primary on a background thread.
+     */
+    public void start() {
+        follower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        follow();
+                    } catch (IOException e) {
+                        if (!stopped) {
+                            System.out.println("Lost the primary at " + host + ":" + port + ": " + e.getMessage()
+                                    + ". Reconnecting");
+                        }
+                    } catch (InvalidRequestException e) {
+                        System.out.println("Invalid write from the primary at " + host + ":" + port + ": "
+                                + e.getMessage() + ". Reconnecting");
+                    } catch (RuntimeException e) {
+                        // The write may be half applied, so the store no
+                        // longer matches the offset
+                        replicationId = null;
+                        System.out.println("Failed to apply a write from the primary at " + host + ":" + port
+                                + ": " + e + ". Syncing in full");
+                    }
+                    synced = false;
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "flixDB-replica");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    /**
+     * Stop following the primary. The store keeps what it has.
+     */
+    public void stop() {
+        stopped = true;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (follower != null) {
+            follower.interrupt();
+        }
+    }
+
+    private void follow() throws IOException, InvalidRequestException {
+        Socket s = new Socket();
+        socket = s;
+        try {
+            s.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+            // While the primary is down, a connection to it can pick its port
+            // as local port and end up connected to itself
+            if (s.getLocalSocketAddress().equals(s.getRemoteSocketAddress())) {
+                throw new ConnectException("Connection to " + host + ":" + port + " refused");
+            }
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.setSoTimeout(TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            BinaryProtocol.writePreamble(out);
+            BinaryProtocol.writeRequest(out, new DBRequest(Constants.SYNC, offset, 0, replicationId));
+            out.flush();
+            DBResponse response = BinaryProtocol.readResponse(in);
+            if (!Constants.OK.equals(response.getResponseStatus()) || response.getItems() == null) {
+                throw new ProtocolException("Primary refused to sync");
+            }
+            lastContact = System.currentTimeMillis();
+            String id = response.getItems()[0].getKey();
+            String mode = new String(response.getItems()[0].getValue(), StandardCharsets.UTF_8);
+            if (ReplicationServer.FULL_SYNC.equals(mode)) {
+                // The store no longer matches any offset until the sync is done
+                replicationId = null;
+                long start = System.currentTimeMillis();
+                clear();
+                // Copying a large store takes the primary a while
+                s.setSoTimeout(0);
+                long pairs = applyBulk(in);
+                System.out.println("Synced " + pairs + " keys from the primary at " + host + ":" + port + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+            replicationId = id;
+            offset = response.getCursor();
+            primaryOffset = offset;
+            synced = true;
+            s.setSoTimeout(TIMEOUT_MILLIS);
+
+            long lastAck = 0;
+            while (!stopped) {
+                long now = System.currentTimeMillis();
+                if (in.available() == 0 && now - lastAck >= ReplicationServer.HEARTBEAT_MILLIS) {
+                    acknowledge(out);
+                    lastAck = now;
+                }
+                ByteBuffer frame = BinaryProtocol.readFrame(in);
+                if (frame == null) {
+                    throw new EOFException("Primary closed the connection");
+                }
+                int size = BinaryProtocol.varintLength(frame.remaining()) + frame.remaining();
+                DBRequest request = BinaryProtocol.decodeRequest(frame);
+                lastContact = System.currentTimeMillis();
+                if (Constants.SYNC.equals(request.getRequestType())) {
+                    primaryOffset = request.getCursor();
+                    acknowledge(out);
+                    lastAck = lastContact;
+                    continue;
+                }
+                AppendOnlyLog.apply(dbStore, request);
+                offset += size;
+                if (offset > primaryOffset) {
+                    primaryOffset = offset;
+                }
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * Apply the copy of the primary's store sent by a full sync, up to the
+     * SYNC request ending it.
+     *
+     * @return number of pairs applied
+     */
+    private long applyBulk(InputStream in) throws IOException, InvalidRequestException {
+        long pairs = 0;
+        while (true) {
+            DBRequest request = BinaryProtocol.readRequest(in);
+            if (request == null) {
+                throw new EOFException("Primary closed the connection during the sync");
+            }
+            if (Constants.SYNC.equals(request.getRequestType())) {
+                return pairs;
+            }
+            AppendOnlyLog.apply(dbStore, request);
+            pairs += Constants.MSET.equals(request.getRequestType()) ? request.getItems().length : 1;
+        }
+    }
+
+    private void acknowledge(OutputStream out) throws IOException {
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SYNC, offset, 0, replicationId));
+        out.flush();
+    }
+
+    /**
+     * Delete every key of the store, a chunk of keys at a time.
+     */
+    private void clear() throws IOException {
+        long cursor = 0;
+        do {
+            ScanResult chunk;
+            try {
+                chunk = dbStore.scan(cursor, SCAN_COUNT, null);
+            } catch (InvalidRequestException e) {
+                throw new IOException("Failed to empty the store for a full sync: " + e.getMessage());
+            }
+            String[] keys = new String[chunk.getItems().length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = chunk.getItems()[i].getKey();
+            }
+            if (keys.length > 0) {
+                dbStore.deleteAll(keys);
+            }
+            cursor = chunk.getCursor();
+        } while (cursor != 0);
+    }
+
+    /**
+     * Periodically print the offset and lag of the replica to the console.
+     *
+     * @param intervalSeconds seconds between two reports. Zero disables it
+     */
+    public void scheduleReport(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-replication-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!synced) {
+                    System.out.println("replication: syncing with the primary at " + host + ":" + port);
+                    return;
+                }
+                System.out.println("replication: replica of " + host + ":" + port + ", offset " + offset
+                        + ", lag " + getLag() + " bytes, last contact " + getMillisSinceLastContact() + " ms ago");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Replica of " + host + ":" + port + " is read-only");
+    }
+
+    public void set(String key, byte[] value) {
+        throw readOnly();
+    }
+
+    public void set(String key, byte[] value, long ttlMillis) {
+        throw readOnly();
+    }
+
+    public byte[] get(String key) throws ItemNotFoundException {
+        return dbStore.get(key);
+    }
+
+    public void delete(String key) throws ItemNotFoundException {
+        throw readOnly();
+    }
+
+    public long ttl(String key) throws ItemNotFoundException {
+        return dbStore.ttl(key);
+    }
+
+    public boolean persist(String key) throws ItemNotFoundException {
+        throw readOnly();
+    }
+
+    public void setAll(DBItem[] items) {
+        throw readOnly();
+    }
+
+    public DBItem[] getAll(String[] keys) {
+        return dbStore.getAll(keys);
+    }
+
+    public boolean[] deleteAll(String[] keys) {
+        throw readOnly();
+    }
+
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        return dbStore.scan(cursor, count, prefix);
+    }
+
+    public DBItem[] stream() {
+        return dbStore.stream();
+    }
+
+    public Iterator<DBItem> leastRecentFirst() {
+        return dbStore.leastRecentFirst();
+    }
+}
@@ -0,0 +1,311 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Store of a primary that applies every write to the store it wraps and
+ * records it in a {@link ReplicationBacklog}, for the
+ * {@link ReplicationServer} to feed to the replicas.
+ *
+ * Like {@link PersistentStore}, writes to the same key are applied and
+ * recorded under the same lock stripe, so the backlog holds them in the
+ * order the store applied them, and a write the store refused is never
+ * recorded. Writes with an expiry are recorded with the time the key
+ * expires at, so replicas expire the key at the same time. Keys the
+ * primary expires or evicts are recorded as DELETE requests, so replicas,
+ * which do not evict on their own, drop the same keys. Reads go straight
+ * to the wrapped store.
+ */
+public class ReplicatedStore implements DBInterface, EvictionListener {
+    private final DBInterface dbStore;
+    private final ReplicationBacklog backlog;
+    private final String replicationId;
+    private final Object[] stripes;
+    private final Queue<String> evicted = new ConcurrentLinkedQueue<String>();
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Constructs a ReplicatedStore recording the writes to the given store.
+     *
+     * @param dbStore store to apply the writes to
+     * @param backlogSize number of bytes of the most recent writes kept for
+     *                    replicas catching up
+     */
+    public ReplicatedStore(DBInterface dbStore, int backlogSize) {
+        this.dbStore = dbStore;
+        this.backlog = new ReplicationBacklog(backlogSize);
+        // Offsets start over with every primary, so replicas tell them apart
+        this.replicationId = UUID.randomUUID().toString();
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public DBInterface getStore() {
+        return dbStore;
+    }
+
+    ReplicationBacklog getBacklog() {
+        return backlog;
+    }
+
+    public String getReplicationId() {
+        return replicationId;
+    }
+
+    /**
+     * @return offset of the end of the backlog, which grows by the size of
+     *         every write recorded
+     */
+    public long getOffset() {
+        return backlog.end();
+    }
+
+    /**
+     * Return the offset a full sync starts from. The stripes are all held
+     * while the backlog is read, so every write recorded up to the offset
+     * has been applied to the store: a copy of the store taken afterwards
+     * holds them, and maybe some later writes, which replaying the backlog
+     * from the offset writes again in order.
+     *
+     * @return offset of the end of the backlog
+     */
+    long syncPoint() {
+        return syncPoint(0);
+    }
+
+    private long syncPoint(int stripe) {
+        if (stripe < STRIPES) {
+            synchronized (stripes[stripe]) {
+                return syncPoint(stripe + 1);
+            }
+        }
+        return backlog.end();
+    }
+
+    private int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    public void set(String key, byte[] value) {
+        synchronized (stripes[stripeOf(key)]) {
+            dbStore.set(key, value);
+            backlog.append(new DBRequest(Constants.SET, new DBItem(key, value)));
+        }
+        recordEvictions();
+    }
+
+    public void set(String key, byte[] value, long ttlMillis) {
+        setAll(new DBItem[]{new DBItem(key, value, DBStore.expiryTime(ttlMillis))});
+    }
+
+    public byte[] get(String key) throws ItemNotFoundException {
+        return dbStore.get(key);
+    }
+
+    public long ttl(String key) throws ItemNotFoundException {
+        return dbStore.ttl(key);
+    }
+
+    public boolean persist(String key) throws ItemNotFoundException {
+        synchronized (stripes[stripeOf(key)]) {
+            boolean persisted = dbStore.persist(key);
+            if (persisted) {
+                backlog.append(new DBRequest(Constants.PERSIST, new DBItem(key)));
+            }
+            return persisted;
+        }
+    }
+
+    public void delete(String key) throws ItemNotFoundException {
+        try {
+            synchronized (stripes[stripeOf(key)]) {
+                dbStore.delete(key);
+                backlog.append(new DBRequest(Constants.DELETE, new DBItem(key)));
+            }
+        } finally {
+            recordEvictions();
+        }
+    }
+
+    /**
+     * Apply and record a batch under the stripes of all its keys. MSET
+     * records carry no expiry, so items with one are recorded as SETEXAT
+     * records of their own, in batch order.
+     *
+     * @param items key-value pairs to insert or update
+     */
+    public void setAll(DBItem[] items) {
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        lockStripes(stripesOf(keys), 0, new RecordedBatch(Constants.MSET, items, keys));
+        recordEvictions();
+    }
+
+    public DBItem[] getAll(String[] keys) {
+        return dbStore.getAll(keys);
+    }
+
+    public boolean[] deleteAll(String[] keys) {
+        DBItem[] items = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            items[i] = new DBItem(keys[i]);
+        }
+        RecordedBatch batch = new RecordedBatch(Constants.MDELETE, items, keys);
+        lockStripes(stripesOf(keys), 0, batch);
+        recordEvictions();
+        return batch.deleted;
+    }
+
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        return dbStore.scan(cursor, count, prefix);
+    }
+
+    public DBItem[] stream() {
+        return dbStore.stream();
+    }
+
+    public Iterator<DBItem> leastRecentFirst() {
+        return dbStore.leastRecentFirst();
+    }
+
+    /**
+     * The wrapped store dropped a key on its own. It is recorded by the
+     * next call to recordEvictions, as the store lock is held here.
+     *
+     * @param key key the store dropped
+     */
+    @Override
+    public void evicted(String key) {
+        evicted.add(key);
+    }
+
+    /**
+     * Record a DELETE request for every key the store dropped on its own
+     * since the last call. The stripe of the key is held while checking
+     * that the key is still gone: a write that brought it back has been
+     * recorded after the drop, and needs no DELETE.
+     */
+    void recordEvictions() {
+        String key;
+        while ((key = evicted.poll()) != null) {
+            synchronized (stripes[stripeOf(key)]) {
+                try {
+                    dbStore.ttl(key);
+                } catch (ItemNotFoundException e) {
+                    backlog.append(new DBRequest(Constants.DELETE, new DBItem(key)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a batch of pairs into the records that carry it: runs of pairs
+     * without an expiry as MSET records and the others as SETEXAT records.
+     *
+     * @param items key-value pairs, with their expiry times
+     * @return records writing the pairs in batch order
+     */
+    static List<DBRequest> recordsOf(DBItem[] items) {
+        List<DBRequest> records = new ArrayList<DBRequest>();
+        List<DBItem> run = new ArrayList<DBItem>();
+        for (DBItem item : items) {
+            if (item.getExpiresAt() == 0) {
+                run.add(item);
+                continue;
+            }
+            if (!run.isEmpty()) {
+                records.add(new DBRequest(Constants.MSET, run.toArray(new DBItem[run.size()])));
+                run.clear();
+            }
+            records.add(new DBRequest(Constants.SETEXAT, item));
+        }
+        if (!run.isEmpty()) {
+            records.add(new DBRequest(Constants.MSET, run.toArray(new DBItem[run.size()])));
+        }
+        return records;
+    }
+
+    /**
+     * Return the sorted, distinct stripes of the given keys.
+     */
+    private int[] stripesOf(String[] keys) {
+        boolean[] used = new boolean[STRIPES];
+        int count = 0;
+        for (String key : keys) {
+            int stripe = stripeOf(key);
+            if (!used[stripe]) {
+                used[stripe] = true;
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        int next = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            if (used[stripe]) {
+                result[next++] = stripe;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Take the given stripes one after the other, in stripe order so
+     * concurrent batches cannot deadlock, then apply and record the batch.
+     * MDELETE records only the keys that were deleted.
+     */
+    private void lockStripes(int[] toLock, int from, RecordedBatch batch) {
+        if (from < toLock.length) {
+            synchronized (stripes[toLock[from]]) {
+                lockStripes(toLock, from + 1, batch);
+            }
+            return;
+        }
+        if (Constants.MSET.equals(batch.requestType)) {
+            dbStore.setAll(batch.items);
+            for (DBRequest record : recordsOf(batch.items)) {
+                backlog.append(record);
+            }
+        } else {
+            batch.deleted = dbStore.deleteAll(batch.keys);
+            List<DBItem> deleted = new ArrayList<DBItem>();
+            for (int i = 0; i < batch.keys.length; i++) {
+                if (batch.deleted[i]) {
+                    deleted.add(batch.items[i]);
+                }
+            }
+            if (!deleted.isEmpty()) {
+                backlog.append(new DBRequest(Constants.MDELETE, deleted.toArray(new DBItem[deleted.size()])));
+            }
+        }
+    }
+
+    /**
+     * MSET or MDELETE on its way through the stripes.
+     */
+    private static final class RecordedBatch {
+        final String requestType;
+        final DBItem[] items;
+        final String[] keys;
+        boolean[] deleted;
+
+        RecordedBatch(String requestType, DBItem[] items, String[] keys) {
+            this.requestType = requestType;
+            this.items = items;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.karthik.main.flixDB;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The most recent writes of a primary, encoded as request frames in a ring
+ * of a fixed number of bytes. Every byte ever appended has an offset, so a
+ * replica that reconnects with the offset it had reached carries on from
+ * there, as long as the ring still holds it. Older writes are overwritten
+ * and a replica further behind has to be synced in full.
+ *
+ * Records are appended whole under the ring's lock, so the end of the ring
+ * is always at the end of a record.
+ */
+final class ReplicationBacklog {
+    private final byte[] ring;
+    private long end;
+
+    /**
+     * Constructs an empty ReplicationBacklog.
+     *
+     * @param capacity number of bytes of the most recent records kept
+     */
+    ReplicationBacklog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Replication backlog size must be positive");
+        }
+        ring = new byte[capacity];
+    }
+
+    /**
+     * Append a write to the backlog and wake up the replica feeds waiting
+     * for it. Must be called in the order the writes are applied to the
+     * store, at least for writes to the same key.
+     *
+     * @param request SET, DELETE, MSET, MDELETE, PERSIST or SETEXAT request
+     * @return offset of the end of the backlog after the record
+     */
+    long append(DBRequest request) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        try {
+            BinaryProtocol.writeRequest(record, request);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = record.toByteArray();
+        synchronized (this) {
+            // A record larger than the ring only leaves its tail behind
+            int from = Math.max(0, bytes.length - ring.length);
+            long position = end + from;
+            while (from < bytes.length) {
+                int index = (int) (position % ring.length);
+                int n = Math.min(bytes.length - from, ring.length - index);
+                System.arraycopy(bytes, from, ring, index, n);
+                from += n;
+                position += n;
+            }
+            end += bytes.length;
+            notifyAll();
+            return end;
+        }
+    }
+
+    /**
+     * @return offset of the end of the last record appended
+     */
+    synchronized long end() {
+        return end;
+    }
+
+    /**
+     * @return oldest offset still held by the ring
+     */
+    synchronized long start() {
+        return Math.max(0, end - ring.length);
+    }
+
+    /**
+     * Copy the bytes from the given offset on, waiting for some to be
+     * appended if there are none yet.
+     *
+     * @param from offset to copy from
+     * @param dst buffer to copy into
+     * @param timeoutMillis longest time to wait for new bytes
+     * @return number of bytes copied, zero if none were appended in time,
+     *         -1 if the offset is no longer or not yet in the backlog
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized int read(long from, byte[] dst, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long left = timeoutMillis;
+        while (from == end && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+        if (from < start() || from > end) {
+            return -1;
+        }
+        int length = (int) Math.min(end - from, dst.length);
+        int copied = 0;
+        while (copied < length) {
+            int index = (int) ((from + copied) % ring.length);
+            int n = Math.min(length - copied, ring.length - index);
+            System.arraycopy(ring, index, dst, copied, n);
+            copied += n;
+        }
+        return length;
+    }
+}
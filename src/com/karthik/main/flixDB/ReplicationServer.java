@@ -0,0 +1,345 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the writes of a primary to its replicas over the binary protocol,
+ * on a port of its own. Every replica gets a thread of its own.
+ *
+ * A replica opens the connection with MAGIC and VERSION and a SYNC request
+ * carrying the replication id and offset it reached, if any. The primary
+ * answers with a response holding its replication id, whether it CONTINUEs
+ * from the replica's offset or does a FULL_SYNC, and as cursor the offset
+ * the feed starts from. A full sync goes on with MSET and SETEXAT requests
+ * holding a copy of the store, least recently used key first and read one
+ * value at a time, ended by a SYNC request. From then on the
+ * primary sends the backlog byte for byte, and a SYNC request with its
+ * offset whenever it has been idle for HEARTBEAT_MILLIS. The replica
+ * acknowledges the offset it has applied with SYNC requests of its own,
+ * which gives the lag of every replica.
+ *
+ * A replica that falls further behind than the backlog reaches is
+ * disconnected, and syncs in full when it reconnects.
+ */
+public class ReplicationServer {
+    private final ReplicatedStore store;
+    private final Set<Feed> feeds = Collections.newSetFromMap(new ConcurrentHashMap<Feed, Boolean>());
+    private int port;
+    private ServerSocket server;
+    private volatile boolean stopped = false;
+
+    static final String FULL_SYNC = "FULL_SYNC";
+    static final String CONTINUE = "CONTINUE";
+
+    /**
+     * An idle primary sends a SYNC request this often, and replicas
+     * acknowledge their offset at least this often.
+     */
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    /**
+     * Largest number of pairs, and bytes, sent per MSET of a full sync.
+     */
+    private static final int BULK_PAIRS = 1000;
+    private static final int BULK_BYTES = 1024 * 1024;
+
+    private static final int FEED_BUFFER = 64 * 1024;
+
+    /**
+     * Constructs a ReplicationServer feeding the writes of the given store.
+     *
+     * @param store store of the primary
+     * @param port port to listen for replicas on, 0 for a free one
+     */
+    public ReplicationServer(ReplicatedStore store, int port) {
+        this.store = store;
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Bind the port and start accepting replicas on a background thread.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        port = server.getLocalPort();
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "flixDB-replication");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting replicas and disconnect the connected ones.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to close the replication socket: " + e.getMessage());
+        }
+        for (Feed feed : feeds) {
+            feed.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!stopped) {
+                    System.out.println("Failed to accept a replica: " + e.getMessage());
+                }
+                continue;
+            }
+            final Feed feed = new Feed(socket);
+            feeds.add(feed);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        feed.run();
+                    } finally {
+                        feeds.remove(feed);
+                        feed.close();
+                    }
+                }
+            }, "flixDB-replica-feed");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Return how far every connected replica is behind the primary: the
+     * bytes of the backlog written after the offset it last acknowledged.
+     *
+     * @return lag in bytes by replica address
+     */
+    public Map<String, Long> getReplicaLags() {
+        Map<String, Long> lags = new LinkedHashMap<String, Long>();
+        long end = store.getOffset();
+        for (Feed feed : feeds) {
+            if (feed.acknowledged >= 0) {
+                lags.put(feed.address, Math.max(0, end - feed.acknowledged));
+            }
+        }
+        return lags;
+    }
+
+    /**
+     * Periodically print the offset of the primary and the lag of every
+     * replica to the console.
+     *
+     * @param intervalSeconds seconds between two reports. Zero disables it
+     */
+    public void scheduleReport(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-replication-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder report = new StringBuilder("replication: offset ").append(store.getOffset());
+                Map<String, Long> lags = getReplicaLags();
+                report.append(", replicas ").append(lags.size());
+                for (Map.Entry<String, Long> lag : lags.entrySet()) {
+                    report.append(", ").append(lag.getKey()).append(" lag ").append(lag.getValue()).append(" bytes");
+                }
+                System.out.println(report);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Write a copy of the store as MSET and SETEXAT requests, a bounded
+     * number of pairs at a time.
+     *
+     * @return number of pairs written
+     */
+    private static long writeBulk(OutputStream out, Iterator<DBItem> items) throws IOException {
+        List<DBItem> chunk = new ArrayList<DBItem>();
+        long chunkBytes = 0;
+        long pairs = 0;
+        while (items.hasNext()) {
+            DBItem item = items.next();
+            pairs++;
+            chunk.add(item);
+            chunkBytes += item.getKey().length() + (item.getValue() == null ? 0 : item.getValue().length);
+            if (chunk.size() >= BULK_PAIRS || chunkBytes >= BULK_BYTES) {
+                writeChunk(out, chunk);
+                chunk.clear();
+                chunkBytes = 0;
+            }
+        }
+        writeChunk(out, chunk);
+        return pairs;
+    }
+
+    private static void writeChunk(OutputStream out, List<DBItem> chunk) throws IOException {
+        for (DBRequest record : ReplicatedStore.recordsOf(chunk.toArray(new DBItem[chunk.size()]))) {
+            BinaryProtocol.writeRequest(out, record);
+        }
+    }
+
+    /**
+     * Connection to one replica.
+     */
+    private final class Feed {
+        final Socket socket;
+        final String address;
+        volatile long acknowledged = -1;
+
+        Feed(Socket socket) {
+            this.socket = socket;
+            this.address = String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), FEED_BUFFER);
+                if (in.read() != (BinaryProtocol.MAGIC & 0xff) || in.read() != BinaryProtocol.VERSION) {
+                    throw new ProtocolException("Not a FlixDB replica");
+                }
+                DBRequest sync = BinaryProtocol.readRequest(in);
+                if (sync == null || !Constants.SYNC.equals(sync.getRequestType())) {
+                    throw new ProtocolException("Expected a SYNC request");
+                }
+                feed(in, out, sync);
+            } catch (SocketException e) {
+                if (!stopped) {
+                    System.out.println("Replica " + address + " disconnected: " + e.getMessage());
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to feed replica " + address + ": " + e.getMessage());
+            } catch (InvalidRequestException e) {
+                System.out.println("Invalid request from replica " + address + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void feed(InputStream in, OutputStream out, DBRequest sync)
+                throws IOException, InvalidRequestException, InterruptedException {
+            ReplicationBacklog backlog = store.getBacklog();
+            long offset = sync.getCursor();
+            boolean partial = store.getReplicationId().equals(sync.getPrefix())
+                    && offset >= backlog.start() && offset <= backlog.end();
+            if (!partial) {
+                offset = store.syncPoint();
+            }
+            DBResponse response = new DBResponse(Constants.OK, new DBItem[]{new DBItem(store.getReplicationId(),
+                    (partial ? CONTINUE : FULL_SYNC).getBytes(StandardCharsets.UTF_8))});
+            response.setCursor(offset);
+            BinaryProtocol.writeResponse(out, response);
+            out.flush();
+            if (partial) {
+                System.out.println("Replica " + address + " continues from offset " + offset);
+            } else {
+                long start = System.currentTimeMillis();
+                long pairs = writeBulk(out, store.leastRecentFirst());
+                BinaryProtocol.writeRequest(out, new DBRequest(Constants.SYNC, offset, 0,
+                        store.getReplicationId()));
+                out.flush();
+                System.out.println("Sent " + pairs + " keys to replica " + address + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+
+            byte[] buffer = new byte[FEED_BUFFER];
+            while (!stopped) {
+                readAcknowledgements(in);
+                // Keys expiring while no client writes would wait for the
+                // next write to be recorded otherwise
+                store.recordEvictions();
+                int n = backlog.read(offset, buffer, HEARTBEAT_MILLIS);
+                if (n < 0) {
+                    System.out.println("Replica " + address + " fell behind the replication backlog. "
+                            + "Disconnecting it");
+                    return;
+                }
+                if (n > 0) {
+                    out.write(buffer, 0, n);
+                    offset += n;
+                } else {
+                    // Nothing was appended, so the offset is at the end of a record
+                    BinaryProtocol.writeRequest(out, new DBRequest(Constants.SYNC, offset, 0,
+                            store.getReplicationId()));
+                }
+                out.flush();
+            }
+        }
+
+        /**
+         * Take in the offsets the replica acknowledged since the last call,
+         * without waiting for more.
+         */
+        private void readAcknowledgements(InputStream in) throws IOException, InvalidRequestException {
+            while (in.available() > 0) {
+                DBRequest ack = BinaryProtocol.readRequest(in);
+                if (ack == null) {
+                    throw new SocketException("Connection closed");
+                }
+                if (Constants.SYNC.equals(ack.getRequestType())) {
+                    acknowledged = ack.getCursor();
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
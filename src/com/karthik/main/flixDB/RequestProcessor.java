@@ -0,0 +1,317 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Carries out decoded client requests against the store. Shared by the
+ * network handlers, so every way of serving clients answers requests the
+ * same way. Thread-safe as long as the store is.
+ */
+public class RequestProcessor {
+    private final DBInterface dbStore;
+    private final ServerMetrics metrics;
+
+    /**
+     * Number of items a SCAN returns when the client asks for none.
+     */
+    public static final int DEFAULT_SCAN_COUNT = 100;
+
+    /**
+     * Most items a single SCAN chunk returns.
+     */
+    public static final int MAX_SCAN_COUNT = 10000;
+
+    private static final byte[] OK = Constants.OK.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Constructs a RequestProcessor for the given store.
+     *
+     * @param dbStore dbStore to carry out requests
+     */
+    public RequestProcessor(DBInterface dbStore) {
+        this.dbStore = dbStore;
+        this.metrics = new ServerMetrics();
+    }
+
+    /**
+     * Return the metrics the requests carried out are recorded in. The
+     * network handlers record their connections there as well.
+     *
+     * @return metrics of this processor
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Carry out a request against the store and record how long it took.
+     *
+     * @param request DBRequest from the client
+     * @return DBResponse to send back, ERROR for unknown request types and
+     *         requests the store failed to carry out
+     */
+    public DBResponse process(DBRequest request) {
+        long start = System.nanoTime();
+        try {
+            return dispatch(request);
+        } catch (RuntimeException e) {
+            // A write the append only log could not take must not look
+            // like it succeeded, nor take the connection down with it.
+            System.out.println("Failed to carry out " + request.getRequestType() + ": " + e.getMessage());
+            return new DBResponse(Constants.ERROR);
+        } finally {
+            metrics.requestServed(System.nanoTime() - start);
+        }
+    }
+
+    private DBResponse dispatch(DBRequest request) {
+        switch (request.getRequestType()) {
+            case Constants.GET:
+                return handleGetRequest(request);
+            case Constants.SET:
+                return handleSetRequest(request);
+            case Constants.SETEX:
+                return handleSetExRequest(request);
+            case Constants.TTL:
+                return handleTtlRequest(request);
+            case Constants.PERSIST:
+                return handlePersistRequest(request);
+            case Constants.DELETE:
+                return handleDeleteRequest(request);
+            case Constants.STREAM:
+                return handleStreamRequest();
+            case Constants.SCAN:
+                return handleScanRequest(request);
+            case Constants.MGET:
+                if (!hasKeys(request.getItems())) {
+                    return new DBResponse(Constants.ERROR);
+                }
+                return handleMGetRequest(request);
+            case Constants.MSET:
+                if (!hasKeys(request.getItems())) {
+                    return new DBResponse(Constants.ERROR);
+                }
+                return handleMSetRequest(request);
+            case Constants.MDELETE:
+                if (!hasKeys(request.getItems())) {
+                    return new DBResponse(Constants.ERROR);
+                }
+                return handleMDeleteRequest(request);
+            case Constants.PING:
+                return new DBResponse(Constants.OK);
+            default:
+                return new DBResponse(Constants.ERROR);
+        }
+    }
+
+    /**
+     * Handle the GET request from a client by getting the
+     * item from the DBStore and generating a DBResponse
+     *
+     * @return DBResponse with the requested key-value pair
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleGetRequest(DBRequest request){
+        byte[] value;
+        try {
+            value = dbStore.get(request.getItem().getKey());
+        } catch (ItemNotFoundException e) {
+            value = EMPTY;
+        }
+        DBItem item = new DBItem(request.getItem().getKey(), value);
+        return new DBResponse(Constants.OK, new DBItem[]{item});
+    }
+
+    /**
+     * Handle the SET request from a client by updating the
+     * DBStore with a new key-value pair
+     *
+     * @return DBResponse with OK
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleSetRequest(DBRequest request){
+        dbStore.set(request.getItem().getKey(), request.getItem().getValue());
+        return new DBResponse(Constants.OK);
+    }
+
+    /**
+     * Handle the SETEX request from a client by updating the DBStore with
+     * a new key-value pair expiring after the requested time.
+     *
+     * @return DBResponse with OK, ERROR if the time to live is not positive
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleSetExRequest(DBRequest request) {
+        if (request.getTtl() <= 0) {
+            return new DBResponse(Constants.ERROR);
+        }
+        dbStore.set(request.getItem().getKey(), request.getItem().getValue(), request.getTtl());
+        return new DBResponse(Constants.OK);
+    }
+
+    /**
+     * Handle the TTL request from a client by looking up the time the key
+     * has left to live.
+     *
+     * @return DBResponse with the key and the time to live in milliseconds
+     *         as its value, -1 if the key does not expire and empty if it
+     *         does not exist
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleTtlRequest(DBRequest request) {
+        byte[] value;
+        try {
+            value = Long.toString(dbStore.ttl(request.getItem().getKey())).getBytes(StandardCharsets.UTF_8);
+        } catch (ItemNotFoundException e) {
+            value = EMPTY;
+        }
+        DBItem item = new DBItem(request.getItem().getKey(), value);
+        return new DBResponse(Constants.OK, new DBItem[]{item});
+    }
+
+    /**
+     * Handle the PERSIST request from a client by removing the expiry of
+     * the key.
+     *
+     * @return DBResponse with the key and value OK if it had an expiry and
+     *         a null value if it didn't or doesn't exist
+     * @param request DBRequest from the client
+     */
+    private DBResponse handlePersistRequest(DBRequest request) {
+        boolean persisted;
+        try {
+            persisted = dbStore.persist(request.getItem().getKey());
+        } catch (ItemNotFoundException e) {
+            persisted = false;
+        }
+        DBItem item = new DBItem(request.getItem().getKey(), persisted ? OK : null);
+        return new DBResponse(Constants.OK, new DBItem[]{item});
+    }
+
+    /**
+     * Handle the DELETE request from a client by updating the
+     * DBStore.
+     *
+     * @return DBResponse with OK even if the key doesn't exist
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleDeleteRequest(DBRequest request) {
+        DBResponse response = new DBResponse(Constants.OK);
+        try {
+            dbStore.delete(request.getItem().getKey());
+        } catch (ItemNotFoundException e) {
+            e.printStackTrace();
+        }
+        return response;
+    }
+
+    /**
+     * Handle the STREAM request from a client by fetching all the
+     * key-value pairs from the DBStore.
+     *
+     * @return DBResponse with all the key-value pairs
+     */
+    private DBResponse handleStreamRequest() {
+        DBResponse response = new DBResponse(Constants.OK);
+        DBItem[] items = dbStore.stream();
+        response.setItems(items);
+        return response;
+    }
+
+    /**
+     * Handle the SCAN request from a client by fetching the next chunk of
+     * the scan from the DBStore.
+     *
+     * @return DBResponse with the chunk and the cursor to continue from,
+     *         ERROR if the cursor is unknown or expired
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleScanRequest(DBRequest request) {
+        int count = request.getCount() <= 0 ? DEFAULT_SCAN_COUNT : Math.min(request.getCount(), MAX_SCAN_COUNT);
+        try {
+            ScanResult result = dbStore.scan(request.getCursor(), count, request.getPrefix());
+            DBResponse response = new DBResponse(Constants.OK, result.getItems());
+            response.setCursor(result.getCursor());
+            return response;
+        } catch (InvalidRequestException e) {
+            return new DBResponse(Constants.ERROR);
+        }
+    }
+
+    /**
+     * Handle the MGET request from a client by fetching every key of the
+     * batch from the DBStore.
+     *
+     * @return DBResponse with an item per key, with a null value for keys
+     *         that don't exist
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleMGetRequest(DBRequest request) {
+        return new DBResponse(Constants.OK, dbStore.getAll(keysOf(request.getItems())));
+    }
+
+    /**
+     * Handle the MSET request from a client by writing every key-value
+     * pair of the batch to the DBStore at once.
+     *
+     * @return DBResponse with an item per key with value OK
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleMSetRequest(DBRequest request) {
+        DBItem[] items = request.getItems();
+        dbStore.setAll(items);
+        DBItem[] results = new DBItem[items.length];
+        for (int i = 0; i < items.length; i++) {
+            results[i] = new DBItem(items[i].getKey(), OK);
+        }
+        return new DBResponse(Constants.OK, results);
+    }
+
+    /**
+     * Handle the MDELETE request from a client by deleting every key of
+     * the batch from the DBStore.
+     *
+     * @return DBResponse with an item per key with value OK if it was
+     *         deleted and a null value if it didn't exist
+     * @param request DBRequest from the client
+     */
+    private DBResponse handleMDeleteRequest(DBRequest request) {
+        String[] keys = keysOf(request.getItems());
+        boolean[] deleted = dbStore.deleteAll(keys);
+        DBItem[] results = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            results[i] = new DBItem(keys[i], deleted[i] ? OK : null);
+        }
+        return new DBResponse(Constants.OK, results);
+    }
+
+    /**
+     * Check that a batch request carries items and every item a key.
+     *
+     * @param items items of the batch request
+     * @return false if the batch is malformed
+     */
+    private static boolean hasKeys(DBItem[] items) {
+        if (items == null) {
+            return false;
+        }
+        for (DBItem item : items) {
+            if (item == null || item.getKey() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] keysOf(DBItem[] items) {
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,93 @@
+package com.karthik.main.flixDB;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Approximate LRU, the same approximation Redis makes. Entries are kept in
+ * a dense array and the least recently used out of a few randomly sampled
+ * entries is evicted. A read only stamps the last access time of its entry,
+ * which the store does anyway, so reads never take the store lock.
+ */
+final class SampledLRUEvictionPolicy implements EvictionPolicy {
+    private final int evictionSamples;
+    private StoreEntry[] sampleSlots;
+    private int sampleSlotCount;
+
+    /**
+     * @param evictionSamples number of entries sampled per eviction
+     */
+    SampledLRUEvictionPolicy(int evictionSamples) {
+        if (evictionSamples < 1) {
+            throw new IllegalArgumentException("Eviction samples must be at least 1, got " + evictionSamples);
+        }
+        this.evictionSamples = evictionSamples;
+        sampleSlots = new StoreEntry[16];
+    }
+
+    @Override
+    public boolean accessNeedsLock() {
+        return false;
+    }
+
+    @Override
+    public void onInsert(StoreEntry entry) {
+        if (sampleSlotCount == sampleSlots.length) {
+            sampleSlots = Arrays.copyOf(sampleSlots, sampleSlots.length * 2);
+        }
+        entry.slot = sampleSlotCount;
+        sampleSlots[sampleSlotCount] = entry;
+        sampleSlotCount++;
+    }
+
+    @Override
+    public void onAccess(StoreEntry entry) {
+    }
+
+    @Override
+    public void onUpdate(StoreEntry entry, long oldSize) {
+    }
+
+    /**
+     * Remove the entry by moving the last entry of the array into its slot.
+     */
+    @Override
+    public void onRemove(StoreEntry entry) {
+        sampleSlotCount--;
+        StoreEntry last = sampleSlots[sampleSlotCount];
+        sampleSlots[entry.slot] = last;
+        last.slot = entry.slot;
+        sampleSlots[sampleSlotCount] = null;
+    }
+
+    @Override
+    public StoreEntry nextVictim() {
+        if (sampleSlotCount == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StoreEntry victim = null;
+        for (int i = 0; i < evictionSamples; i++) {
+            StoreEntry candidate = sampleSlots[random.nextInt(sampleSlotCount)];
+            if (victim == null || candidate.lastAccess < victim.lastAccess) {
+                victim = candidate;
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public void copyEntries(StoreEntry[] entries) {
+        System.arraycopy(sampleSlots, 0, entries, 0, Math.min(entries.length, sampleSlotCount));
+    }
+
+    @Override
+    public boolean copiesInRecencyOrder() {
+        return false;
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+}
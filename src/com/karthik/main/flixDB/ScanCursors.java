@@ -0,0 +1,150 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Open SCAN cursors of a store. A cursor is an iterator over the entries of
+ * the store that is advanced by one chunk per SCAN request, so a scan never
+ * copies more than a chunk of the store.
+ *
+ * The iterators come from the store's ConcurrentHashMaps and are weakly
+ * consistent: a key that is in the store for the whole scan is returned
+ * exactly once, a key added or deleted during the scan may or may not be
+ * returned, and a value updated during the scan may be returned in its old
+ * or its new version. Cursors left idle for CURSOR_TIMEOUT_MILLIS are
+ * dropped, as are the oldest ones beyond MAX_OPEN_CURSORS.
+ */
+final class ScanCursors {
+    private final ConcurrentHashMap<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+
+    /**
+     * Cursors not advanced for this long are dropped.
+     */
+    static final long CURSOR_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * Maximum number of cursors open at a time.
+     */
+    static final int MAX_OPEN_CURSORS = 1024;
+
+    /**
+     * Most entries examined per matching item returned, so a scan with a
+     * rare prefix returns short chunks instead of walking the whole store
+     * in one request.
+     */
+    private static final int MAX_EXAMINED_PER_ITEM = 10;
+
+    /**
+     * Source of a fresh iterator for a new scan, and of the values of the
+     * entries it returns.
+     */
+    interface EntrySource {
+        Iterator<StoreEntry> entryIterator();
+
+        byte[] valueOf(StoreEntry entry) throws ItemNotFoundException;
+    }
+
+    /**
+     * Continue the scan of the given cursor, or start a new one from the
+     * given source for cursor zero.
+     *
+     * @param source store to start a new scan of
+     * @param cursor cursor returned by the previous chunk, zero to start
+     * @param count maximum number of items to return
+     * @param prefix only return keys starting with it, null for all keys
+     * @return the chunk with the cursor to continue from, zero when done
+     * @throws InvalidRequestException if the cursor is unknown or expired
+     */
+    ScanResult scan(EntrySource source, long cursor, int count, String prefix) throws InvalidRequestException {
+        Cursor state;
+        if (cursor == 0) {
+            expireCursors();
+            state = new Cursor(source.entryIterator());
+        } else {
+            state = cursors.remove(cursor);
+            if (state == null) {
+                throw new InvalidRequestException("Unknown or expired cursor " + cursor);
+            }
+        }
+
+        List<DBItem> items = new ArrayList<DBItem>(Math.min(count, 1024));
+        long examinable = (long) count * MAX_EXAMINED_PER_ITEM;
+        while (items.size() < count && examinable > 0 && state.iterator.hasNext()) {
+            StoreEntry entry = state.iterator.next();
+            examinable--;
+            if (prefix == null || entry.key.startsWith(prefix)) {
+                try {
+                    items.add(new DBItem(entry.key, source.valueOf(entry)));
+                } catch (ItemNotFoundException e) {
+                    // Removed since the iterator returned it
+                }
+            }
+        }
+
+        long next = 0;
+        if (state.iterator.hasNext()) {
+            next = newCursorId();
+            state.lastUsed = System.currentTimeMillis();
+            cursors.put(next, state);
+        }
+        return new ScanResult(next, items.toArray(new DBItem[items.size()]));
+    }
+
+    /**
+     * Drop the cursors that timed out, and the least recently used ones
+     * while too many are open.
+     */
+    private void expireCursors() {
+        long expiry = System.currentTimeMillis() - CURSOR_TIMEOUT_MILLIS;
+        Iterator<Cursor> it = cursors.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().lastUsed < expiry) {
+                it.remove();
+            }
+        }
+        while (cursors.size() >= MAX_OPEN_CURSORS) {
+            Long oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Long, Cursor> e : cursors.entrySet()) {
+                if (e.getValue().lastUsed < oldestUse) {
+                    oldestUse = e.getValue().lastUsed;
+                    oldest = e.getKey();
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            cursors.remove(oldest);
+        }
+    }
+
+    private long newCursorId() {
+        while (true) {
+            long id = ThreadLocalRandom.current().nextLong();
+            if (id != 0 && !cursors.containsKey(id)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Position of an open scan.
+     */
+    private static final class Cursor {
+        final Iterator<StoreEntry> iterator;
+        volatile long lastUsed;
+
+        Cursor(Iterator<StoreEntry> iterator) {
+            this.iterator = iterator;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
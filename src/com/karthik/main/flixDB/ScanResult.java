@@ -0,0 +1,26 @@
+package com.karthik.main.flixDB;
+
+/**
+ * One chunk of a SCAN over the store: the key-value pairs found and the
+ * cursor to continue the scan from.
+ */
+public class ScanResult {
+    private final long cursor;
+    private final DBItem[] items;
+
+    public ScanResult(long cursor, DBItem[] items) {
+        this.cursor = cursor;
+        this.items = items;
+    }
+
+    /**
+     * @return cursor to pass to the next SCAN, zero once the scan is done
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    public DBItem[] getItems() {
+        return items;
+    }
+}
@@ -1,20 +1,29 @@
 package com.karthik.main.flixDB;
 
-import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
 
+import java.lang.reflect.Method;
 import java.net.Socket;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class ServerClientHandler implements NetworkHandlerInterface {
-    private DBStore dbStore;
+    private RequestProcessor processor;
     private ThreadPool threadPool;
+    private ExecutorService connectionThreads;
+    private final boolean legacyProtocol;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     /**
      * Constructs a ServerClientHandler with ThreadPool of a single thread.
      *
      * @param dbStore dbStore to carry out requests
      */
-    public ServerClientHandler(DBStore dbStore) {
+    public ServerClientHandler(DBInterface dbStore) {
         this(dbStore, 1);
     }
 
@@ -25,30 +34,145 @@ public class ServerClientHandler implements NetworkHandlerInterface {
      * @param dbStore dbStore to carry out requests
      * @param connections number of threads in threadPool to service requests
      */
-    public ServerClientHandler(DBStore dbStore, int connections) {
-        threadPool = new ThreadPool(connections);
-        this.dbStore = dbStore;
+    public ServerClientHandler(DBInterface dbStore, int connections) {
+        this(dbStore, connections, false);
+    }
+
+    /**
+     * Constructs a ServerClientHandler with ThreadPool of thread equal to
+     * the number given as connections.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param connections number of threads in threadPool to service requests
+     * @param legacyProtocol whether clients speaking the old Java
+     *                       serialization protocol are served as well
+     */
+    public ServerClientHandler(DBInterface dbStore, int connections, boolean legacyProtocol) {
+        this(dbStore, connections, legacyProtocol, false);
+    }
+
+    /**
+     * Constructs a ServerClientHandler serving every connection either from
+     * a ThreadPool of thread equal to the number given as connections, or
+     * from a thread of its own.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param connections number of threads in threadPool to service
+     *                    requests. Unused with virtual threads
+     * @param legacyProtocol whether clients speaking the old Java
+     *                       serialization protocol are served as well
+     * @param virtualThreads whether to serve every connection on its own
+     *                       virtual thread instead of the threadPool
+     */
+    public ServerClientHandler(DBInterface dbStore, int connections, boolean legacyProtocol,
+                               boolean virtualThreads) {
+        this.processor = new RequestProcessor(dbStore);
+        this.legacyProtocol = legacyProtocol;
+        if (virtualThreads) {
+            connectionThreads = newThreadPerConnectionExecutor();
+        } else {
+            threadPool = new ThreadPool(connections);
+            processor.getMetrics().setThreadPool(threadPool);
+        }
+    }
+
+    /**
+     * Constructs a ServerClientHandler serving the connections from the
+     * given ThreadPool.
+     *
+     * @param dbStore dbStore to carry out requests
+     * @param threadPool pool of threads to service requests
+     * @param legacyProtocol whether clients speaking the old Java
+     *                       serialization protocol are served as well
+     */
+    public ServerClientHandler(DBInterface dbStore, ThreadPool threadPool, boolean legacyProtocol) {
+        this.processor = new RequestProcessor(dbStore);
+        this.legacyProtocol = legacyProtocol;
+        this.threadPool = threadPool;
+        processor.getMetrics().setThreadPool(threadPool);
+    }
+
+    /**
+     * Create an executor starting a virtual thread for every connection.
+     * Virtual threads are looked up reflectively so the server still builds
+     * and runs on JDKs without them, where a platform thread per connection
+     * is started instead.
+     *
+     * @return executor running every job on a new thread
+     */
+    private static ExecutorService newThreadPerConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on this JVM. "
+                    + "Serving every connection on a platform thread instead");
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "flixDB-connection");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
     }
 
     /**
      * Creates a job to service the request for a socket and enqueues that job
-     * in the thread pool. Ignore all InterruptedExceptions.
+     * in the thread pool, or starts a thread for it. Ignore all
+     * InterruptedExceptions.
      *
      * @param client Socket connected to the client with the request
      */
     @Override
     public void handle(Socket client) {
         try {
-            threadPool.addJob(new ClientHandler(client));
+            if (connectionThreads != null) {
+                connectionThreads.execute(new ClientHandler(client));
+            } else {
+                threadPool.addJob(new ClientHandler(client));
+            }
         }
         catch(Exception e) {
         }
     }
 
+    @Override
+    public ServerMetrics getMetrics() {
+        return processor.getMetrics();
+    }
+
+    /**
+     * Stop taking connections and wait for the ones queued or being served
+     * to finish, at most the given time.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     */
+    @Override
+    public void shutdown(long timeoutMillis) {
+        boolean terminated;
+        try {
+            if (connectionThreads != null) {
+                connectionThreads.shutdown();
+                terminated = connectionThreads.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                threadPool.shutdown();
+                terminated = threadPool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminated = false;
+        }
+        if (!terminated) {
+            System.out.println("Connections still open after " + timeoutMillis + " ms. Shutting down anyway");
+        }
+    }
+
     /**
      * Runnable class containing routine to service a request from the client.
      */
-    private class ClientHandler implements Runnable {
+    private class ClientHandler implements ThreadPool.Rejectable {
         private Socket server;
 
         /**
@@ -61,109 +185,112 @@ public class ServerClientHandler implements NetworkHandlerInterface {
         }
 
         /**
-         * Processes request from client and sends back a response with the
-         * result. The delivery of the response is best-effort. If we are
-         * unable to return any response, there is nothing else we can do.
+         * Processes requests from the client and sends back a response with
+         * the result of each. The protocol is picked from the first byte the
+         * client sends. The delivery of the response is best-effort. If we
+         * are unable to return any response, there is nothing else we can do.
          */
         @Override
         public void run() {
-
-            while (true) {
-
-                DBRequest request = null;
-                DBResponse response = null;
-                try {
-                    ObjectInputStream ois = new ObjectInputStream(server.getInputStream());
-                    request = (DBRequest) ois.readObject();
-                }
-                catch(Exception e) {
-                    response = new DBResponse(Constants.ERROR);
-                }
-                if (request == null) {
-                    break;
-                }
-                switch (request.getRequestType()) {
-                    case Constants.GET:
-                        response = handleGetRequest(request);
-                        break;
-                    case Constants.SET:
-                        response = handleSetRequest(request);
-                        break;
-                    case Constants.DELETE:
-                        response = handleDeleteRequest(request);
-                        break;
-                    case Constants.STREAM:
-                        response = handleStreamRequest();
-                        break;
+            processor.getMetrics().connectionOpened();
+            try {
+                InputStream in = new BufferedInputStream(server.getInputStream(), BUFFER_SIZE);
+                OutputStream out = new BufferedOutputStream(server.getOutputStream(), BUFFER_SIZE);
+                in.mark(2);
+                int first = in.read();
+                if (first == (BinaryProtocol.MAGIC & 0xff) && in.read() == BinaryProtocol.VERSION) {
+                    serveBinary(in, out);
+                } else if (legacyProtocol && first == (BinaryProtocol.JAVA_SERIALIZATION_MAGIC & 0xff)) {
+                    in.reset();
+                    serveLegacy(in, out);
                 }
-                ObjectOutputStream oos;
+            } catch (IOException ignored) {
+            } finally {
+                processor.getMetrics().connectionClosed();
                 try {
-                    oos = new ObjectOutputStream(server.getOutputStream());
-                    oos.writeObject(response);
-                } catch (IOException e) {
-                    break;
+                    server.close();
+                } catch (IOException ignored) {
                 }
             }
-
         }
+
         /**
-         * Handle the GET request from a client by getting the
-         * item from the DBStore and generating a DBResponse
-         *
-         * @return DBResponse with the requested key-value pair
-         * @param request DBRequest from the client
+         * Tell the client the server is too busy with an ERROR response and
+         * close the connection. Legacy clients cannot read the response and
+         * just see the connection close.
          */
-        private DBResponse handleGetRequest(DBRequest request){
-            String value;
+        @Override
+        public void reject() {
             try {
-                value = dbStore.get(request.getItem().getKey());
-            } catch (ItemNotFoundException e) {
-                value = "";
+                OutputStream out = new BufferedOutputStream(server.getOutputStream());
+                BinaryProtocol.writeResponse(out, new DBResponse(Constants.ERROR));
+                out.flush();
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    server.close();
+                } catch (IOException ignored) {
+                }
             }
-            DBItem item = new DBItem(request.getItem().getKey(), value);
-            return new DBResponse(Constants.OK, new DBItem[]{item});
         }
 
         /**
-         * Handle the SET request from a client by updating the
-         * DBStore with a new key-value pair
+         * Serve length-prefixed binary frames until the client disconnects.
+         * A malformed request gets an ERROR response. The length prefix
+         * keeps the stream in sync, so the connection stays usable.
          *
-         * @return DBResponse with OK
-         * @param request DBRequest from the client
-         */
-        private DBResponse handleSetRequest(DBRequest request){
-            dbStore.set(request.getItem().getKey(), request.getItem().getValue());
-            return new DBResponse(Constants.OK);
-        }
-
-        /**
-         * Handle the DELETE request from a client by updating the
-         * DBStore.
+         * Clients may pipeline requests. Responses are only flushed once
+         * every request read ahead into the input buffer has been served,
+         * so a batch of pipelined requests is answered with a few large
+         * writes instead of one per request.
          *
-         * @return DBResponse with OK even if the key doesn't exist
-         * @param request DBRequest from the client
+         * @param in buffered stream from the client, past the preamble
+         * @param out buffered stream to the client
+         * @throws IOException if the connection fails
          */
-        private DBResponse handleDeleteRequest(DBRequest request) {
-            DBResponse response = new DBResponse(Constants.OK);
-            try {
-                dbStore.delete(request.getItem().getKey());
-            } catch (ItemNotFoundException e) {
-                e.printStackTrace();
+        private void serveBinary(InputStream in, OutputStream out) throws IOException {
+            while (true) {
+                DBResponse response;
+                try {
+                    DBRequest request = BinaryProtocol.readRequest(in);
+                    if (request == null) {
+                        break;
+                    }
+                    response = processor.process(request);
+                } catch (InvalidRequestException e) {
+                    response = new DBResponse(Constants.ERROR);
+                }
+                BinaryProtocol.writeResponse(out, response);
+                if (in.available() == 0) {
+                    out.flush();
+                }
             }
-            return response;
         }
 
         /**
-         * Handle the STREAM request from a client by fetching all the
-         * key-value pairs from the DBStore.
+         * Serve Java serialized DBRequest objects until the client
+         * disconnects. Only used with the legacy_protocol compatibility flag.
          *
-         * @return DBResponse with all the key-value pairs
+         * @param in buffered stream from the client
+         * @param out buffered stream to the client
+         * @throws IOException if the connection fails
          */
-        private DBResponse handleStreamRequest() {
-            DBResponse response = new DBResponse(Constants.OK);
-            DBItem[] items = dbStore.stream();
-            response.setItems(items);
-            return response;
+        private void serveLegacy(InputStream in, OutputStream out) throws IOException {
+            while (true) {
+                DBRequest request;
+                try {
+                    ObjectInputStream ois = new ObjectInputStream(in);
+                    request = (DBRequest) ois.readObject();
+                } catch (ClassNotFoundException | ClassCastException e) {
+                    request = null;
+                }
+                if (request == null) {
+                    break;
+                }
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(processor.process(request));
+                oos.flush();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package com.karthik.main.flixDB;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection and request latency counters of a network handler, so the
+ * different ways of serving clients can be compared under the same load.
+ *
+ * Latencies go into power of two buckets of nanoseconds. Recording is a
+ * couple of uncontended adds and percentiles are accurate to a factor of
+ * two, which is plenty to tell a queued request from a served one.
+ */
+public class ServerMetrics {
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder requestNanos = new LongAdder();
+    private final AtomicLong maxRequestNanos = new AtomicLong();
+    private final LongAdder[] latencyBuckets;
+    private volatile ThreadPool threadPool;
+
+    public ServerMetrics() {
+        latencyBuckets = new LongAdder[64];
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a client connecting.
+     */
+    public void connectionOpened() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Record a client connection being closed.
+     */
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Record a request carried out in the given time.
+     *
+     * @param nanos time taken by the request in nanoseconds
+     */
+    public void requestServed(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        requests.increment();
+        requestNanos.add(nanos);
+        latencyBuckets[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+        long max = maxRequestNanos.get();
+        while (nanos > max && !maxRequestNanos.compareAndSet(max, nanos)) {
+            max = maxRequestNanos.get();
+        }
+    }
+
+    /**
+     * Include the queue depth and wait times of the given pool in the
+     * reports.
+     *
+     * @param threadPool pool serving the connections
+     */
+    public void setThreadPool(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Return the mean request latency.
+     *
+     * @return mean latency in nanoseconds, zero before the first request
+     */
+    public long getMeanLatencyNanos() {
+        long count = requests.sum();
+        return count == 0 ? 0 : requestNanos.sum() / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxRequestNanos.get();
+    }
+
+    /**
+     * Return an upper bound of the given latency percentile.
+     *
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in
+     *         nanoseconds, zero before the first request
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        long[] counts = new long[latencyBuckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyBuckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return (2L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "connections accepted " + getConnectionsAccepted() + ", active " + getActiveConnections()
+                + ", requests " + getRequests() + ", latency mean " + getMeanLatencyNanos() / 1000
+                + "us, p50 < " + getLatencyPercentileNanos(50) / 1000 + "us, p99 < "
+                + getLatencyPercentileNanos(99) / 1000 + "us, max " + getMaxLatencyNanos() / 1000 + "us"
+                + (threadPool == null ? "" : "; thread pool " + threadPool);
+    }
+
+    /**
+     * Periodically print the metrics to the console.
+     *
+     * @param intervalSeconds seconds between two reports. Zero disables it
+     * @param name name of the handler the metrics belong to
+     */
+    public void scheduleReport(int intervalSeconds, final String name) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-metrics-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println(name + ": " + ServerMetrics.this);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,584 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * DBStore split into independent shards so that writes from different
+ * client threads do not serialize on a single lock. Every key hashes to
+ * exactly one shard, and every shard keeps its own eviction policy, its own
+ * slice of the memory budget and evicts on its own. Eviction is therefore
+ * per shard, which approximates a global policy when keys are spread evenly.
+ */
+public class ShardedDBStore implements DBInterface {
+    private final DBStore[] shards;
+    private final CompressionMetrics compressionMetrics;
+    private final ScanCursors scanCursors = new ScanCursors();
+
+    /**
+     * Constructs a ShardedDBStore with the given memory size split evenly
+     * between the given number of shards.
+     *
+     * @param maxMemorySize Max memory size of the whole store. Zero sets
+     *                      it to memory available to the JVM
+     * @param shardCount number of independent shards
+     */
+    public ShardedDBStore(long maxMemorySize, int shardCount) {
+        this(maxMemorySize, shardCount, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES);
+    }
+
+    /**
+     * Constructs a ShardedDBStore with the given memory size split evenly
+     * between the given number of shards, each evicting with the given
+     * policy.
+     *
+     * @param maxMemorySize Max memory size of the whole store. Zero sets
+     *                      it to memory available to the JVM
+     * @param shardCount number of independent shards
+     * @param evictionPolicy eviction policy of every shard
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        sampled eviction
+     * @see DBStore#DBStore(long, String, int)
+     */
+    public ShardedDBStore(long maxMemorySize, int shardCount, String evictionPolicy, int evictionSamples) {
+        this(maxMemorySize, shardCount, evictionPolicy, evictionSamples, DBStore.HEAP);
+    }
+
+    /**
+     * Constructs a ShardedDBStore with the given memory size split evenly
+     * between the given number of shards, each evicting with the given
+     * policy and keeping its values in the given storage.
+     *
+     * @param maxMemorySize Max memory size of the whole store. Zero sets
+     *                      it to memory available to the JVM
+     * @param shardCount number of independent shards
+     * @param evictionPolicy eviction policy of every shard
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        sampled eviction
+     * @param storage storage of the values of every shard
+     * @see DBStore#DBStore(long, String, int, String)
+     */
+    public ShardedDBStore(long maxMemorySize, int shardCount, String evictionPolicy, int evictionSamples,
+                          String storage) {
+        this(maxMemorySize, shardCount, evictionPolicy, evictionSamples, storage, 0);
+    }
+
+    /**
+     * Constructs a ShardedDBStore with the given memory size split evenly
+     * between the given number of shards, each evicting with the given
+     * policy, keeping its values in the given storage and compressing
+     * values from the given size on.
+     *
+     * @param maxMemorySize Max memory size of the whole store. Zero sets
+     *                      it to memory available to the JVM
+     * @param shardCount number of independent shards
+     * @param evictionPolicy eviction policy of every shard
+     * @param evictionSamples number of keys sampled per eviction with
+     *                        sampled eviction
+     * @param storage storage of the values of every shard
+     * @param compressionThreshold size in bytes from which values are
+     *                             compressed. Zero disables compression
+     * @see DBStore#DBStore(long, String, int, String, int)
+     */
+    public ShardedDBStore(long maxMemorySize, int shardCount, String evictionPolicy, int evictionSamples,
+                          String storage, int compressionThreshold) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1, got " + shardCount);
+        }
+        long totalMemory = maxMemorySize > 0 ? maxMemorySize : Runtime.getRuntime().freeMemory();
+        shards = new DBStore[shardCount];
+        compressionMetrics = new CompressionMetrics();
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DBStore(totalMemory / shardCount, evictionPolicy, evictionSamples, storage,
+                    compressionThreshold, compressionMetrics);
+        }
+    }
+
+    /**
+     * Find the shard owning the given key. The key hash is mixed before
+     * picking the shard so the shards do not all end up with the same low
+     * hash bits, which the map inside every shard relies on.
+     *
+     * @param key to look up
+     * @return shard owning the key
+     */
+    private DBStore shardFor(String key) {
+        return shards[shardIndex(key)];
+    }
+
+    private int shardIndex(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> 16) % shards.length;
+    }
+
+    /**
+     * Insert or update new key-value pair into the shard owning the key.
+     *
+     * @param key to insert or update
+     * @param value to insert or update
+     */
+    public void set(String key, byte[] value) {
+        shardFor(key).set(key, value);
+    }
+
+    /**
+     * Insert or update new key-value pair into the shard owning the key,
+     * expiring after the given time.
+     *
+     * @param key to insert or update
+     * @param value to insert or update
+     * @param ttlMillis time to live of the key in milliseconds
+     */
+    public void set(String key, byte[] value, long ttlMillis) {
+        shardFor(key).set(key, value, ttlMillis);
+    }
+
+    /**
+     * Fetch the value for the given key from the shard owning the key.
+     *
+     * @return value of the given key
+     * @param key to fetch from the DBStore
+     */
+    public byte[] get(String key) throws ItemNotFoundException {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * Return the time the key has left to live in the shard owning it.
+     *
+     * @param key to look up
+     * @return remaining time to live in milliseconds, NO_EXPIRY if the key
+     *         does not expire
+     */
+    public long ttl(String key) throws ItemNotFoundException {
+        return shardFor(key).ttl(key);
+    }
+
+    /**
+     * Remove the expiry of the key in the shard owning it.
+     *
+     * @param key to persist
+     * @return true if the key had an expiry
+     */
+    public boolean persist(String key) throws ItemNotFoundException {
+        return shardFor(key).persist(key);
+    }
+
+    /**
+     * Delete the key from the shard owning the key.
+     *
+     * @param key to delete from the store
+     */
+    public void delete(String key) throws ItemNotFoundException {
+        shardFor(key).delete(key);
+    }
+
+    /**
+     * Insert or update a batch of key-value pairs. The batch is split by
+     * shard and every shard applies its part with one memory check.
+     *
+     * @param items key-value pairs to insert or update
+     */
+    public void setAll(DBItem[] items) {
+        int[][] byShard = groupByShard(keysOf(items));
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (byShard[shard].length == 0) {
+                continue;
+            }
+            DBItem[] shardItems = new DBItem[byShard[shard].length];
+            for (int i = 0; i < shardItems.length; i++) {
+                shardItems[i] = items[byShard[shard][i]];
+            }
+            shards[shard].setAll(shardItems);
+        }
+    }
+
+    /**
+     * Fetch the values of a batch of keys, one batch per shard.
+     *
+     * @param keys to fetch from the store
+     * @return an item per key in the same order, with a null value for
+     *         keys that are not in the store
+     */
+    public DBItem[] getAll(String[] keys) {
+        DBItem[] items = new DBItem[keys.length];
+        int[][] byShard = groupByShard(keys);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (byShard[shard].length == 0) {
+                continue;
+            }
+            DBItem[] shardItems = shards[shard].getAll(select(keys, byShard[shard]));
+            for (int i = 0; i < shardItems.length; i++) {
+                items[byShard[shard][i]] = shardItems[i];
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Delete a batch of keys, one batch per shard.
+     *
+     * @param keys to delete from the store
+     * @return for every key whether it was in the store
+     */
+    public boolean[] deleteAll(String[] keys) {
+        boolean[] deleted = new boolean[keys.length];
+        int[][] byShard = groupByShard(keys);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (byShard[shard].length == 0) {
+                continue;
+            }
+            boolean[] shardDeleted = shards[shard].deleteAll(select(keys, byShard[shard]));
+            for (int i = 0; i < shardDeleted.length; i++) {
+                deleted[byShard[shard][i]] = shardDeleted[i];
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Group the positions of a batch of keys by the shard owning the key.
+     *
+     * @param keys keys of the batch
+     * @return for every shard the positions of its keys, in batch order
+     */
+    private int[][] groupByShard(String[] keys) {
+        int[] shardOf = new int[keys.length];
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < keys.length; i++) {
+            shardOf[i] = shardIndex(keys[i]);
+            counts[shardOf[i]]++;
+        }
+        int[][] byShard = new int[shards.length][];
+        for (int shard = 0; shard < shards.length; shard++) {
+            byShard[shard] = new int[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            byShard[shardOf[i]][counts[shardOf[i]]++] = i;
+        }
+        return byShard;
+    }
+
+    private static String[] keysOf(DBItem[] items) {
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        return keys;
+    }
+
+    private static String[] select(String[] keys, int[] positions) {
+        String[] selected = new String[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            selected[i] = keys[positions[i]];
+        }
+        return selected;
+    }
+
+    /**
+     * Fetch the next chunk of a scan over the store, which walks the
+     * shards one after the other.
+     *
+     * @param cursor cursor returned by the previous chunk, zero to start
+     * @param count maximum number of key-value pairs to return
+     * @param prefix only return keys starting with it, null for all keys
+     * @return the chunk and the cursor to continue from, zero when done
+     * @throws InvalidRequestException if the cursor is unknown or expired
+     * @see DBStore#scan(long, int, String)
+     */
+    public ScanResult scan(long cursor, int count, String prefix) throws InvalidRequestException {
+        return scanCursors.scan(new ScanCursors.EntrySource() {
+            @Override
+            public Iterator<StoreEntry> entryIterator() {
+                return new ShardIterator();
+            }
+
+            @Override
+            public byte[] valueOf(StoreEntry entry) throws ItemNotFoundException {
+                return shardFor(entry.key).load(entry);
+            }
+        }, cursor, count, prefix);
+    }
+
+    /**
+     * Fetch all the key-value pairs from every shard. The per-shard LRU
+     * lists are merged by the last access time of their entries, so the
+     * result is most recently used first across the whole store, give or
+     * take accesses that raced with the merge.
+     *
+     * @return all the key-value pairs, null if the store is empty
+     */
+    public DBItem[] stream() {
+        StoreEntry[][] shardEntries = new StoreEntry[shards.length][];
+        int noOfItems = 0;
+        for (int i = 0; i < shards.length; i++) {
+            shardEntries[i] = shards[i].entries();
+            noOfItems += shardEntries[i].length;
+        }
+        if (noOfItems == 0) {
+            return null;
+        }
+
+        PriorityQueue<ShardCursor> cursors = new PriorityQueue<ShardCursor>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            if (shardEntries[i].length > 0) {
+                cursors.add(new ShardCursor(shards[i], shardEntries[i], false));
+            }
+        }
+        DBItem[] items = new DBItem[noOfItems];
+        int itemNo = 0;
+        while (!cursors.isEmpty()) {
+            ShardCursor cursor = cursors.poll();
+            StoreEntry entry = cursor.current();
+            try {
+                long expiresAt = entry.expiresAt;
+                items[itemNo] = new DBItem(entry.key, cursor.shard.load(entry), expiresAt);
+                itemNo++;
+            } catch (ItemNotFoundException e) {
+                // Removed since the order was captured, or expired
+            }
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return itemNo == items.length ? items : Arrays.copyOf(items, itemNo);
+    }
+
+    /**
+     * Walk the pairs of every shard, merging their LRU lists by the last
+     * access time of their entries as stream() does, oldest first.
+     *
+     * @return iterator over the pairs, least recently used first
+     */
+    public Iterator<DBItem> leastRecentFirst() {
+        final PriorityQueue<ShardCursor> cursors = new PriorityQueue<ShardCursor>(shards.length);
+        for (DBStore shard : shards) {
+            StoreEntry[] entries = shard.entries();
+            if (entries.length > 0) {
+                cursors.add(new ShardCursor(shard, entries, true));
+            }
+        }
+        return new EntryItemIterator() {
+            private ShardCursor loading;
+
+            @Override
+            StoreEntry nextEntry() {
+                ShardCursor cursor = cursors.poll();
+                if (cursor == null) {
+                    return null;
+                }
+                StoreEntry entry = cursor.current();
+                loading = cursor;
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+                return entry;
+            }
+
+            @Override
+            byte[] load(StoreEntry entry) throws ItemNotFoundException {
+                return loading.shard.load(entry);
+            }
+        };
+    }
+
+    /**
+     * Return the estimated number of bytes used by all the shards.
+     *
+     * @return estimated memory usage in bytes
+     */
+    public long getMemoryUsed() {
+        long memoryUsed = 0;
+        for (DBStore shard : shards) {
+            memoryUsed += shard.getMemoryUsed();
+        }
+        return memoryUsed;
+    }
+
+    /**
+     * Return the number of GETs that found their key in any shard.
+     *
+     * @return number of hits since the store was created
+     */
+    public long getHits() {
+        long hits = 0;
+        for (DBStore shard : shards) {
+            hits += shard.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Return the number of GETs that did not find their key.
+     *
+     * @return number of misses since the store was created
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (DBStore shard : shards) {
+            misses += shard.getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Return the metrics of the value compression, shared by all shards.
+     *
+     * @return compression metrics of the store
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * Tell the given listener about every key written, deleted, expired or
+     * evicted from any shard.
+     *
+     * @param listener listener called with the lock of the shard held
+     * @see DBStore#setInvalidationListener(InvalidationListener)
+     */
+    public void setInvalidationListener(InvalidationListener listener) {
+        for (DBStore shard : shards) {
+            shard.setInvalidationListener(listener);
+        }
+    }
+
+    /**
+     * Tell the given listener about every key expired or evicted from any
+     * shard.
+     *
+     * @param listener listener called with the lock of the shard held
+     * @see DBStore#setEvictionListener(EvictionListener)
+     */
+    public void setEvictionListener(EvictionListener listener) {
+        for (DBStore shard : shards) {
+            shard.setEvictionListener(listener);
+        }
+    }
+
+    /**
+     * Stop every shard from evicting keys to stay under its memory bound.
+     *
+     * @see DBStore#disableEviction()
+     */
+    public void disableEviction() {
+        for (DBStore shard : shards) {
+            shard.disableEviction();
+        }
+    }
+
+    /**
+     * Periodically report the drift of the memory estimate of every shard.
+     *
+     * @param intervalSeconds seconds between two checks. Zero disables it
+     * @see DBStore#scheduleDriftCheck(int)
+     */
+    public void scheduleDriftCheck(int intervalSeconds) {
+        for (DBStore shard : shards) {
+            shard.scheduleDriftCheck(intervalSeconds);
+        }
+    }
+
+    /**
+     * Remove the keys that have expired by now from every shard.
+     *
+     * @return number of keys removed
+     */
+    public int removeExpired() {
+        int removed = 0;
+        for (DBStore shard : shards) {
+            removed += shard.removeExpired();
+        }
+        return removed;
+    }
+
+    /**
+     * Remove expired keys from every shard in the background.
+     *
+     * @param intervalMillis milliseconds between two runs. Zero disables it
+     * @see DBStore#scheduleExpiry(int)
+     */
+    public void scheduleExpiry(int intervalMillis) {
+        for (DBStore shard : shards) {
+            shard.scheduleExpiry(intervalMillis);
+        }
+    }
+
+    /**
+     * Iterator over the entries of every shard in turn.
+     */
+    private final class ShardIterator implements Iterator<StoreEntry> {
+        private int shard;
+        private Iterator<StoreEntry> current = shards[0].entryIterator();
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && shard + 1 < shards.length) {
+                shard++;
+                current = shards[shard].entryIterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public StoreEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    /**
+     * Position in the LRU ordered entries of one shard, ordered by the last
+     * access time of the current entry, most recent first.
+     */
+    private static final class ShardCursor implements Comparable<ShardCursor> {
+        private final DBStore shard;
+        private final StoreEntry[] entries;
+        private final long[] accessTimes;
+        private final boolean oldestFirst;
+        private int position;
+
+        /**
+         * @param entries entries of the shard, most recently used first
+         * @param oldestFirst walk the entries from the least recently used
+         */
+        ShardCursor(DBStore shard, StoreEntry[] entries, boolean oldestFirst) {
+            this.shard = shard;
+            this.entries = entries;
+            this.oldestFirst = oldestFirst;
+            // Entries may be touched again while merging, so keep the times
+            // the LRU order was captured with.
+            this.accessTimes = new long[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                accessTimes[i] = entries[i].lastAccess;
+            }
+        }
+
+        private int index() {
+            return oldestFirst ? entries.length - 1 - position : position;
+        }
+
+        StoreEntry current() {
+            return entries[index()];
+        }
+
+        boolean advance() {
+            position++;
+            return position < entries.length;
+        }
+
+        @Override
+        public int compareTo(ShardCursor other) {
+            int newestFirst = Long.compare(other.accessTimes[other.index()], accessTimes[index()]);
+            return oldestFirst ? -newestFirst : newestFirst;
+        }
+    }
+}
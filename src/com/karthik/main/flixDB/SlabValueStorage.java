@@ -0,0 +1,428 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Values kept in direct memory by a slab allocator in the style of
+ * memcached. The memory bound is split into pages of equal size, and every
+ * page belongs to one size class and is cut into chunks of the chunk size
+ * of its class. Chunk sizes grow by GROWTH_FACTOR from MIN_CHUNK up to the
+ * page size, so a value wastes at most a fifth of its chunk and freed
+ * chunks are always reused by values of the same class.
+ *
+ * A page is only reserved while the store has room for it and for the
+ * entries that will fill it, and pages are counted whole, so the reserved
+ * memory never drifts away from what the store reports. Once no page can
+ * be reserved, a value that finds no free chunk in its class evicts the
+ * least recently used entry of that class, out of SAMPLES sampled chunks,
+ * instead of whatever the store-wide policy would pick. A class without
+ * entries of its own gets a page moved over from the class with the most
+ * pages, emptied first.
+ *
+ * Reads are optimistic, as with {@link OffHeapValueStorage}.
+ */
+final class SlabValueStorage implements ValueStorage {
+    private final StampedLock lock = new StampedLock();
+    private final int pageSize;
+    private final SlabClass[] classes;
+    private final List<Page> pageList = new ArrayList<Page>();
+    private volatile Page[] pages = new Page[0];
+    private long reservedBytes;
+    private SlabClass needsChunk;
+    private StoreEntry pending;
+    private Page donor;
+
+    static final double GROWTH_FACTOR = 1.25;
+    static final int MIN_CHUNK = 64;
+    static final int MAX_PAGE_SIZE = 1 << 20;
+    private static final int MIN_PAGE_SIZE = 4096;
+    private static final int SAMPLES = 5;
+    private static final int HEADER = 4;
+
+    /**
+     * Constructs a SlabValueStorage for a store with the given memory
+     * bound. Pages are 1 MB, or smaller for small bounds so the bound
+     * holds at least 16 pages.
+     *
+     * @param maxMemorySize memory bound of the store in bytes
+     */
+    SlabValueStorage(long maxMemorySize) {
+        int size = MAX_PAGE_SIZE;
+        while (size > MIN_PAGE_SIZE && size * 16L > maxMemorySize) {
+            size >>= 1;
+        }
+        pageSize = size;
+        List<SlabClass> sizes = new ArrayList<SlabClass>();
+        int chunkSize = MIN_CHUNK;
+        while (chunkSize < pageSize / 2) {
+            sizes.add(new SlabClass(sizes.size(), chunkSize));
+            chunkSize = (int) Math.ceil(chunkSize * GROWTH_FACTOR / 8) * 8;
+        }
+        sizes.add(new SlabClass(sizes.size(), pageSize));
+        classes = sizes.toArray(new SlabClass[sizes.size()]);
+    }
+
+    @Override
+    public long store(StoreEntry entry, byte[] bytes, long headroom) {
+        if (bytes != null && bytes.length + HEADER > pageSize) {
+            throw new IllegalArgumentException("Value of " + bytes.length
+                    + " bytes is larger than the largest slab chunk of " + (pageSize - HEADER) + " bytes");
+        }
+        long stamp = lock.writeLock();
+        try {
+            // Free the old chunk first, so a value of the same class is
+            // written in place and a page it empties can change class
+            long previous = entry.address;
+            free(previous);
+            long address = OffHeapValueStorage.NO_VALUE;
+            if (bytes != null) {
+                address = allocate(classOf(bytes.length + HEADER), entry, headroom);
+                if (address == NO_MEMORY) {
+                    retake(previous, entry);
+                    pending = entry;
+                    return NO_MEMORY;
+                }
+                ByteBuffer chunk = chunkAt(address);
+                chunk.putInt(bytes.length);
+                chunk.put(bytes);
+            }
+            entry.address = address;
+            needsChunk = null;
+            pending = null;
+            donor = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // Pages are charged whole by reservedBytes
+        return 0;
+    }
+
+    @Override
+    public byte[] load(StoreEntry entry) throws ItemNotFoundException {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                byte[] value = read(entry);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // Read a chunk while it was reused, read again below
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read(entry);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void release(StoreEntry entry) {
+        long stamp = lock.writeLock();
+        try {
+            free(entry.address);
+            entry.address = OffHeapValueStorage.RELEASED;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Pick the entry to evict to make room in the class the last store ran
+     * out of chunks in: the least recently used of a few sampled entries
+     * of that class, or an entry of the page to be moved over to it.
+     */
+    @Override
+    public StoreEntry victim() {
+        long stamp = lock.writeLock();
+        try {
+            SlabClass sizeClass = needsChunk;
+            if (sizeClass == null) {
+                return null;
+            }
+            if (sizeClass.used > 0) {
+                return sampleVictim(sizeClass);
+            }
+            if (donor == null || donor.used == 0) {
+                donor = pickDonor(sizeClass);
+                if (donor == null) {
+                    return null;
+                }
+            }
+            for (StoreEntry owner : donor.owners) {
+                if (owner != null && owner != pending) {
+                    return owner;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long reservedBytes() {
+        long stamp = lock.readLock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long overhead() {
+        return 0;
+    }
+
+    private byte[] read(StoreEntry entry) throws ItemNotFoundException {
+        long address = entry.address;
+        if (address == OffHeapValueStorage.RELEASED) {
+            throw new ItemNotFoundException("The item does not exist in the store");
+        }
+        if (address == OffHeapValueStorage.NO_VALUE) {
+            return null;
+        }
+        ByteBuffer chunk = chunkAt(address);
+        int length = chunk.getInt();
+        if (length < 0 || length > chunk.remaining()) {
+            throw new IllegalStateException("Corrupt chunk at " + address);
+        }
+        byte[] bytes = new byte[length];
+        chunk.get(bytes);
+        return bytes;
+    }
+
+    private ByteBuffer chunkAt(long address) {
+        ByteBuffer chunk = pages[(int) (address >>> 32)].buffer.duplicate();
+        chunk.position((int) address);
+        return chunk;
+    }
+
+    /**
+     * Take a chunk of the given class for the entry: a free one, one of a
+     * new page if the headroom leaves room for the page and the entries
+     * filling it, or one of an empty page of another class. Caller holds
+     * the write lock.
+     *
+     * @return address of the chunk, NO_MEMORY if an entry has to be
+     *         evicted first
+     */
+    private long allocate(SlabClass sizeClass, StoreEntry owner, long headroom) {
+        Page page = sizeClass.pageWithFreeChunk();
+        if (page == null && headroom >= pageSize + (long) (pageSize / sizeClass.chunkSize)
+                * (DBStore.ENTRY_OVERHEAD + DBStore.estimateSize(owner.key))) {
+            page = addPage(sizeClass);
+        }
+        if (page == null) {
+            page = emptyPageOfOtherClass(sizeClass);
+            if (page != null) {
+                page.sizeClass.pages.remove(page);
+                page.assign(sizeClass);
+            }
+        }
+        if (page == null) {
+            needsChunk = sizeClass;
+            return NO_MEMORY;
+        }
+        int chunk = page.freeChunks[--page.freeCount];
+        page.owners[chunk] = owner;
+        page.used++;
+        sizeClass.used++;
+        return ((long) page.index << 32) | ((long) chunk * sizeClass.chunkSize);
+    }
+
+    /**
+     * Free the chunk at the given address. Caller holds the write lock.
+     */
+    private void free(long address) {
+        if (address < 0) {
+            return;
+        }
+        Page page = pages[(int) (address >>> 32)];
+        int chunk = (int) address / page.sizeClass.chunkSize;
+        page.owners[chunk] = null;
+        page.freeChunks[page.freeCount++] = chunk;
+        page.used--;
+        page.sizeClass.used--;
+        if (!page.listed) {
+            page.listed = true;
+            page.sizeClass.withFreeChunks.add(page);
+        }
+    }
+
+    /**
+     * Give the entry back the chunk just freed by a store that found no
+     * memory for the new value. Caller holds the write lock.
+     */
+    private void retake(long address, StoreEntry owner) {
+        if (address < 0) {
+            return;
+        }
+        Page page = pages[(int) (address >>> 32)];
+        int chunk = page.freeChunks[--page.freeCount];
+        page.owners[chunk] = owner;
+        page.used++;
+        page.sizeClass.used++;
+    }
+
+    private Page addPage(SlabClass sizeClass) {
+        Page page = new Page(pageList.size(), ByteBuffer.allocateDirect(pageSize));
+        page.assign(sizeClass);
+        pageList.add(page);
+        pages = pageList.toArray(new Page[pageList.size()]);
+        reservedBytes += pageSize;
+        return page;
+    }
+
+    private Page emptyPageOfOtherClass(SlabClass sizeClass) {
+        for (Page page : pageList) {
+            if (page.used == 0 && page.sizeClass != sizeClass) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pick the page to move over to a class without entries: the least
+     * used page of the class with the most pages.
+     */
+    private Page pickDonor(SlabClass sizeClass) {
+        SlabClass richest = null;
+        for (SlabClass candidate : classes) {
+            if (candidate != sizeClass && (richest == null || candidate.pages.size() > richest.pages.size())) {
+                richest = candidate;
+            }
+        }
+        if (richest == null || richest.pages.isEmpty()) {
+            return null;
+        }
+        Page least = null;
+        for (Page page : richest.pages) {
+            if (least == null || page.used < least.used) {
+                least = page;
+            }
+        }
+        return least;
+    }
+
+    private StoreEntry sampleVictim(SlabClass sizeClass) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StoreEntry victim = null;
+        int samples = 0;
+        for (int attempt = 0; samples < SAMPLES && attempt < SAMPLES * 8; attempt++) {
+            Page page = sizeClass.pages.get(random.nextInt(sizeClass.pages.size()));
+            StoreEntry candidate = page.owners[random.nextInt(page.owners.length)];
+            if (candidate == null || candidate == pending) {
+                continue;
+            }
+            samples++;
+            if (victim == null || candidate.lastAccess < victim.lastAccess) {
+                victim = candidate;
+            }
+        }
+        if (victim == null) {
+            // Mostly free class, take the first entry found
+            for (Page page : sizeClass.pages) {
+                for (StoreEntry owner : page.owners) {
+                    if (owner != null && owner != pending) {
+                        return owner;
+                    }
+                }
+            }
+        }
+        return victim;
+    }
+
+    private SlabClass classOf(int size) {
+        int low = 0;
+        int high = classes.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (classes[mid].chunkSize < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return classes[low];
+    }
+
+    /**
+     * Size class: its chunk size, its pages and the pages among them that
+     * have free chunks.
+     */
+    private static final class SlabClass {
+        final int index;
+        final int chunkSize;
+        final List<Page> pages = new ArrayList<Page>();
+        final List<Page> withFreeChunks = new ArrayList<Page>();
+        int used;
+
+        SlabClass(int index, int chunkSize) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+        }
+
+        Page pageWithFreeChunk() {
+            while (!withFreeChunks.isEmpty()) {
+                int last = withFreeChunks.size() - 1;
+                Page page = withFreeChunks.get(last);
+                if (page.sizeClass != this) {
+                    // Moved to another class since, and listed there
+                    withFreeChunks.remove(last);
+                } else if (page.freeCount > 0) {
+                    return page;
+                } else {
+                    withFreeChunks.remove(last);
+                    page.listed = false;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Page of direct memory cut into the chunks of its class, with the
+     * entry owning every chunk and a stack of the free ones.
+     */
+    private static final class Page {
+        final int index;
+        final ByteBuffer buffer;
+        SlabClass sizeClass;
+        StoreEntry[] owners;
+        int[] freeChunks;
+        int freeCount;
+        int used;
+        boolean listed;
+
+        Page(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        void assign(SlabClass newClass) {
+            sizeClass = newClass;
+            int chunks = buffer.capacity() / newClass.chunkSize;
+            owners = new StoreEntry[chunks];
+            freeChunks = new int[chunks];
+            for (int i = 0; i < chunks; i++) {
+                freeChunks[i] = chunks - 1 - i;
+            }
+            freeCount = chunks;
+            used = 0;
+            listed = true;
+            newClass.pages.add(this);
+            newClass.withFreeChunks.add(this);
+        }
+    }
+}
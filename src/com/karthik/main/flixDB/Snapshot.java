@@ -0,0 +1,498 @@
+package com.karthik.main.flixDB;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the contents of a store, written by a background
+ * thread while the store keeps serving writes, and loaded back at startup.
+ *
+ * The snapshot starts with the MAGIC and VERSION bytes of the binary
+ * protocol, a SNAPSHOT_WITH_EXPIRY byte and the number of keys, followed by
+ * chunks of key-value pairs. Every chunk is its length, its number of pairs
+ * and the CRC32 of its pairs, and the pairs are strings of the binary
+ * protocol followed by the expiry of the key: a zero byte if it does not
+ * expire, or a one byte and the 8 byte expiry time. A chunk without pairs
+ * ends the snapshot. Snapshots starting with a SNAPSHOT byte were written
+ * before keys could expire and have no expiry after their pairs. Pairs are
+ * written least recently used first, so loading them in order into an
+ * empty store rebuilds its LRU order.
+ *
+ * The pairs are followed by an index for {@link MappedSnapshot}, which
+ * serves the snapshot from a memory mapping without loading it: the number
+ * of pairs, an open addressing hash table of their ordinals and the offset
+ * of every pair in file order. The file ends with the offset of the index
+ * and the INDEX_MARK.
+ *
+ * Taking a snapshot only holds the store lock while the entries are copied
+ * out of the eviction policy. The values are read afterwards one at a time
+ * as they are written, so only one value is copied onto the heap at once,
+ * even from off-heap storage, and a snapshot may include writes that came
+ * in while it was written. With the
+ * append-only log on, the log is rotated before the entries are copied and
+ * the old log is deleted once the snapshot is in place: replaying the new
+ * log over the snapshot ends with the same contents whichever of those
+ * writes the snapshot caught.
+ */
+public class Snapshot {
+    private final File file;
+    private final DBInterface dbStore;
+    private final PersistentStore persistentStore;
+    private final File logFile;
+    private ScheduledExecutorService scheduler;
+
+    static final byte SNAPSHOT = 'S';
+    static final byte SNAPSHOT_WITH_EXPIRY = 'E';
+
+    /**
+     * Last four bytes of a snapshot carrying an index, "FLXI".
+     */
+    static final int INDEX_MARK = 0x464C5849;
+
+    /**
+     * Bytes before the first chunk: MAGIC, VERSION, SNAPSHOT and the number
+     * of pairs.
+     */
+    static final int HEADER_SIZE = 11;
+
+    /**
+     * Pairs per chunk. Chunks are decoded in parallel when loading.
+     */
+    private static final int CHUNK_ITEMS = 4096;
+
+    /**
+     * Largest chunk accepted when loading, to catch corrupt lengths.
+     */
+    private static final int MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Constructs a Snapshot writing the contents of the given store to the
+     * given file.
+     *
+     * @param file snapshot file, replaced by every snapshot
+     * @param dbStore store to snapshot
+     */
+    public Snapshot(File file, DBInterface dbStore) {
+        this.file = file;
+        this.dbStore = dbStore;
+        this.persistentStore = null;
+        this.logFile = null;
+    }
+
+    /**
+     * Constructs a Snapshot writing the contents of the given store to the
+     * given file and truncating its append-only log to the writes made
+     * since.
+     *
+     * @param file snapshot file, replaced by every snapshot
+     * @param dbStore store to snapshot
+     * @param logFile configured path of the append-only log of the store
+     */
+    public Snapshot(File file, PersistentStore dbStore, File logFile) {
+        this.file = file;
+        this.dbStore = dbStore;
+        this.persistentStore = dbStore;
+        this.logFile = logFile;
+    }
+
+    /**
+     * Return the file the log is rotated to while a snapshot is written.
+     * If the server stops before the snapshot is in place, the log is
+     * replayed from both files and appended to this one.
+     *
+     * @param logFile configured path of the append-only log
+     * @return path of the log taking the writes during a snapshot
+     */
+    public static File nextLogFile(File logFile) {
+        return new File(logFile.getPath() + ".next");
+    }
+
+    /**
+     * Write a snapshot of the store now. Only one snapshot is written at a
+     * time.
+     *
+     * @return number of key-value pairs written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized long take() throws IOException {
+        long start = System.currentTimeMillis();
+        if (persistentStore != null) {
+            File next = nextLogFile(logFile);
+            // A previous snapshot that failed already left the log rotated.
+            if (!persistentStore.getLog().getFile().equals(next)) {
+                persistentStore.rotateLog(next);
+            }
+        }
+        long written = write(file, dbStore.leastRecentFirst());
+        if (persistentStore != null) {
+            // Everything logged before the rotation is in the snapshot now
+            Files.deleteIfExists(logFile.toPath());
+            persistentStore.getLog().moveTo(logFile);
+        }
+        System.out.println("Wrote a snapshot of " + written + " keys to " + file.getPath() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return written;
+    }
+
+    /**
+     * Write a snapshot every intervalSeconds on a background thread.
+     *
+     * @param intervalSeconds seconds between two snapshots. Zero disables it
+     */
+    public synchronized void schedule(int intervalSeconds) {
+        if (intervalSeconds <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    take();
+                } catch (Exception e) {
+                    System.out.println("Failed to write a snapshot to " + file.getPath() + ": " + e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the scheduled snapshots, waiting for one being written.
+     */
+    public void stop() {
+        ScheduledExecutorService toStop;
+        synchronized (this) {
+            toStop = scheduler;
+            scheduler = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        toStop.shutdown();
+        try {
+            toStop.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the given items to a temporary file next to the snapshot and
+     * move it over the snapshot once it is on disk, so a crash never
+     * leaves a partial snapshot behind. The number of pairs in the header
+     * is filled in once the last one is written.
+     *
+     * @param file snapshot file
+     * @param items items to write, least recently used first
+     * @return number of items written
+     * @throws IOException if the snapshot cannot be written
+     */
+    static long write(File file, Iterator<DBItem> items) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        int noOfItems = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.write(BinaryProtocol.MAGIC);
+            out.write(BinaryProtocol.VERSION);
+            out.write(SNAPSHOT_WITH_EXPIRY);
+            out.writeLong(0);
+            ChunkBuffer chunk = new ChunkBuffer();
+            CRC32 crc = new CRC32();
+            long[] offsets = new long[CHUNK_ITEMS];
+            int[] hashes = new int[CHUNK_ITEMS];
+            long position = HEADER_SIZE;
+            int chunkItems = 0;
+            while (items.hasNext()) {
+                DBItem item = items.next();
+                if (noOfItems == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * noOfItems);
+                    hashes = Arrays.copyOf(hashes, 2 * noOfItems);
+                }
+                // Chunk header comes before the pairs
+                offsets[noOfItems] = position + 12 + chunk.size();
+                hashes[noOfItems] = item.getKey().hashCode();
+                noOfItems++;
+                BinaryProtocol.writeString(chunk, BinaryProtocol.encode(item.getKey()));
+                BinaryProtocol.writeString(chunk, item.getValue());
+                writeExpiry(chunk, item.getExpiresAt());
+                chunkItems++;
+                if (chunkItems == CHUNK_ITEMS) {
+                    position += writeChunk(out, chunk, chunkItems, crc);
+                    chunkItems = 0;
+                }
+            }
+            if (chunkItems > 0) {
+                position += writeChunk(out, chunk, chunkItems, crc);
+            }
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            position += 12;
+            writeIndex(out, position, Arrays.copyOf(offsets, noOfItems), Arrays.copyOf(hashes, noOfItems));
+            out.flush();
+            ByteBuffer count = ByteBuffer.allocate(8);
+            count.putLong(0, noOfItems);
+            fileOut.getChannel().write(count, HEADER_SIZE - 8);
+            fileOut.getChannel().force(true);
+        } finally {
+            fileOut.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return noOfItems;
+    }
+
+    /**
+     * Write a chunk of pairs with its header and empty the chunk buffer.
+     *
+     * @return number of bytes written
+     */
+    private static int writeChunk(DataOutputStream out, ChunkBuffer chunk, int chunkItems, CRC32 crc)
+            throws IOException {
+        crc.reset();
+        crc.update(chunk.array(), 0, chunk.size());
+        out.writeInt(chunk.size());
+        out.writeInt(chunkItems);
+        out.writeInt((int) crc.getValue());
+        out.write(chunk.array(), 0, chunk.size());
+        int written = 12 + chunk.size();
+        chunk.reset();
+        return written;
+    }
+
+    private static void writeExpiry(ChunkBuffer chunk, long expiresAt) {
+        if (expiresAt == 0) {
+            chunk.write(0);
+            return;
+        }
+        chunk.write(1);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            chunk.write((int) (expiresAt >>> shift));
+        }
+    }
+
+    /**
+     * Read the expiry written after a pair.
+     *
+     * @param pairs buffer positioned after the value of the pair
+     * @return expiry time, zero if the key does not expire
+     */
+    static long readExpiry(ByteBuffer pairs) {
+        return pairs.get() == 0 ? 0 : pairs.getLong();
+    }
+
+    /**
+     * Write the index of the pairs and the trailer pointing to it.
+     *
+     * @param out stream positioned after the last chunk
+     * @param position file offset of the index
+     * @param offsets file offset of every pair, in file order
+     * @param hashes key hash of every pair, in file order
+     */
+    private static void writeIndex(DataOutputStream out, long position, long[] offsets, int[] hashes)
+            throws IOException {
+        int[] table = new int[tableSize(offsets.length)];
+        int mask = table.length - 1;
+        for (int ordinal = 0; ordinal < hashes.length; ordinal++) {
+            int slot = slotOf(hashes[ordinal], mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = ordinal + 1;
+        }
+        out.writeLong(offsets.length);
+        out.writeInt(table.length);
+        for (int entry : table) {
+            out.writeInt(entry);
+        }
+        for (long offset : offsets) {
+            out.writeLong(offset);
+        }
+        out.writeLong(position);
+        out.writeInt(INDEX_MARK);
+    }
+
+    /**
+     * Size of the hash table for the given number of pairs: a power of two
+     * at most half full.
+     */
+    static int tableSize(int noOfItems) {
+        int size = 2;
+        while (size < 2L * noOfItems) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * First slot of the hash table to probe for a key hash.
+     */
+    static int slotOf(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Load a snapshot into the store. The chunks are read in order and
+     * decoded by the given number of threads, and applied to the store in
+     * file order, so the store ends up with the LRU order it was
+     * snapshotted with. Keys that expired since are read but not kept.
+     *
+     * @param file snapshot file, nothing is loaded if it does not exist
+     * @param dbStore empty store to load the snapshot into
+     * @param threads number of threads decoding chunks. Zero uses one per
+     *                available processor
+     * @return number of key-value pairs loaded
+     * @throws IOException if the snapshot cannot be read or is corrupt
+     */
+    public static long load(File file, DBInterface dbStore, int threads) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService decoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-snapshot-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            int type = -1;
+            if (in.read() == (BinaryProtocol.MAGIC & 0xff) && in.read() == BinaryProtocol.VERSION) {
+                type = in.read();
+            }
+            if (type != SNAPSHOT && type != SNAPSHOT_WITH_EXPIRY) {
+                throw new IOException(file + " is not a FlixDB snapshot");
+            }
+            final boolean withExpiry = type == SNAPSHOT_WITH_EXPIRY;
+            long expected = in.readLong();
+            long loaded = 0;
+            ArrayDeque<Future<DBItem[]>> pending = new ArrayDeque<Future<DBItem[]>>();
+            while (true) {
+                final int length = in.readInt();
+                final int count = in.readInt();
+                final int checksum = in.readInt();
+                if (count == 0) {
+                    break;
+                }
+                if (length < 0 || length > MAX_CHUNK_SIZE || count < 0) {
+                    throw new IOException(file + " is corrupt: chunk of " + length + " bytes and "
+                            + count + " keys");
+                }
+                final byte[] chunk = new byte[length];
+                in.readFully(chunk);
+                pending.add(decoders.submit(new Callable<DBItem[]>() {
+                    @Override
+                    public DBItem[] call() throws IOException {
+                        return decodeChunk(chunk, count, checksum, withExpiry);
+                    }
+                }));
+                // Keep the decoders busy without reading the whole file ahead
+                if (pending.size() >= threads * 2) {
+                    loaded += apply(pending.poll(), dbStore);
+                }
+            }
+            while (!pending.isEmpty()) {
+                loaded += apply(pending.poll(), dbStore);
+            }
+            if (loaded != expected) {
+                throw new IOException(file + " is corrupt: " + loaded + " of " + expected + " keys found");
+            }
+            return loaded;
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        } finally {
+            decoders.shutdownNow();
+            in.close();
+        }
+    }
+
+    private static int apply(Future<DBItem[]> decoded, DBInterface dbStore) throws IOException {
+        DBItem[] items;
+        try {
+            items = decoded.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to decode a snapshot chunk", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading a snapshot", e);
+        }
+        dbStore.setAll(items);
+        return items.length;
+    }
+
+    private static DBItem[] decodeChunk(byte[] chunk, int count, int checksum, boolean withExpiry)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 0, chunk.length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot chunk checksum mismatch");
+        }
+        ByteBuffer pairs = ByteBuffer.wrap(chunk);
+        DBItem[] items = new DBItem[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                items[i] = new DBItem(BinaryProtocol.readString(pairs), BinaryProtocol.readBytes(pairs));
+                if (withExpiry) {
+                    items[i].setExpiresAt(readExpiry(pairs));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot chunk ends before its " + count + " keys");
+        }
+        return items;
+    }
+
+    /**
+     * Buffer of the chunk being written, reused for every chunk.
+     */
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(256 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
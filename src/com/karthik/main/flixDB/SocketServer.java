@@ -1,7 +1,9 @@
 package com.karthik.main.flixDB;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * This is a generic class that should handle all TCP network connections
@@ -59,11 +61,14 @@ public class SocketServer
      * Creates a new ServerSocket and binds it to an endpoint.
      * If the given port is 0, the ServerSocket should be bound to an
      * automatically allocated port. See ServerSocket documentation for details.
+     * The ServerSocket is opened through a ServerSocketChannel, so accepted
+     * sockets have a channel that non-blocking handlers can use.
      *
      * @throws IOException if unable create and bind a ServerSocket
      */
     public void connect() throws IOException {
-        server = new ServerSocket(port);
+        server = ServerSocketChannel.open().socket();
+        server.bind(new InetSocketAddress(port));
         server.setSoTimeout(TIMEOUT);
         port = server.getLocalPort();
     }
@@ -0,0 +1,34 @@
+package com.karthik.main.flixDB;
+
+/**
+ * Entry of a DBStore. It is both the map value and a node of the intrusive
+ * list the eviction policy keeps it in, so no separate lookup is needed to
+ * reorder it. Policies that do not keep lists use slot instead, for example
+ * the position of the entry in the array eviction candidates are sampled
+ * from. The value is held by the {@link ValueStorage} of the store, either
+ * in value or at address. Entries that expire are also linked into a
+ * bucket of the {@link TimerWheel} of the store. A
+ * {@link CompressingValueStorage} records in valueStamp whether the value
+ * is deflated.
+ */
+final class StoreEntry {
+    final String key;
+    volatile byte[] value;
+    volatile long address = OffHeapValueStorage.NO_VALUE;
+    long size;
+    volatile long lastAccess;
+    StoreEntry prev;
+    StoreEntry next;
+    EntryList list;
+    int slot;
+    volatile long expiresAt;
+    volatile int valueStamp;
+    StoreEntry timerPrev;
+    StoreEntry timerNext;
+    int timerBucket = -1;
+
+    StoreEntry(String key, byte[] value) {
+        this.key = key;
+        this.value = value;
+    }
+}
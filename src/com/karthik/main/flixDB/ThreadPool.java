@@ -1,96 +1,347 @@
 package com.karthik.main.flixDB;
 
-import java.util.ArrayList;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Fixed number of worker threads taking jobs from a bounded ring buffer queue.
+ *
+ * Jobs wait in a {@link BoundedJobQueue}. Two semaphores count the queued
+ * jobs and the free slots, so idle workers and producers waiting for room
+ * park instead of spinning, and every queued job wakes exactly one worker.
+ * A permit guarantees the queue a slot or a job, and the rare thread whose
+ * slot is still being handed over waits on that slot rather than spinning.
+ * What happens to a job arriving at a full queue is up to the rejection
+ * policy: REJECT turns it away, BLOCK waits for room and SHED_OLDEST turns
+ * away the job that has waited longest to make room for it. Jobs
+ * implementing {@link Rejectable} are told when they are turned away.
+ */
 public class ThreadPool {
-    private Thread threads[];
-    private ArrayList<Runnable> jobQueue;
-    private ReentrantLock jobQueueLock;
-    private final Object sleepObject;
+    private final WorkerThread[] threads;
+    private final BoundedJobQueue<QueuedJob> jobQueue;
+    private final Semaphore queuedJobs;
+    private final Semaphore freeSlots;
+    private final AtomicInteger unclaimedJobs = new AtomicInteger();
+    private final String rejectionPolicy;
+    private volatile boolean shutdown;
+    private final AtomicInteger livingThreads;
+
+    private final LongAdder jobsSubmitted = new LongAdder();
+    private final LongAdder jobsRejected = new LongAdder();
+    private final LongAdder jobsShed = new LongAdder();
+    private final LongAdder jobsStarted = new LongAdder();
+    private final LongAdder jobsCompleted = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Turn away jobs arriving at a full queue.
+     */
+    public static final String REJECT = "reject";
+
+    /**
+     * Block the thread adding a job until the queue has room for it.
+     */
+    public static final String BLOCK = "block";
+
+    /**
+     * Turn away the oldest queued job to make room for the new one.
+     */
+    public static final String SHED_OLDEST = "shed_oldest";
+
+    /**
+     * Default number of jobs that can wait for a free thread.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 128;
 
     /**
-     * Constructs a Threadpool with the given number of threads.
+     * A job that wants to know when the pool turns it away instead of
+     * running it, for instance to tell its client.
+     */
+    public interface Rejectable extends Runnable {
+
+        /**
+         * Called instead of run() when the job is turned away.
+         */
+        void reject();
+    }
+
+    /**
+     * Constructs a Threadpool with the given number of threads, blocking
+     * callers while DEFAULT_QUEUE_CAPACITY jobs wait.
      *
      * @param size number of threads in the thread pool
      */
     public ThreadPool(int size) {
-        threads = new Thread[size];
-        jobQueue = new ArrayList<Runnable>();
-        jobQueueLock = new ReentrantLock();
-        sleepObject = new Object();
+        this(size, DEFAULT_QUEUE_CAPACITY, BLOCK);
+    }
 
-        jobQueueLock.lock();
+    /**
+     * Constructs a Threadpool with the given number of threads and a job
+     * queue of the given capacity.
+     *
+     * @param size number of threads in the thread pool
+     * @param queueCapacity number of jobs that can wait for a free thread
+     * @param rejectionPolicy REJECT, BLOCK or SHED_OLDEST
+     */
+    public ThreadPool(int size, int queueCapacity, String rejectionPolicy) {
+        if (!REJECT.equals(rejectionPolicy) && !BLOCK.equals(rejectionPolicy)
+                && !SHED_OLDEST.equals(rejectionPolicy)) {
+            throw new IllegalArgumentException("Unknown rejection policy " + rejectionPolicy);
+        }
+        this.rejectionPolicy = rejectionPolicy;
+        jobQueue = new BoundedJobQueue<QueuedJob>(queueCapacity);
+        queuedJobs = new Semaphore(0);
+        freeSlots = new Semaphore(queueCapacity);
+        livingThreads = new AtomicInteger(size);
+        threads = new WorkerThread[size];
         for (int i = 0; i < size; i++) {
             threads[i] = new WorkerThread(this);
             threads[i].start();
         }
-        jobQueueLock.unlock();
     }
 
     /**
      * Add a job to the queue of jobs that have to be executed. As soon as a
      * thread is free, the thread will retrieve a job from this queue if
-     * if one exists and start processing it.
+     * if one exists and start processing it. A full queue is dealt with
+     * according to the rejection policy, and a pool that is shut down
+     * rejects every job.
      *
      * @param r job that has to be executed
+     * @return whether the job was queued
+     */
+    public boolean addJob(Runnable r) {
+        if (shutdown || !reserveSlot()) {
+            jobsRejected.increment();
+            reject(r);
+            return false;
+        }
+        if (shutdown) {
+            freeSlots.release();
+            jobsRejected.increment();
+            reject(r);
+            return false;
+        }
+        jobQueue.put(new QueuedJob(r));
+        unclaimedJobs.incrementAndGet();
+        queuedJobs.release();
+        jobsSubmitted.increment();
+        if (shutdown && livingThreads.get() == 0) {
+            rejectQueuedJobs();
+        }
+        return true;
+    }
+
+    /**
+     * Reserve a slot in the job queue according to the rejection policy.
+     *
+     * @return false if the job has to be rejected
      */
-    public void addJob(Runnable r) {
-        jobQueueLock.lock();
-        jobQueue.add(r);
-        synchronized (sleepObject) {
-            sleepObject.notify();
+    private boolean reserveSlot() {
+        if (BLOCK.equals(rejectionPolicy)) {
+            try {
+                freeSlots.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (REJECT.equals(rejectionPolicy)) {
+            return freeSlots.tryAcquire();
+        }
+        try {
+            while (!freeSlots.tryAcquire()) {
+                if (queuedJobs.tryAcquire()) {
+                    QueuedJob oldest = takeQueuedJob();
+                    if (oldest != null) {
+                        freeSlots.release();
+                        jobsShed.increment();
+                        reject(oldest.job);
+                    }
+                } else if (freeSlots.tryAcquire(1, TimeUnit.MILLISECONDS)) {
+                    // A worker took the last job and is about to free its slot
+                    return true;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        jobQueueLock.unlock();
     }
 
     /**
      * Block until a job is present in the queue and retrieve the job
      *
-     * @return A runnable task that has to be executed
+     * @return A runnable task that has to be executed, null once the pool
+     *         is shut down and the queue is drained
      * @throws InterruptedException if thread is interrupted while in blocked
-     *                              state. Your implementation may or may not actually throw this.
+     *                              state.
      */
     public Runnable getJob() throws InterruptedException {
-        Runnable nextTask;
-        jobQueueLock.lock();
-        while (!(jobQueue.size() > 0)) {
-            synchronized (sleepObject) {
-                jobQueueLock.unlock();
-                sleepObject.wait();
+        queuedJobs.acquire();
+        QueuedJob nextJob = takeQueuedJob();
+        if (nextJob == null) {
+            return null;
+        }
+        freeSlots.release();
+        long waited = System.nanoTime() - nextJob.queuedAt;
+        jobsStarted.increment();
+        waitNanos.add(waited);
+        long max = maxWaitNanos.get();
+        while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+            max = maxWaitNanos.get();
+        }
+        return nextJob.job;
+    }
+
+    /**
+     * Take the job at the head of the queue after acquiring a queuedJobs
+     * permit. Only after shutdown() can a permit come without a job, which
+     * the count of jobs not claimed by any thread yet tells apart.
+     *
+     * @return the job, null if the permit was one of the shutdown permits
+     */
+    private QueuedJob takeQueuedJob() {
+        while (true) {
+            int unclaimed = unclaimedJobs.get();
+            if (unclaimed == 0) {
+                return null;
+            }
+            if (unclaimedJobs.compareAndSet(unclaimed, unclaimed - 1)) {
+                return jobQueue.take();
             }
-            jobQueueLock.lock();
         }
-        nextTask = jobQueue.remove(0);
-        jobQueueLock.unlock();
-        return nextTask;
     }
 
     /**
-     * Return the number of WorkerThreads still alive. Used for debug
+     * Stop accepting jobs. The jobs already queued are still run, after
+     * which the threads exit.
      */
-    protected int getNumLivingThreads() {
-        int aliveCount = 0;
-        for (int i = 0; i < threads.length; i++)
-            if (((WorkerThread) threads[i]).alive)
-                aliveCount++;
-        return aliveCount;
+    public void shutdown() {
+        shutdown = true;
+        // One extra permit per thread, taken once the queue is empty
+        queuedJobs.release(threads.length);
     }
 
     /**
-     * Return the number of jobs currently in the queue. Used for debug
+     * Wait for the threads to finish the queued jobs after shutdown().
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return whether every thread finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (WorkerThread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+        }
+        return livingThreads.get() == 0;
+    }
+
+    /**
+     * Turn away the jobs left in the queue after the last thread exited.
      */
-    protected int getNumJobs() {
+    private void rejectQueuedJobs() {
+        while (queuedJobs.tryAcquire()) {
+            QueuedJob job = takeQueuedJob();
+            if (job != null) {
+                freeSlots.release();
+                jobsRejected.increment();
+                reject(job.job);
+            }
+        }
+    }
+
+    private static void reject(Runnable r) {
+        if (r instanceof Rejectable) {
+            try {
+                ((Rejectable) r).reject();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * Return the number of WorkerThreads still alive.
+     */
+    public int getNumLivingThreads() {
+        return livingThreads.get();
+    }
+
+    /**
+     * Return the number of jobs currently in the queue.
+     */
+    public int getNumJobs() {
         return jobQueue.size();
     }
 
+    public long getJobsSubmitted() {
+        return jobsSubmitted.sum();
+    }
+
+    public long getJobsRejected() {
+        return jobsRejected.sum();
+    }
+
+    public long getJobsShed() {
+        return jobsShed.sum();
+    }
+
+    public long getJobsCompleted() {
+        return jobsCompleted.sum();
+    }
+
+    /**
+     * Return the mean time jobs waited in the queue for a thread.
+     *
+     * @return mean wait time in nanoseconds, zero before the first job
+     */
+    public long getMeanWaitNanos() {
+        long started = jobsStarted.sum();
+        return started == 0 ? 0 : waitNanos.sum() / started;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "threads " + getNumLivingThreads() + ", queued jobs " + getNumJobs() + ", submitted "
+                + getJobsSubmitted() + ", completed " + getJobsCompleted() + ", rejected " + getJobsRejected()
+                + ", shed " + getJobsShed() + ", queue wait mean " + getMeanWaitNanos() / 1000 + "us, max "
+                + getMaxWaitNanos() / 1000 + "us";
+    }
+
+    /**
+     * A job with the time it was queued at.
+     */
+    private static final class QueuedJob {
+        final Runnable job;
+        final long queuedAt;
+
+        QueuedJob(Runnable job) {
+            this.job = job;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
     /**
      * A thread in the thread pool.
      */
     protected class WorkerThread extends Thread {
         private ThreadPool threadPool;
-        protected boolean alive;
-        public final int threadId = hashCode() % 1000;
 
         /**
          * Constructs a thread for a particular ThreadPool.
@@ -98,27 +349,33 @@ public class ThreadPool {
          * @param pool the ThreadPool containing this thread
          */
         public WorkerThread(ThreadPool pool) {
+            super("flixDB-worker");
             threadPool = pool;
-            alive = true;
         }
 
         /**
-         * Scan for and process tasks.
+         * Scan for and process tasks until the pool is shut down.
          */
         @Override
         public void run() {
             try {
-                while (alive) {
+                while (true) {
+                    Runnable job = threadPool.getJob();
+                    if (job == null) {
+                        break;
+                    }
                     try {
-                        threadPool.getJob().run();
+                        job.run();
                     } catch (Exception ignored) {
                     }
+                    jobsCompleted.increment();
                 }
             } catch (Exception ignored) {
             } finally {
-                alive = false;
+                if (livingThreads.decrementAndGet() == 0 && shutdown) {
+                    rejectQueuedJobs();
+                }
             }
         }
     }
 }
-
@@ -0,0 +1,133 @@
+package com.karthik.main.flixDB;
+
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel of the entries of a DBStore that expire, so
+ * expired keys are found without scanning the store. Every level is a ring
+ * of BUCKETS buckets, each an intrusive list of the entries expiring in
+ * one tick of that level. A tick of the first level is about a second and
+ * every level above ticks 64 times slower, so the five levels cover a bit
+ * over two years before the last one wraps around.
+ *
+ * An entry goes into the finest level whose ring still reaches its expiry
+ * time. As time advances, the buckets it passes are emptied: entries that
+ * are due are expired and the others are scheduled again, landing in a
+ * finer level now that they are closer. Scheduling and descheduling are
+ * O(1), and advancing costs the entries in the buckets passed.
+ *
+ * Not thread-safe, callers must hold the store lock.
+ */
+final class TimerWheel {
+    private final StoreEntry[] buckets;
+    private long time;
+
+    private static final int BUCKETS = 64;
+    private static final int[] SHIFTS = {10, 16, 22, 28, 34};
+
+    /**
+     * Estimated footprint of a wheel: the object and its array of bucket
+     * heads.
+     */
+    static final long OVERHEAD = 16 + 16 + 4L * BUCKETS * SHIFTS.length;
+
+    /**
+     * Constructs an empty TimerWheel starting at the given time.
+     *
+     * @param now current time in milliseconds
+     */
+    TimerWheel(long now) {
+        buckets = new StoreEntry[BUCKETS * SHIFTS.length];
+        time = now;
+    }
+
+    /**
+     * Link the entry into the bucket of its expiry time. Entries already
+     * due go into the current bucket of the first level and expire with the
+     * next tick.
+     *
+     * @param entry entry with an expiry time that is not in the wheel
+     */
+    void schedule(StoreEntry entry) {
+        long expiresAt = Math.max(entry.expiresAt, time);
+        long delay = expiresAt - time;
+        int level = 0;
+        while (level < SHIFTS.length - 1 && delay >= 1L << SHIFTS[level + 1]) {
+            level++;
+        }
+        int bucket = level * BUCKETS + (int) ((expiresAt >>> SHIFTS[level]) & (BUCKETS - 1));
+        StoreEntry head = buckets[bucket];
+        entry.timerPrev = null;
+        entry.timerNext = head;
+        if (head != null) {
+            head.timerPrev = entry;
+        }
+        buckets[bucket] = entry;
+        entry.timerBucket = bucket;
+    }
+
+    /**
+     * Unlink the entry from its bucket, if it is in one.
+     *
+     * @param entry entry of the store
+     */
+    void deschedule(StoreEntry entry) {
+        if (entry.timerBucket < 0) {
+            return;
+        }
+        if (entry.timerPrev == null) {
+            buckets[entry.timerBucket] = entry.timerNext;
+        } else {
+            entry.timerPrev.timerNext = entry.timerNext;
+        }
+        if (entry.timerNext != null) {
+            entry.timerNext.timerPrev = entry.timerPrev;
+        }
+        entry.timerPrev = null;
+        entry.timerNext = null;
+        entry.timerBucket = -1;
+    }
+
+    /**
+     * Move the wheel forward to the given time, emptying the buckets of
+     * every level that ticked since the last advance.
+     *
+     * @param now current time in milliseconds
+     * @param expired list to add the entries that are due to, unlinked
+     *                from the wheel
+     */
+    void advance(long now, List<StoreEntry> expired) {
+        long previous = time;
+        if (now <= previous) {
+            return;
+        }
+        time = now;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long ticks = (now >>> SHIFTS[level]) - previousTicks;
+            if (ticks <= 0) {
+                break;
+            }
+            // Entries of the previous tick are only all due now that the
+            // tick is over, so its bucket is emptied as well.
+            int steps = (int) Math.min(ticks + 1, BUCKETS);
+            for (int step = 0; step < steps; step++) {
+                int bucket = level * BUCKETS + (int) ((previousTicks + step) & (BUCKETS - 1));
+                StoreEntry entry = buckets[bucket];
+                buckets[bucket] = null;
+                while (entry != null) {
+                    StoreEntry next = entry.timerNext;
+                    entry.timerPrev = null;
+                    entry.timerNext = null;
+                    entry.timerBucket = -1;
+                    if (entry.expiresAt <= now) {
+                        expired.add(entry);
+                    } else {
+                        schedule(entry);
+                    }
+                    entry = next;
+                }
+            }
+        }
+    }
+}
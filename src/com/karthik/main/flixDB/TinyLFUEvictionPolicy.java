@@ -0,0 +1,155 @@
+package com.karthik.main.flixDB;
+
+/**
+ * W-TinyLFU, as used by Caffeine. New entries go into a small LRU window
+ * taking 1% of the memory. Entries leaving the window become candidates
+ * for the main space, a segmented LRU with a probation and a protected
+ * list. Candidates enter probation at the front, and when something has to
+ * be evicted the front of probation competes with its back: the candidate
+ * only stays if a frequency sketch says it was accessed more often than
+ * the entry it would push out, otherwise the candidate itself is evicted.
+ * A scan of keys that are read once therefore cannot flush the popular
+ * keys out of the main space.
+ *
+ * The newest entry always stays in the window, so a SET is never rejected
+ * by the admission filter before it could be read.
+ */
+final class TinyLFUEvictionPolicy implements EvictionPolicy {
+    private static final double WINDOW_PERCENTAGE = 0.01;
+    private static final double PROTECTED_PERCENTAGE = 0.80;
+    private static final long ASSUMED_ENTRY_SIZE = 256;
+
+    private final EntryList window = new EntryList();
+    private final EntryList probation = new EntryList();
+    private final EntryList protectedList = new EntryList();
+    private final long windowMax;
+    private final long protectedMax;
+    private long windowBytes;
+    private long protectedBytes;
+    private final FrequencySketch sketch;
+
+    /**
+     * @param maxMemorySize memory bound of the store in bytes
+     */
+    TinyLFUEvictionPolicy(long maxMemorySize) {
+        windowMax = (long) (maxMemorySize * WINDOW_PERCENTAGE);
+        protectedMax = (long) ((maxMemorySize - windowMax) * PROTECTED_PERCENTAGE);
+        sketch = new FrequencySketch(maxMemorySize / ASSUMED_ENTRY_SIZE);
+    }
+
+    @Override
+    public boolean accessNeedsLock() {
+        return true;
+    }
+
+    @Override
+    public void onInsert(StoreEntry entry) {
+        sketch.increment(entry.key);
+        window.linkFirst(entry);
+        windowBytes += entry.size;
+        moveWindowOverflow();
+    }
+
+    @Override
+    public void onAccess(StoreEntry entry) {
+        if (entry.list == null) {
+            return;
+        }
+        sketch.increment(entry.key);
+        if (entry.list == window || entry.list == protectedList) {
+            entry.list.moveToFront(entry);
+        } else {
+            probation.unlink(entry);
+            protectedList.linkFirst(entry);
+            protectedBytes += entry.size;
+            demoteProtectedOverflow();
+        }
+    }
+
+    @Override
+    public void onUpdate(StoreEntry entry, long oldSize) {
+        if (entry.list == window) {
+            windowBytes += entry.size - oldSize;
+        } else if (entry.list == protectedList) {
+            protectedBytes += entry.size - oldSize;
+        }
+        onAccess(entry);
+        moveWindowOverflow();
+    }
+
+    @Override
+    public void onRemove(StoreEntry entry) {
+        if (entry.list == window) {
+            windowBytes -= entry.size;
+        } else if (entry.list == protectedList) {
+            protectedBytes -= entry.size;
+        }
+        entry.list.unlink(entry);
+    }
+
+    /**
+     * Let the candidate at the front of probation compete with the least
+     * recently used probation entry. The one with the lower estimated
+     * frequency loses, the candidate also loses ties. With less than two
+     * probation entries, evict from probation, then protected, then the
+     * window.
+     */
+    @Override
+    public StoreEntry nextVictim() {
+        StoreEntry candidate = probation.first();
+        StoreEntry victim = probation.last();
+        if (candidate != victim) {
+            return sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+        }
+        if (victim != null) {
+            return victim;
+        }
+        if (!protectedList.isEmpty()) {
+            return protectedList.last();
+        }
+        return window.last();
+    }
+
+    @Override
+    public void copyEntries(StoreEntry[] entries) {
+        int entryNo = window.copyInto(entries, 0);
+        entryNo = protectedList.copyInto(entries, entryNo);
+        probation.copyInto(entries, entryNo);
+    }
+
+    @Override
+    public boolean copiesInRecencyOrder() {
+        return false;
+    }
+
+    @Override
+    public long overhead() {
+        return sketch.size();
+    }
+
+    /**
+     * Move the least recently used window entries to the front of probation
+     * while the window is over its share, keeping the newest entry.
+     */
+    private void moveWindowOverflow() {
+        while (windowBytes > windowMax && window.size() > 1) {
+            StoreEntry candidate = window.last();
+            window.unlink(candidate);
+            windowBytes -= candidate.size;
+            probation.linkFirst(candidate);
+        }
+    }
+
+    /**
+     * Demote the least recently used protected entries to probation while
+     * the protected list is over its share of the main space.
+     */
+    private void demoteProtectedOverflow() {
+        while (protectedBytes > protectedMax && protectedList.size() > 1) {
+            StoreEntry demoted = protectedList.last();
+            protectedList.unlink(demoted);
+            protectedBytes -= demoted.size;
+            probation.linkFirst(demoted);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.karthik.main.flixDB;
+
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+/**
+ * Holds the values of the entries of a DBStore, on the Java heap or off
+ * it. The store charges every entry the bytes the storage reports for its
+ * value against its memory bound, along with the bytes the storage
+ * reserves ahead of the values.
+ *
+ * store and release are called with the store lock held. load is called
+ * without it, concurrently with them, and may be handed an entry that has
+ * been removed in the meantime.
+ */
+interface ValueStorage {
+
+    /**
+     * Returned by store when there is no memory left for the value until
+     * the victim of the storage is evicted.
+     */
+    long NO_MEMORY = -1;
+
+    /**
+     * Store the value of an entry, replacing its previous value.
+     *
+     * @param entry entry to hold the value
+     * @param value new value, may be null
+     * @param headroom bytes left under the memory bound of the store
+     * @return bytes used by the value, NO_MEMORY if nothing was stored
+     */
+    long store(StoreEntry entry, byte[] value, long headroom);
+
+    /**
+     * Read the value of an entry.
+     *
+     * @param entry entry holding the value
+     * @return value of the entry
+     * @throws ItemNotFoundException if the entry was removed and its value
+     *                               is gone
+     */
+    byte[] load(StoreEntry entry) throws ItemNotFoundException;
+
+    /**
+     * The entry was deleted or evicted, free its value.
+     *
+     * @param entry removed entry
+     */
+    void release(StoreEntry entry);
+
+    /**
+     * Pick the entry to evict after store returned NO_MEMORY.
+     *
+     * @return entry to evict, null if there is none
+     */
+    StoreEntry victim();
+
+    /**
+     * @return bytes reserved ahead of the values and not charged to the
+     *         entries
+     */
+    long reservedBytes();
+
+    /**
+     * @return bytes used by the storage that do not grow with the entries
+     */
+    long overhead();
+
+    /**
+     * Create the storage with the given name.
+     *
+     * @param name one of the storage names defined in DBStore
+     * @param maxMemorySize memory bound of the store in bytes
+     * @return new value storage
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static ValueStorage create(String name, long maxMemorySize) {
+        if (DBStore.HEAP.equals(name)) {
+            return new HeapValueStorage();
+        } else if (DBStore.OFF_HEAP.equals(name)) {
+            return new OffHeapValueStorage();
+        } else if (DBStore.SLAB.equals(name)) {
+            return new SlabValueStorage(maxMemorySize);
+        }
+        throw new IllegalArgumentException("Unknown storage engine " + name);
+    }
+}
@@ -0,0 +1,13 @@
+package com.karthik.main.flixDB.exception;
+
+import java.io.IOException;
+
+public class ServerErrorException extends IOException {
+    public ServerErrorException() {
+        super();
+    }
+
+    public ServerErrorException(final String message) {
+        super(message);
+    }
+}
@@ -2,10 +2,18 @@ package com.karthik.main.flixDBClient;
 
 import com.karthik.main.flixDB.Constants;
 
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+
+import java.io.PrintStream;
 import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Scanner;
 
 public class DBClient {
+    private static final int SCAN_COUNT = 100;
+
     public static void main(String[] args) throws Exception {
 
         if (args.length < 1) {
@@ -30,67 +38,189 @@ public class DBClient {
 
         DBClientImplementation client = new DBClientImplementation(hostname, server_port);
         client.connectHost();
+        repl(client, new Scanner(System.in), System.out);
+    }
 
-        Scanner scanner = new Scanner(System.in);
-        String requestType;
+    /**
+     * Read commands from the scanner, run them on the client and print the
+     * results, until a command fails or the input ends. A failed command
+     * prints ERROR and closes the connection.
+     *
+     * @param client client connected to the server
+     * @param scanner commands, one per line, followed by the values they set
+     * @param out where results are printed
+     */
+    public static void repl(DBClientImplementation client, Scanner scanner, PrintStream out) {
         while (true) {
-            if (client.endClient) {
-                break;
+            out.print("> ");
+            if (!scanner.hasNextLine()) {
+                client.close();
+                return;
             }
             try {
-                System.out.print("> ");
-                String input = scanner.nextLine();
-                String[] inputSplit = input.split(" ");
-                requestType = inputSplit[0];
-                if (requestType.isEmpty()) {
-                    requestType = Constants.EMPTY;
-                }
-
-                switch (requestType) {
-                    case Constants.GET:
-                        if (inputSplit.length != 2) {
-                            client.closeHost();
-                            continue;
-                        }
-                        client.get(inputSplit[1]);
-                        break;
-
-                    case Constants.SET:
-                        if (inputSplit.length != 3) {
-                            client.closeHost();
-                            continue;
-                        }
-                        int valueSize = Integer.parseInt(inputSplit[2]);
-                        System.out.print("> ");
-                        String value = scanner.nextLine();
-                        client.set(inputSplit[1], value.substring(0, valueSize));
-                        break;
-
-                    case Constants.DELETE:
-                        if (inputSplit.length != 2) {
-                            client.closeHost();
-                            continue;
-                        }
-                        client.delete(inputSplit[1]);
-                        break;
-
-                    case Constants.STREAM:
-                        if (inputSplit.length != 1) {
-                            client.closeHost();
-                            continue;
-                        }
-                        client.stream();
-                        break;
-
-                    case Constants.EMPTY:
-                        continue;
-
-                    default:
-                        client.closeHost();
+                if (!execute(client, scanner.nextLine().split(" "), scanner, out)) {
+                    fail(client, out);
+                    return;
                 }
             } catch (Exception e) {
-                client.closeHost();
+                fail(client, out);
+                return;
             }
         }
     }
+
+    private static void fail(DBClientImplementation client, PrintStream out) {
+        out.println("< " + Constants.ERROR);
+        client.close();
+    }
+
+    /**
+     * Run one command and print its result.
+     *
+     * @return false if the command is malformed
+     */
+    private static boolean execute(DBClientImplementation client, String[] inputSplit, Scanner scanner,
+                                   PrintStream out) throws Exception {
+        String requestType = inputSplit[0];
+        if (requestType.isEmpty()) {
+            requestType = Constants.EMPTY;
+        }
+
+        switch (requestType) {
+            case Constants.GET:
+                if (inputSplit.length != 2) {
+                    return false;
+                }
+                byte[] value = client.get(inputSplit[1]);
+                printValue(value == null ? new byte[0] : value, out);
+                return true;
+
+            case Constants.SET:
+                if (inputSplit.length != 3) {
+                    return false;
+                }
+                int valueSize = Integer.parseInt(inputSplit[2]);
+                out.print("> ");
+                client.set(inputSplit[1], scanner.nextLine().substring(0, valueSize));
+                out.println("< " + Constants.OK);
+                return true;
+
+            case Constants.SETEX:
+                if (inputSplit.length != 4) {
+                    return false;
+                }
+                long ttlMillis = Long.parseLong(inputSplit[2]);
+                int expiringValueSize = Integer.parseInt(inputSplit[3]);
+                out.print("> ");
+                client.set(inputSplit[1], DBClientImplementation.encode(
+                        scanner.nextLine().substring(0, expiringValueSize)), ttlMillis);
+                out.println("< " + Constants.OK);
+                return true;
+
+            case Constants.TTL:
+                if (inputSplit.length != 2) {
+                    return false;
+                }
+                try {
+                    out.println("< " + client.ttl(inputSplit[1]));
+                } catch (ItemNotFoundException e) {
+                    out.println("< " + Constants.EMPTY);
+                }
+                return true;
+
+            case Constants.PERSIST:
+                if (inputSplit.length != 2) {
+                    return false;
+                }
+                out.println("< " + (client.persist(inputSplit[1]) ? Constants.OK : Constants.EMPTY));
+                return true;
+
+            case Constants.DELETE:
+                if (inputSplit.length != 2) {
+                    return false;
+                }
+                client.delete(inputSplit[1]);
+                out.println("< " + Constants.OK);
+                return true;
+
+            case Constants.STREAM:
+                if (inputSplit.length != 1) {
+                    return false;
+                }
+                // Sent as SCAN, so the server never copies the whole store at once
+                printItems(client.scanIterator(null, SCAN_COUNT), out);
+                return true;
+
+            case Constants.SCAN:
+                if (inputSplit.length > 2) {
+                    return false;
+                }
+                // Only a chunk of the store is held at a time
+                printItems(client.scanIterator(inputSplit.length == 2 ? inputSplit[1] : null, SCAN_COUNT), out);
+                return true;
+
+            case Constants.MGET:
+                if (inputSplit.length < 2) {
+                    return false;
+                }
+                for (DBItem item : client.mget(Arrays.copyOfRange(inputSplit, 1, inputSplit.length))) {
+                    byte[] itemValue = item.getValue() == null ? new byte[0] : item.getValue();
+                    out.print("< " + Constants.KEY + " " + item.getKey() + " " + Constants.VALUE + " "
+                            + itemValue.length + "\r\n");
+                    if (itemValue.length > 0) {
+                        out.println("< " + DBClientImplementation.decode(itemValue));
+                    }
+                }
+                return true;
+
+            case Constants.MSET:
+                if (inputSplit.length < 3 || inputSplit.length % 2 != 1) {
+                    return false;
+                }
+                DBItem[] items = new DBItem[inputSplit.length / 2];
+                for (int i = 0; i < items.length; i++) {
+                    int size = Integer.parseInt(inputSplit[2 * i + 2]);
+                    out.print("> ");
+                    items[i] = new DBItem(inputSplit[2 * i + 1],
+                            DBClientImplementation.encode(scanner.nextLine().substring(0, size)));
+                }
+                client.mset(items);
+                out.println("< " + Constants.OK);
+                return true;
+
+            case Constants.MDELETE:
+                if (inputSplit.length < 2) {
+                    return false;
+                }
+                client.mdelete(Arrays.copyOfRange(inputSplit, 1, inputSplit.length));
+                out.println("< " + Constants.OK);
+                return true;
+
+            case Constants.EMPTY:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private static void printValue(byte[] value, PrintStream out) {
+        out.println("< " + Constants.VALUE + " " + value.length);
+        if (value.length > 0) {
+            out.println("< " + DBClientImplementation.decode(value));
+        }
+    }
+
+    private static void printItems(Iterator<DBItem> items, PrintStream out) {
+        if (!items.hasNext()) {
+            out.println("< " + Constants.EMPTY_STORE);
+            return;
+        }
+        while (items.hasNext()) {
+            DBItem item = items.next();
+            out.print("< " + Constants.KEY + " " + item.getKey() + " " + Constants.VALUE + " "
+                    + item.getValue().length + "\r\n");
+            out.println("< " + DBClientImplementation.decode(item.getValue()));
+        }
+    }
 }
@@ -1,34 +1,69 @@
 package com.karthik.main.flixDBClient;
 
+import com.karthik.main.flixDB.BinaryProtocol;
 import com.karthik.main.flixDB.DBItem;
 import com.karthik.main.flixDB.DBRequest;
 import com.karthik.main.flixDB.DBResponse;
 import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import com.karthik.main.flixDB.exception.ServerErrorException;
 import com.karthik.main.flixDB.exception.SocketInputException;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Client of a FlixDB server over a single connection, used by one thread
+ * at a time. Every command returns what the server answered and reports
+ * failures with exceptions rather than printing them: an
+ * InvalidRequestException for a request refused before it is sent, a
+ * ServerErrorException when the server answers with ERROR, and an
+ * IOException when the connection fails. The connection stays open after
+ * a failed request unless the connection itself failed.
+ */
 public class DBClientImplementation{
     private final String server;
     private final int port;
     private final int socketTimeout;
+    private final boolean legacyProtocol;
     private Socket socket;
-    public boolean endClient = false;
+    private InputStream in;
+    private OutputStream out;
 
     private static final int TIMEOUT = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of pipelined requests written ahead of the responses read.
+     * Bounds the responses the server has to buffer for this client, so
+     * neither side blocks writing while the other is not reading.
+     */
+    public static final int PIPELINE_WINDOW = 256;
 
     /**
      * Constructs a DBClientImplementation connected to a server.
      *
      * @param server is the DNS reference to the server
      * @param port   is the port on which the server is listening
+     * @param socketTimeout read timeout of the socket in milliseconds
+     * @param legacyProtocol whether to talk Java serialization to a server
+     *                       running with the legacy_protocol flag instead
+     *                       of the binary protocol
      */
-    public DBClientImplementation(String server, int port, int socketTimeout) {
+    public DBClientImplementation(String server, int port, int socketTimeout, boolean legacyProtocol) {
         this.server = server;
         this.port = port;
         this.socketTimeout = socketTimeout;
+        this.legacyProtocol = legacyProtocol;
+    }
+
+    public DBClientImplementation(String server, int port, int socketTimeout) {
+        this(server, port, socketTimeout, false);
     }
 
     public DBClientImplementation(String server, int port) {
@@ -45,30 +80,31 @@ public class DBClientImplementation{
         try {
             socket = new Socket(server, port);
             socket.setSoTimeout(socketTimeout);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            if (!legacyProtocol) {
+                BinaryProtocol.writePreamble(out);
+            }
         } catch (UnknownHostException e) {
-            e.printStackTrace();
             throw new SocketInputException("Error: Could not connect to the given host " + e);
         } catch (IOException f) {
-            f.printStackTrace();
             throw new SocketInputException("Error:Could not create socket " + f);
         } catch (IllegalArgumentException g) {
-            g.printStackTrace();
             throw new SocketInputException("Error: Bad argument. Could not connect to the given host " + g);
         }
     }
 
     /**
-     * Closes a socket.
-     * Best effort, ignores error since the response has already been received.
-     *
+     * Closes the connection to the server.
+     * Best effort, ignores errors since nothing more is sent on it.
      */
-    public void closeHost() {
+    public void close() {
         try {
-            System.out.println("< " + Constants.ERROR);
-            socket.close();
-            endClient = true;
-        } catch (Exception e) {
-            System.out.println("Error: Failed to close the socket " + e);
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
         }
     }
 
@@ -97,148 +133,321 @@ public class DBClientImplementation{
      * @return response from the server
      */
     public DBResponse sendRequest(DBRequest request) throws IOException, ClassNotFoundException {
-        ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-        oos.writeObject(request);
-        oos.flush();
-        ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-        return (DBResponse) ois.readObject();
+        if (legacyProtocol) {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(request);
+            oos.flush();
+            ObjectInputStream ois = new ObjectInputStream(in);
+            return (DBResponse) ois.readObject();
+        }
+        BinaryProtocol.writeRequest(out, request);
+        out.flush();
+        return BinaryProtocol.readResponse(in);
+    }
+
+    /**
+     * Sends the given requests to the backend DBStore back to back without
+     * waiting for each response, and receive the responses in request
+     * order. Up to PIPELINE_WINDOW requests are in flight at a time, so a
+     * batch costs a handful of round trips instead of one per request.
+     * The legacy protocol does not pipeline and sends them one by one.
+     *
+     * @param requests to be sent to the server
+     * @return responses from the server, in the order of the requests
+     */
+    public DBResponse[] sendRequests(DBRequest[] requests) throws IOException, ClassNotFoundException {
+        DBResponse[] responses = new DBResponse[requests.length];
+        if (legacyProtocol) {
+            for (int i = 0; i < requests.length; i++) {
+                responses[i] = sendRequest(requests[i]);
+            }
+            return responses;
+        }
+        int received = 0;
+        for (int sent = 0; sent < requests.length; sent++) {
+            BinaryProtocol.writeRequest(out, requests[sent]);
+            if (sent - received >= PIPELINE_WINDOW) {
+                out.flush();
+                responses[received] = BinaryProtocol.readResponse(in);
+                received++;
+            }
+        }
+        out.flush();
+        for (; received < requests.length; received++) {
+            responses[received] = BinaryProtocol.readResponse(in);
+        }
+        return responses;
+    }
+
+    /**
+     * Encode a string value as UTF-8, the way the String methods of the
+     * client send it.
+     *
+     * @param value string to encode, may be null
+     * @return UTF-8 bytes of the value
+     */
+    public static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode a value sent as UTF-8.
+     *
+     * @param value bytes to decode, may be null
+     * @return the value as a string
+     */
+    public static String decode(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
     }
 
     /**
-     * Issues a SET request to the DBStore.
+     * Issues a SET request to the DBStore with the UTF-8 encoding of the
+     * value.
      *
      * @param key to write into the DBStore
      * @param value to write into the DBStore
      */
-    public void set(String key, String value) {
-        if(!verifyKey(key)) {
-            closeHost();
-            return;
-        }
+    public void set(String key, String value) throws IOException, InvalidRequestException {
+        set(key, encode(value));
+    }
 
-        DBItem item = new DBItem(key, value);
-        DBRequest request = new DBRequest(Constants.SET, item);
-        DBResponse response = null;
-        try {
-            response = sendRequest(request);
-        } catch (Exception e){
-            closeHost();
-            return;
+    /**
+     * Issues a SET request to the DBStore. The value is sent as it is.
+     *
+     * @param key to write into the DBStore
+     * @param value to write into the DBStore
+     */
+    public void set(String key, byte[] value) throws IOException, InvalidRequestException {
+        checkKey(key);
+        call(new DBRequest(Constants.SET, new DBItem(key, value)));
+    }
+
+    /**
+     * Issues a SETEX request to the DBStore, so the key expires after the
+     * given time. The value is sent as it is.
+     *
+     * @param key to write into the DBStore
+     * @param value to write into the DBStore
+     * @param ttlMillis time to live of the key in milliseconds
+     */
+    public void set(String key, byte[] value, long ttlMillis) throws IOException, InvalidRequestException {
+        checkKey(key);
+        if (ttlMillis <= 0) {
+            throw new InvalidRequestException("Time to live must be positive, not " + ttlMillis);
         }
+        call(new DBRequest(Constants.SETEX, new DBItem(key, value), ttlMillis));
+    }
 
-        if (response != null) {
-            if(response.getResponseStatus().equals(Constants.ERROR)) {
-                closeHost();
-                return;
-            }
-            System.out.println("< " + response.getResponseStatus());
-        } else {
-            closeHost();
+    /**
+     * Issues a TTL request to the DBStore.
+     *
+     * @param key to look up in the DBStore
+     * @return milliseconds the key has left to live, -1 if it does not
+     *         expire
+     * @throws ItemNotFoundException if the key does not exist
+     */
+    public long ttl(String key) throws IOException, InvalidRequestException, ItemNotFoundException {
+        byte[] value = callKey(Constants.TTL, key);
+        if (value == null || value.length == 0) {
+            throw new ItemNotFoundException("Key " + key + " does not exist");
         }
+        return Long.parseLong(decode(value));
+    }
+
+    /**
+     * Issues a PERSIST request to the DBStore.
+     *
+     * @param key to persist in the DBStore
+     * @return true if the key no longer expires, false if it did not
+     *         expire or does not exist
+     */
+    public boolean persist(String key) throws IOException, InvalidRequestException {
+        return callKey(Constants.PERSIST, key) != null;
     }
 
     /**
-     * Issues a GET request to the DBStore.
+     * Issues a GET request to the DBStore. Sent as an MGET of one key,
+     * which tells missing keys apart from empty values.
      *
      * @param key to get value from the DBStore
+     * @return value of the key, null if it does not exist
      */
-    public void get(String key) {
-        if(!verifyKey(key)) {
-            closeHost();
-            return;
-        }
+    public byte[] get(String key) throws IOException, InvalidRequestException {
+        checkKey(key);
+        return items(call(new DBRequest(Constants.MGET, new DBItem[]{new DBItem(key)})))[0].getValue();
+    }
 
-        DBItem item = new DBItem(key);
-        DBRequest request = new DBRequest(Constants.GET, item);
-        DBResponse response = null;
+    /**
+     * Issues a DEL request to the DBStore. Deleting a missing key is not
+     * an error.
+     *
+     * @param key to delete value from the DBStore
+     */
+    public void delete(String key) throws IOException, InvalidRequestException {
+        checkKey(key);
+        call(new DBRequest(Constants.DELETE, new DBItem(key)));
+    }
 
-        try {
-            response = sendRequest(request);
-        } catch (Exception e) {
-            closeHost();
-            return;
-        }
+    /**
+     * Issues a STREAM request to the DBStore. The server copies the whole
+     * store into one response, so use scanIterator for large stores.
+     *
+     * @return every key-value pair of the DBStore, empty for an empty store
+     */
+    public DBItem[] stream() throws IOException {
+        DBItem[] items = call(new DBRequest(Constants.STREAM)).getItems();
+        return items == null ? new DBItem[0] : items;
+    }
+
+    /**
+     * Scan the keys of the DBStore, fetching them lazily in chunks of the
+     * given size as the iterator is advanced. The scan is weakly
+     * consistent: keys present for the whole scan are returned exactly
+     * once, keys added or deleted meanwhile may or may not be.
+     *
+     * @param prefix only return keys starting with it, null for all keys
+     * @param count number of items fetched per round trip
+     * @return iterator over the key-value pairs, in no particular order.
+     *         Its methods throw UncheckedIOException if a request fails
+     */
+    public Iterator<DBItem> scanIterator(final String prefix, final int count) {
+        return new Iterator<DBItem>() {
+            private DBItem[] chunk = new DBItem[0];
+            private int position;
+            private long cursor;
+            private boolean started;
 
-        if (response != null) {
-            if(response.getResponseStatus().equals(Constants.ERROR)) {
-                closeHost();
-                return;
+            @Override
+            public boolean hasNext() {
+                while (position == chunk.length && (!started || cursor != 0)) {
+                    fetch();
+                }
+                return position < chunk.length;
             }
-            DBItem responseItem = response.getItems()[0];
-            String value = responseItem.getValue();
-            System.out.println("< " + Constants.VALUE + " " + value.length());
-            if(value.length() > 0) {
-                System.out.println("< " + value);
+
+            @Override
+            public DBItem next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk[position++];
+            }
+
+            private void fetch() {
+                DBResponse response;
+                try {
+                    response = sendRequest(new DBRequest(Constants.SCAN, cursor, count, prefix));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ClassNotFoundException e) {
+                    throw new UncheckedIOException(new IOException(e));
+                }
+                if (response == null || response.getResponseStatus().equals(Constants.ERROR)) {
+                    throw new UncheckedIOException(new ServerErrorException("SCAN failed, the cursor may have expired"));
+                }
+                started = true;
+                cursor = response.getCursor();
+                chunk = response.getItems() == null ? new DBItem[0] : response.getItems();
+                position = 0;
             }
-        } else {
-            closeHost();
+        };
+    }
+
+    /**
+     * Issues an MGET request to the DBStore for a batch of keys.
+     *
+     * @param keys to get values from the DBStore
+     * @return an item per key in key order, with a null value for missing
+     *         keys
+     */
+    public DBItem[] mget(String[] keys) throws IOException, InvalidRequestException {
+        return items(call(new DBRequest(Constants.MGET, keyItems(keys))));
+    }
+
+    /**
+     * Issues an MSET request to the DBStore for a batch of key-value pairs.
+     *
+     * @param items key-value pairs to write into the DBStore
+     */
+    public void mset(DBItem[] items) throws IOException, InvalidRequestException {
+        for (DBItem item : items) {
+            checkKey(item.getKey());
         }
+        call(new DBRequest(Constants.MSET, items));
     }
 
     /**
-     * Issues a DEL request to the DBStore.
+     * Issues an MDELETE request to the DBStore for a batch of keys.
      *
-     * @param key to delete value from the DBStore
+     * @param keys to delete values from the DBStore
+     * @return per key in key order, whether it existed and was deleted
      */
-    public void delete(String key) {
-        if(!verifyKey(key)) {
-            closeHost();
-            return;
+    public boolean[] mdelete(String[] keys) throws IOException, InvalidRequestException {
+        DBItem[] results = items(call(new DBRequest(Constants.MDELETE, keyItems(keys))));
+        boolean[] deleted = new boolean[results.length];
+        for (int i = 0; i < results.length; i++) {
+            deleted[i] = results[i].getValue() != null;
         }
+        return deleted;
+    }
 
-        DBItem item = new DBItem(key);
-        DBRequest request = new DBRequest(Constants.DELETE, item);
-        DBResponse response = null;
-        try {
-            response = sendRequest(request);
-        } catch (Exception e){
-            closeHost();
-            return;
+    private void checkKey(String key) throws InvalidRequestException {
+        if (!verifyKey(key)) {
+            throw new InvalidRequestException("Key must be 1 to 100 characters long");
         }
+    }
 
-        if (response != null) {
-            if(response.getResponseStatus().equals(Constants.ERROR)) {
-                closeHost();
-                return;
-            }
-            System.out.println("< " + response.getResponseStatus());
-        } else {
-            closeHost();
+    private DBItem[] keyItems(String[] keys) throws InvalidRequestException {
+        if (keys.length == 0) {
+            throw new InvalidRequestException("A batch needs at least one key");
+        }
+        DBItem[] items = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            checkKey(keys[i]);
+            items[i] = new DBItem(keys[i]);
         }
+        return items;
     }
 
     /**
-     * Issues a STREAM request to the DBStore.
+     * Sends a request carrying a single key and answered with an item for
+     * it.
      *
+     * @return value of the item answered
      */
-    public void stream() {
-        DBRequest request = new DBRequest(Constants.STREAM);
-        DBResponse response = null;
+    private byte[] callKey(String requestType, String key) throws IOException, InvalidRequestException {
+        checkKey(key);
+        return items(call(new DBRequest(requestType, new DBItem(key))))[0].getValue();
+    }
 
+    /**
+     * Sends a request and checks the server carried it out.
+     *
+     * @param request to be sent to the server
+     * @return response from the server
+     * @throws ServerErrorException if the server answers with ERROR
+     * @throws IOException if the connection fails
+     */
+    private DBResponse call(DBRequest request) throws IOException {
+        DBResponse response;
         try {
             response = sendRequest(request);
-        } catch (Exception e) {
-            closeHost();
-            return;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unexpected response from the server", e);
         }
-
-        if (response != null) {
-            if(response.getResponseStatus().equals(Constants.ERROR)) {
-                closeHost();
-            }
-            if(response.getItems() == null) {
-                System.out.println("< " + Constants.EMPTY_STORE);
-                return;
-            }
-            int noOfDBItems = response.getItems().length;
-            for(int i = 0 ; i < noOfDBItems; i++) {
-                System.out.print("< " + Constants.KEY + " " + response.getItems()[i].getKey() + " " + Constants.VALUE + " "
-                    + response.getItems()[i].getValue().length() + "\r\n");
-                System.out.println("< " + response.getItems()[i].getValue());
-            }
-        } else {
-            closeHost();
+        if (response == null) {
+            throw new IOException("No response from the server");
         }
+        if (Constants.ERROR.equals(response.getResponseStatus())) {
+            throw new ServerErrorException(request.getRequestType() + " failed on " + server + ":" + port);
+        }
+        return response;
+    }
 
+    private static DBItem[] items(DBResponse response) throws IOException {
+        if (response.getItems() == null) {
+            throw new IOException("Expected items in the " + response.getResponseStatus() + " response");
+        }
+        return response.getItems();
     }
 }
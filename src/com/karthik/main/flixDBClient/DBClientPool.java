@@ -0,0 +1,561 @@
+package com.karthik.main.flixDBClient;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.exception.ServerErrorException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Thread-safe client of a FlixDB server keeping a bounded pool of
+ * connections to it. Requests from any number of threads are multiplexed
+ * over the pooled connections: every request goes to the connection with
+ * the fewest requests in flight, a new one is opened while all are busy
+ * and the pool is not full, and requests are pipelined, each connection
+ * keeping up to PIPELINE_WINDOW of them in flight. A reader thread per
+ * connection completes the futures of the requests in the order the
+ * server answers them, which is the order they were sent in.
+ *
+ * A health check closes connections with a request unanswered for longer
+ * than the request timeout and pings the idle ones, so dead servers are
+ * noticed before a request waits on them. The requests in flight on a
+ * connection that fails complete exceptionally with an IOException, and
+ * are not retried since writes may have been applied. The next request
+ * opens a new connection.
+ *
+ * The async methods return futures completed on the reader threads, so
+ * work chained on them with the non-async methods of CompletableFuture
+ * holds up the responses of the connection and should be short. The
+ * binary protocol is always used.
+ */
+public class DBClientPool {
+    private final String server;
+    private final int port;
+    private final int maxConnections;
+    private final int requestTimeout;
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    private final ScheduledExecutorService healthCheck;
+    private volatile NearCache nearCache;
+    private volatile boolean closed = false;
+
+    /**
+     * Number of requests in flight per connection.
+     */
+    public static final int PIPELINE_WINDOW = DBClientImplementation.PIPELINE_WINDOW;
+
+    /**
+     * Number of key-value pairs asked for per SCAN request of streamAsync.
+     */
+    private static final int SCAN_COUNT = 1000;
+
+    /**
+     * Constructs a DBClientPool and opens its first connection, so an
+     * unreachable server is reported right away.
+     *
+     * @param server host of the server
+     * @param port port of the server
+     * @param maxConnections largest number of connections opened
+     * @param requestTimeout milliseconds to connect, and to wait for a
+     *                       response before the connection is given up on
+     * @param healthCheckInterval milliseconds between two health checks
+     * @throws IOException if the server cannot be connected to
+     */
+    public DBClientPool(String server, int port, int maxConnections, int requestTimeout, int healthCheckInterval)
+            throws IOException {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("A pool needs at least one connection");
+        }
+        this.server = server;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.requestTimeout = requestTimeout;
+        connections.add(new Connection());
+        healthCheck = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "flixDB-client-health-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        healthCheck.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkHealth();
+            }
+        }, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Serve GET from a {@link NearCache} of the server kept coherent
+     * through its invalidation port. SET and DELETE through this pool drop
+     * their key from the cache, so a thread reads its own writes.
+     *
+     * @param invalidationPort invalidation port of the server
+     * @param maxEntries largest number of keys cached
+     * @param ttlMillis milliseconds a key is cached for at most, zero for
+     *                  as long as it is not invalidated
+     * @throws IOException if the invalidation port cannot be connected to
+     */
+    public void enableNearCache(int invalidationPort, int maxEntries, long ttlMillis) throws IOException {
+        NearCache previous = nearCache;
+        nearCache = new NearCache(server, invalidationPort, maxEntries, ttlMillis, requestTimeout);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return the near cache, null if it is not enabled
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Close every connection. Requests in flight complete exceptionally.
+     */
+    public void close() {
+        closed = true;
+        healthCheck.shutdownNow();
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.close();
+        }
+        for (Connection connection : connections) {
+            connection.fail(new IOException("Client closed"));
+        }
+    }
+
+    /**
+     * Send a request over a pooled connection.
+     *
+     * @param request request to send
+     * @return future of the response, completed exceptionally with an
+     *         IOException if the connection fails first
+     */
+    public CompletableFuture<DBResponse> sendAsync(DBRequest request) {
+        Connection connection;
+        try {
+            connection = connection();
+        } catch (IOException e) {
+            CompletableFuture<DBResponse> failed = new CompletableFuture<DBResponse>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return connection.send(request);
+    }
+
+    /**
+     * Read a key, from the near cache if it is enabled. Sent as an MGET of
+     * one key, which tells missing keys apart from empty values.
+     *
+     * @param key key to read
+     * @return future of the value, null if the key does not exist
+     */
+    public CompletableFuture<byte[]> getAsync(final String key) {
+        NearCache cache = nearCache;
+        CompletableFuture<byte[]> cached = cache == null ? null : cache.getAsync(key);
+        if (cached == null) {
+            return fetch(key);
+        }
+        final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+        cached.whenComplete(new BiConsumer<byte[], Throwable>() {
+            @Override
+            public void accept(byte[] value, Throwable failure) {
+                if (failure == null) {
+                    result.complete(value);
+                    return;
+                }
+                // The near cache lost its connection, the pool may not have
+                forward(fetch(key), result);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<byte[]> fetch(String key) {
+        return map(sendAsync(new DBRequest(Constants.MGET, new DBItem[]{new DBItem(key)})),
+                new Function<DBResponse, byte[]>() {
+                    @Override
+                    public byte[] apply(DBResponse response) {
+                        return response.getItems()[0].getValue();
+                    }
+                });
+    }
+
+    public CompletableFuture<Void> setAsync(String key, byte[] value) {
+        return write(key, new DBRequest(Constants.SET, new DBItem(key, value)));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String key) {
+        return write(key, new DBRequest(Constants.DELETE, new DBItem(key)));
+    }
+
+    /**
+     * Send a write of the given key, dropping the key from the near cache
+     * before it is sent and once it is done, so neither a copy cached
+     * before nor a read racing with the write is served after it.
+     */
+    private CompletableFuture<Void> write(final String key, DBRequest request) {
+        final NearCache cache = nearCache;
+        if (cache == null) {
+            return map(sendAsync(request), NOTHING);
+        }
+        cache.invalidate(key);
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        forward(map(sendAsync(request), NOTHING), result);
+        result.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable failure) {
+                cache.invalidate(key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Read every key-value pair of the store with a SCAN request per chunk
+     * of SCAN_COUNT pairs, so the server never copies the whole store into
+     * one response. The pairs come in no particular order, and keys
+     * written or deleted meanwhile may or may not be included.
+     *
+     * @return future of every key-value pair of the store, empty for an
+     *         empty store
+     */
+    public CompletableFuture<DBItem[]> streamAsync() {
+        CompletableFuture<DBItem[]> result = new CompletableFuture<DBItem[]>();
+        scanFrom(0, new ArrayList<DBItem>(), result);
+        return result;
+    }
+
+    /**
+     * Fetch the chunk at the cursor and the ones after it into items. The
+     * next chunk is requested off the reader thread, which must not wait
+     * for room in the pipeline window it is the one to free.
+     */
+    private void scanFrom(long cursor, final List<DBItem> items, final CompletableFuture<DBItem[]> result) {
+        map(sendAsync(new DBRequest(Constants.SCAN, cursor, SCAN_COUNT, null)), new Function<DBResponse, Long>() {
+            @Override
+            public Long apply(DBResponse response) {
+                if (response.getItems() != null) {
+                    Collections.addAll(items, response.getItems());
+                }
+                return response.getCursor();
+            }
+        }).whenCompleteAsync(new BiConsumer<Long, Throwable>() {
+            @Override
+            public void accept(Long next, Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else if (next == 0) {
+                    result.complete(items.toArray(new DBItem[items.size()]));
+                } else {
+                    scanFrom(next, items, result);
+                }
+            }
+        });
+    }
+
+    public byte[] get(String key) throws IOException {
+        return await(getAsync(key));
+    }
+
+    public void set(String key, byte[] value) throws IOException {
+        await(setAsync(key, value));
+    }
+
+    public void delete(String key) throws IOException {
+        await(deleteAsync(key));
+    }
+
+    public DBItem[] stream() throws IOException {
+        return await(streamAsync());
+    }
+
+    /**
+     * Wait for a future of this pool.
+     *
+     * @param future future to wait for
+     * @return its value
+     * @throws IOException the failure it completed with
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+    }
+
+    private static final Function<DBResponse, Void> NOTHING = new Function<DBResponse, Void>() {
+        @Override
+        public Void apply(DBResponse response) {
+            return null;
+        }
+    };
+
+    /**
+     * Return a future of the given function of the response, failed with
+     * a ServerErrorException if the server answers with ERROR.
+     */
+    private <T> CompletableFuture<T> map(CompletableFuture<DBResponse> response,
+                                         final Function<DBResponse, T> function) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        response.whenComplete(new BiConsumer<DBResponse, Throwable>() {
+            @Override
+            public void accept(DBResponse response, Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else if (!Constants.OK.equals(response.getResponseStatus())) {
+                    result.completeExceptionally(new ServerErrorException(server + ":" + port + " failed the request"));
+                } else {
+                    result.complete(function.apply(response));
+                }
+            }
+        });
+        return result;
+    }
+
+    private static <T> void forward(CompletableFuture<T> from, final CompletableFuture<T> to) {
+        from.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                if (failure != null) {
+                    to.completeExceptionally(failure);
+                } else {
+                    to.complete(value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the connection with the fewest requests in flight, or a new
+     * one if they all have some and the pool is not full.
+     */
+    private Connection connection() throws IOException {
+        Connection best = null;
+        for (Connection connection : connections) {
+            if (best == null || connection.inFlight.get() < best.inFlight.get()) {
+                best = connection;
+            }
+        }
+        if (best != null && best.inFlight.get() == 0) {
+            return best;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Client closed");
+            }
+            if (connections.size() < maxConnections) {
+                Connection connection = new Connection();
+                connections.add(connection);
+                return connection;
+            }
+        }
+        if (best == null) {
+            // Every connection failed since the loop above
+            return connection();
+        }
+        return best;
+    }
+
+    /**
+     * Close connections with a request unanswered for too long, and ping
+     * the idle ones so a dead server is noticed.
+     */
+    private void checkHealth() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections) {
+            Pending oldest = connection.pending.peek();
+            if (oldest != null && now - oldest.sentAt > requestTimeout) {
+                connection.fail(new SocketTimeoutException("No response from " + server + ":" + port + " in "
+                        + requestTimeout + " ms"));
+            } else if (oldest == null) {
+                ping(connection);
+            }
+        }
+    }
+
+    /**
+     * Send a PING on an idle connection. A server that answers it with an
+     * ERROR is not serving requests, so the connection is closed.
+     */
+    private void ping(final Connection connection) {
+        connection.send(new DBRequest(Constants.PING)).whenComplete(new BiConsumer<DBResponse, Throwable>() {
+            @Override
+            public void accept(DBResponse response, Throwable failure) {
+                if (response != null && !Constants.OK.equals(response.getResponseStatus())) {
+                    connection.fail(new IOException("PING to " + server + ":" + port + " answered with "
+                            + response.getResponseStatus()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Request sent on a connection, waiting for its response.
+     */
+    private static final class Pending {
+        final CompletableFuture<DBResponse> future = new CompletableFuture<DBResponse>();
+        final long sentAt = System.currentTimeMillis();
+    }
+
+    /**
+     * One pooled connection and the requests in flight on it.
+     */
+    private final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final Semaphore window = new Semaphore(PIPELINE_WINDOW);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Connection() throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(server, port), requestTimeout);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                BinaryProtocol.writePreamble(out);
+                out.flush();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop();
+                }
+            }, "flixDB-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<DBResponse> send(DBRequest request) {
+            inFlight.incrementAndGet();
+            window.acquireUninterruptibly();
+            Pending sent = new Pending();
+            synchronized (out) {
+                if (failed.get()) {
+                    return failedRequest(new IOException("Connection to " + server + ":" + port + " lost"));
+                }
+                // Queued first, as a large request reaches the server while
+                // it is still being written
+                pending.add(sent);
+                try {
+                    BinaryProtocol.writeRequest(out, request);
+                    out.flush();
+                } catch (ProtocolException e) {
+                    // Refused before a byte was written, the connection is fine
+                    pending.remove(sent);
+                    return failedRequest(e);
+                } catch (IllegalArgumentException e) {
+                    pending.remove(sent);
+                    return failedRequest(new IOException(e.getMessage()));
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            return sent.future;
+        }
+
+        private CompletableFuture<DBResponse> failedRequest(IOException e) {
+            window.release();
+            inFlight.decrementAndGet();
+            CompletableFuture<DBResponse> failedFuture = new CompletableFuture<DBResponse>();
+            failedFuture.completeExceptionally(e);
+            return failedFuture;
+        }
+
+        private void readLoop() {
+            try {
+                while (!failed.get()) {
+                    DBResponse response = BinaryProtocol.readResponse(in);
+                    Pending request = pending.poll();
+                    if (request == null) {
+                        throw new ProtocolException("Response without a request");
+                    }
+                    window.release();
+                    inFlight.decrementAndGet();
+                    request.future.complete(response);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Close the connection, take it out of the pool and fail the
+         * requests in flight on it.
+         */
+        void fail(IOException cause) {
+            if (!failed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.remove(this);
+            try {
+                // Unblocks a sender stuck writing, so the lock below frees up
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (out) {
+                IOException lost = cause instanceof SocketTimeoutException ? cause
+                        : new IOException("Connection to " + server + ":" + port + " lost", cause);
+                Pending request;
+                while ((request = pending.poll()) != null) {
+                    window.release();
+                    inFlight.decrementAndGet();
+                    request.future.completeExceptionally(lost);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package com.karthik.main.flixDBClient;
+
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBInterface;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.exception.ServerErrorException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Client of a cluster of FlixDB servers that share the keyspace between
+ * them, so it can grow beyond the memory of one server. Every key belongs
+ * to one node, picked by a consistent {@link HashRing}; the servers know
+ * nothing of each other.
+ *
+ * Batch requests are split by node and STREAM goes to every node, with
+ * the requests to the different nodes sent in parallel. Every node has a
+ * {@link DBClientPool} of its own, so the client can be shared between
+ * threads.
+ *
+ * When a node is added, the keys it takes over are still on their old
+ * nodes and read as missing until rebalance() moves them. A removed node
+ * hands its keys over to the nodes taking them over before it is
+ * disconnected.
+ *
+ * Writes through this client do not race with the keys being moved:
+ * writes hold the read lock of the stripes of their keys while they are
+ * sent, and a chunk of keys is moved under the write locks of its
+ * stripes. Until the keys are all in place, DELETE and MDELETE go to
+ * every node, so a key not moved yet does not come back after it was
+ * deleted. Writes from other clients of the cluster are not held back,
+ * and may still be overwritten by a key moved at the same time.
+ */
+public class DBClusterClient {
+    private final HashRing ring = new HashRing();
+    private final Map<String, DBClientPool> clients = new ConcurrentHashMap<String, DBClientPool>();
+    private final int socketTimeout;
+    private final int connectionsPerNode;
+    private final ReentrantReadWriteLock[] moveLocks = new ReentrantReadWriteLock[MOVE_LOCK_STRIPES];
+    private final AtomicInteger ringChanges = new AtomicInteger();
+    private volatile int balancedAt;
+
+    public static final int DEFAULT_WEIGHT = 1;
+    public static final int DEFAULT_CONNECTIONS_PER_NODE = 4;
+    private static final int HEALTH_CHECK_INTERVAL = 1000;
+    private static final int SCAN_COUNT = 1000;
+    private static final int MOVE_LOCK_STRIPES = 64;
+
+    /**
+     * Constructs a DBClusterClient connected to the given nodes.
+     *
+     * @param nodes nodes as host:port, or host:port:weight for a node
+     *              taking a larger or smaller share of the keys
+     * @param socketTimeout milliseconds to wait for a node to respond
+     * @throws IOException if a node cannot be connected to
+     */
+    public DBClusterClient(String[] nodes, int socketTimeout) throws IOException {
+        this(nodes, socketTimeout, DEFAULT_CONNECTIONS_PER_NODE);
+    }
+
+    /**
+     * Constructs a DBClusterClient connected to the given nodes.
+     *
+     * @param nodes nodes as host:port, or host:port:weight for a node
+     *              taking a larger or smaller share of the keys
+     * @param socketTimeout milliseconds to wait for a node to respond
+     * @param connectionsPerNode largest number of connections to a node
+     * @throws IOException if a node cannot be connected to
+     */
+    public DBClusterClient(String[] nodes, int socketTimeout, int connectionsPerNode) throws IOException {
+        this.socketTimeout = socketTimeout;
+        this.connectionsPerNode = connectionsPerNode;
+        for (int i = 0; i < MOVE_LOCK_STRIPES; i++) {
+            moveLocks[i] = new ReentrantReadWriteLock();
+        }
+        for (String node : nodes) {
+            String[] parts = node.split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Node must be host:port or host:port:weight, not " + node);
+            }
+            addNode(parts[0], Integer.parseInt(parts[1]),
+                    parts.length == 3 ? Integer.parseInt(parts[2]) : DEFAULT_WEIGHT);
+        }
+        // The first nodes hold no keys yet, so there is nothing to move
+        balancedAt = ringChanges.get();
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Connect to a node and give it its share of the keys, or change the
+     * weight of a node already in the cluster.
+     *
+     * @param host host of the node
+     * @param port port of the node
+     * @param weight share of the keys relative to the other nodes
+     * @throws IOException if the node cannot be connected to
+     */
+    public void addNode(String host, int port, int weight) throws IOException {
+        String node = host + ":" + port;
+        if (!clients.containsKey(node)) {
+            clients.put(node, new DBClientPool(host, port, connectionsPerNode, socketTimeout, HEALTH_CHECK_INTERVAL));
+        }
+        ringChanges.incrementAndGet();
+        ring.addNode(node, weight);
+    }
+
+    /**
+     * Take a node out of the cluster, move its keys to the nodes taking
+     * them over, and disconnect from it. A node that cannot be reached is
+     * taken out all the same, and the keys it holds are lost.
+     *
+     * @param host host of the node
+     * @param port port of the node
+     * @return number of keys moved
+     * @throws IOException if the keys could not all be moved
+     */
+    public synchronized long removeNode(String host, int port) throws IOException {
+        String node = host + ":" + port;
+        boolean wasBalanced = isBalanced();
+        int version = ringChanges.incrementAndGet();
+        ring.removeNode(node);
+        DBClientPool client = clients.get(node);
+        if (client == null) {
+            return 0;
+        }
+        try {
+            long moved = moveMisplaced(node);
+            if (wasBalanced) {
+                balancedAt = version;
+            }
+            return moved;
+        } finally {
+            clients.remove(node);
+            client.close();
+        }
+    }
+
+    /**
+     * Disconnect from every node.
+     */
+    public void close() {
+        for (String node : new ArrayList<String>(clients.keySet())) {
+            clients.remove(node).close();
+        }
+    }
+
+    /**
+     * Return the value of the key. Sent as an MGET of one key, which tells
+     * missing keys apart from empty values.
+     *
+     * @param key key to read
+     * @return value of the key, null if it does not exist
+     * @throws IOException if the node cannot be reached or fails the request
+     */
+    public byte[] get(String key) throws IOException {
+        DBResponse response = send(nodeFor(key), new DBRequest(Constants.MGET, new DBItem[]{new DBItem(key)}));
+        return response.getItems()[0].getValue();
+    }
+
+    public void set(String key, byte[] value) throws IOException {
+        Lock[] locks = lock(new String[]{key}, false);
+        try {
+            send(nodeFor(key), new DBRequest(Constants.SET, new DBItem(key, value)));
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    public void set(String key, byte[] value, long ttlMillis) throws IOException {
+        Lock[] locks = lock(new String[]{key}, false);
+        try {
+            send(nodeFor(key), new DBRequest(Constants.SETEX, new DBItem(key, value), ttlMillis));
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Delete the key from its node, or from every node while keys are
+     * waiting to be moved.
+     *
+     * @param key key to delete
+     * @throws IOException if a node cannot be reached or fails the request
+     */
+    public void delete(String key) throws IOException {
+        Lock[] locks = lock(new String[]{key}, false);
+        try {
+            if (isBalanced()) {
+                send(nodeFor(key), new DBRequest(Constants.DELETE, new DBItem(key)));
+            } else {
+                Map<String, DBRequest> requests = new LinkedHashMap<String, DBRequest>();
+                for (String node : clients.keySet()) {
+                    requests.put(node, new DBRequest(Constants.DELETE, new DBItem(key)));
+                }
+                sendAll(requests);
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Return the values of the keys, read from their nodes in parallel.
+     *
+     * @param keys keys to read
+     * @return an item per key in key order, with a null value for missing
+     *         keys
+     * @throws IOException if a node cannot be reached or fails the request
+     */
+    public DBItem[] mget(String[] keys) throws IOException {
+        DBItem[] items = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            items[i] = new DBItem(keys[i]);
+        }
+        DBItem[] result = new DBItem[keys.length];
+        Map<String, List<Integer>> byNode = groupByNode(items);
+        Map<String, DBRequest> requests = new LinkedHashMap<String, DBRequest>();
+        for (Map.Entry<String, List<Integer>> node : byNode.entrySet()) {
+            requests.put(node.getKey(), new DBRequest(Constants.MGET, select(items, node.getValue())));
+        }
+        Map<String, DBResponse> responses = sendAll(requests);
+        for (Map.Entry<String, List<Integer>> node : byNode.entrySet()) {
+            DBItem[] nodeItems = responses.get(node.getKey()).getItems();
+            for (int i = 0; i < nodeItems.length; i++) {
+                result[node.getValue().get(i)] = nodeItems[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write the pairs to their nodes in parallel.
+     *
+     * @param items key-value pairs to write
+     * @throws IOException if a node cannot be reached or fails the request
+     */
+    public void mset(DBItem[] items) throws IOException {
+        String[] keys = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keys[i] = items[i].getKey();
+        }
+        Lock[] locks = lock(keys, false);
+        try {
+            Map<String, DBRequest> requests = new LinkedHashMap<String, DBRequest>();
+            for (Map.Entry<String, List<Integer>> node : groupByNode(items).entrySet()) {
+                requests.put(node.getKey(), new DBRequest(Constants.MSET, select(items, node.getValue())));
+            }
+            sendAll(requests);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Delete the keys from their nodes in parallel, or from every node
+     * while keys are waiting to be moved.
+     *
+     * @param keys keys to delete
+     * @throws IOException if a node cannot be reached or fails the request
+     */
+    public void mdelete(String[] keys) throws IOException {
+        DBItem[] items = new DBItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            items[i] = new DBItem(keys[i]);
+        }
+        Lock[] locks = lock(keys, false);
+        try {
+            Map<String, DBRequest> requests = new LinkedHashMap<String, DBRequest>();
+            if (isBalanced()) {
+                for (Map.Entry<String, List<Integer>> node : groupByNode(items).entrySet()) {
+                    requests.put(node.getKey(), new DBRequest(Constants.MDELETE, select(items, node.getValue())));
+                }
+            } else {
+                for (String node : clients.keySet()) {
+                    requests.put(node, new DBRequest(Constants.MDELETE, items));
+                }
+            }
+            sendAll(requests);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Return every key-value pair of the cluster, scanned from all nodes
+     * in parallel a chunk at a time.
+     *
+     * @return the pairs of all nodes, in no particular order
+     * @throws IOException if a node cannot be reached or fails a request
+     */
+    public DBItem[] stream() throws IOException {
+        List<CompletableFuture<DBItem[]>> scans = new ArrayList<CompletableFuture<DBItem[]>>();
+        for (String node : ring.getNodes().keySet()) {
+            DBClientPool client = clients.get(node);
+            if (client != null) {
+                scans.add(client.streamAsync());
+            }
+        }
+        List<DBItem> items = new ArrayList<DBItem>();
+        IOException failure = null;
+        for (CompletableFuture<DBItem[]> scan : scans) {
+            try {
+                Collections.addAll(items, DBClientPool.await(scan));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return items.toArray(new DBItem[items.size()]);
+    }
+
+    /**
+     * Move the keys that belong to another node since nodes were added or
+     * weights changed. Every node is scanned a chunk at a time, and its
+     * misplaced keys are copied to their node unless that node has the key
+     * already, holding a newer write, then deleted. Keys with a time to
+     * live are copied with the time they have left. Writes through this
+     * client to the keys of a chunk wait while it is moved.
+     *
+     * @return number of keys moved
+     * @throws IOException if a node cannot be reached or fails a request
+     */
+    public synchronized long rebalance() throws IOException {
+        int version = ringChanges.get();
+        long moved = 0;
+        for (String node : ring.getNodes().keySet()) {
+            moved += moveMisplaced(node);
+        }
+        balancedAt = version;
+        return moved;
+    }
+
+    /**
+     * @return whether every key is on its node, as far as the ring changes
+     *         made through this client go
+     */
+    private boolean isBalanced() {
+        return balancedAt == ringChanges.get();
+    }
+
+    /**
+     * Lock the stripes of the keys in stripe order, the read locks for
+     * writes and the write locks for moving the keys.
+     *
+     * @return the locks taken, to pass to unlock
+     */
+    private Lock[] lock(String[] keys, boolean moving) {
+        boolean[] stripes = new boolean[MOVE_LOCK_STRIPES];
+        int count = 0;
+        for (String key : keys) {
+            int stripe = Math.floorMod(key.hashCode(), MOVE_LOCK_STRIPES);
+            if (!stripes[stripe]) {
+                stripes[stripe] = true;
+                count++;
+            }
+        }
+        Lock[] locks = new Lock[count];
+        int taken = 0;
+        for (int i = 0; i < MOVE_LOCK_STRIPES; i++) {
+            if (stripes[i]) {
+                Lock lock = moving ? moveLocks[i].writeLock() : moveLocks[i].readLock();
+                lock.lock();
+                locks[taken++] = lock;
+            }
+        }
+        return locks;
+    }
+
+    private static void unlock(Lock[] locks) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * Scan a node a chunk at a time and move the keys that belong to other
+     * nodes.
+     *
+     * @return number of keys moved
+     */
+    private long moveMisplaced(String node) throws IOException {
+        long moved = 0;
+        long cursor = 0;
+        do {
+            DBResponse chunk = send(node, new DBRequest(Constants.SCAN, cursor, SCAN_COUNT, null));
+            cursor = chunk.getCursor();
+            if (chunk.getItems() == null) {
+                continue;
+            }
+            List<DBItem> misplaced = new ArrayList<DBItem>();
+            for (DBItem item : chunk.getItems()) {
+                if (!node.equals(nodeFor(item.getKey()))) {
+                    misplaced.add(item);
+                }
+            }
+            moved += move(node, misplaced.toArray(new DBItem[misplaced.size()]));
+        } while (cursor != 0);
+        return moved;
+    }
+
+    private int move(String from, DBItem[] misplaced) throws IOException {
+        if (misplaced.length == 0) {
+            return 0;
+        }
+        String[] keys = new String[misplaced.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = misplaced[i].getKey();
+        }
+        Lock[] locks = lock(keys, true);
+        try {
+            return move(from, misplaced, keys);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Copy the keys to their node, unless it has a newer write of the key,
+     * and delete them from the old one. The caller holds the write locks
+     * of their stripes, so writes through this client cannot come between
+     * the check and the copy.
+     */
+    private int move(String from, DBItem[] misplaced, String[] keys) throws IOException {
+        List<CompletableFuture<DBResponse>> ttls = new ArrayList<CompletableFuture<DBResponse>>();
+        for (int i = 0; i < keys.length; i++) {
+            ttls.add(sendAsync(from, new DBRequest(Constants.TTL, new DBItem(keys[i]))));
+        }
+        DBItem[] current = mget(keys);
+        List<DBItem> persistent = new ArrayList<DBItem>();
+        List<DBRequest> expiring = new ArrayList<DBRequest>();
+        List<CompletableFuture<DBResponse>> setExs = new ArrayList<CompletableFuture<DBResponse>>();
+        for (int i = 0; i < misplaced.length; i++) {
+            long ttl = ttlOf(from, DBClientPool.await(ttls.get(i)));
+            if (current[i].getValue() != null || ttl == 0) {
+                // Newer on its node, or gone from the old one since the scan
+                continue;
+            }
+            if (ttl == DBInterface.NO_EXPIRY) {
+                persistent.add(misplaced[i]);
+            } else {
+                DBRequest setEx = new DBRequest(Constants.SETEX, misplaced[i], ttl);
+                expiring.add(setEx);
+                setExs.add(sendAsync(nodeFor(keys[i]), setEx));
+            }
+        }
+        if (!persistent.isEmpty()) {
+            mset(persistent.toArray(new DBItem[persistent.size()]));
+        }
+        for (int i = 0; i < expiring.size(); i++) {
+            DBRequest setEx = expiring.get(i);
+            checked(nodeFor(setEx.getItem().getKey()), setEx, DBClientPool.await(setExs.get(i)));
+        }
+        send(from, new DBRequest(Constants.MDELETE, select(misplaced, null)));
+        return misplaced.length;
+    }
+
+    /**
+     * Return the time to live in a TTL response.
+     *
+     * @return milliseconds the key has left, NO_EXPIRY if it does
+     *         not expire and zero if it is gone
+     */
+    private static long ttlOf(String node, DBResponse response) throws IOException {
+        checked(node, new DBRequest(Constants.TTL), response);
+        byte[] value = response.getItems()[0].getValue();
+        if (value == null || value.length == 0) {
+            return 0;
+        }
+        return Long.parseLong(new String(value, StandardCharsets.UTF_8));
+    }
+
+    private String nodeFor(String key) throws IOException {
+        String node = ring.nodeFor(key);
+        if (node == null) {
+            throw new IOException("The cluster has no nodes");
+        }
+        return node;
+    }
+
+    /**
+     * Return the indexes of the items by the node of their key, in the
+     * order of the items.
+     */
+    private Map<String, List<Integer>> groupByNode(DBItem[] items) throws IOException {
+        Map<String, List<Integer>> byNode = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < items.length; i++) {
+            String node = nodeFor(items[i].getKey());
+            List<Integer> indexes = byNode.get(node);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                byNode.put(node, indexes);
+            }
+            indexes.add(i);
+        }
+        return byNode;
+    }
+
+    /**
+     * Return the items at the given indexes, or the keys alone of all of
+     * them for null indexes.
+     */
+    private static DBItem[] select(DBItem[] items, List<Integer> indexes) {
+        if (indexes == null) {
+            DBItem[] keys = new DBItem[items.length];
+            for (int i = 0; i < items.length; i++) {
+                keys[i] = new DBItem(items[i].getKey());
+            }
+            return keys;
+        }
+        DBItem[] selected = new DBItem[indexes.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = items[indexes.get(i)];
+        }
+        return selected;
+    }
+
+    /**
+     * Send a request to every given node in parallel.
+     *
+     * @param requests request by node
+     * @return response by node
+     * @throws IOException if any of the requests fails
+     */
+    private Map<String, DBResponse> sendAll(Map<String, DBRequest> requests) throws IOException {
+        Map<String, CompletableFuture<DBResponse>> futures =
+                new LinkedHashMap<String, CompletableFuture<DBResponse>>();
+        for (Map.Entry<String, DBRequest> request : requests.entrySet()) {
+            futures.put(request.getKey(), sendAsync(request.getKey(), request.getValue()));
+        }
+        Map<String, DBResponse> responses = new LinkedHashMap<String, DBResponse>();
+        IOException failure = null;
+        for (Map.Entry<String, CompletableFuture<DBResponse>> future : futures.entrySet()) {
+            try {
+                responses.put(future.getKey(), checked(future.getKey(), requests.get(future.getKey()),
+                        DBClientPool.await(future.getValue())));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return responses;
+    }
+
+    /**
+     * Send a request to a node over its pool.
+     *
+     * @param node node to send the request to
+     * @param request request to send
+     * @return response of the node
+     * @throws IOException if the node is not in the cluster, cannot be
+     *                     reached or answers with ERROR
+     */
+    private DBResponse send(String node, DBRequest request) throws IOException {
+        return checked(node, request, DBClientPool.await(sendAsync(node, request)));
+    }
+
+    private CompletableFuture<DBResponse> sendAsync(String node, DBRequest request) {
+        DBClientPool client = clients.get(node);
+        if (client == null) {
+            CompletableFuture<DBResponse> failed = new CompletableFuture<DBResponse>();
+            failed.completeExceptionally(new IOException(node + " is not in the cluster"));
+            return failed;
+        }
+        return client.sendAsync(request);
+    }
+
+    private static DBResponse checked(String node, DBRequest request, DBResponse response) throws IOException {
+        if (Constants.ERROR.equals(response.getResponseStatus())) {
+            throw new ServerErrorException(request.getRequestType() + " failed on " + node);
+        }
+        return response;
+    }
+}
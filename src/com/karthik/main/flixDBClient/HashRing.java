@@ -0,0 +1,123 @@
+package com.karthik.main.flixDBClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys to the nodes of a cluster. Every node
+ * is placed on the ring at VIRTUAL_NODES points per unit of weight, and a
+ * key belongs to the first point at or after its own hash, so nodes get a
+ * share of the keys in proportion to their weight. Adding a node only
+ * takes over keys from the others, and removing one only hands its own
+ * keys over, so about 1/n of the keys move either way.
+ *
+ * The ring is replaced rather than changed when nodes come and go, so
+ * lookups never lock.
+ */
+public final class HashRing {
+    private volatile TreeMap<Long, String> ring = new TreeMap<Long, String>();
+    private volatile Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Points on the ring per unit of weight, as in ketama. The shares of
+     * the nodes typically come within a tenth or so of their weights.
+     */
+    public static final int VIRTUAL_NODES = 160;
+
+    /**
+     * Add a node to the ring, or change its weight.
+     *
+     * @param node name of the node, unique in the cluster
+     * @param weight share of the keys relative to the other nodes
+     */
+    public synchronized void addNode(String node, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight of " + node + " must be positive");
+        }
+        Map<String, Integer> newWeights = new LinkedHashMap<String, Integer>(weights);
+        newWeights.put(node, weight);
+        rebuild(newWeights);
+    }
+
+    /**
+     * Remove a node from the ring. Its keys go to the nodes following its
+     * points.
+     *
+     * @param node name of the node
+     * @return true if the node was on the ring
+     */
+    public synchronized boolean removeNode(String node) {
+        if (!weights.containsKey(node)) {
+            return false;
+        }
+        Map<String, Integer> newWeights = new LinkedHashMap<String, Integer>(weights);
+        newWeights.remove(node);
+        rebuild(newWeights);
+        return true;
+    }
+
+    private void rebuild(Map<String, Integer> newWeights) {
+        TreeMap<Long, String> newRing = new TreeMap<Long, String>();
+        for (Map.Entry<String, Integer> node : newWeights.entrySet()) {
+            int points = node.getValue() * VIRTUAL_NODES;
+            for (int i = 0; i < points; i++) {
+                // On the rare collision the node added first keeps the point
+                long point = hash(node.getKey() + "#" + i);
+                if (!newRing.containsKey(point)) {
+                    newRing.put(point, node.getKey());
+                }
+            }
+        }
+        ring = newRing;
+        weights = newWeights;
+    }
+
+    /**
+     * Return the node the given key belongs to.
+     *
+     * @param key key to look up
+     * @return name of the node, null if the ring is empty
+     */
+    public String nodeFor(String key) {
+        TreeMap<Long, String> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = current.ceilingEntry(hash(key));
+        return point == null ? current.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * @return the nodes on the ring with their weights, in the order they
+     *         were added
+     */
+    public Map<String, Integer> getNodes() {
+        return Collections.unmodifiableMap(weights);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the UTF-8 bytes of the string, with the
+     * finalizer of MurmurHash3 so strings differing only in their last
+     * characters, like the names of the points of a node, spread over the
+     * whole ring.
+     *
+     * @param s string to hash
+     * @return position on the ring
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
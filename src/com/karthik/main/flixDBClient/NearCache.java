@@ -0,0 +1,416 @@
+package com.karthik.main.flixDBClient;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded local cache of the values of a FlixDB server, kept coherent by
+ * the server. Keys missing from the cache are read over a connection to
+ * the invalidation port of the server, which remembers the keys read on it
+ * and sends an invalidation when one of them is written, deleted, expires
+ * or is evicted, so the cached copy is dropped. A hot key costs a round
+ * trip the first time it is read after a write and none after that.
+ * Missing keys are cached too, as missing.
+ *
+ * The cache holds up to a given number of keys, dropping the least
+ * recently used ones, and for at most a given time, which bounds how long
+ * a copy can be served if the server is slow to expire the key.
+ *
+ * A value read at the same time as an invalidation for its key arrives is
+ * not cached, as it may be older. When the connection is lost, the whole
+ * cache is dropped as invalidations may have been missed, and reads go
+ * to the server until it is reconnected, at most every RECONNECT_MILLIS.
+ */
+public class NearCache {
+    private final String server;
+    private final int port;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int timeout;
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, Read> pending = new HashMap<String, Read>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private Channel channel;
+    private long lastConnectAttempt;
+    private boolean closed = false;
+
+    /**
+     * Time to wait before reconnecting to the invalidation port.
+     */
+    static final long RECONNECT_MILLIS = 1000;
+
+    /**
+     * Constructs a NearCache and connects to the invalidation port of the
+     * server.
+     *
+     * @param server host of the server
+     * @param port invalidation port of the server
+     * @param maxEntries largest number of keys cached
+     * @param ttlMillis milliseconds a key is cached for at most, zero for
+     *                  as long as it is not invalidated
+     * @param timeout milliseconds to connect
+     * @throws IOException if the invalidation port cannot be connected to
+     */
+    public NearCache(String server, int port, final int maxEntries, long ttlMillis, int timeout)
+            throws IOException {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("A near cache needs room for at least one key");
+        }
+        this.server = server;
+        this.port = port;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.timeout = timeout;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        synchronized (this) {
+            lastConnectAttempt = System.currentTimeMillis();
+            channel = new Channel();
+        }
+    }
+
+    /**
+     * @return number of reads served from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of reads that went to the server
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of keys cached
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true while connected to the invalidation port
+     */
+    public synchronized boolean isConnected() {
+        return channel != null;
+    }
+
+    /**
+     * Read a key from the cache, or from the server if it is not cached.
+     *
+     * @param key key to read
+     * @return future of the value, null if the key does not exist. The
+     *         future is null itself if the cache is not connected, and the
+     *         key has to be read from the server the usual way
+     */
+    public CompletableFuture<byte[]> getAsync(String key) {
+        Read read;
+        Channel current;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt == 0 || entry.expiresAt > System.currentTimeMillis()) {
+                    hits.increment();
+                    return CompletableFuture.completedFuture(entry.value == null ? null : entry.value.clone());
+                }
+                // Still tracked, as it is about to be read again
+                entries.remove(key);
+            }
+            current = connected();
+            if (current == null) {
+                return null;
+            }
+            misses.increment();
+            read = new Read(key);
+            pending.put(key, read);
+        }
+        current.track(read);
+        return read.future;
+    }
+
+    /**
+     * Drop the cached copy of a key, and keep a read of it in flight from
+     * being cached. Called before and after writing the key, so the
+     * writer reads its own write without waiting for the invalidation.
+     *
+     * @param key key to drop
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+        pending.remove(key);
+    }
+
+    /**
+     * Drop every cached key.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        pending.clear();
+    }
+
+    /**
+     * Drop the cache and disconnect from the invalidation port.
+     */
+    public void close() {
+        Channel current;
+        synchronized (this) {
+            closed = true;
+            current = channel;
+        }
+        if (current != null) {
+            current.fail(new IOException("Near cache closed"));
+        }
+    }
+
+    /**
+     * Return the connection to the invalidation port, reconnecting if it
+     * was lost a while ago. Caller must hold the lock of the cache.
+     *
+     * @return the connection, null if there is none
+     */
+    private Channel connected() {
+        if (channel != null || closed) {
+            return channel;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastConnectAttempt < RECONNECT_MILLIS) {
+            return null;
+        }
+        lastConnectAttempt = now;
+        try {
+            channel = new Channel();
+        } catch (IOException e) {
+            return null;
+        }
+        return channel;
+    }
+
+    /**
+     * Cache the value read unless the key was invalidated meanwhile.
+     *
+     * @return keys dropped to make room, to untrack
+     */
+    private synchronized List<String> cache(Channel from, Read read, byte[] value) {
+        List<String> dropped = new ArrayList<String>();
+        if (from != channel || pending.get(read.key) != read) {
+            return dropped;
+        }
+        pending.remove(read.key);
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+        entries.put(read.key, new Entry(value == null ? null : value.clone(), expiresAt));
+        while (entries.size() > maxEntries) {
+            String eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            dropped.add(eldest);
+        }
+        return dropped;
+    }
+
+    /**
+     * Return the keys dropped from the cache that are not being read again.
+     * Called with the output of the channel locked, so the TRACK of a read
+     * started after this goes out after the UNTRACK of the key, and the
+     * server never stops tracking a key a read is waiting for.
+     */
+    private synchronized List<String> untrackable(List<String> dropped) {
+        List<String> keys = new ArrayList<String>();
+        for (String key : dropped) {
+            if (!pending.containsKey(key) && !entries.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private synchronized void invalidated(Channel from, DBItem[] keys) {
+        if (from != channel) {
+            return;
+        }
+        for (DBItem key : keys) {
+            entries.remove(key.getKey());
+            pending.remove(key.getKey());
+        }
+    }
+
+    private synchronized void lost(Channel from) {
+        if (from == channel) {
+            channel = null;
+            entries.clear();
+            pending.clear();
+        }
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Read of a key sent to the server, waiting for its value.
+     */
+    private static final class Read {
+        final String key;
+        final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+
+        Read(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Connection to the invalidation port, with a thread reading the
+     * values and invalidations the server sends.
+     */
+    private final class Channel {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final Queue<Read> reads = new ConcurrentLinkedQueue<Read>();
+        volatile boolean failed = false;
+
+        Channel() throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(server, port), timeout);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                out = new BufferedOutputStream(socket.getOutputStream());
+                BinaryProtocol.writePreamble(out);
+                out.flush();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop();
+                }
+            }, "flixDB-near-cache");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void track(Read read) {
+            synchronized (out) {
+                if (failed) {
+                    read.future.completeExceptionally(new IOException("Near cache lost the connection"));
+                    return;
+                }
+                // Queued first, so the reply never finds the queue empty
+                reads.add(read);
+                try {
+                    BinaryProtocol.writeRequest(out, new DBRequest(Constants.TRACK,
+                            new DBItem[]{new DBItem(read.key)}));
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        void untrack(List<String> dropped) {
+            if (dropped.isEmpty()) {
+                return;
+            }
+            synchronized (out) {
+                if (failed) {
+                    return;
+                }
+                List<String> keys = untrackable(dropped);
+                if (keys.isEmpty()) {
+                    return;
+                }
+                DBItem[] items = new DBItem[keys.size()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = new DBItem(keys.get(i));
+                }
+                try {
+                    BinaryProtocol.writeRequest(out, new DBRequest(Constants.UNTRACK, items));
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void readLoop() {
+            try {
+                while (!failed) {
+                    DBRequest message = BinaryProtocol.readRequest(in);
+                    if (message == null) {
+                        throw new EOFException("Server closed the invalidation connection");
+                    }
+                    if (Constants.INVALIDATE.equals(message.getRequestType())) {
+                        invalidated(this, message.getItems());
+                    } else if (Constants.MSET.equals(message.getRequestType())) {
+                        Read read = reads.poll();
+                        if (read == null) {
+                            throw new ProtocolException("Value without a read");
+                        }
+                        byte[] value = message.getItems()[0].getValue();
+                        untrack(cache(this, read, value));
+                        read.future.complete(value);
+                    } else {
+                        throw new ProtocolException("Unexpected " + message.getRequestType() + " from the server");
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InvalidRequestException e) {
+                fail(new ProtocolException(e.getMessage()));
+            }
+        }
+
+        /**
+         * Close the connection, drop the cache and fail the reads in
+         * flight on it.
+         */
+        void fail(IOException cause) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            lost(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (out) {
+                Read read;
+                while ((read = reads.poll()) != null) {
+                    read.future.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+}
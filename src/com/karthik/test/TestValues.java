@@ -0,0 +1,21 @@
+package com.karthik.test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversions between the string values the tests write and the bytes the
+ * store and the client carry.
+ */
+public final class TestValues {
+
+    private TestValues() {
+    }
+
+    public static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
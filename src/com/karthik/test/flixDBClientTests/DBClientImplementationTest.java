@@ -4,7 +4,15 @@ import com.karthik.main.flixDB.Constants;
 import com.karthik.main.flixDB.DBItem;
 import com.karthik.main.flixDB.DBRequest;
 import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import com.karthik.main.flixDB.exception.ServerErrorException;
+import com.karthik.main.flixDBClient.DBClient;
 import com.karthik.main.flixDBClient.DBClientImplementation;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
 import static org.junit.Assert.*;
 
 import org.junit.*;
@@ -13,6 +21,10 @@ import org.mockito.Mockito;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Scanner;
+import java.util.Set;
 
 import static org.mockito.Matchers.any;
 
@@ -25,12 +37,11 @@ public class DBClientImplementationTest {
     private static String SERVER = "0.0.0.0";
     private static String VALUE = "BAR";
     private static String KEY = "FOO";
-    private static String OK = "< OK\n";
 
     @Before
     public void setUp() {
         clientImplementation = new DBClientImplementation(SERVER, PORT);
-        dbResponse = new DBResponse("OK", new DBItem[]{new DBItem(KEY, VALUE)});
+        dbResponse = new DBResponse("OK", new DBItem[]{new DBItem(KEY, bytes(VALUE))});
     }
 
     @After
@@ -38,21 +49,20 @@ public class DBClientImplementationTest {
     }
 
     @Test
-    public void setCallsCloseHostInvalidKeyTest() throws IOException, ClassNotFoundException {
+    public void setInvalidKeyIsNotSentTest() throws IOException, ClassNotFoundException {
         //Arrange
-
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(false).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
-        mockClient.set(KEY,VALUE);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(0)).sendRequest(any(DBRequest.class));
-
+        try {
+            mockClient.set(KEY, VALUE);
+            fail("An invalid key should be refused");
+        } catch (InvalidRequestException e) {
+            //Verify
+            Mockito.verify(mockClient, Mockito.times(0)).sendRequest(any(DBRequest.class));
+        }
     }
 
     @Test
@@ -60,279 +70,294 @@ public class DBClientImplementationTest {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-
         ByteArrayOutputStream outContent = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outContent));
 
         //Act
-        mockClient.set(KEY,VALUE);
+        mockClient.set(KEY, VALUE);
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
         Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        assertEquals(OK, outContent.toString());
+        assertEquals("", outContent.toString());
     }
 
-    @Test
+    @Test(expected = ServerErrorException.class)
     public void setHappyErrorCaseTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
         dbResponse.setResponseStatus(Constants.ERROR);
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
-        mockClient.set(KEY,VALUE);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
+        mockClient.set(KEY, VALUE);
     }
 
-    @Test
-    public void setCatchExceptionTest() throws Exception {
+    @Test(expected = IOException.class)
+    public void setPassesOnExceptionTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doThrow(IOException.class).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
-        mockClient.set(KEY,VALUE);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
+        mockClient.set(KEY, VALUE);
     }
 
-    @Test
-    public void getCallsCloseHostInvalidKeyTest() throws IOException, ClassNotFoundException {
+    @Test(expected = InvalidRequestException.class)
+    public void getInvalidKeyIsNotSentTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(false).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
 
         //Act
         mockClient.get(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(0)).sendRequest(any(DBRequest.class));
-
     }
 
     @Test
-    public void getExistingKeyHappyCaseTest() throws IOException, ClassNotFoundException {
+    public void getExistingKeyHappyCaseTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
 
         //Act
-        mockClient.get(KEY);
+        byte[] value = mockClient.get(KEY);
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
         Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        assertEquals("< " + Constants.VALUE + " " + VALUE.length() + "\n< " + VALUE + "\n", outContent.toString());
+        assertEquals(VALUE, string(value));
     }
 
     @Test
-    public void getNonExistingKeyHappyCaseTest() throws IOException, ClassNotFoundException {
+    public void getNonExistingKeyHappyCaseTest() throws Exception {
         //Arrange
-        dbResponse.getItems()[0].setValue("");
+        dbResponse.getItems()[0].setValue(null);
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
 
         //Act
-        mockClient.get(KEY);
+        byte[] value = mockClient.get(KEY);
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
         Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        assertEquals("< " + Constants.VALUE + " 0" + "\n", outContent.toString());
+        assertNull(value);
     }
 
-    @Test
-    public void getHappyErrorCaseTest() throws IOException, ClassNotFoundException {
+    @Test(expected = ServerErrorException.class)
+    public void getHappyErrorCaseTest() throws Exception {
         //Arrange
         dbResponse.setResponseStatus(Constants.ERROR);
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
+
         //Act
         mockClient.get(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
     }
 
-    @Test
-    public void getCatchesExceptionTest() throws IOException, ClassNotFoundException {
+    @Test(expected = IOException.class)
+    public void getPassesOnExceptionTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doThrow(IOException.class).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.get(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
     }
 
-
-    @Test
-    public void deleteCallsCloseHostInvalidKeyTest() throws IOException, ClassNotFoundException {
+    @Test(expected = InvalidRequestException.class)
+    public void deleteInvalidKeyIsNotSentTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(false).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
-        Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.delete(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(0)).sendRequest(any(DBRequest.class));
-
     }
 
     @Test
-    public void deleteExistingKeyHappyCaseTest() throws IOException, ClassNotFoundException {
+    public void deleteExistingKeyHappyCaseTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
 
         //Act
         mockClient.delete(KEY);
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
         Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        assertEquals(OK, outContent.toString());
     }
 
-    @Test
-    public void deleteHappyErrorCaseTest() throws IOException, ClassNotFoundException {
+    @Test(expected = ServerErrorException.class)
+    public void deleteHappyErrorCaseTest() throws Exception {
         //Arrange
         dbResponse.setResponseStatus(Constants.ERROR);
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.delete(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
     }
 
-    @Test
-    public void deleteCatchesExceptionTest() throws IOException, ClassNotFoundException {
+    @Test(expected = IOException.class)
+    public void deletePassesOnExceptionTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
         Mockito.doReturn(true).when(mockClient).verifyKey(Mockito.anyString());
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doThrow(IOException.class).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.delete(KEY);
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
     }
 
     @Test
-    public void streamHappyTest() throws IOException, ClassNotFoundException {
+    public void streamHappyTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
 
         //Act
-        mockClient.stream();
+        DBItem[] items = mockClient.stream();
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
         Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        String expectedOutput = "< " + Constants.KEY + " " + dbResponse.getItems()[0].getKey() + " " + Constants.VALUE + " "
-                + dbResponse.getItems()[0].getValue().length() + "\r\n" + "< " + dbResponse.getItems()[0].getValue() + "\n";
-        assertEquals(expectedOutput, outContent.toString());
+        assertEquals(1, items.length);
+        assertEquals(KEY, items[0].getKey());
+        assertEquals(VALUE, string(items[0].getValue()));
     }
 
     @Test
-    public void streamHappyEmptyStoreTest() throws IOException, ClassNotFoundException {
+    public void streamHappyEmptyStoreTest() throws Exception {
         //Arrange
         dbResponse.setItems(null);
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
-        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outContent));
 
         //Act
-        mockClient.stream();
+        DBItem[] items = mockClient.stream();
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(0)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
-        String expectedOutput = "< " + Constants.EMPTY_STORE + "\n";
-        assertEquals(expectedOutput, outContent.toString());
+        assertEquals(0, items.length);
     }
 
-    @Test
-    public void streamHappyErrorTest() throws IOException, ClassNotFoundException {
+    @Test(expected = ServerErrorException.class)
+    public void streamHappyErrorTest() throws Exception {
         //Arrange
         dbResponse.setResponseStatus(Constants.ERROR);
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doReturn(dbResponse).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.stream();
-
-        //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
     }
 
-    @Test
-    public void streamCatchesExceptionTest() throws IOException, ClassNotFoundException {
+    @Test(expected = IOException.class)
+    public void streamPassesOnExceptionTest() throws Exception {
         //Arrange
         DBClientImplementation mockClient = Mockito.spy(clientImplementation);
-        Mockito.doNothing().when(mockClient).closeHost();
         Mockito.doThrow(IOException.class).when(mockClient).sendRequest(any(DBRequest.class));
 
         //Act
         mockClient.stream();
+    }
+
+    @Test
+    public void replPrintsResultsTest() throws Exception {
+        //Arrange
+        SocketServer server = startServer();
+        DBClientImplementation client = new DBClientImplementation("localhost", server.getPort(), 5000);
+        client.connectHost();
+        Scanner input = new Scanner("SET " + KEY + " 3\n" + VALUE + "\nGET " + KEY + "\nGET missing\n"
+                + "TTL " + KEY + "\nDELETE " + KEY + "\nSTREAM\nGET\nGET " + KEY + "\n");
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+
+        //Act
+        DBClient.repl(client, input, new PrintStream(outContent));
+        server.stop();
 
         //Verify
-        Mockito.verify(mockClient, Mockito.times(1)).closeHost();
-        Mockito.verify(mockClient, Mockito.times(1)).sendRequest(any(DBRequest.class));
+        String expectedOutput = "> > < OK\n"
+                + "> < " + Constants.VALUE + " 3\n< " + VALUE + "\n"
+                + "> < " + Constants.VALUE + " 0\n"
+                + "> < -1\n"
+                + "> < OK\n"
+                + "> < " + Constants.EMPTY_STORE + "\n"
+                + "> < " + Constants.ERROR + "\n";
+        assertEquals(expectedOutput, outContent.toString());
+    }
+
+    private static SocketServer startServer() throws IOException {
+        final SocketServer server = new SocketServer("localhost");
+        server.addHandler(new ServerClientHandler(new DBStore(0), 1));
+        server.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return server;
+    }
+
+    @Test
+    public void sendRequestsPipelinesBeyondTheWindowTest() throws Exception {
+        //Arrange
+        SocketServer server = startServer();
+        DBClientImplementation client = new DBClientImplementation("localhost", server.getPort(), 5000);
+        client.connectHost();
+        int noOfRequests = 4 * DBClientImplementation.PIPELINE_WINDOW;
+        DBRequest[] sets = new DBRequest[noOfRequests];
+        DBRequest[] gets = new DBRequest[noOfRequests];
+        for (int i = 0; i < noOfRequests; i++) {
+            sets[i] = new DBRequest(Constants.SET, new DBItem(KEY + i, bytes(VALUE + i)));
+            gets[i] = new DBRequest(Constants.GET, new DBItem(KEY + i));
+        }
+
+        //Act
+        DBResponse[] setResponses = client.sendRequests(sets);
+        DBResponse[] getResponses = client.sendRequests(gets);
+        server.stop();
+
+        //Verify
+        for (int i = 0; i < noOfRequests; i++) {
+            assertEquals(Constants.OK, setResponses[i].getResponseStatus());
+            assertEquals(VALUE + i, string(getResponses[i].getItems()[0].getValue()));
+        }
+    }
+
+    @Test
+    public void scanIteratorFetchesEveryKeyLazilyTest() throws Exception {
+        //Arrange
+        SocketServer server = startServer();
+        DBClientImplementation client = new DBClientImplementation("localhost", server.getPort(), 5000);
+        client.connectHost();
+        DBItem[] items = new DBItem[25];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new DBItem(KEY + i, bytes(VALUE));
+        }
+        client.sendRequest(new DBRequest(Constants.MSET, items));
+
+        //Act
+        Iterator<DBItem> scan = client.scanIterator(KEY, 4);
+        Set<String> keys = new HashSet<String>();
+        while (scan.hasNext()) {
+            keys.add(scan.next().getKey());
+        }
+        server.stop();
+
+        //Verify
+        assertEquals(25, keys.size());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,295 @@
+package com.karthik.test.flixDBClientTests;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.RequestProcessor;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import com.karthik.main.flixDBClient.DBClientPool;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class DBClientPoolTest {
+    private SocketServer server;
+    private ServerClientHandler handler;
+    private ServerSocket fakeServer;
+    private DBClientPool pool;
+
+    @After
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (fakeServer != null) {
+            fakeServer.close();
+        }
+    }
+
+    @Test
+    public void threadsShareTheConnectionsTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(), 2, 5000, 1000);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            String key = "key" + thread + "-" + i;
+                            pool.set(key, bytes("value" + i));
+                            assertEquals("value" + i, string(pool.get(key)));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+
+        //Act
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        //Verify
+        assertNull(failure.get());
+        assertTrue(pool.getOpenConnections() <= 2);
+        assertEquals(1600, pool.stream().length);
+    }
+
+    @Test
+    public void asyncRequestsArePipelinedTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(), 1, 5000, 1000);
+        List<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 1000; i++) {
+            writes.add(pool.setAsync("key" + i, bytes("value" + i)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get();
+
+        //Act
+        List<CompletableFuture<byte[]>> reads = new ArrayList<CompletableFuture<byte[]>>();
+        for (int i = 0; i < 1000; i++) {
+            reads.add(pool.getAsync("key" + i));
+        }
+        CompletableFuture<byte[]> missing = pool.getAsync("missing");
+        CompletableFuture<Void> deleted = pool.deleteAsync("key0");
+
+        //Verify
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, string(reads.get(i).get()));
+        }
+        assertNull(missing.get());
+        deleted.get();
+        assertNull(pool.get("key0"));
+        assertEquals(1, pool.getOpenConnections());
+    }
+
+    @Test
+    public void oversizedValueKeepsTheConnectionTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(), 1, 5000, 1000);
+        pool.set("key", bytes("value"));
+        CompletableFuture<byte[]> read = pool.getAsync("key");
+
+        //Act
+        try {
+            pool.set("big", new byte[256 * 1024 * 1024]);
+            fail("The value should have been refused");
+        } catch (ProtocolException e) {
+            //Verify
+            assertEquals("value", string(read.get()));
+            assertEquals("value", string(pool.get("key")));
+            assertEquals(1, pool.getOpenConnections());
+        }
+    }
+
+    @Test
+    public void streamIsScannedInChunksTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(new DBStore(0) {
+            @Override
+            public DBItem[] stream() {
+                throw new IllegalStateException("STREAM copies the whole store");
+            }
+        }), 1, 5000, 1000);
+        for (int i = 0; i < 2500; i++) {
+            pool.setAsync("key" + i, bytes("value" + i));
+        }
+        pool.set("last", bytes("value"));
+
+        //Act
+        DBItem[] items = pool.stream();
+
+        //Verify
+        assertEquals(2501, items.length);
+    }
+
+    @Test
+    public void lostConnectionIsReplacedTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startFakeServer(1), 1, 5000, 10000);
+        pool.set("key", bytes("value"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getOpenConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //Act
+        byte[] value = pool.get("key");
+
+        //Verify
+        assertEquals("value", string(value));
+    }
+
+    @Test
+    public void idleConnectionIsPingedTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(), 1, 5000, 50);
+        pool.set("key", bytes("value"));
+
+        //Act
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handler.getMetrics().getRequests() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //Verify
+        assertTrue(handler.getMetrics().getRequests() >= 4);
+        assertEquals(1, pool.getOpenConnections());
+        assertEquals("value", string(pool.get("key")));
+    }
+
+    @Test
+    public void unansweredRequestTimesOutTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startFakeServer(0), 1, 200, 50);
+
+        //Act
+        try {
+            pool.get("key");
+            fail("The request should have timed out");
+        } catch (SocketTimeoutException e) {
+            //Verify
+            assertEquals(0, pool.getOpenConnections());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedPoolFailsRequestsTest() throws Exception {
+        //Arrange
+        pool = new DBClientPool("localhost", startServer(), 1, 5000, 1000);
+
+        //Act
+        pool.close();
+
+        //Verify
+        pool.get("key");
+    }
+
+    private int startServer() throws IOException {
+        return startServer(new DBStore(0));
+    }
+
+    private int startServer(DBStore store) throws IOException {
+        final SocketServer started = new SocketServer("localhost");
+        server = started;
+        handler = new ServerClientHandler(store, 4);
+        server.addHandler(handler);
+        server.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return server.getPort();
+    }
+
+    /**
+     * Start a server answering the given number of requests per connection
+     * before closing it, from a store shared by the connections.
+     */
+    private int startFakeServer(final int answers) throws IOException {
+        fakeServer = new ServerSocket(0);
+        final RequestProcessor processor = new RequestProcessor(new DBStore(0));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = fakeServer.accept();
+                        Thread connection = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket, processor, answers);
+                            }
+                        });
+                        connection.setDaemon(true);
+                        connection.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return fakeServer.getLocalPort();
+    }
+
+    private static void serve(Socket socket, RequestProcessor processor, int answers) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            in.read();
+            in.read();
+            for (int i = 0; i < answers; i++) {
+                DBRequest request = BinaryProtocol.readRequest(in);
+                BinaryProtocol.writeResponse(out, processor.process(request));
+                out.flush();
+            }
+            if (answers == 0) {
+                // Read requests without ever answering them
+                while (in.read() >= 0) {
+                }
+            }
+            socket.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
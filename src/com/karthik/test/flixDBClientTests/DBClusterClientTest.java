@@ -0,0 +1,280 @@
+package com.karthik.test.flixDBClientTests;
+
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import com.karthik.main.flixDBClient.DBClusterClient;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class DBClusterClientTest {
+    private List<SocketServer> servers;
+    private List<DBStore> stores;
+    private DBClusterClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        servers = new ArrayList<SocketServer>();
+        stores = new ArrayList<DBStore>();
+        String[] nodes = new String[3];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = "localhost:" + startServer().getPort();
+        }
+        client = new DBClusterClient(nodes, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        for (SocketServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void keysAreSpreadOverTheNodesTest() throws Exception {
+        //Act
+        for (int i = 0; i < 300; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+
+        //Verify
+        int total = 0;
+        for (DBStore store : stores) {
+            DBItem[] items = store.stream();
+            assertNotNull(items);
+            assertTrue(items.length > 50);
+            total += items.length;
+        }
+        assertEquals(300, total);
+        assertEquals("value7", string(client.get("key7")));
+        assertNull(client.get("missing"));
+    }
+
+    @Test
+    public void batchesAndStreamFanOutTest() throws Exception {
+        //Arrange
+        DBItem[] items = new DBItem[100];
+        String[] keys = new String[101];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new DBItem("key" + i, bytes("value" + i));
+            keys[i] = "key" + i;
+        }
+        keys[100] = "missing";
+
+        //Act
+        client.mset(items);
+        DBItem[] values = client.mget(keys);
+        client.mdelete(new String[]{"key0", "key1"});
+        DBItem[] streamed = client.stream();
+
+        //Verify
+        for (int i = 0; i < items.length; i++) {
+            assertEquals("key" + i, values[i].getKey());
+            assertEquals("value" + i, string(values[i].getValue()));
+        }
+        assertNull(values[100].getValue());
+        assertEquals(98, streamed.length);
+        Set<String> streamedKeys = new HashSet<String>();
+        for (DBItem item : streamed) {
+            streamedKeys.add(item.getKey());
+        }
+        assertFalse(streamedKeys.contains("key0"));
+        assertTrue(streamedKeys.contains("key99"));
+    }
+
+    @Test
+    public void rebalanceMovesKeysToAnAddedNodeTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 400; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+        SocketServer added = startServer();
+        client.addNode("localhost", added.getPort(), 1);
+        client.set("key0", bytes("newer"));
+
+        //Act
+        long moved = client.rebalance();
+
+        //Verify
+        assertTrue(moved > 50 && moved < 200);
+        assertEquals(400, client.stream().length);
+        for (int i = 1; i < 400; i++) {
+            assertEquals("value" + i, string(client.get("key" + i)));
+        }
+        assertEquals("newer", string(client.get("key0")));
+        assertEquals(0, client.rebalance());
+    }
+
+    @Test
+    public void keysDeletedBeforeRebalanceStayDeletedTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 400; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+        SocketServer added = startServer();
+        client.addNode("localhost", added.getPort(), 1);
+
+        //Act
+        for (int i = 0; i < 200; i++) {
+            client.delete("key" + i);
+        }
+        client.mdelete(new String[]{"key200", "key201"});
+        client.rebalance();
+
+        //Verify
+        assertEquals(198, client.stream().length);
+        for (int i = 0; i < 202; i++) {
+            assertNull(client.get("key" + i));
+        }
+    }
+
+    @Test
+    public void writesDuringRebalanceAreKeptTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 2000; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+        SocketServer added = startServer();
+        client.addNode("localhost", added.getPort(), 1);
+        final List<Exception> failures = new ArrayList<Exception>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        if (i % 2 == 0) {
+                            client.set("key" + i, bytes("newer" + i));
+                        } else {
+                            client.delete("key" + i);
+                        }
+                    }
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }
+        });
+
+        //Act
+        writer.start();
+        client.rebalance();
+        writer.join();
+
+        //Verify
+        assertTrue(failures.isEmpty());
+        for (int i = 0; i < 2000; i++) {
+            byte[] value = client.get("key" + i);
+            if (i % 2 == 0) {
+                assertEquals("newer" + i, string(value));
+            } else {
+                assertNull(value);
+            }
+        }
+    }
+
+    @Test
+    public void rebalanceKeepsTheTimeToLiveTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 400; i++) {
+            client.set("key" + i, bytes("value" + i), 60000);
+        }
+        SocketServer added = startServer();
+        client.addNode("localhost", added.getPort(), 1);
+
+        //Act
+        long moved = client.rebalance();
+
+        //Verify
+        DBStore addedStore = stores.get(stores.size() - 1);
+        DBItem[] items = addedStore.stream();
+        assertEquals(moved, items.length);
+        assertTrue(items.length > 50);
+        for (DBItem item : items) {
+            long ttl = addedStore.ttl(item.getKey());
+            assertTrue(ttl > 50000 && ttl <= 60000);
+        }
+    }
+
+    @Test
+    public void removedNodeHandsOverItsKeysTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 100; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+        client.set("expiring", bytes("soon"), 60000);
+        String victim = client.getRing().nodeFor("key0");
+        int colon = victim.lastIndexOf(':');
+
+        //Act
+        long moved = client.removeNode(victim.substring(0, colon), Integer.parseInt(victim.substring(colon + 1)));
+
+        //Verify
+        assertTrue(moved > 10);
+        assertEquals(2, client.getRing().getNodes().size());
+        assertEquals(101, client.stream().length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, string(client.get("key" + i)));
+        }
+        assertEquals("soon", string(client.get("expiring")));
+    }
+
+    @Test
+    public void unreachableNodeIsRemovedAllTheSameTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 100; i++) {
+            client.set("key" + i, bytes("value" + i));
+        }
+        String victim = client.getRing().nodeFor("key0");
+        int colon = victim.lastIndexOf(':');
+        int port = Integer.parseInt(victim.substring(colon + 1));
+        for (SocketServer server : servers) {
+            if (server.getPort() == port) {
+                server.stop();
+            }
+        }
+
+        //Act
+        try {
+            client.removeNode(victim.substring(0, colon), port);
+            fail("The keys of an unreachable node cannot be moved");
+        } catch (IOException expected) {
+        }
+
+        //Verify
+        assertEquals(2, client.getRing().getNodes().size());
+        assertNull(client.get("key0"));
+    }
+
+    private SocketServer startServer() throws IOException {
+        DBStore store = new DBStore(0);
+        final SocketServer server = new SocketServer("localhost");
+        server.addHandler(new ServerClientHandler(store, 4));
+        server.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        servers.add(server);
+        stores.add(store);
+        return server;
+    }
+}
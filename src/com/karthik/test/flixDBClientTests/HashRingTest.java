@@ -0,0 +1,102 @@
+package com.karthik.test.flixDBClientTests;
+
+import com.karthik.main.flixDBClient.HashRing;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class HashRingTest {
+    private static final int KEYS = 100000;
+
+    @Test
+    public void keysSpreadByWeightTest() {
+        //Arrange
+        HashRing ring = new HashRing();
+        ring.addNode("a:1", 1);
+        ring.addNode("b:1", 1);
+        ring.addNode("c:1", 2);
+
+        //Act
+        Map<String, Integer> counts = countKeys(ring);
+
+        //Verify
+        assertEquals(KEYS / 4, counts.get("a:1"), KEYS / 4 * 0.2);
+        assertEquals(KEYS / 4, counts.get("b:1"), KEYS / 4 * 0.2);
+        assertEquals(KEYS / 2, counts.get("c:1"), KEYS / 2 * 0.2);
+    }
+
+    @Test
+    public void addingANodeOnlyMovesKeysToItTest() {
+        //Arrange
+        HashRing ring = new HashRing();
+        ring.addNode("a:1", 1);
+        ring.addNode("b:1", 1);
+        ring.addNode("c:1", 1);
+        String[] before = owners(ring);
+
+        //Act
+        ring.addNode("d:1", 1);
+        String[] after = owners(ring);
+
+        //Verify
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(after[i])) {
+                assertEquals("d:1", after[i]);
+                moved++;
+            }
+        }
+        assertEquals(KEYS / 4, moved, KEYS / 4 * 0.2);
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsKeysTest() {
+        //Arrange
+        HashRing ring = new HashRing();
+        ring.addNode("a:1", 1);
+        ring.addNode("b:1", 1);
+        ring.addNode("c:1", 1);
+        String[] before = owners(ring);
+
+        //Act
+        assertTrue(ring.removeNode("b:1"));
+        String[] after = owners(ring);
+
+        //Verify
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals("b:1")) {
+                assertEquals(before[i], after[i]);
+            } else {
+                assertNotEquals("b:1", after[i]);
+            }
+        }
+        assertFalse(ring.removeNode("b:1"));
+    }
+
+    @Test
+    public void emptyRingHasNoNodeTest() {
+        //Act & Verify
+        assertNull(new HashRing().nodeFor("foo"));
+    }
+
+    private static String[] owners(HashRing ring) {
+        String[] owners = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            owners[i] = ring.nodeFor("key" + i);
+        }
+        return owners;
+    }
+
+    private static Map<String, Integer> countKeys(HashRing ring) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String node : owners(ring)) {
+            Integer count = counts.get(node);
+            counts.put(node, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,302 @@
+package com.karthik.test.flixDBClientTests;
+
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.InvalidationServer;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import com.karthik.main.flixDBClient.DBClientPool;
+import com.karthik.main.flixDBClient.NearCache;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+
+public class NearCacheTest {
+    private DBStore store;
+    private SocketServer server;
+    private InvalidationServer invalidationServer;
+    private NearCache cache;
+    private DBClientPool pool;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (invalidationServer != null) {
+            invalidationServer.stop();
+        }
+    }
+
+    @Test
+    public void repeatedReadsAreServedLocallyTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        store.set("key", bytes("value"));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+
+        //Act
+        String first = string(cache.getAsync("key").get());
+        String second = string(cache.getAsync("key").get());
+        byte[] missing = cache.getAsync("missing").get();
+        byte[] missingAgain = cache.getAsync("missing").get();
+
+        //Verify
+        assertEquals("value", first);
+        assertEquals("value", second);
+        assertNull(missing);
+        assertNull(missingAgain);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, invalidationServer.getTrackedKeys());
+    }
+
+    @Test
+    public void writeInvalidatesCachedKeyTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        store.set("key", bytes("value"));
+        store.set("other", bytes("value"));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+        cache.getAsync("key").get();
+        cache.getAsync("other").get();
+        cache.getAsync("missing").get();
+
+        //Act
+        store.set("key", bytes("changed"));
+        store.delete("other");
+        store.set("missing", bytes("created"));
+
+        //Verify
+        waitForSize(0);
+        assertEquals("changed", string(cache.getAsync("key").get()));
+        assertNull(cache.getAsync("other").get());
+        assertEquals("created", string(cache.getAsync("missing").get()));
+        assertEquals(6, cache.getMisses());
+    }
+
+    @Test
+    public void evictionInvalidatesCachedKeyTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(600));
+        store.set("key1", bytes("value1"));
+        store.set("key2", bytes("value2"));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+        cache.getAsync("key1").get();
+        cache.getAsync("key2").get();
+
+        //Act
+        store.set("key3", bytes("value3"));
+
+        //Verify
+        waitForSize(1);
+        assertNull(cache.getAsync("key1").get());
+        assertEquals("value2", string(cache.getAsync("key2").get()));
+    }
+
+    @Test
+    public void expiryInvalidatesCachedKeyTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        store.set("key", bytes("value"), 100);
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+        cache.getAsync("key").get();
+        Thread.sleep(200);
+
+        //Act
+        store.getAll(new String[]{"key"});
+
+        //Verify
+        waitForSize(0);
+        assertNull(cache.getAsync("key").get());
+    }
+
+    @Test
+    public void leastRecentlyUsedKeysAreDroppedTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 10, 0, 1000);
+        for (int i = 0; i < 20; i++) {
+            store.set("key" + i, bytes("value" + i));
+        }
+
+        //Act
+        for (int i = 0; i < 20; i++) {
+            cache.getAsync("key" + i).get();
+            cache.getAsync("key0").get();
+        }
+
+        //Verify
+        assertEquals(10, cache.size());
+        long misses = cache.getMisses();
+        assertEquals("value0", string(cache.getAsync("key0").get()));
+        assertEquals("value19", string(cache.getAsync("key19").get()));
+        assertEquals(misses, cache.getMisses());
+        assertEquals("value1", string(cache.getAsync("key1").get()));
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void trackingTableLimitInvalidatesDroppedKeysTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0), 10);
+        for (int i = 0; i < 20; i++) {
+            store.set("key" + i, bytes("value" + i));
+        }
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+
+        //Act
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value" + i, string(cache.getAsync("key" + i).get()));
+        }
+
+        //Verify
+        waitForSize(10);
+        assertEquals(10, invalidationServer.getTrackedKeys());
+        for (int i = 0; i < 20; i++) {
+            store.set("key" + i, bytes("changed" + i));
+        }
+        waitForSize(0);
+        assertEquals(0, invalidationServer.getTrackedKeys());
+        assertEquals("changed19", string(cache.getAsync("key19").get()));
+    }
+
+    @Test
+    public void keyReadAgainWhileDroppedStaysCoherentTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 1, 0, 1000);
+        store.set("key0", bytes("value"));
+        store.set("key1", bytes("value"));
+
+        for (int round = 0; round < 200; round++) {
+            cache.getAsync("key0").get();
+            long misses = cache.getMisses();
+
+            //Act
+            CompletableFuture<byte[]> other = cache.getAsync("key1");
+            CompletableFuture<byte[]> again = cache.getAsync("key0");
+            while (cache.getMisses() == misses + 1) {
+                again = cache.getAsync("key0");
+            }
+            other.get();
+            again.get();
+            store.set("key0", bytes("changed" + round));
+
+            //Verify
+            long deadline = System.currentTimeMillis() + 2000;
+            String value = string(cache.getAsync("key0").get());
+            while (!("changed" + round).equals(value) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                value = string(cache.getAsync("key0").get());
+            }
+            assertEquals("changed" + round, value);
+        }
+    }
+
+    @Test
+    public void cachedKeyExpiresLocallyTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        store.set("key", bytes("value"));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 100, 1000);
+        cache.getAsync("key").get();
+
+        //Act
+        Thread.sleep(200);
+        cache.getAsync("key").get();
+
+        //Verify
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void lostConnectionDropsCacheTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        store.set("key", bytes("value"));
+        cache = new NearCache("localhost", invalidationServer.getPort(), 100, 0, 1000);
+        cache.getAsync("key").get();
+
+        //Act
+        invalidationServer.stop();
+
+        //Verify
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(cache.isConnected());
+        assertEquals(0, cache.size());
+        assertNull(cache.getAsync("key"));
+    }
+
+    @Test
+    public void poolReadsItsOwnWritesTest() throws Exception {
+        //Arrange
+        startServer(new DBStore(0));
+        pool = new DBClientPool("localhost", server.getPort(), 2, 5000, 1000);
+        pool.enableNearCache(invalidationServer.getPort(), 100, 0);
+        pool.set("key", bytes("value"));
+        assertEquals("value", string(pool.get("key")));
+
+        //Act & Verify
+        for (int i = 0; i < 100; i++) {
+            pool.set("key", bytes("value" + i));
+            assertEquals("value" + i, string(pool.get("key")));
+        }
+        pool.delete("key");
+        assertNull(pool.get("key"));
+        // Once the invalidation of the delete is in, the miss is cached
+        assertNull(pool.get("key"));
+        assertNull(pool.get("key"));
+        assertTrue(pool.getNearCache().getHits() > 0);
+    }
+
+    private void startServer(DBStore dbStore) throws IOException {
+        startServer(dbStore, 0);
+    }
+
+    private void startServer(DBStore dbStore, int maxTrackedKeys) throws IOException {
+        store = dbStore;
+        invalidationServer = new InvalidationServer(0, maxTrackedKeys);
+        store.setInvalidationListener(invalidationServer);
+        invalidationServer.start(store);
+        final SocketServer started = new SocketServer("localhost");
+        started.addHandler(new ServerClientHandler(store, 4));
+        started.connect();
+        server = started;
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    private void waitForSize(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, cache.size());
+    }
+}
@@ -0,0 +1,234 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.AppendOnlyLog;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.PersistentStore;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+
+
+public class AppendOnlyLogTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("flixDB", ".aof");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void replayRestoresWritesTest() throws Exception {
+        //Arrange
+        PersistentStore store = new PersistentStore(new DBStore(10000),
+                new AppendOnlyLog(file, AppendOnlyLog.INTERVAL, 1000));
+        store.set("foo", bytes("bar"));
+        store.set("foo", bytes("baz"));
+        store.set("gone", bytes("soon"));
+        store.delete("gone");
+        store.setAll(new DBItem[]{new DBItem("a", bytes("1")), new DBItem("b", bytes("2"))});
+        store.deleteAll(new String[]{"b", "missing"});
+        store.getLog().close();
+        DBStore restored = new DBStore(10000);
+
+        //Act
+        long replayed = AppendOnlyLog.replay(file, restored);
+
+        //Verify
+        assertEquals(6, replayed);
+        assertEquals("baz", string(restored.get("foo")));
+        assertEquals("1", string(restored.get("a")));
+        try {
+            restored.get("gone");
+            fail("Deleted key was restored");
+        } catch (ItemNotFoundException expected) {
+        }
+        try {
+            restored.get("b");
+            fail("Deleted key was restored");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void replayTruncatesTornRecordTest() throws Exception {
+        //Arrange
+        AppendOnlyLog log = new AppendOnlyLog(file, AppendOnlyLog.OS, 0);
+        PersistentStore store = new PersistentStore(new DBStore(10000), log);
+        store.set("foo", bytes("bar"));
+        store.getLog().close();
+        long complete = file.length();
+        store = new PersistentStore(new DBStore(10000), new AppendOnlyLog(file, AppendOnlyLog.OS, 0));
+        store.set("torn", bytes("record"));
+        store.getLog().close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+        DBStore restored = new DBStore(10000);
+
+        //Act
+        long replayed = AppendOnlyLog.replay(file, restored);
+
+        //Verify
+        assertEquals(1, replayed);
+        assertEquals("bar", string(restored.get("foo")));
+        assertEquals(complete, file.length());
+    }
+
+    @Test
+    public void replayFailsOnCorruptRecordTest() throws Exception {
+        //Arrange
+        PersistentStore store = new PersistentStore(new DBStore(10000),
+                new AppendOnlyLog(file, AppendOnlyLog.OS, 0));
+        store.set("foo", bytes("bar"));
+        store.set("later", bytes("write"));
+        store.getLog().close();
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // Opcode of the first record, after the preamble and its length
+        raf.seek(3);
+        raf.write(0x7f);
+        raf.close();
+
+        //Act
+        try {
+            AppendOnlyLog.replay(file, new DBStore(10000));
+            fail("A corrupt record was replayed");
+        } catch (IOException expected) {
+            //Verify
+            assertEquals(length, file.length());
+        }
+    }
+
+    @Test
+    public void refusedWriteIsNotLoggedTest() throws Exception {
+        //Arrange
+        PersistentStore store = new PersistentStore(refusingStore(),
+                new AppendOnlyLog(file, AppendOnlyLog.OS, 0));
+        store.set("foo", bytes("bar"));
+
+        //Act
+        try {
+            store.set("refused", bytes("value"));
+            fail("The store should have refused the write");
+        } catch (IllegalArgumentException expected) {
+        }
+        store.getLog().close();
+        DBStore restored = new DBStore(10000);
+        long replayed = AppendOnlyLog.replay(file, restored);
+
+        //Verify
+        assertEquals(1, replayed);
+        assertEquals("bar", string(restored.get("foo")));
+    }
+
+    @Test
+    public void replaySkipsRecordsTheStoreRefusesTest() throws Exception {
+        //Arrange
+        PersistentStore store = new PersistentStore(new DBStore(10000),
+                new AppendOnlyLog(file, AppendOnlyLog.OS, 0));
+        store.set("refused", bytes("value"));
+        store.set("foo", bytes("bar"));
+        store.getLog().close();
+        DBStore restored = refusingStore();
+
+        //Act
+        long replayed = AppendOnlyLog.replay(file, restored);
+
+        //Verify
+        assertEquals(1, replayed);
+        assertEquals("bar", string(restored.get("foo")));
+    }
+
+    /**
+     * Store refusing the key "refused", as a storage engine refuses a
+     * value too large for it.
+     */
+    private static DBStore refusingStore() {
+        return new DBStore(10000) {
+            @Override
+            public void set(String key, byte[] value) {
+                if ("refused".equals(key)) {
+                    throw new IllegalArgumentException("Refused " + key);
+                }
+                super.set(key, value);
+            }
+        };
+    }
+
+    @Test
+    public void alwaysPolicyLogsConcurrentWritesTest() throws Exception {
+        //Arrange
+        final PersistentStore store = new PersistentStore(new DBStore(0),
+                new AppendOnlyLog(file, AppendOnlyLog.ALWAYS, 0));
+        final int threads = 8;
+        final int writes = 100;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        //Act
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < writes; i++) {
+                        store.set("key" + thread + "-" + i, bytes("value" + i));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        long durable = store.getLog().size();
+        store.getLog().close();
+        DBStore restored = new DBStore(0);
+
+        //Verify
+        assertEquals(durable, file.length());
+        assertEquals(threads * writes, AppendOnlyLog.replay(file, restored));
+        assertEquals("value" + (writes - 1), string(restored.get("key" + (threads - 1) + "-" + (writes - 1))));
+    }
+
+    @Test
+    public void replayKeepsExpiryTimesTest() throws Exception {
+        //Arrange
+        PersistentStore store = new PersistentStore(new DBStore(10000),
+                new AppendOnlyLog(file, AppendOnlyLog.INTERVAL, 1000));
+        store.set("foo", bytes("bar"), 60000);
+        store.set("gone", bytes("soon"));
+        store.set("gone", bytes("soon"), 20);
+        store.set("kept", bytes("forever"), 60000);
+        store.persist("kept");
+        store.getLog().close();
+        Thread.sleep(50);
+        DBStore restored = new DBStore(10000);
+
+        //Act
+        long replayed = AppendOnlyLog.replay(file, restored);
+
+        //Verify
+        assertEquals(5, replayed);
+        long ttl = restored.ttl("foo");
+        assertTrue(ttl > 0 && ttl <= 60000);
+        assertEquals(DBStore.NO_EXPIRY, restored.ttl("kept"));
+        try {
+            restored.get("gone");
+            fail("Expired key was restored");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
+}
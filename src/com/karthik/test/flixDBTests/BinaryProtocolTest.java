@@ -0,0 +1,196 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+
+public class BinaryProtocolTest {
+    public static String KEY = "foo";
+    public static String VALUE = "b\u00e4r \u2603";
+
+    @Test
+    public void setRequestRoundTripTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //Act
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem(KEY, bytes(VALUE))));
+        DBRequest request = BinaryProtocol.readRequest(new ByteArrayInputStream(out.toByteArray()));
+
+        //Verify
+        assertEquals(Constants.SET, request.getRequestType());
+        assertEquals(KEY, request.getItem().getKey());
+        assertEquals(VALUE, string(request.getItem().getValue()));
+    }
+
+    @Test
+    public void getRequestIsMuchSmallerThanJavaSerializationTest() throws Exception {
+        //Arrange
+        DBRequest request = new DBRequest(Constants.GET, new DBItem(KEY));
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+
+        //Act
+        BinaryProtocol.writeRequest(binary, request);
+        ObjectOutputStream oos = new ObjectOutputStream(serialized);
+        oos.writeObject(request);
+        oos.flush();
+
+        //Verify
+        assertEquals(6, binary.size());
+        assertTrue(serialized.size() > 10 * binary.size());
+    }
+
+    @Test
+    public void responseRoundTripKeepsNullValuesTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DBItem[] items = new DBItem[]{new DBItem(KEY, bytes(VALUE)), new DBItem(KEY, null)};
+
+        //Act
+        BinaryProtocol.writeResponse(out, new DBResponse(Constants.OK, items));
+        DBResponse response = BinaryProtocol.readResponse(new ByteArrayInputStream(out.toByteArray()));
+
+        //Verify
+        assertEquals(Constants.OK, response.getResponseStatus());
+        assertEquals(2, response.getItems().length);
+        assertEquals(VALUE, string(response.getItems()[0].getValue()));
+        assertNull(response.getItems()[1].getValue());
+    }
+
+    @Test
+    public void emptyResponseRoundTripTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //Act
+        BinaryProtocol.writeResponse(out, new DBResponse(Constants.ERROR));
+        DBResponse response = BinaryProtocol.readResponse(new ByteArrayInputStream(out.toByteArray()));
+
+        //Verify
+        assertEquals(Constants.ERROR, response.getResponseStatus());
+        assertNull(response.getItems());
+    }
+
+    @Test
+    public void readRequestReturnsNullAtEndOfStreamTest() throws Exception {
+        //Act & Verify
+        assertNull(BinaryProtocol.readRequest(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void unknownOpcodeThrowsTest() throws Exception {
+        //Act & Verify
+        BinaryProtocol.readRequest(new ByteArrayInputStream(new byte[]{1, 99}));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFrameThrowsTest() throws Exception {
+        //Act & Verify
+        BinaryProtocol.readRequest(new ByteArrayInputStream(new byte[]{5, 1, 4}));
+    }
+
+    @Test
+    public void batchRequestRoundTripTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DBItem[] items = new DBItem[]{new DBItem(KEY, bytes(VALUE)), new DBItem(KEY + 1, bytes(""))};
+
+        //Act
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.MSET, items));
+        DBRequest request = BinaryProtocol.readRequest(new ByteArrayInputStream(out.toByteArray()));
+
+        //Verify
+        assertEquals(Constants.MSET, request.getRequestType());
+        assertEquals(2, request.getItems().length);
+        assertEquals(VALUE, string(request.getItems()[0].getValue()));
+        assertEquals(KEY + 1, request.getItems()[1].getKey());
+        assertEquals("", string(request.getItems()[1].getValue()));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void batchCountLargerThanFrameThrowsTest() throws Exception {
+        //Act & Verify
+        BinaryProtocol.readRequest(new ByteArrayInputStream(new byte[]{3, 5, (byte) 0xff, 0x7f}));
+    }
+
+    @Test
+    public void scanRoundTripCarriesCursorTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DBResponse chunk = new DBResponse(Constants.OK, new DBItem[]{new DBItem(KEY, bytes(VALUE))});
+        chunk.setCursor(-7L);
+
+        //Act
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SCAN, Long.MIN_VALUE, 50, KEY));
+        BinaryProtocol.writeResponse(out, chunk);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        DBRequest request = BinaryProtocol.readRequest(in);
+        DBResponse response = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(Constants.SCAN, request.getRequestType());
+        assertEquals(Long.MIN_VALUE, request.getCursor());
+        assertEquals(50, request.getCount());
+        assertEquals(KEY, request.getPrefix());
+        assertEquals(Constants.OK, response.getResponseStatus());
+        assertEquals(-7L, response.getCursor());
+        assertEquals(VALUE, string(response.getItems()[0].getValue()));
+    }
+
+    @Test
+    public void binaryValuePassesThroughUnchangedTest() throws Exception {
+        //Arrange
+        byte[] value = {(byte) 0xff, 0, (byte) 0xc3, (byte) 0x28, (byte) 0x80};
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        //Act
+        BinaryProtocol.writeRequest(request, new DBRequest(Constants.SET, new DBItem(KEY, value)));
+        DBRequest decodedRequest = BinaryProtocol.readRequest(new ByteArrayInputStream(request.toByteArray()));
+        BinaryProtocol.writeResponse(response, new DBResponse(Constants.OK, new DBItem[]{new DBItem(KEY, value)}));
+        DBResponse decodedResponse = BinaryProtocol.readResponse(new ByteArrayInputStream(response.toByteArray()));
+
+        //Verify
+        assertArrayEquals(value, decodedRequest.getItem().getValue());
+        assertArrayEquals(value, decodedResponse.getItems()[0].getValue());
+    }
+
+    @Test
+    public void expiringSetRoundTripTest() throws Exception {
+        //Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //Act
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SETEX, new DBItem(KEY, bytes(VALUE)), 1500));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SETEXAT, new DBItem(KEY, bytes(VALUE), 42L)));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.TTL, new DBItem(KEY)));
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        DBRequest setEx = BinaryProtocol.readRequest(in);
+        DBRequest setExAt = BinaryProtocol.readRequest(in);
+        DBRequest ttl = BinaryProtocol.readRequest(in);
+
+        //Verify
+        assertEquals(Constants.SETEX, setEx.getRequestType());
+        assertEquals(VALUE, string(setEx.getItem().getValue()));
+        assertEquals(1500, setEx.getTtl());
+        assertEquals(Constants.SETEXAT, setExAt.getRequestType());
+        assertEquals(42L, setExAt.getItem().getExpiresAt());
+        assertEquals(Constants.TTL, ttl.getRequestType());
+        assertEquals(KEY, ttl.getItem().getKey());
+    }
+}
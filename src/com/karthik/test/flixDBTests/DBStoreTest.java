@@ -2,11 +2,25 @@ package com.karthik.test.flixDBTests;
 
 import com.karthik.main.flixDB.DBItem;
 import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.InvalidationListener;
+import com.karthik.main.flixDB.ScanResult;
+import com.karthik.main.flixDB.exception.InvalidRequestException;
 import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
 import static org.junit.Assert.*;
 
 import org.junit.*;
 
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
 
 public class DBStoreTest {
     DBStore dbStore;
@@ -30,37 +44,37 @@ public class DBStoreTest {
     @Test
     public void setValueToKeyTest() throws ItemNotFoundException {
         //Act
-        dbStore.set(KEY1,VALUE1);
+        dbStore.set(KEY1,bytes(VALUE1));
 
         //Verify
-        String value = dbStore.get(KEY1);
+        String value = string(dbStore.get(KEY1));
         assertEquals(VALUE1, value);
     }
 
     @Test
     public void updateValueToKeyTest() throws ItemNotFoundException {
         //Act
-        dbStore.set(KEY1,VALUE1);
+        dbStore.set(KEY1,bytes(VALUE1));
 
         //Verify
-        String value = dbStore.get(KEY1);
+        String value = string(dbStore.get(KEY1));
         assertEquals(VALUE1, value);
 
         //Act
-        dbStore.set(KEY1,VALUE2);
+        dbStore.set(KEY1,bytes(VALUE2));
 
         //Verify
-        value = dbStore.get(KEY1);
+        value = string(dbStore.get(KEY1));
         assertEquals(VALUE2, value);
     }
 
     @Test
     public void getExistingKeyTest() throws ItemNotFoundException {
         //Arrange
-        dbStore.set(KEY1, VALUE1);
+        dbStore.set(KEY1, bytes(VALUE1));
 
         //Act
-        String value = dbStore.get(KEY1);
+        String value = string(dbStore.get(KEY1));
 
         //Verify
         assertEquals(VALUE1, value);
@@ -77,8 +91,8 @@ public class DBStoreTest {
     public void deleteEntryOnLRUTest1() throws ItemNotFoundException{
         //Arrange
         dbStore = new DBStore(300);
-        dbStore.set(KEY1, VALUE1);
-        dbStore.set(KEY2, VALUE2);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
 
         //Act & Verify
         dbStore.get(KEY1);
@@ -88,22 +102,22 @@ public class DBStoreTest {
     public void deleteEntryOnLRUTest2() throws ItemNotFoundException{
         //Arrange
         dbStore = new DBStore(600);
-        dbStore.set(KEY1, VALUE1);
-        dbStore.set(KEY2, VALUE2);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
         dbStore.get(KEY1);
-        dbStore.set(KEY3, VALUE3);
+        dbStore.set(KEY3, bytes(VALUE3));
 
         //Act & Verify
-        assertEquals(dbStore.get(KEY1), VALUE1);
-        assertEquals(dbStore.get(KEY3), VALUE3);
+        assertEquals(string(dbStore.get(KEY1)), VALUE1);
+        assertEquals(string(dbStore.get(KEY3)), VALUE3);
         dbStore.get(KEY2);
     }
 
     @Test(expected = ItemNotFoundException.class)
     public void deleteTest() throws ItemNotFoundException {
         //Arrange & Verify
-        dbStore.set(KEY1, VALUE1);
-        assertEquals(dbStore.get(KEY1), VALUE1);
+        dbStore.set(KEY1, bytes(VALUE1));
+        assertEquals(string(dbStore.get(KEY1)), VALUE1);
 
         //Act
         dbStore.delete(KEY1);
@@ -115,20 +129,40 @@ public class DBStoreTest {
     @Test
     public void streamTest() {
         //Arrange
-        dbStore.set(KEY1, VALUE1);
-        dbStore.set(KEY2, VALUE2);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
         DBItem[] items = new DBItem[2];
-        items[0] = new DBItem(KEY2, VALUE2);
-        items[1] = new DBItem(KEY1, VALUE1);
+        items[0] = new DBItem(KEY2, bytes(VALUE2));
+        items[1] = new DBItem(KEY1, bytes(VALUE1));
 
         //Act
         DBItem[] retrievedItems = dbStore.stream();
 
         //Verify
         assertEquals(retrievedItems[0].getKey(), KEY2);
-        assertEquals(retrievedItems[0].getValue(), VALUE2);
+        assertEquals(string(retrievedItems[0].getValue()), VALUE2);
         assertEquals(retrievedItems[1].getKey(), KEY1);
-        assertEquals(retrievedItems[1].getValue(), VALUE1);
+        assertEquals(string(retrievedItems[1].getValue()), VALUE1);
+    }
+
+    @Test
+    public void leastRecentFirstReadsValuesAsItGoesTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.set(KEY3, bytes(VALUE3));
+        Iterator<DBItem> items = dbStore.leastRecentFirst();
+
+        //Act
+        dbStore.set(KEY2, bytes(VALUE1));
+
+        //Verify
+        assertEquals(KEY1, items.next().getKey());
+        DBItem updated = items.next();
+        assertEquals(KEY2, updated.getKey());
+        assertEquals(VALUE1, string(updated.getValue()));
+        assertEquals(KEY3, items.next().getKey());
+        assertFalse(items.hasNext());
     }
 
     @Test
@@ -137,16 +171,565 @@ public class DBStoreTest {
         assertNull(dbStore.stream());
     }
 
+    @Test
+    public void memoryUsedTracksSetUpdateAndDeleteTest() throws ItemNotFoundException {
+        //Arrange
+        long emptyStore = dbStore.getMemoryUsed();
+
+        //Act
+        dbStore.set(KEY1, bytes(VALUE1));
+        long oneEntry = dbStore.getMemoryUsed();
+        dbStore.set(KEY1, bytes(VALUE1 + VALUE1 + VALUE1));
+        long updatedEntry = dbStore.getMemoryUsed();
+        dbStore.delete(KEY1);
+
+        //Verify
+        assertTrue(oneEntry > emptyStore);
+        assertTrue(updatedEntry > oneEntry);
+        assertEquals(emptyStore, dbStore.getMemoryUsed());
+    }
+
+    @Test(expected = ItemNotFoundException.class)
+    public void sampledEvictionRemovesLeastRecentlyUsedTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(600, DBStore.SAMPLED_LRU, 16);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.get(KEY1);
+        dbStore.set(KEY3, bytes(VALUE3));
+
+        //Act & Verify
+        assertEquals(string(dbStore.get(KEY1)), VALUE1);
+        assertEquals(string(dbStore.get(KEY3)), VALUE3);
+        dbStore.get(KEY2);
+    }
+
+    @Test
+    public void sampledEvictionStreamTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(1000, DBStore.SAMPLED_LRU, DBStore.DEFAULT_EVICTION_SAMPLES);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.get(KEY1);
+
+        //Act
+        DBItem[] retrievedItems = dbStore.stream();
+
+        //Verify
+        assertEquals(2, retrievedItems.length);
+        assertEquals(KEY1, retrievedItems[0].getKey());
+        assertEquals(KEY2, retrievedItems[1].getKey());
+    }
+
     @Test
     public void setVariableLengthEntriesTest() throws ItemNotFoundException {
         // Test various string len here to check memory consumption
         String key = "TestKey";
         String val = "TestValue";
 
-        dbStore.set(key, val);
-        assertEquals(val,dbStore.get(key));
+        dbStore.set(key, bytes(val));
+        assertEquals(val,string(dbStore.get(key)));
+
+    }
+
+
+
+    @Test
+    public void setAllThenGetAllTest() {
+        //Arrange
+        dbStore.setAll(new DBItem[]{new DBItem(KEY1, bytes(VALUE1)), new DBItem(KEY2, bytes(VALUE2))});
+
+        //Act
+        DBItem[] items = dbStore.getAll(new String[]{KEY2, KEY3, KEY1});
+
+        //Verify
+        assertEquals(3, items.length);
+        assertEquals(VALUE2, string(items[0].getValue()));
+        assertEquals(KEY3, items[1].getKey());
+        assertNull(items[1].getValue());
+        assertEquals(VALUE1, string(items[2].getValue()));
+        assertEquals(1, dbStore.getMisses());
+    }
+
+    @Test
+    public void setAllEvictsOnceForTheWholeBatchTest() {
+        //Arrange
+        dbStore = new DBStore(600);
+        dbStore.set(KEY1, bytes(VALUE1));
+
+        //Act
+        dbStore.setAll(new DBItem[]{new DBItem(KEY2, bytes(VALUE2)), new DBItem(KEY3, bytes(VALUE3))});
+
+        //Verify
+        DBItem[] items = dbStore.stream();
+        assertEquals(2, items.length);
+        assertEquals(KEY3, items[0].getKey());
+        assertEquals(KEY2, items[1].getKey());
+        assertTrue(dbStore.getMemoryUsed() <= 600);
+    }
+
+    @Test
+    public void deleteAllReportsMissingKeysTest() {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        long emptyStoreMemory = new DBStore(1000).getMemoryUsed();
+
+        //Act
+        boolean[] deleted = dbStore.deleteAll(new String[]{KEY1, KEY3, KEY2});
+
+        //Verify
+        assertArrayEquals(new boolean[]{true, false, true}, deleted);
+        assertNull(dbStore.stream());
+        assertEquals(emptyStoreMemory, dbStore.getMemoryUsed());
+    }
+
+    @Test
+    public void scanReturnsEveryKeyOnceInChunksTest() throws InvalidRequestException {
+        //Arrange
+        dbStore = new DBStore(0);
+        for (int i = 0; i < 250; i++) {
+            dbStore.set(KEY1 + i, bytes(VALUE1 + i));
+            dbStore.set(KEY2 + "-" + i, bytes(VALUE2));
+        }
+        Set<String> keys = new HashSet<String>();
+        int chunks = 0;
+
+        //Act
+        long cursor = 0;
+        do {
+            ScanResult result = dbStore.scan(cursor, 100, KEY1);
+            for (DBItem item : result.getItems()) {
+                assertTrue(item.getKey().startsWith(KEY1));
+                assertTrue(keys.add(item.getKey()));
+            }
+            assertTrue(result.getItems().length <= 100);
+            cursor = result.getCursor();
+            chunks++;
+        } while (cursor != 0);
+
+        //Verify
+        assertEquals(500, keys.size());
+        assertTrue(chunks >= 5);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void scanWithUnknownCursorThrowsTest() throws InvalidRequestException {
+        //Act & Verify
+        dbStore.scan(42, 10, null);
+    }
+
+    @Test
+    public void offHeapStorageRoundTripsValuesTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.OFF_HEAP);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+
+        //Act
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes("\u00fcber \u2603"));
+        dbStore.set(KEY3, bytes(large.toString()));
+        dbStore.set(KEY1, bytes(VALUE1 + VALUE1));
+        dbStore.set("null", null);
+
+        //Verify
+        assertEquals(VALUE1 + VALUE1, string(dbStore.get(KEY1)));
+        assertEquals("\u00fcber \u2603", string(dbStore.get(KEY2)));
+        assertEquals(large.toString(), string(dbStore.get(KEY3)));
+        assertNull(dbStore.get("null"));
+        assertEquals(4, dbStore.stream().length);
+    }
+
+    @Test
+    public void offHeapStorageChargesBlocksAndEvictsTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(20000, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.OFF_HEAP);
+        long emptyStore = dbStore.getMemoryUsed();
+        dbStore.set(KEY1, bytes(VALUE1));
+        long oneEntry = dbStore.getMemoryUsed();
+
+        //Act
+        for (int i = 0; i < 1000; i++) {
+            dbStore.set(KEY2 + i, bytes(VALUE2 + i));
+        }
+        dbStore.delete(KEY2 + 999);
+
+        //Verify
+        assertTrue(oneEntry > emptyStore);
+        assertTrue(dbStore.getMemoryUsed() <= 20000);
+        assertEquals(VALUE2 + 998, string(dbStore.get(KEY2 + 998)));
+        try {
+            dbStore.get(KEY1);
+            fail("Least recently used key was not evicted");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void offHeapStorageReusesFreedMemoryForOtherSizesTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.OFF_HEAP);
+        char[] small = new char[100];
+        char[] large = new char[1000];
+        Arrays.fill(small, 's');
+        Arrays.fill(large, 'l');
+        for (int i = 0; i < 20000; i++) {
+            dbStore.set(KEY1 + i, bytes(new String(small)));
+        }
+        for (int i = 0; i < 20000; i++) {
+            dbStore.delete(KEY1 + i);
+        }
+        long directBefore = directMemoryUsed();
+
+        //Act
+        for (int i = 0; i < 2000; i++) {
+            dbStore.set(KEY2 + i, bytes(new String(large)));
+        }
 
+        //Verify
+        assertTrue(directMemoryUsed() - directBefore < 1 << 20);
+        assertEquals(new String(large), string(dbStore.get(KEY2 + 0)));
+        assertEquals(new String(large), string(dbStore.get(KEY2 + 1999)));
     }
 
+    @Test
+    public void offHeapStorageReadsStayConsistentUnderWritesTest() throws Exception {
+        //Arrange
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.OFF_HEAP);
+        final String[] values = {"a", "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb", "cccc"};
+        dbStore.set(KEY1, bytes(values[0]));
+        final boolean[] done = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    dbStore.set(KEY1, bytes(values[i % values.length]));
+                    dbStore.set(KEY2, bytes(values[(i + 1) % values.length]));
+                }
+                done[0] = true;
+            }
+        });
+
+        //Act
+        writer.start();
+        int reads = 0;
+        while (writer.isAlive()) {
+            String value = string(dbStore.get(KEY1));
+            assertTrue(value, value.equals(values[0]) || value.equals(values[1]) || value.equals(values[2]));
+            reads++;
+        }
+        writer.join();
+
+        //Verify
+        assertTrue(done[0]);
+        assertTrue(reads > 0);
+    }
+
+    @Test
+    public void slabStorageKeepsValuesTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.SLAB);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+
+        //Act
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes("\u00fcber \u2603"));
+        dbStore.set(KEY3, bytes(large.toString()));
+        dbStore.set(KEY1, bytes(VALUE1 + large));
+        dbStore.set(KEY3, bytes(VALUE3));
+        dbStore.set("null", null);
+        dbStore.delete(KEY2);
+
+        //Verify
+        assertEquals(VALUE1 + large, string(dbStore.get(KEY1)));
+        assertEquals(VALUE3, string(dbStore.get(KEY3)));
+        assertNull(dbStore.get("null"));
+        assertEquals(3, dbStore.stream().length);
+        try {
+            dbStore.set(KEY2, bytes(large.toString() + large + large + large));
+            fail("Value larger than a slab page was stored");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void slabStorageEvictsWithinSizeClassTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(400000, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.SLAB);
+        StringBuilder large = new StringBuilder();
+        StringBuilder medium = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            large.append('l');
+        }
+        for (int i = 0; i < 200; i++) {
+            medium.append('m');
+        }
+        for (int i = 0; i < 20; i++) {
+            dbStore.set("large" + i, bytes(large.toString() + i));
+        }
+
+        //Act
+        for (int i = 0; i < 5000; i++) {
+            dbStore.set("medium" + i, bytes(medium.toString() + i));
+            assertTrue(dbStore.getMemoryUsed() <= 400000);
+        }
+
+        //Verify
+        for (int i = 0; i < 20; i++) {
+            assertEquals(large.toString() + i, string(dbStore.get("large" + i)));
+        }
+        assertEquals(medium.toString() + 4999, string(dbStore.get("medium" + 4999)));
+        try {
+            dbStore.get("medium" + 0);
+            fail("Value of the full size class was not evicted");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void slabStorageMovesPagesBetweenSizeClassesTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(200000, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.SLAB);
+        StringBuilder medium = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            medium.append('m');
+        }
+        for (int i = 0; i < 1000; i++) {
+            dbStore.set("medium" + i, bytes(medium.toString() + i));
+        }
+        int mediumKeys = dbStore.stream().length;
+
+        //Act
+        for (int i = 0; i < 1000; i++) {
+            dbStore.set("small" + i, bytes(VALUE2 + i));
+            assertTrue(dbStore.getMemoryUsed() <= 200000);
+        }
+
+        //Verify
+        int smallKeys = 0;
+        for (DBItem item : dbStore.stream()) {
+            if (item.getKey().startsWith("small")) {
+                smallKeys++;
+            }
+        }
+        assertEquals(VALUE2 + 999, string(dbStore.get("small" + 999)));
+        assertTrue(smallKeys > 100);
+        assertTrue(dbStore.stream().length - smallKeys < mediumKeys);
+    }
+
+    @Test
+    public void binaryValuesKeptAsTheyAreTest() throws ItemNotFoundException {
+        //Arrange
+        byte[] value = {(byte) 0xff, 0, (byte) 0xc3, (byte) 0x28, (byte) 0x80};
+        String[] storages = {DBStore.HEAP, DBStore.OFF_HEAP, DBStore.SLAB};
+
+        for (String storage : storages) {
+            dbStore = new DBStore(1000000, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, storage);
+
+            //Act
+            dbStore.set(KEY1, value);
+            dbStore.set(KEY2, new byte[0]);
+
+            //Verify
+            assertArrayEquals(storage, value, dbStore.get(KEY1));
+            assertArrayEquals(storage, new byte[0], dbStore.get(KEY2));
+        }
+    }
+
+    @Test
+    public void compressedValuesTakeLessMemoryTest() throws ItemNotFoundException {
+        //Arrange
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            json.append("{\"title\":\"Movie ").append(i).append("\",\"genre\":\"drama\",\"year\":2001},");
+        }
+        DBStore plainStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.HEAP);
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.HEAP, 256);
+
+        //Act
+        for (int i = 0; i < 100; i++) {
+            plainStore.set(KEY1 + i, bytes(json.toString() + i));
+            dbStore.set(KEY1 + i, bytes(json.toString() + i));
+        }
+        dbStore.set(KEY2, bytes(VALUE2));
+
+        //Verify
+        assertEquals(json.toString() + 42, string(dbStore.get(KEY1 + 42)));
+        assertEquals(VALUE2, string(dbStore.get(KEY2)));
+        assertTrue(dbStore.getMemoryUsed() * 5 < plainStore.getMemoryUsed());
+        assertEquals(100, dbStore.getCompressionMetrics().getCompressed());
+        assertEquals(1, dbStore.getCompressionMetrics().getDecompressed());
+        assertTrue(dbStore.getCompressionMetrics().getCompressionRatio() > 5);
+    }
+
+    @Test
+    public void incompressibleValuesKeptAsTheyAreTest() throws ItemNotFoundException {
+        //Arrange
+        byte[] random = new byte[4096];
+        new java.util.Random(42).nextBytes(random);
+        dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, DBStore.OFF_HEAP, 256);
+
+        //Act
+        dbStore.set(KEY1, random);
+        dbStore.set(KEY2, null);
+
+        //Verify
+        assertArrayEquals(random, dbStore.get(KEY1));
+        assertNull(dbStore.get(KEY2));
+        assertEquals(0, dbStore.getCompressionMetrics().getCompressed());
+        assertEquals(1, dbStore.getCompressionMetrics().getIncompressible());
+    }
+
+    @Test
+    public void valueSwitchingBetweenRawAndDeflatedReadsConsistentlyTest() throws Exception {
+        //Arrange
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            json.append("{\"title\":\"Movie ").append(i).append("\",\"genre\":\"drama\"},");
+        }
+        final byte[] deflated = bytes(json.toString());
+        final byte[] raw = bytes(VALUE1);
+        for (String storage : new String[]{DBStore.HEAP, DBStore.OFF_HEAP}) {
+            dbStore = new DBStore(0, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES, storage, 256);
+            dbStore.set(KEY1, raw);
+            final DBStore store = dbStore;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        store.set(KEY1, i % 2 == 0 ? deflated : raw);
+                    }
+                }
+            });
+
+            //Act
+            writer.start();
+            while (writer.isAlive()) {
+                byte[] value = dbStore.get(KEY1);
+
+                //Verify
+                if (value.length == deflated.length) {
+                    assertArrayEquals(storage, deflated, value);
+                } else {
+                    assertArrayEquals(storage, raw, value);
+                }
+            }
+            writer.join();
+            assertTrue(storage, dbStore.getCompressionMetrics().getCompressed() >= 10000);
+        }
+    }
+
+    @Test
+    public void expiredKeyReadsAsMissingTest() throws Exception {
+        //Arrange
+        dbStore = new DBStore(100000);
+        dbStore.set(KEY1, bytes(VALUE1), 50);
+        dbStore.set(KEY2, bytes(VALUE2));
+        assertEquals(VALUE1, string(dbStore.get(KEY1)));
+
+        //Act
+        Thread.sleep(100);
+
+        //Verify
+        try {
+            dbStore.get(KEY1);
+            fail("Expired key was returned");
+        } catch (ItemNotFoundException expected) {
+        }
+        assertNull(dbStore.getAll(new String[]{KEY1})[0].getValue());
+        assertEquals(1, dbStore.stream().length);
+        assertEquals(VALUE2, string(dbStore.get(KEY2)));
+    }
+
+    @Test
+    public void ttlAndPersistTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(100000);
+        dbStore.set(KEY1, bytes(VALUE1), 60000);
+        dbStore.set(KEY2, bytes(VALUE2), 60000);
+        long ttl = dbStore.ttl(KEY1);
+
+        //Act
+        boolean persisted = dbStore.persist(KEY1);
+        boolean persistedAgain = dbStore.persist(KEY1);
+        dbStore.set(KEY2, bytes(VALUE2));
+
+        //Verify
+        assertTrue(ttl > 59000 && ttl <= 60000);
+        assertTrue(persisted);
+        assertFalse(persistedAgain);
+        assertEquals(DBStore.NO_EXPIRY, dbStore.ttl(KEY1));
+        assertEquals(DBStore.NO_EXPIRY, dbStore.ttl(KEY2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveTtlRejectedTest() {
+        //Act & Verify
+        dbStore.set(KEY1, bytes(VALUE1), 0);
+    }
+
+    @Test
+    public void expiredKeysMakeRoomBeforeLiveKeysAreEvictedTest() throws Exception {
+        //Arrange
+        dbStore = new DBStore(20000);
+        dbStore.set(KEY1, bytes(VALUE1));
+        for (int i = 0; i < 80; i++) {
+            dbStore.set(KEY2 + i, bytes(VALUE2 + i), 10);
+        }
+        long withExpiringKeys = dbStore.getMemoryUsed();
+        Thread.sleep(2100);
+
+        //Act
+        for (int i = 0; i < 70; i++) {
+            dbStore.set(KEY3 + i, bytes(VALUE3 + i));
+        }
+
+        //Verify
+        assertEquals(VALUE1, string(dbStore.get(KEY1)));
+        assertEquals(71, dbStore.stream().length);
+        assertTrue(dbStore.getMemoryUsed() < withExpiringKeys);
+    }
+
+    @Test
+    public void listenerHearsOfChangedKeysTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore = new DBStore(600);
+        final List<String> invalidated = new ArrayList<String>();
+        dbStore.setInvalidationListener(new InvalidationListener() {
+            @Override
+            public void invalidate(String key) {
+                invalidated.add(key);
+            }
+        });
+
+        //Act
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.set(KEY3, bytes(VALUE3));
+        dbStore.delete(KEY2);
+        dbStore.getAll(new String[]{KEY1, KEY2, KEY3});
+
+        //Verify
+        assertEquals(5, invalidated.size());
+        assertEquals(KEY1, invalidated.get(0));
+        assertEquals(KEY2, invalidated.get(1));
+        assertTrue(invalidated.subList(2, 4).contains(KEY1));
+        assertTrue(invalidated.subList(2, 4).contains(KEY3));
+        assertEquals(KEY2, invalidated.get(4));
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+}
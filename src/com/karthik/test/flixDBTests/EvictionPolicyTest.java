@@ -0,0 +1,146 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+
+public class EvictionPolicyTest {
+    public static String KEY1 = "foo";
+    public static String VALUE1 = "bar";
+    public static String KEY2 = "foo1";
+    public static String VALUE2 = "bar1";
+    public static String KEY3 = "foo2";
+    public static String VALUE3 = "bar2";
+
+    private static final String[] POLICIES = {
+            DBStore.LRU, DBStore.SAMPLED_LRU, DBStore.FIFO, DBStore.LFU, DBStore.W_TINYLFU};
+
+    @Test
+    public void everyPolicyStaysUnderMemoryBoundTest() {
+        for (String policy : POLICIES) {
+            //Arrange
+            DBStore dbStore = new DBStore(20000, policy, DBStore.DEFAULT_EVICTION_SAMPLES);
+
+            //Act
+            for (int i = 0; i < 1000; i++) {
+                dbStore.set(KEY1 + i, bytes(VALUE1 + i));
+                if (i % 3 == 0) {
+                    try {
+                        dbStore.get(KEY1 + (i / 2));
+                    } catch (ItemNotFoundException ignored) {
+                    }
+                }
+            }
+
+            //Verify
+            assertTrue(policy, dbStore.getMemoryUsed() <= 20000);
+            assertEquals(policy, dbStore.stream().length, countStreamedKeys(dbStore));
+        }
+    }
+
+    @Test(expected = ItemNotFoundException.class)
+    public void fifoEvictsOldestEvenIfReadTest() throws ItemNotFoundException {
+        //Arrange
+        DBStore dbStore = new DBStore(600, DBStore.FIFO, DBStore.DEFAULT_EVICTION_SAMPLES);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.get(KEY1);
+        dbStore.set(KEY3, bytes(VALUE3));
+
+        //Act & Verify
+        assertEquals(VALUE2, string(dbStore.get(KEY2)));
+        dbStore.get(KEY1);
+    }
+
+    @Test(expected = ItemNotFoundException.class)
+    public void lfuEvictsLeastFrequentlyUsedTest() throws ItemNotFoundException {
+        //Arrange
+        DBStore dbStore = new DBStore(600, DBStore.LFU, DBStore.DEFAULT_EVICTION_SAMPLES);
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.get(KEY1);
+        dbStore.get(KEY1);
+        dbStore.get(KEY2);
+        dbStore.set(KEY3, bytes(VALUE3));
+
+        //Act & Verify
+        assertEquals(VALUE1, string(dbStore.get(KEY1)));
+        assertEquals(VALUE3, string(dbStore.get(KEY3)));
+        dbStore.get(KEY2);
+    }
+
+    @Test
+    public void streamIsMostRecentlyUsedFirstForEveryPolicyTest() throws ItemNotFoundException {
+        for (String policy : POLICIES) {
+            //Arrange
+            DBStore dbStore = new DBStore(100000, policy, DBStore.DEFAULT_EVICTION_SAMPLES);
+            dbStore.set(KEY1, bytes(VALUE1));
+            dbStore.set(KEY2, bytes(VALUE2));
+            dbStore.set(KEY3, bytes(VALUE3));
+            dbStore.get(KEY1);
+
+            //Act
+            DBItem[] items = dbStore.stream();
+
+            //Verify
+            assertEquals(policy, KEY1, items[0].getKey());
+            assertEquals(policy, KEY3, items[1].getKey());
+            assertEquals(policy, KEY2, items[2].getKey());
+        }
+    }
+
+    @Test
+    public void tinyLfuKeepsHotKeysThroughScansTest() {
+        //Arrange
+        DBStore lru = new DBStore(40000, DBStore.LRU, DBStore.DEFAULT_EVICTION_SAMPLES);
+        DBStore tinyLfu = new DBStore(40000, DBStore.W_TINYLFU, DBStore.DEFAULT_EVICTION_SAMPLES);
+
+        //Act
+        runHotSetWithScans(lru);
+        runHotSetWithScans(tinyLfu);
+
+        //Verify
+        assertTrue("w_tinylfu hits " + tinyLfu.getHits() + ", lru hits " + lru.getHits(),
+                tinyLfu.getHits() > lru.getHits() + 500);
+    }
+
+    /**
+     * Read a hot set of 50 keys over and over while scans of 400 keys that
+     * are read once run through a cache that holds about 200 keys.
+     */
+    private static void runHotSetWithScans(DBStore dbStore) {
+        int scanKey = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                String key = "hot" + i;
+                try {
+                    dbStore.get(key);
+                } catch (ItemNotFoundException e) {
+                    dbStore.set(key, bytes(VALUE1 + i));
+                }
+            }
+            for (int i = 0; i < 400; i++) {
+                dbStore.set("scan" + scanKey, bytes(VALUE2 + scanKey));
+                scanKey++;
+            }
+        }
+    }
+
+    private static int countStreamedKeys(DBStore dbStore) {
+        int found = 0;
+        for (DBItem item : dbStore.stream()) {
+            try {
+                dbStore.get(item.getKey());
+                found++;
+            } catch (ItemNotFoundException ignored) {
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,120 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.LazySnapshotStore;
+import com.karthik.main.flixDB.MappedSnapshot;
+import com.karthik.main.flixDB.Snapshot;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.File;
+
+
+public class LazySnapshotStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("flixDB", ".snapshot");
+        DBStore dbStore = new DBStore(0);
+        for (int i = 0; i < 10000; i++) {
+            dbStore.set("key" + i, bytes("value" + i));
+        }
+        new Snapshot(file, dbStore).take();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void getCopiesKeyFromSnapshotTest() throws Exception {
+        //Arrange
+        DBStore dbStore = new DBStore(0);
+        LazySnapshotStore lazyStore = new LazySnapshotStore(dbStore, MappedSnapshot.open(file));
+
+        //Act
+        String value = string(lazyStore.get("key4242"));
+
+        //Verify
+        assertEquals("value4242", value);
+        assertEquals("value4242", string(dbStore.get("key4242")));
+        assertEquals(1, dbStore.stream().length);
+        assertFalse(lazyStore.isWarm());
+    }
+
+    @Test(expected = ItemNotFoundException.class)
+    public void getMissingKeyTest() throws Exception {
+        //Arrange
+        LazySnapshotStore lazyStore = new LazySnapshotStore(new DBStore(0), MappedSnapshot.open(file));
+
+        //Act
+        lazyStore.get("missing");
+    }
+
+    @Test
+    public void writesSupersedeSnapshotTest() throws Exception {
+        //Arrange
+        LazySnapshotStore lazyStore = new LazySnapshotStore(new DBStore(0), MappedSnapshot.open(file));
+        lazyStore.set("key1", bytes("changed"));
+        lazyStore.delete("key2");
+        boolean[] deleted = lazyStore.deleteAll(new String[]{"key3", "missing"});
+
+        //Act
+        lazyStore.warmUp();
+
+        //Verify
+        assertTrue(lazyStore.isWarm());
+        assertTrue(deleted[0]);
+        assertFalse(deleted[1]);
+        assertEquals("changed", string(lazyStore.get("key1")));
+        DBItem[] items = lazyStore.getAll(new String[]{"key2", "key3", "key9999"});
+        assertNull(items[0].getValue());
+        assertNull(items[1].getValue());
+        assertEquals("value9999", string(items[2].getValue()));
+        assertEquals(9998, lazyStore.stream().length);
+    }
+
+    @Test
+    public void warmUpKeepsLRUOrderTest() throws Exception {
+        //Arrange
+        LazySnapshotStore lazyStore = new LazySnapshotStore(new DBStore(0), MappedSnapshot.open(file));
+
+        //Act
+        DBItem[] items = lazyStore.stream();
+
+        //Verify
+        assertEquals(10000, items.length);
+        assertEquals("key9999", items[0].getKey());
+        assertEquals("key0", items[9999].getKey());
+    }
+
+    @Test
+    public void writesDuringWarmUpAreKeptTest() throws Exception {
+        //Arrange
+        LazySnapshotStore lazyStore = new LazySnapshotStore(new DBStore(0), MappedSnapshot.open(file));
+
+        //Act
+        lazyStore.startWarmUp();
+        for (int i = 9999; i >= 0; i--) {
+            if (i % 2 == 0) {
+                lazyStore.set("key" + i, bytes("changed" + i));
+            } else {
+                lazyStore.setAll(new DBItem[]{new DBItem("key" + i, bytes("changed" + i))});
+            }
+        }
+        lazyStore.warmUp();
+
+        //Verify
+        assertTrue(lazyStore.isWarm());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("changed" + i, string(lazyStore.get("key" + i)));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.NioClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+
+public class NioClientHandlerTest {
+    private SocketServer server;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    @Before
+    public void setUp() throws Exception {
+        startServer(new DBStore(0));
+    }
+
+    private void startServer(DBStore store) throws Exception {
+        startServer(store, false);
+    }
+
+    private void startServer(DBStore store, boolean syncedWrites) throws Exception {
+        final SocketServer started = new SocketServer("localhost");
+        server = started;
+        server.addHandler(new NioClientHandler(store, 1, 1, syncedWrites));
+        server.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        socket = new Socket("localhost", server.getPort());
+        socket.setSoTimeout(5000);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+        BinaryProtocol.writePreamble(out);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        socket.close();
+        server.stop();
+    }
+
+    @Test
+    public void setThenGetTest() throws Exception {
+        //Arrange
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.GET, new DBItem("foo")));
+
+        //Act
+        out.flush();
+        DBResponse setResponse = BinaryProtocol.readResponse(in);
+        DBResponse getResponse = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(Constants.OK, setResponse.getResponseStatus());
+        assertEquals("bar", string(getResponse.getItems()[0].getValue()));
+    }
+
+    @Test
+    public void valueLargerThanReadBufferTest() throws Exception {
+        //Arrange
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem("big", bytes(value))));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.GET, new DBItem("big")));
+
+        //Act
+        out.flush();
+        BinaryProtocol.readResponse(in);
+        DBResponse getResponse = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(value, string(getResponse.getItems()[0].getValue()));
+    }
+
+    @Test
+    public void pipelinedStreamKeepsResponseOrderTest() throws Exception {
+        //Arrange
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.STREAM));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.DELETE, new DBItem("foo")));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.STREAM));
+
+        //Act
+        out.flush();
+        DBResponse setResponse = BinaryProtocol.readResponse(in);
+        DBResponse firstStream = BinaryProtocol.readResponse(in);
+        DBResponse deleteResponse = BinaryProtocol.readResponse(in);
+        DBResponse secondStream = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(Constants.OK, setResponse.getResponseStatus());
+        assertEquals("bar", string(firstStream.getItems()[0].getValue()));
+        assertEquals(Constants.OK, deleteResponse.getResponseStatus());
+        assertTrue(secondStream.getItems() == null || secondStream.getItems().length == 0);
+    }
+
+    @Test
+    public void slowStreamDoesNotStallEventLoopTest() throws Exception {
+        //Arrange
+        tearDown();
+        final CountDownLatch release = new CountDownLatch(1);
+        startServer(new DBStore(0) {
+            @Override
+            public DBItem[] stream() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.stream();
+            }
+        });
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.STREAM));
+        out.flush();
+        Socket other = new Socket("localhost", server.getPort());
+        other.setSoTimeout(5000);
+        InputStream otherIn = new BufferedInputStream(other.getInputStream());
+        OutputStream otherOut = new BufferedOutputStream(other.getOutputStream());
+        BinaryProtocol.writePreamble(otherOut);
+
+        //Act
+        BinaryProtocol.writeRequest(otherOut, new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+        otherOut.flush();
+        DBResponse setResponse = BinaryProtocol.readResponse(otherIn);
+        release.countDown();
+        DBResponse streamResponse = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(Constants.OK, setResponse.getResponseStatus());
+        assertEquals("bar", string(streamResponse.getItems()[0].getValue()));
+        other.close();
+    }
+
+    @Test
+    public void syncedWriteDoesNotStallEventLoopTest() throws Exception {
+        //Arrange
+        tearDown();
+        final CountDownLatch release = new CountDownLatch(1);
+        startServer(new DBStore(0) {
+            @Override
+            public void set(String key, byte[] value) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.set(key, value);
+            }
+        }, true);
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+        BinaryProtocol.writeRequest(out, new DBRequest(Constants.GET, new DBItem("foo")));
+        out.flush();
+        Socket other = new Socket("localhost", server.getPort());
+        other.setSoTimeout(5000);
+        InputStream otherIn = new BufferedInputStream(other.getInputStream());
+        OutputStream otherOut = new BufferedOutputStream(other.getOutputStream());
+        BinaryProtocol.writePreamble(otherOut);
+
+        //Act
+        BinaryProtocol.writeRequest(otherOut, new DBRequest(Constants.GET, new DBItem("foo")));
+        otherOut.flush();
+        DBResponse otherResponse = BinaryProtocol.readResponse(otherIn);
+        release.countDown();
+        DBResponse setResponse = BinaryProtocol.readResponse(in);
+        DBResponse getResponse = BinaryProtocol.readResponse(in);
+
+        //Verify
+        assertEquals(Constants.OK, otherResponse.getResponseStatus());
+        assertEquals(Constants.OK, setResponse.getResponseStatus());
+        assertEquals("bar", string(getResponse.getItems()[0].getValue()));
+        other.close();
+    }
+}
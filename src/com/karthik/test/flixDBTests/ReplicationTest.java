@@ -0,0 +1,366 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.Replica;
+import com.karthik.main.flixDB.ReplicatedStore;
+import com.karthik.main.flixDB.ReplicationServer;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class ReplicationTest {
+    private List<ReplicationServer> servers;
+    private List<Replica> replicas;
+
+    @Before
+    public void setUp() {
+        servers = new ArrayList<ReplicationServer>();
+        replicas = new ArrayList<Replica>();
+    }
+
+    @After
+    public void tearDown() {
+        for (Replica replica : replicas) {
+            replica.stop();
+        }
+        for (ReplicationServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void replicaSyncsAndFollowsWritesTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        primary.set("before", bytes("sync"));
+        primary.set("expiring", bytes("soon"), 60000);
+        ReplicationServer server = startServer(primary, 0);
+
+        //Act
+        Replica replica = startReplica(server.getPort());
+        awaitCaughtUp(primary, replica);
+        primary.set("foo", bytes("bar"));
+        primary.setAll(new DBItem[]{new DBItem("a", bytes("1")), new DBItem("b", bytes("2"))});
+        primary.set("session", bytes("s"), 60000);
+        primary.delete("before");
+        primary.deleteAll(new String[]{"a"});
+        primary.persist("expiring");
+        awaitCaughtUp(primary, replica);
+
+        //Verify
+        assertEquals("bar", string(replica.get("foo")));
+        assertEquals("2", string(replica.get("b")));
+        assertEquals("soon", string(replica.get("expiring")));
+        assertEquals(DBStore.NO_EXPIRY, replica.ttl("expiring"));
+        assertTrue(replica.ttl("session") > 50000);
+        assertMissing(replica, "before");
+        assertMissing(replica, "a");
+        assertEquals(0, replica.getLag());
+    }
+
+    @Test
+    public void primaryReportsReplicaLagTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        ReplicationServer server = startServer(primary, 0);
+        Replica replica = startReplica(server.getPort());
+        awaitCaughtUp(primary, replica);
+
+        //Act
+        for (int i = 0; i < 100; i++) {
+            primary.set("key" + i, bytes("value" + i));
+        }
+        awaitCaughtUp(primary, replica);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((server.getReplicaLags().isEmpty() || server.getReplicaLags().values().iterator().next() != 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        //Verify
+        assertEquals(1, server.getReplicaLags().size());
+        assertEquals(Long.valueOf(0), server.getReplicaLags().values().iterator().next());
+        assertTrue(primary.getOffset() > 0);
+        assertEquals(primary.getOffset(), replica.getOffset());
+    }
+
+    @Test
+    public void replicaContinuesFromItsOffsetAfterReconnectingTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        primary.set("foo", bytes("bar"));
+        ReplicationServer server = startServer(primary, 0);
+        int port = server.getPort();
+        Replica replica = startReplica(port);
+        awaitCaughtUp(primary, replica);
+        // A full sync would empty the store and drop this key
+        replica.getStore().set("marker", bytes("kept"));
+
+        //Act
+        server.stop();
+        primary.set("foo", bytes("baz"));
+        startServer(primary, port);
+        awaitCaughtUp(primary, replica);
+
+        //Verify
+        assertEquals("baz", string(replica.get("foo")));
+        assertEquals("kept", string(replica.get("marker")));
+    }
+
+    @Test
+    public void replicaSyncsInFullWithANewPrimaryTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        primary.set("foo", bytes("bar"));
+        ReplicationServer server = startServer(primary, 0);
+        int port = server.getPort();
+        Replica replica = startReplica(port);
+        awaitCaughtUp(primary, replica);
+        replica.getStore().set("marker", bytes("dropped"));
+
+        //Act
+        server.stop();
+        ReplicatedStore restarted = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        restarted.set("other", bytes("value"));
+        startServer(restarted, port);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!"value".equals(getOrNull(replica, "other")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        awaitCaughtUp(restarted, replica);
+
+        //Verify
+        assertEquals("value", string(replica.get("other")));
+        assertMissing(replica, "foo");
+        assertMissing(replica, "marker");
+    }
+
+    @Test
+    public void replicaServesReadsAndRefusesWritesTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        primary.set("foo", bytes("bar"));
+        ReplicationServer server = startServer(primary, 0);
+        Replica replica = startReplica(server.getPort());
+        awaitCaughtUp(primary, replica);
+        final SocketServer replicaServer = new SocketServer("localhost");
+        replicaServer.addHandler(new ServerClientHandler(replica, 1, false, true));
+        replicaServer.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replicaServer.start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Socket socket = new Socket("localhost", replicaServer.getPort());
+        socket.setSoTimeout(5000);
+
+        try {
+            //Act
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            BinaryProtocol.writePreamble(out);
+            BinaryProtocol.writeRequest(out, new DBRequest(Constants.GET, new DBItem("foo")));
+            BinaryProtocol.writeRequest(out, new DBRequest(Constants.SET, new DBItem("foo", bytes("baz"))));
+            out.flush();
+            DBResponse get = BinaryProtocol.readResponse(socket.getInputStream());
+            DBResponse set = BinaryProtocol.readResponse(socket.getInputStream());
+
+            //Verify
+            assertEquals(Constants.OK, get.getResponseStatus());
+            assertEquals("bar", string(get.getItems()[0].getValue()));
+            assertEquals(Constants.ERROR, set.getResponseStatus());
+            assertEquals("bar", string(replica.get("foo")));
+        } finally {
+            socket.close();
+            replicaServer.stop();
+        }
+    }
+
+    @Test
+    public void primaryEvictionsReachReplicaTest() throws Exception {
+        //Arrange
+        DBStore primaryStore = new DBStore(20000);
+        ReplicatedStore primary = new ReplicatedStore(primaryStore, 256 * 1024);
+        primaryStore.setEvictionListener(primary);
+        ReplicationServer server = startServer(primary, 0);
+        DBStore replicaStore = new DBStore(20000);
+        replicaStore.disableEviction();
+        Replica replica = startReplica(server.getPort(), replicaStore);
+        awaitCaughtUp(primary, replica);
+
+        //Act
+        for (int i = 0; i < 500; i++) {
+            primary.set("key" + i, bytes("value" + i));
+            // Keeps the oldest key the most recently used on the replica only
+            getOrNull(replica, "key0");
+        }
+        awaitCaughtUp(primary, replica);
+
+        //Verify
+        DBItem[] primaryItems = primary.stream();
+        assertTrue(primaryItems.length < 500);
+        assertEquals(primaryItems.length, replica.stream().length);
+        for (DBItem item : primaryItems) {
+            assertEquals(string(item.getValue()), string(replica.get(item.getKey())));
+        }
+        assertMissing(replica, "key0");
+    }
+
+    @Test
+    public void refusedWritesAreNotRecordedTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        primary.set("foo", bytes("bar"));
+        long offset = primary.getOffset();
+
+        //Act
+        try {
+            primary.delete("missing");
+            fail("Deleting a missing key should fail");
+        } catch (ItemNotFoundException expected) {
+        }
+        try {
+            primary.set("foo", bytes("bar"), 0);
+            fail("A time to live of zero should be refused");
+        } catch (IllegalArgumentException expected) {
+        }
+        boolean persisted = primary.persist("foo");
+        primary.deleteAll(new String[]{"missing"});
+
+        //Verify
+        assertFalse(persisted);
+        assertEquals(offset, primary.getOffset());
+    }
+
+    @Test
+    public void replicaRecoversFromAFailedWriteTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(100000), 64 * 1024);
+        ReplicationServer server = startServer(primary, 0);
+        final boolean[] failed = new boolean[1];
+        DBStore replicaStore = new DBStore(100000) {
+            @Override
+            public void set(String key, byte[] value) {
+                if (!failed[0]) {
+                    failed[0] = true;
+                    throw new IllegalStateException("No memory left");
+                }
+                super.set(key, value);
+            }
+        };
+        Replica replica = startReplica(server.getPort(), replicaStore);
+        awaitCaughtUp(primary, replica);
+
+        //Act
+        primary.set("foo", bytes("bar"));
+        awaitCaughtUp(primary, replica);
+
+        //Verify
+        assertTrue(failed[0]);
+        assertEquals("bar", string(replica.get("foo")));
+    }
+
+    @Test
+    public void fullSyncKeepsLRUOrderTest() throws Exception {
+        //Arrange
+        ReplicatedStore primary = new ReplicatedStore(new DBStore(1000000), 64 * 1024);
+        for (int i = 0; i < 2500; i++) {
+            primary.set("key" + i, bytes("value" + i));
+        }
+        primary.get("key0");
+        ReplicationServer server = startServer(primary, 0);
+
+        //Act
+        Replica replica = startReplica(server.getPort(), new DBStore(1000000));
+        awaitCaughtUp(primary, replica);
+
+        //Verify
+        DBItem[] primaryItems = primary.stream();
+        DBItem[] replicaItems = replica.stream();
+        assertEquals(2500, replicaItems.length);
+        for (int i = 0; i < primaryItems.length; i++) {
+            assertEquals(primaryItems[i].getKey(), replicaItems[i].getKey());
+        }
+        assertEquals("key0", replicaItems[0].getKey());
+    }
+
+    private ReplicationServer startServer(ReplicatedStore primary, int port) throws Exception {
+        ReplicationServer server = new ReplicationServer(primary, port);
+        // The replica reconnecting meanwhile may hold the port for a moment
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                server.start();
+                break;
+            } catch (BindException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+        servers.add(server);
+        return server;
+    }
+
+    private Replica startReplica(int port) {
+        return startReplica(port, new DBStore(100000));
+    }
+
+    private Replica startReplica(int port, DBStore dbStore) {
+        Replica replica = new Replica(dbStore, "localhost", port);
+        replica.start();
+        replicas.add(replica);
+        return replica;
+    }
+
+    private static void awaitCaughtUp(ReplicatedStore primary, Replica replica) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!(replica.isSynced() && replica.getOffset() == primary.getOffset())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(replica.isSynced());
+        assertEquals(primary.getOffset(), replica.getOffset());
+    }
+
+    private static String getOrNull(Replica replica, String key) {
+        try {
+            return string(replica.get(key));
+        } catch (ItemNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static void assertMissing(Replica replica, String key) {
+        try {
+            replica.get(key);
+            fail(key + " should be missing");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.BinaryProtocol;
+import com.karthik.main.flixDB.Constants;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBRequest;
+import com.karthik.main.flixDB.DBResponse;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.ServerClientHandler;
+import com.karthik.main.flixDB.SocketServer;
+import static com.karthik.test.TestValues.bytes;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class ServerClientHandlerTest {
+    private SocketServer server;
+    private ServerClientHandler handler;
+    private List<Socket> sockets;
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new ServerClientHandler(new DBStore(0), 1, false, true);
+        server = new SocketServer("localhost");
+        server.addHandler(handler);
+        server.connect();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        sockets = new ArrayList<Socket>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+    }
+
+    private Socket connect() throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        socket.setSoTimeout(5000);
+        sockets.add(socket);
+        return socket;
+    }
+
+    private DBResponse send(Socket socket, DBRequest request) throws Exception {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        BinaryProtocol.writePreamble(out);
+        BinaryProtocol.writeRequest(out, request);
+        out.flush();
+        return BinaryProtocol.readResponse(socket.getInputStream());
+    }
+
+    @Test
+    public void idleConnectionsDoNotStarveOthersTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 20; i++) {
+            connect();
+        }
+
+        //Act
+        DBResponse response = send(connect(), new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+
+        //Verify
+        assertEquals(Constants.OK, response.getResponseStatus());
+    }
+
+    @Test
+    public void setExWithoutPositiveTtlIsRejectedTest() throws Exception {
+        //Act
+        DBResponse zero = send(connect(), new DBRequest(Constants.SETEX, new DBItem("foo", bytes("bar")), 0));
+        DBResponse negative = send(connect(), new DBRequest(Constants.SETEX, new DBItem("foo", bytes("bar")), -5));
+        DBResponse positive = send(connect(), new DBRequest(Constants.SETEX, new DBItem("foo", bytes("bar")), 1000));
+
+        //Verify
+        assertEquals(Constants.ERROR, zero.getResponseStatus());
+        assertEquals(Constants.ERROR, negative.getResponseStatus());
+        assertEquals(Constants.OK, positive.getResponseStatus());
+    }
+
+    @Test
+    public void pingIsAnsweredWithOkTest() throws Exception {
+        //Act
+        DBResponse response = send(connect(), new DBRequest(Constants.PING));
+
+        //Verify
+        assertEquals(Constants.OK, response.getResponseStatus());
+        assertNull(response.getItems());
+    }
+
+    @Test
+    public void metricsCountConnectionsAndRequestsTest() throws Exception {
+        //Arrange
+        Socket socket = connect();
+
+        //Act
+        send(socket, new DBRequest(Constants.SET, new DBItem("foo", bytes("bar"))));
+
+        //Verify
+        assertEquals(1, handler.getMetrics().getConnectionsAccepted());
+        assertEquals(1, handler.getMetrics().getActiveConnections());
+        assertEquals(1, handler.getMetrics().getRequests());
+        assertTrue(handler.getMetrics().getLatencyPercentileNanos(99) >= handler.getMetrics().getMeanLatencyNanos());
+    }
+}
@@ -0,0 +1,185 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.ScanResult;
+import com.karthik.main.flixDB.ShardedDBStore;
+import com.karthik.main.flixDB.exception.ItemNotFoundException;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.Iterator;
+
+
+public class ShardedDBStoreTest {
+    ShardedDBStore dbStore;
+    public static String KEY1 = "foo";
+    public static String VALUE1 = "bar";
+    public static String KEY2 = "foo1";
+    public static String VALUE2 = "bar1";
+    public static String KEY3 = "foo2";
+    public static String VALUE3 = "bar2";
+
+    @Before
+    public void setUp() {
+        dbStore = new ShardedDBStore(100000, 4);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void setValueToKeyTest() throws ItemNotFoundException {
+        //Act
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+
+        //Verify
+        assertEquals(VALUE1, string(dbStore.get(KEY1)));
+        assertEquals(VALUE2, string(dbStore.get(KEY2)));
+    }
+
+    @Test(expected = ItemNotFoundException.class)
+    public void deleteTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+
+        //Act
+        dbStore.delete(KEY1);
+
+        //Verify
+        dbStore.get(KEY1);
+    }
+
+    @Test
+    public void streamMergesShardsInRecencyOrderTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.set(KEY3, bytes(VALUE3));
+        dbStore.get(KEY1);
+
+        //Act
+        DBItem[] items = dbStore.stream();
+
+        //Verify
+        assertEquals(3, items.length);
+        assertEquals(KEY1, items[0].getKey());
+        assertEquals(VALUE1, string(items[0].getValue()));
+        assertEquals(KEY3, items[1].getKey());
+        assertEquals(KEY2, items[2].getKey());
+    }
+
+    @Test
+    public void leastRecentFirstMergesShardsOldestFirstTest() throws ItemNotFoundException {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+        dbStore.set(KEY2, bytes(VALUE2));
+        dbStore.set(KEY3, bytes(VALUE3));
+        dbStore.get(KEY1);
+
+        //Act
+        Iterator<DBItem> items = dbStore.leastRecentFirst();
+
+        //Verify
+        assertEquals(KEY2, items.next().getKey());
+        assertEquals(KEY3, items.next().getKey());
+        DBItem last = items.next();
+        assertEquals(KEY1, last.getKey());
+        assertEquals(VALUE1, string(last.getValue()));
+        assertFalse(items.hasNext());
+    }
+
+    @Test
+    public void streamEmptyStoreTest() {
+        //Act & Verify
+        assertNull(dbStore.stream());
+    }
+
+    @Test
+    public void memoryBoundHonouredPerShardTest() {
+        //Arrange
+        long maxMemory = 4000;
+        dbStore = new ShardedDBStore((int) maxMemory, 4);
+
+        //Act
+        for (int i = 0; i < 100; i++) {
+            dbStore.set(KEY1 + i, bytes(VALUE1 + i));
+        }
+
+        //Verify
+        assertTrue(dbStore.getMemoryUsed() <= maxMemory);
+        assertTrue(dbStore.stream().length > 0);
+    }
+
+    @Test
+    public void batchOperationsAcrossShardsKeepKeyOrderTest() {
+        //Arrange
+        DBItem[] items = new DBItem[50];
+        String[] keys = new String[51];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new DBItem(KEY1 + i, bytes(VALUE1 + i));
+            keys[i] = KEY1 + i;
+        }
+        keys[50] = "missing";
+        dbStore.setAll(items);
+
+        //Act
+        DBItem[] fetched = dbStore.getAll(keys);
+        boolean[] deleted = dbStore.deleteAll(keys);
+
+        //Verify
+        for (int i = 0; i < items.length; i++) {
+            assertEquals(VALUE1 + i, string(fetched[i].getValue()));
+            assertTrue(deleted[i]);
+        }
+        assertNull(fetched[50].getValue());
+        assertFalse(deleted[50]);
+        assertNull(dbStore.stream());
+    }
+
+    @Test
+    public void scanWalksEveryShardTest() throws Exception {
+        //Arrange
+        for (int i = 0; i < 40; i++) {
+            dbStore.set(KEY1 + i, bytes(VALUE1));
+        }
+        int noOfItems = 0;
+
+        //Act
+        long cursor = 0;
+        do {
+            ScanResult result = dbStore.scan(cursor, 7, null);
+            noOfItems += result.getItems().length;
+            cursor = result.getCursor();
+        } while (cursor != 0);
+
+        //Verify
+        assertEquals(40, noOfItems);
+    }
+
+    @Test
+    public void removeExpiredFreesMemoryWithoutAccessTest() throws Exception {
+        //Arrange
+        dbStore.set(KEY1, bytes(VALUE1));
+        long persistentOnly = dbStore.getMemoryUsed();
+        for (int i = 0; i < 100; i++) {
+            dbStore.set(KEY2 + i, bytes(VALUE2 + i), 10);
+        }
+        long withExpiringKeys = dbStore.getMemoryUsed();
+        Thread.sleep(2100);
+
+        //Act
+        int removed = dbStore.removeExpired();
+
+        //Verify
+        assertEquals(100, removed);
+        assertTrue(dbStore.getMemoryUsed() < withExpiringKeys);
+        assertTrue(dbStore.getMemoryUsed() - persistentOnly < 2000 * 4);
+        assertEquals(1, dbStore.stream().length);
+        assertEquals(0, dbStore.removeExpired());
+    }
+}
@@ -0,0 +1,147 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.AppendOnlyLog;
+import com.karthik.main.flixDB.DBItem;
+import com.karthik.main.flixDB.DBStore;
+import com.karthik.main.flixDB.MappedSnapshot;
+import com.karthik.main.flixDB.PersistentStore;
+import com.karthik.main.flixDB.ShardedDBStore;
+import com.karthik.main.flixDB.Snapshot;
+import static com.karthik.test.TestValues.bytes;
+import static com.karthik.test.TestValues.string;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+public class SnapshotTest {
+    private File file;
+    private File logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("flixDB", ".snapshot");
+        file.delete();
+        logFile = File.createTempFile("flixDB", ".aof");
+        logFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        logFile.delete();
+        Snapshot.nextLogFile(logFile).delete();
+    }
+
+    @Test
+    public void loadKeepsLRUOrderTest() throws Exception {
+        //Arrange
+        DBStore dbStore = new DBStore(10000);
+        dbStore.set("a", bytes("1"));
+        dbStore.set("b", bytes("2"));
+        dbStore.set("c", bytes("3"));
+        dbStore.get("a");
+        new Snapshot(file, dbStore).take();
+        DBStore restored = new DBStore(10000);
+
+        //Act
+        long loaded = Snapshot.load(file, restored, 2);
+
+        //Verify
+        assertEquals(3, loaded);
+        DBItem[] items = restored.stream();
+        assertEquals("a", items[0].getKey());
+        assertEquals("c", items[1].getKey());
+        assertEquals("b", items[2].getKey());
+        assertEquals("1", string(items[0].getValue()));
+    }
+
+    @Test
+    public void parallelLoadRestoresEveryChunkTest() throws Exception {
+        //Arrange
+        ShardedDBStore dbStore = new ShardedDBStore(0, 4);
+        for (int i = 0; i < 20000; i++) {
+            dbStore.set("key" + i, bytes("value" + i));
+        }
+        new Snapshot(file, dbStore).take();
+        ShardedDBStore restored = new ShardedDBStore(0, 4);
+
+        //Act
+        long loaded = Snapshot.load(file, restored, 4);
+
+        //Verify
+        assertEquals(20000, loaded);
+        assertEquals(20000, restored.stream().length);
+        assertEquals("value12345", string(restored.get("key12345")));
+    }
+
+    @Test
+    public void snapshotTruncatesAppendOnlyLogTest() throws Exception {
+        //Arrange
+        PersistentStore dbStore = new PersistentStore(new DBStore(10000),
+                new AppendOnlyLog(logFile, AppendOnlyLog.INTERVAL, 1000));
+        dbStore.set("before", bytes("snapshot"));
+        dbStore.set("changed", bytes("old"));
+        Snapshot snapshot = new Snapshot(file, dbStore, logFile);
+
+        //Act
+        snapshot.take();
+        dbStore.set("changed", bytes("new"));
+        dbStore.delete("before");
+        dbStore.getLog().close();
+        DBStore restored = new DBStore(10000);
+        Snapshot.load(file, restored, 1);
+        long replayed = AppendOnlyLog.replay(logFile, restored);
+
+        //Verify
+        assertEquals(logFile, dbStore.getLog().getFile());
+        assertFalse(Snapshot.nextLogFile(logFile).exists());
+        assertEquals(2, replayed);
+        assertEquals("new", string(restored.get("changed")));
+        assertNull(restored.getAll(new String[]{"before"})[0].getValue());
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsCorruptChunkTest() throws Exception {
+        //Arrange
+        DBStore dbStore = new DBStore(10000);
+        dbStore.set("foo", bytes("bar"));
+        new Snapshot(file, dbStore).take();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(24);
+        raf.write('x');
+        raf.close();
+
+        //Act
+        Snapshot.load(file, new DBStore(10000), 1);
+    }
+
+    @Test
+    public void snapshotKeepsExpiryTimesTest() throws Exception {
+        //Arrange
+        DBStore dbStore = new DBStore(10000);
+        dbStore.set("a", bytes("1"), 60000);
+        dbStore.set("b", bytes("2"));
+        dbStore.set("c", bytes("3"), 20);
+        new Snapshot(file, dbStore).take();
+        Thread.sleep(50);
+        DBStore restored = new DBStore(10000);
+
+        //Act
+        long loaded = Snapshot.load(file, restored, 1);
+
+        //Verify
+        assertEquals(3, loaded);
+        long ttl = restored.ttl("a");
+        assertTrue(ttl > 0 && ttl <= 60000);
+        assertEquals(DBStore.NO_EXPIRY, restored.ttl("b"));
+        assertEquals(2, restored.stream().length);
+        MappedSnapshot mapped = MappedSnapshot.open(file);
+        assertEquals(0, mapped.expiresAt(mapped.find("b")));
+        assertTrue(mapped.expiresAt(mapped.find("a")) > System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,159 @@
+package com.karthik.test.flixDBTests;
+
+import com.karthik.main.flixDB.ThreadPool;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ThreadPoolTest {
+
+    /**
+     * Job holding its thread until released and counting runs and
+     * rejections.
+     */
+    private static class CountingJob implements ThreadPool.Rejectable {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final AtomicInteger runs;
+        private final AtomicInteger rejections;
+
+        CountingJob(CountDownLatch release, AtomicInteger runs, AtomicInteger rejections) {
+            this.release = release;
+            this.runs = runs;
+            this.rejections = rejections;
+        }
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            runs.incrementAndGet();
+        }
+
+        @Override
+        public void reject() {
+            rejections.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void rejectPolicyTurnsAwayJobsAtFullQueueTest() throws Exception {
+        //Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger rejections = new AtomicInteger();
+        ThreadPool pool = new ThreadPool(1, 2, ThreadPool.REJECT);
+        CountingJob running = new CountingJob(release, runs, rejections);
+        pool.addJob(running);
+        running.started.await();
+
+        //Act
+        assertTrue(pool.addJob(new CountingJob(release, runs, rejections)));
+        assertTrue(pool.addJob(new CountingJob(release, runs, rejections)));
+        boolean accepted = pool.addJob(new CountingJob(release, runs, rejections));
+        release.countDown();
+        pool.shutdown();
+
+        //Verify
+        assertFalse(accepted);
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, runs.get());
+        assertEquals(1, rejections.get());
+        assertEquals(1, pool.getJobsRejected());
+    }
+
+    @Test
+    public void shedOldestPolicyMakesRoomForNewJobsTest() throws Exception {
+        //Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger rejections = new AtomicInteger();
+        ThreadPool pool = new ThreadPool(1, 2, ThreadPool.SHED_OLDEST);
+        CountingJob running = new CountingJob(release, runs, rejections);
+        pool.addJob(running);
+        running.started.await();
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pool.addJob(new CountingJob(release, runs, rejections)));
+        }
+        release.countDown();
+        pool.shutdown();
+
+        //Verify
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, runs.get());
+        assertEquals(3, rejections.get());
+        assertEquals(3, pool.getJobsShed());
+    }
+
+    @Test
+    public void shutdownRunsQueuedJobsThenStopsThreadsTest() throws Exception {
+        //Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger rejections = new AtomicInteger();
+        ThreadPool pool = new ThreadPool(2, 16, ThreadPool.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            pool.addJob(new CountingJob(release, runs, rejections));
+        }
+
+        //Act
+        pool.shutdown();
+        boolean acceptedAfterShutdown = pool.addJob(new CountingJob(release, runs, rejections));
+        release.countDown();
+
+        //Verify
+        assertFalse(acceptedAfterShutdown);
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(10, runs.get());
+        assertEquals(1, rejections.get());
+        assertEquals(0, pool.getNumLivingThreads());
+        assertEquals(0, pool.getNumJobs());
+    }
+
+    @Test
+    public void blockPolicyRunsEveryJobFromManyProducersTest() throws Exception {
+        //Arrange
+        final ThreadPool pool = new ThreadPool(4, 8, ThreadPool.BLOCK);
+        final AtomicInteger runs = new AtomicInteger();
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        pool.addJob(new Runnable() {
+                            @Override
+                            public void run() {
+                                runs.incrementAndGet();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        //Act
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pool.shutdown();
+
+        //Verify
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(40000, runs.get());
+        assertEquals(40000, pool.getJobsCompleted());
+    }
+}